@@ -169,6 +169,8 @@ public final class Configuration {
             properties.setIgnoreVersion("");
             properties.setColumnNameWarning(true);
             properties.setPrereleasePreference(false);
+            properties.setBinaryDatabase(true);
+            properties.setUndoMemoryBudget(64);
 
             save();
         }
@@ -486,6 +488,38 @@ public final class Configuration {
         save();
     }
 
+    /**
+     * @return true if projects should also be saved with a binary database
+     */
+    public boolean getBinaryDatabase() {
+        return properties.getBinaryDatabase();
+    }
+
+    /**
+     * @param binary true if projects should also be saved with a binary
+     *               database
+     */
+    public void setBinaryDatabase(final boolean binary) {
+        properties.setBinaryDatabase(binary);
+        save();
+    }
+
+    /**
+     * @return the memory the undo history may hold before old edits are
+     * moved to disk or dropped, in megabytes
+     */
+    public int getUndoMemoryBudget() {
+        return properties.getUndoMemoryBudget();
+    }
+
+    /**
+     * @param megabytes the memory the undo history may hold, in megabytes
+     */
+    public void setUndoMemoryBudget(final int megabytes) {
+        properties.setUndoMemoryBudget(megabytes);
+        save();
+    }
+
     /**
      * @return the mixerInterfaceNormalCarriageColour
      */
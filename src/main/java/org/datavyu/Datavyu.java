@@ -739,7 +739,13 @@ public final class Datavyu extends SingleFrameApplication
                                 JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE,
                                 null, options, yes);
 
-                        if (selection == yesIndex) getView().save();
+                        // Stay open if the save did not make it to disk.
+                        if (selection == yesIndex) {
+                            getView().save();
+                            if (!getView().waitForSaves()) {
+                                return false;
+                            }
+                        }
 
                         // If the user cancels, break and return that it isnt safe to quit
                         if (selection == cancelIndex) {
@@ -805,7 +811,13 @@ public final class Datavyu extends SingleFrameApplication
                     JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE,
                     null, options, yes);
 
-            if (selection == yesIndex) getView().save();
+            // Stay open if the save did not make it to disk.
+            if (selection == yesIndex) {
+                getView().save();
+                if (!getView().waitForSaves()) {
+                    return false;
+                }
+            }
 
             // If the user cancels, break and return that it isnt safe to quit
             if (selection == cancelIndex) {
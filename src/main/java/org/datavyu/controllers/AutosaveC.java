@@ -17,6 +17,7 @@ package org.datavyu.controllers;
 import com.usermetrix.jclient.Logger;
 import com.usermetrix.jclient.UserMetrix;
 import org.apache.commons.io.FilenameUtils;
+import org.datavyu.Configuration;
 import org.datavyu.Datavyu;
 import org.datavyu.controllers.project.ProjectController;
 import org.datavyu.models.db.UserWarningException;
@@ -39,6 +40,12 @@ public class AutosaveC implements ActionListener {
     private static Timer timer;
     private static File f;
 
+    // The journal of the changes made since f was written.
+    private static AutosaveJournal journal;
+
+    // Is a checkpoint being written in the background?
+    private static boolean checkpointing;
+
     public static void setInterval(int interval) {
         if (interval == 0) {
             if (timer != null) {
@@ -66,44 +73,126 @@ public class AutosaveC implements ActionListener {
     public void actionPerformed(ActionEvent evt) {
         String baseName;
         String ext;
-        // save the project
+        ProjectController projController = Datavyu.getProjectController();
+
+        // The journal carries on once the checkpoint being written is done.
+        if (checkpointing) {
+            return;
+        }
+
+        // Only journal what changed since the last checkpoint, unless the
+        // journal has grown enough to be worth compacting.
+        if (f != null && journal != null && journal.isFor(projController.getDB())
+                && !journal.needsCheckpoint()) {
+            journal.append();
+            return;
+        }
+
+        // Take a snapshot of the project here, and write it on the
+        // background saver so that the spreadsheet stays responsive.
+        File checkpoint;
+        SaveJob job;
         try {
-            if (f != null) {
-                f.delete();
-            }
-            ProjectController projController = Datavyu.getProjectController();
-            SaveC saveController = new SaveC();
+            SaveC saveController = new SaveC(Configuration.getInstance().getBinaryDatabase());
             if (projController.isNewProject() || (projController.getProjectName() == null)) {
                 baseName = "~noname_";
                 ext = ".opf";
-                f = File.createTempFile(baseName, ext);
-                saveController.saveProject(f, projController.getProject(),
-                        projController.getDB(), false);
+                checkpoint = File.createTempFile(baseName, ext);
+                checkpoint.deleteOnExit();
+                job = saveController.prepareProject(checkpoint, projController.getProject(),
+                        projController.getDB());
             } else {
                 if ((projController.getLastSaveOption() instanceof SHAPAFilter)
                         || (projController.getLastSaveOption()
                         instanceof OPFFilter)) {
                     baseName = "~" + projController.getProjectName() + "_";
                     ext = ".opf";
-                    f = File.createTempFile(baseName, ext);
-                    saveController.saveProject(f, projController.getProject(),
-                            projController.getDB(), false);
+                    checkpoint = File.createTempFile(baseName, ext);
+                    checkpoint.deleteOnExit();
+                    job = saveController.prepareProject(checkpoint, projController.getProject(),
+                            projController.getDB());
                     // Save content just as a database.
                 } else {
                     String filename = "~" + projController.getDatabaseFileName();
                     baseName = FilenameUtils.getBaseName(filename) + "_";
                     ext = "." + FilenameUtils.getExtension(filename);
-                    f = File.createTempFile(baseName, ext);
-                    saveController.saveDatabase(f, projController.getDB(), false);
+                    checkpoint = File.createTempFile(baseName, ext);
+                    checkpoint.deleteOnExit();
+                    job = saveController.prepareDatabase(checkpoint, projController.getDB());
                 }
             }
         } catch (UserWarningException lee) {
             LOGGER.error("UserWarningException: Unable to autosave.", lee);
+            return;
         } catch (IOException ioe) {
             LOGGER.error("IOException: Unable to autosave.", ioe);
-        } finally {
-            f.deleteOnExit();
+            return;
+        }
+
+        // The new journal starts from the content of the snapshot, so that
+        // edits made while it is written are journaled afterwards.
+        checkpointing = true;
+        write(job, checkpoint, new AutosaveJournal(checkpoint, projController.getDB()));
+    }
+
+    /**
+     * Writes a checkpoint on the background saver, then switches to it and
+     * its journal once written. The previous checkpoint and journal are kept
+     * until then, so there is always a complete autosave on disk.
+     *
+     * @param job        The prepared save of the checkpoint.
+     * @param checkpoint The file the checkpoint is written to.
+     * @param next       The journal of the changes made after the snapshot.
+     */
+    private static void write(final SaveJob job,
+                              final File checkpoint,
+                              final AutosaveJournal next) {
+        SaveJob.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean written = false;
+                try {
+                    written = job.write(null);
+                } catch (UserWarningException uwe) {
+                    LOGGER.error("UserWarningException: Unable to autosave.", uwe);
+                }
+
+                final boolean completed = written;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        checkpointWritten(checkpoint, next, completed);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Called on the event dispatch thread once a checkpoint has been
+     * written.
+     *
+     * @param checkpoint The file the checkpoint was written to.
+     * @param next       The journal of the changes made after the snapshot.
+     * @param written    True if the checkpoint was written.
+     */
+    private static void checkpointWritten(final File checkpoint,
+                                          final AutosaveJournal next,
+                                          final boolean written) {
+        checkpointing = false;
+        if (!written) {
+            checkpoint.delete();
+            return;
+        }
+
+        if (f != null) {
+            f.delete();
+        }
+        if (journal != null) {
+            journal.delete();
         }
+        f = checkpoint;
+        journal = next;
     }
 
     private AutosaveC() {
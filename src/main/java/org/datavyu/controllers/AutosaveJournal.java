@@ -0,0 +1,432 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.usermetrix.jclient.Logger;
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.models.db.Datastore;
+import org.datavyu.models.db.UserWarningException;
+import org.datavyu.models.db.Variable;
+import org.datavyu.models.db.VariableSnapshot;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Append only journal of the changes made to a datastore since its last
+ * autosave checkpoint.
+ *
+ * Each autosave appends a record for every variable that changed since the
+ * previous one, so the cost of an autosave is proportional to what was edited
+ * rather than to the size of the project. The changed variables are snapshot
+ * on the calling thread, then serialised and written to disk by a background
+ * writer. Once the journal grows too large, AutosaveC writes a new checkpoint
+ * and starts a fresh journal.
+ *
+ * Every record is a header line holding the record type and payload length in
+ * bytes, followed by the payload and a new line:
+ *
+ * <pre>
+ * put    - a variable in the CSV database format, replacing any variable
+ *          of the same name.
+ * remove - the name of a variable that no longer exists.
+ * order  - the names of all the variables in order, one per line.
+ * </pre>
+ *
+ * A record cut short by a crash is ignored on replay.
+ */
+public final class AutosaveJournal {
+
+    /**
+     * The logger for this class.
+     */
+    private static Logger LOGGER = UserMetrix.getLogger(AutosaveJournal.class);
+
+    /**
+     * The encoding of variable names in remove and order records.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The number of appends after which a new checkpoint is written.
+     */
+    private static final int MAX_APPENDS = 20;
+
+    /**
+     * The journal size in bytes that always allows a new checkpoint.
+     */
+    private static final long MIN_CHECKPOINT_SIZE = 1024 * 1024;
+
+    /**
+     * Writes the journals to disk, shared so that the appends and deletes of
+     * successive journals happen in order.
+     */
+    private static final ExecutorService WRITER =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread t = new Thread(r, "Autosave journal writer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * The journal file.
+     */
+    private final File journalFile;
+
+    /**
+     * The datastore being journaled.
+     */
+    private final Datastore datastore;
+
+    /**
+     * The checkpoint this journal applies to.
+     */
+    private final File checkpoint;
+
+    /**
+     * The version of each variable, by name, as of the last record written.
+     */
+    private final Map<String, Long> versions = new HashMap<String, Long>();
+
+    /**
+     * The names of the variables in order, as of the last record written.
+     */
+    private List<String> order;
+
+    /**
+     * The number of bytes appended to the journal so far, updated by the
+     * writer.
+     */
+    private volatile long size = 0;
+
+    /**
+     * The number of appends that wrote records so far.
+     */
+    private int appends = 0;
+
+    /**
+     * @param checkpoint An autosave checkpoint.
+     * @return The journal file holding the changes made since checkpoint.
+     */
+    public static File getJournalFile(final File checkpoint) {
+        return new File(checkpoint.getPath() + ".journal");
+    }
+
+    /**
+     * Constructor. Starts an empty journal for a checkpoint holding the
+     * current content of a datastore, called when the checkpoint is prepared
+     * and before it is written. Must be called on the thread that modifies
+     * the datastore.
+     *
+     * @param checkpoint The checkpoint holding the current content of ds.
+     * @param ds         The datastore to journal.
+     */
+    AutosaveJournal(final File checkpoint, final Datastore ds) {
+        journalFile = getJournalFile(checkpoint);
+        journalFile.deleteOnExit();
+        datastore = ds;
+        this.checkpoint = checkpoint;
+
+        order = new ArrayList<String>();
+        for (Variable var : ds.getAllVariables()) {
+            versions.put(var.getName(), var.getVersion());
+            order.add(var.getName());
+        }
+    }
+
+    /**
+     * @param ds The datastore to check.
+     * @return True if this journal records the changes made to ds.
+     */
+    boolean isFor(final Datastore ds) {
+        return datastore == ds;
+    }
+
+    /**
+     * @return True if the journal has grown enough that a new checkpoint
+     * should be written instead of appending to it.
+     */
+    boolean needsCheckpoint() {
+        return appends >= MAX_APPENDS
+                || size > Math.max(MIN_CHECKPOINT_SIZE, checkpoint.length());
+    }
+
+    /**
+     * Appends a record for every change made to the datastore since the last
+     * append. Must be called on the thread that modifies the datastore, the
+     * changed variables are snapshot there and serialised and written to disk
+     * in the background.
+     */
+    void append() {
+        final List<VariableSnapshot> puts = new ArrayList<VariableSnapshot>();
+        final List<String> removes = new ArrayList<String>();
+
+        List<String> newOrder = new ArrayList<String>();
+        Set<String> names = new HashSet<String>();
+        for (Variable var : datastore.getAllVariables()) {
+            newOrder.add(var.getName());
+            names.add(var.getName());
+
+            Long journaled = versions.get(var.getName());
+            if (journaled == null || journaled != var.getVersion()) {
+                puts.add(VariableSnapshot.take(var));
+                versions.put(var.getName(), var.getVersion());
+            }
+        }
+
+        for (String name : new ArrayList<String>(versions.keySet())) {
+            if (!names.contains(name)) {
+                removes.add(name);
+                versions.remove(name);
+            }
+        }
+
+        // Nothing changed, and an empty append does not count towards the
+        // next checkpoint.
+        if (puts.isEmpty() && removes.isEmpty() && newOrder.equals(order)) {
+            return;
+        }
+
+        final List<String> orderRecord = newOrder;
+        order = newOrder;
+        appends++;
+
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] data = buildRecords(puts, removes, orderRecord);
+                    FileOutputStream fos = new FileOutputStream(journalFile, true);
+                    try {
+                        fos.write(data);
+                        fos.flush();
+                        fos.getFD().sync();
+                    } finally {
+                        fos.close();
+                    }
+                    size += data.length;
+                } catch (IOException e) {
+                    LOGGER.error("Unable to write autosave journal", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Serialises the records of a single append.
+     *
+     * @param puts    The snapshots of the variables that changed.
+     * @param removes The names of the variables that were removed.
+     * @param order   The names of all the variables in order.
+     * @return The records.
+     */
+    private static byte[] buildRecords(final List<VariableSnapshot> puts,
+                                       final List<String> removes,
+                                       final List<String> order) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        SaveDatabaseFileC saveDBC = new SaveDatabaseFileC();
+
+        for (VariableSnapshot var : puts) {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            PrintStream ps = new PrintStream(payload);
+            ps.println("#4");
+            saveDBC.saveVariableAsCSV(ps, var);
+            ps.flush();
+
+            writeRecord(records, "put", payload.toByteArray());
+        }
+
+        for (String name : removes) {
+            writeRecord(records, "remove", name.getBytes(UTF8));
+        }
+
+        StringBuilder payload = new StringBuilder();
+        for (String name : order) {
+            payload.append(name).append('\n');
+        }
+        writeRecord(records, "order", payload.toString().getBytes(UTF8));
+
+        return records.toByteArray();
+    }
+
+    /**
+     * Deletes the journal file once any pending writes to it have finished.
+     */
+    void delete() {
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                journalFile.delete();
+            }
+        });
+    }
+
+    /**
+     * Waits for the records appended so far to be written to disk.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void awaitWrites() throws InterruptedException {
+        try {
+            WRITER.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Writes a single record.
+     *
+     * @param out     The stream to write the record to.
+     * @param type    The type of the record.
+     * @param payload The payload of the record.
+     */
+    private static void writeRecord(final ByteArrayOutputStream out,
+                                    final String type,
+                                    final byte[] payload) {
+        byte[] header = (type + " " + payload.length + "\n").getBytes(UTF8);
+        out.write(header, 0, header.length);
+        out.write(payload, 0, payload.length);
+        out.write('\n');
+    }
+
+    /**
+     * Applies the records of a journal to the datastore loaded from its
+     * checkpoint.
+     *
+     * @param journal The journal file to replay.
+     * @param ds      The datastore loaded from the checkpoint.
+     * @throws IOException          If unable to read the journal.
+     * @throws UserWarningException If unable to add a journaled variable.
+     */
+    public static void replay(final File journal, final Datastore ds)
+            throws IOException, UserWarningException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+
+        try {
+            String header = readHeader(in);
+            while (header != null) {
+                int split = header.indexOf(' ');
+                if (split < 0) {
+                    throw new IOException("Malformed autosave journal record: " + header);
+                }
+                String type = header.substring(0, split);
+                byte[] payload = new byte[Integer.parseInt(header.substring(split + 1))];
+
+                try {
+                    in.readFully(payload);
+                    if (in.read() != '\n') {
+                        throw new EOFException();
+                    }
+                } catch (EOFException e) {
+                    LOGGER.error("Ignoring incomplete autosave journal record", e);
+                    return;
+                }
+
+                if ("put".equals(type)) {
+                    replayPut(payload, ds);
+                } else if ("remove".equals(type)) {
+                    Variable var = ds.getVariable(new String(payload, UTF8));
+                    if (var != null) {
+                        ds.removeVariable(var);
+                    }
+                } else if ("order".equals(type)) {
+                    int index = 0;
+                    for (String name : new String(payload, UTF8).split("\n")) {
+                        Variable var = ds.getVariable(name);
+                        if (var != null) {
+                            var.setOrderIndex(index);
+                            index++;
+                        }
+                    }
+                } else {
+                    throw new IOException("Unknown autosave journal record: " + type);
+                }
+
+                header = readHeader(in);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replaces a variable of the datastore with the one held by a put record.
+     *
+     * @param payload The payload of the put record.
+     * @param ds      The datastore to update.
+     * @throws IOException          If unable to read the variable.
+     * @throws UserWarningException If unable to add the variable.
+     */
+    private static void replayPut(final byte[] payload, final Datastore ds)
+            throws IOException, UserWarningException {
+        Datastore record = new OpenDatabaseFileC().openAsCSV(new ByteArrayInputStream(payload));
+        if (record == null) {
+            throw new IOException("Unable to read journaled variable.");
+        }
+
+        for (Variable var : record.getAllVariables()) {
+            Variable old = ds.getVariable(var.getName());
+            int orderIndex = ds.getAllVariables().size();
+            if (old != null) {
+                orderIndex = old.getOrderIndex();
+                ds.removeVariable(old);
+            }
+
+            var.setOrderIndex(orderIndex);
+            ds.addVariable(var);
+        }
+    }
+
+    /**
+     * Reads the header line of the next record.
+     *
+     * @param in The journal.
+     * @return The header, null at the end of the journal or if the header was
+     * cut short.
+     * @throws IOException If unable to read the journal.
+     */
+    private static String readHeader(final DataInputStream in) throws IOException {
+        StringBuilder header = new StringBuilder();
+
+        int c = in.read();
+        while (c != '\n') {
+            if (c == -1) {
+                return null;
+            }
+            header.append((char) c);
+            c = in.read();
+        }
+
+        return header.toString();
+    }
+}
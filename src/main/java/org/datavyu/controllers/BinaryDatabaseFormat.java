@@ -0,0 +1,151 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Constants and primitives of the binary database, stored in the "db.bin"
+ * entry of a project archive next to the CSV "db" entry.
+ *
+ * The database is stored column by column:
+ *
+ * <pre>
+ * int     magic number, "DVDB"
+ * varint  version
+ * varint  string count, then for each string its UTF-8 length and bytes
+ * varint  variable count, then for each variable in order:
+ *   varint  name (string id)
+ *   varint  type (string id of the Argument.Type name)
+ *   byte    1 if hidden, 0 otherwise
+ *   varint  argument count, then for each argument its name and type ids
+ *   varint  cell count
+ *   varint  onset of each cell, zigzag delta from the previous onset
+ *   varint  offset of each cell, zigzag delta from its onset
+ *   for each argument:
+ *     varint  dictionary size, then the string id of each entry
+ *     varint  code of each cell, 0 when empty, i + 1 for dictionary entry i
+ * </pre>
+ *
+ * Text and nominal variables have a single argument, matrix variables have
+ * one per formal argument. Cells are stored in temporal order.
+ */
+final class BinaryDatabaseFormat {
+
+    /**
+     * The magic number at the start of the binary database, "DVDB".
+     */
+    static final int MAGIC = 0x44564442;
+
+    /**
+     * The version of the binary database written by this build.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The encoding of the string table.
+     */
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Utility class.
+     */
+    private BinaryDatabaseFormat() {
+    }
+
+    /**
+     * Writes an unsigned variable length integer, seven bits per byte.
+     *
+     * @param out   The output to write to.
+     * @param value The value to write, treated as unsigned.
+     * @throws IOException If unable to write to the output.
+     */
+    static void writeVarLong(final DataOutput out, final long value)
+            throws IOException {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    /**
+     * Reads an unsigned variable length integer.
+     *
+     * @param in The input to read from.
+     * @return The value read.
+     * @throws IOException If unable to read from the input, or the value is
+     *                     malformed.
+     */
+    static long readVarLong(final DataInput in) throws IOException {
+        long result = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+
+        throw new IOException("Malformed variable length integer.");
+    }
+
+    /**
+     * Reads an unsigned variable length integer that must fit in an int.
+     *
+     * @param in The input to read from.
+     * @return The value read.
+     * @throws IOException If unable to read from the input, or the value is
+     *                     out of range.
+     */
+    static int readVarInt(final DataInput in) throws IOException {
+        long result = readVarLong(in);
+        if (result < 0 || result > Integer.MAX_VALUE) {
+            throw new IOException("Integer out of range: " + result);
+        }
+
+        return (int) result;
+    }
+
+    /**
+     * Writes a signed value as a zigzag encoded variable length integer, so
+     * that small negative values stay small.
+     *
+     * @param out   The output to write to.
+     * @param value The value to write.
+     * @throws IOException If unable to write to the output.
+     */
+    static void writeSignedVarLong(final DataOutput out, final long value)
+            throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Reads a zigzag encoded variable length integer.
+     *
+     * @param in The input to read from.
+     * @return The value read.
+     * @throws IOException If unable to read from the input.
+     */
+    static long readSignedVarLong(final DataInput in) throws IOException {
+        long v = readVarLong(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
@@ -67,8 +67,6 @@ public final class CreateNewCellC {
         LOGGER.event("create cell in selected column");
 
         // perform the operation
-        List<Cell> cells = v.getCellsTemporally();
-
         long newOnset = 0;
         newOnset = Datavyu.getDataController().getCurrentTime();
 
@@ -137,6 +135,9 @@ public final class CreateNewCellC {
 
         LOGGER.event("create adjacent cells:" + direction);
 
+        // The columns in order, creating cells does not change them.
+        List<Variable> columns = model.getAllVariables();
+
         // Get the column that is the parent of the source cell.
         for (Cell sourceCell : sourceCells) {
 
@@ -144,15 +145,15 @@ public final class CreateNewCellC {
             //long sourceColumn = sourceCell.getItsColID();
             //Vector<Long> columnOrder = modelAsLegacyDB().getColOrderVector();
 
-            for (int i = 0; i < model.getAllVariables().size(); i++) {
+            for (int i = 0; i < columns.size(); i++) {
 
                 // Found the source column in the order column.
-                if (model.getAllVariables().get(i).equals(sourceColumn)) {
+                if (columns.get(i).equals(sourceColumn)) {
                     i = i + direction.getModifier();
 
                     // Only create the cell if a valid column exists.
-                    if ((i >= 0) && (i < model.getAllVariables().size())) {
-                        Variable var = model.getAllVariables().get(i);
+                    if ((i >= 0) && (i < columns.size())) {
+                        Variable var = columns.get(i);
                         newCell = var.createCell();
                         newCell.setOnset(sourceCell.getOnset());
                         newCell.setOffset(sourceCell.getOffset());
@@ -0,0 +1,419 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Single pass scanner over the CSV text of a Datavyu database, as written by
+ * SaveDatabaseFileC.
+ *
+ * The scanner keeps the input in a reusable char buffer and works one line at
+ * a time. Timestamps are parsed straight from the buffer into milliseconds and
+ * fields are unescaped into a caller supplied StringBuilder, so reading a cell
+ * only allocates the Strings of its values. The escape rules are those of the
+ * #2 - #4 formats: a backslash makes the next character literal, and a
+ * backslash at the end of a line is an escaped new line that continues the
+ * field on the next line.
+ */
+final class DatabaseFileScanner {
+
+    /**
+     * The initial size of the buffer, grown when a line does not fit.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The source of the text, null when scanning a fixed buffer.
+     */
+    private final Reader in;
+
+    /**
+     * The buffer holding the text being scanned.
+     */
+    private char[] buf;
+
+    /**
+     * The number of valid characters in buf.
+     */
+    private int fill;
+
+    /**
+     * The start of the current line.
+     */
+    private int lineStart;
+
+    /**
+     * The end of the current line, excluding the line terminator.
+     */
+    private int lineEnd;
+
+    /**
+     * The start of the line after the current line.
+     */
+    private int next;
+
+    /**
+     * The scan position within the current line.
+     */
+    private int pos;
+
+    /**
+     * Has the end of the input been read into the buffer?
+     */
+    private boolean eof;
+
+    /**
+     * Constructor.
+     *
+     * @param input The reader to scan, the caller is responsible for closing
+     *              it.
+     */
+    DatabaseFileScanner(final Reader input) {
+        in = input;
+        buf = new char[BUFFER_SIZE];
+        fill = 0;
+        eof = false;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param text  The text to scan.
+     * @param start The index of the first character to scan.
+     * @param end   The index after the last character to scan.
+     */
+    DatabaseFileScanner(final char[] text, final int start, final int end) {
+        in = null;
+        buf = text;
+        fill = end;
+        next = start;
+        lineStart = start;
+        lineEnd = start;
+        pos = start;
+        eof = true;
+    }
+
+    /**
+     * Advances to the next line of the input.
+     *
+     * @return True if there is a next line, false at the end of the input.
+     * @throws IOException If unable to read from the input.
+     */
+    boolean nextLine() throws IOException {
+        int i = next;
+
+        while (true) {
+            while (i < fill) {
+                char c = buf[i];
+                if (c == '\n' || c == '\r') {
+                    break;
+                }
+                i++;
+            }
+
+            if (i < fill) {
+                // A '\r' at the end of the buffer might be the first half of
+                // a "\r\n" terminator.
+                if (buf[i] == '\r' && i + 1 == fill && !eof) {
+                    i = refill(i);
+                    continue;
+                }
+
+                lineStart = next;
+                lineEnd = i;
+                next = i + 1;
+                if (buf[i] == '\r' && next < fill && buf[next] == '\n') {
+                    next++;
+                }
+                pos = lineStart;
+                return true;
+            }
+
+            if (eof) {
+                if (next == fill) {
+                    lineStart = fill;
+                    lineEnd = fill;
+                    pos = fill;
+                    return false;
+                }
+
+                lineStart = next;
+                lineEnd = fill;
+                next = fill;
+                pos = lineStart;
+                return true;
+            }
+
+            i = refill(i);
+        }
+    }
+
+    /**
+     * Moves the unread part of the buffer to the front and reads more input
+     * after it, growing the buffer if a single line fills it.
+     *
+     * @param searchPos The position the line terminator search had reached.
+     * @return The search position adjusted to the compacted buffer.
+     * @throws IOException If unable to read from the input.
+     */
+    private int refill(final int searchPos) throws IOException {
+        int shift = next;
+        int remaining = fill - shift;
+
+        if (remaining == buf.length) {
+            char[] larger = new char[buf.length * 2];
+            System.arraycopy(buf, shift, larger, 0, remaining);
+            buf = larger;
+        } else if (shift > 0) {
+            System.arraycopy(buf, shift, buf, 0, remaining);
+        }
+
+        fill = remaining;
+        next = 0;
+        lineStart -= shift;
+        lineEnd -= shift;
+        pos -= shift;
+
+        int read = in.read(buf, fill, buf.length - fill);
+        if (read < 0) {
+            eof = true;
+        } else {
+            fill += read;
+        }
+
+        return searchPos - shift;
+    }
+
+    /**
+     * @return The current line as a String.
+     */
+    String getLine() {
+        return new String(buf, lineStart, lineEnd - lineStart);
+    }
+
+    /**
+     * Replaces the current line with the supplied text, used to re-read a
+     * repaired line.
+     *
+     * @param text The new content of the current line.
+     */
+    void replaceLine(final String text) {
+        int remaining = fill - next;
+        char[] replaced = new char[Math.max(buf.length, text.length() + 1 + remaining)];
+        text.getChars(0, text.length(), replaced, 0);
+        replaced[text.length()] = '\n';
+        System.arraycopy(buf, next, replaced, text.length() + 1, remaining);
+
+        buf = replaced;
+        fill = text.length() + 1 + remaining;
+        lineStart = 0;
+        lineEnd = text.length();
+        next = lineEnd + 1;
+        pos = 0;
+    }
+
+    /**
+     * @return True if the current line starts with a digit.
+     */
+    boolean startsWithDigit() {
+        if (lineEnd == lineStart) {
+            throw new StringIndexOutOfBoundsException("Empty line.");
+        }
+
+        return Character.isDigit(buf[lineStart]);
+    }
+
+    /**
+     * @return True if the current line starts with a timestamp, i.e. two
+     * digits followed by a colon.
+     */
+    boolean isCellLine() {
+        return startsWithDigit()
+                && (lineEnd - lineStart > 2)
+                && Character.isDigit(buf[lineStart + 1])
+                && (buf[lineStart + 2] == ':');
+    }
+
+    /**
+     * @return True if the current line looks like the declaration of a
+     * variable, i.e. it does not start with a digit and holds a single opening
+     * parenthesis. Lines failing the parenthesis test are treated as corrupt
+     * cells by OpenDatabaseFileC.
+     */
+    boolean isVariableLine() {
+        if (lineEnd == lineStart || Character.isDigit(buf[lineStart])) {
+            return false;
+        }
+
+        int parens = 0;
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (buf[i] == '(') {
+                parens++;
+            }
+        }
+
+        return parens == 1;
+    }
+
+    /**
+     * @return True if the current line ends with an escaped new line, i.e. an
+     * odd number of trailing backslashes, so that its last field continues on
+     * the next line.
+     */
+    boolean endsWithEscape() {
+        int i = lineEnd;
+        while (i > lineStart && buf[i - 1] == '\\') {
+            i--;
+        }
+
+        return ((lineEnd - i) & 1) == 1;
+    }
+
+    /**
+     * Appends the current line to a buffer, ending it with a new line.
+     *
+     * @param dest The buffer to append the line to.
+     */
+    void appendLine(final StringBuilder dest) {
+        dest.append(buf, lineStart, lineEnd - lineStart).append('\n');
+    }
+
+    /**
+     * @return True if the scan position has reached the end of the current
+     * line.
+     */
+    boolean atLineEnd() {
+        return pos >= lineEnd;
+    }
+
+    /**
+     * @return The character at the scan position, without consuming it.
+     */
+    char peek() {
+        return buf[pos];
+    }
+
+    /**
+     * Parses a timestamp in the "HH:MM:SS:mmm" format at the scan position,
+     * consuming the comma that follows it if there is one.
+     *
+     * @return The timestamp in milliseconds.
+     * @throws NumberFormatException If the text is not a valid timestamp.
+     */
+    long readTimestamp() {
+        long result = 0;
+        long field = 0;
+        int fields = 0;
+        int digits = 0;
+
+        while (pos < lineEnd) {
+            char c = buf[pos];
+            if (c == ',') {
+                pos++;
+                break;
+            }
+            pos++;
+
+            if (c >= '0' && c <= '9') {
+                field = (field * 10) + (c - '0');
+                digits++;
+            } else if (c == ':' && digits > 0 && fields < 3) {
+                result = (result + field) * (fields < 2 ? 60 : 1000);
+                field = 0;
+                digits = 0;
+                fields++;
+            } else {
+                throw new NumberFormatException("Invalid timestamp character '" + c + "'");
+            }
+        }
+
+        if (fields != 3 || digits == 0) {
+            throw new NumberFormatException("Invalid timestamp, expected HH:MM:SS:mmm");
+        }
+
+        return result + field;
+    }
+
+    /**
+     * Reads and unescapes the characters up to the next unescaped comma or the
+     * end of the field, consuming the comma.
+     *
+     * @param dest The buffer to append the field to.
+     * @return True if the field ended with a comma, i.e. more fields follow on
+     * the line, false if the field ended the line.
+     * @throws IOException If unable to read an escaped new line.
+     */
+    boolean readField(final StringBuilder dest) throws IOException {
+        return read(dest, true);
+    }
+
+    /**
+     * Reads and unescapes the remainder of the line, commas included.
+     *
+     * @param dest The buffer to append the remainder of the line to.
+     * @throws IOException If unable to read an escaped new line.
+     */
+    void readRemainder(final StringBuilder dest) throws IOException {
+        read(dest, false);
+    }
+
+    /**
+     * Reads and unescapes characters from the scan position.
+     *
+     * @param dest        The buffer to append the characters to.
+     * @param stopAtComma Should an unescaped comma end the read?
+     * @return True if the read ended at an unescaped comma.
+     * @throws IOException If unable to read an escaped new line.
+     */
+    private boolean read(final StringBuilder dest, final boolean stopAtComma)
+            throws IOException {
+        while (true) {
+            int runStart = pos;
+
+            while (pos < lineEnd) {
+                char c = buf[pos];
+                if (c == '\\' || (c == ',' && stopAtComma)) {
+                    break;
+                }
+                pos++;
+            }
+            dest.append(buf, runStart, pos - runStart);
+
+            if (pos >= lineEnd) {
+                return false;
+            }
+
+            if (buf[pos] == ',') {
+                pos++;
+                return true;
+            }
+
+            // Escape character.
+            pos++;
+            if (pos < lineEnd) {
+                dest.append(buf[pos]);
+                pos++;
+            } else {
+                // Escaped new line - the field continues on the next line.
+                dest.append('\n');
+                if (!nextLine()) {
+                    return false;
+                }
+            }
+        }
+    }
+}
@@ -17,6 +17,11 @@ package org.datavyu.controllers;
 import com.usermetrix.jclient.Logger;
 import com.usermetrix.jclient.UserMetrix;
 import org.datavyu.Datavyu;
+import org.datavyu.controllers.export.CellTable;
+import org.datavyu.controllers.export.DelimitedExporter;
+import org.datavyu.controllers.export.ExportTable;
+import org.datavyu.controllers.export.Exporter;
+import org.datavyu.controllers.export.FrameTable;
 import org.datavyu.models.db.*;
 import org.datavyu.util.StringUtils;
 import org.jdesktop.application.Application;
@@ -26,9 +31,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 
 
 /**
@@ -42,255 +44,104 @@ public final class ExportDatabaseFileC {
     private static Logger LOGGER = UserMetrix.getLogger(ExportDatabaseFileC.class);
 
     /**
-     * Saves the database to the specified destination in a CSV format.
+     * The frame rate used to export by frame when no other rate is given.
+     */
+    public static final float DEFAULT_FRAME_RATE = 30.0f;
+
+    /**
+     * Exports a table laid out from the database to the specified
+     * destination.
      *
-     * @param outFile The path of the file to use when writing to disk.
-     * @param ds      The datastore to save as a CSV file.
-     * @throws UserWarningException When unable to save the database as a CSV to
+     * @param outFile  The path of the file to use when writing to disk.
+     * @param table    The table to export.
+     * @param exporter The format to export the table in.
+     * @throws UserWarningException When unable to export the database to
      *                              disk (usually because of permissions errors).
      */
-    public void exportByFrame(final String outFile, final Datastore ds)
+    public void export(final String outFile,
+                       final ExportTable table,
+                       final Exporter exporter)
             throws UserWarningException {
+        LOGGER.event("export " + table.getClass().getSimpleName()
+                + " as " + exporter.getExtension());
 
         try {
             FileOutputStream fos = new FileOutputStream(outFile);
-            PrintStream ps = new PrintStream(fos);
-
-            List<Variable> variables = ds.getAllVariables();
-            Collections.sort(variables, new org.datavyu.util.VariableSort());
-
-            ArrayList<List<Cell>> cellCache = new ArrayList<List<Cell>>();
-            int[] currentIndex = new int[variables.size()];
-
-            // Get all of the cells from the DB and store them locally
-            for (Variable v : variables) {
-                cellCache.add(v.getCellsTemporally());
-            }
-
-            // Now obtain the first and last time point by sweeping over the cells
-            long first_time = Long.MAX_VALUE;
-            long last_time = 0;
-
-            for (int i = 0; i < variables.size(); i++) {
-                List<Cell> cells = cellCache.get(i);
-                if (cells.isEmpty()) {
-                    continue;
-                }
-                if (cells.get(0).getOnset() < first_time) {
-                    first_time = cells.get(0).getOnset();
-                }
-                if (cells.get(0).getOffset() < first_time) {
-                    first_time = cells.get(0).getOffset();
-                }
-
-                if (cells.get(cells.size() - 1).getOnset() > last_time) {
-                    last_time = cells.get(cells.size() - 1).getOnset();
-                }
-                if (cells.get(cells.size() - 1).getOffset() > last_time) {
-                    last_time = cells.get(cells.size() - 1).getOffset();
-                }
-            }
-
-            // Now that we have the first and last time, we loop over it using
-            // an assumed 30fps framerate. TODO: Make this support other FRs
-            double framerate = 30.0;
-            long current_time = first_time;
-
-            // Print header
-            String header = "framenum,time,";
-            for (Variable v : variables) {
-
-                header += v.getName() + ".ordinal";
-                header += "," + v.getName() + ".onset";
-                header += "," + v.getName() + ".offset";
-
-                // Test if the variable is a matrix. If it is, then
-                // we have to print out all of its arguments.
-                if (v.getRootNode().type == Argument.Type.MATRIX) {
-                    for (Argument a : v.getRootNode().childArguments) {
-                        header += "," + v.getName() + "." + a.name;
-                    }
-                } else {
-                    header += "," + v.getName() + ".value";
-                }
+            try {
+                exporter.export(table, fos);
+            } finally {
+                fos.close();
             }
-            header = header.trim();
-
-            // Write header
-            ps.println(header);
-
-            int framenum = 1;
-            while (current_time <= last_time) {
-                // Update the currentIndex list
-                for (int i = 0; i < variables.size(); i++) {
-                    Cell c = cellCache.get(i).get(currentIndex[i]);
-                    if (current_time > c.getOffset()) {
-                        for (int j = currentIndex[i]; j < cellCache.get(i).size(); j++) {
-                            if (current_time <= c.getOnset()) {
-                                currentIndex[i] = j;
-                            }
-                        }
-                    }
-                }
-
-
-                // Now print each frame as we loop through it
-                String row = Integer.toString(framenum) + "," +
-                        Long.toString(current_time) + ",";
-                for (int i = 0; i < variables.size(); i++) {
-                    Cell cell = cellCache.get(i).get(currentIndex[i]);
-
-                    if (cell.getOnset() >= current_time && cell.getOffset() <= current_time) {
-
-                        Value value = cell.getValue();
-
-                        // Print ordinal, onset, offset
-                        row = Integer.toString(i) + "," +
-                                Long.toString(cell.getOnset()) + "," +
-                                Long.toString(cell.getOffset());
-
-
-                        if (value instanceof MatrixValue) {
-                            // Then this is a matrix value, get the sub arguments
-                            MatrixValue mv = (MatrixValue) value;
-                            for (Value v : mv.getArguments()) {
-                                // Loop over each value and print it with a comma
-                                // seperator
-                                row += "," + v.toString();
-                            }
-                        } else {
-                            // Otherwise just print the single argument
-                            row += "," + cell.getValue().toString();
-                        }
-                    } else {
-                        // Figure out what to print if we don't have a cell here
-                        Value value = cell.getValue();
-
-                        // Print ordinal, onset, offset
-                        row += ",,";
-
-
-                        if (value instanceof MatrixValue) {
-                            // Then this is a matrix value, get the sub arguments
-                            MatrixValue mv = (MatrixValue) value;
-                            for (Value v : mv.getArguments()) {
-                                // Loop over each value and print it with a comma
-                                // seperator
-                                row += ",";
-                            }
-                        } else {
-                            // Otherwise just print the single argument
-                            row += ",";
-                        }
-                    }
-                }
-                ps.println(row);
-                current_time += framenum * framerate;
-                ++framenum;
-            }
-
-            fos.close();
         } catch (IOException ie) {
-            ie.printStackTrace();
+            LOGGER.error("Unable to export " + outFile, ie);
             ResourceMap rMap = Application.getInstance(Datavyu.class)
                     .getContext().getResourceMap(Datavyu.class);
             throw new UserWarningException(rMap.getString("UnableToSave.message", outFile), ie);
         }
     }
 
-    public void exportAsCells(final String outFile, final Datastore ds)
+    /**
+     * Exports the database to the specified destination as a CSV file with a
+     * row per frame, at the default frame rate.
+     *
+     * @param outFile The path of the file to use when writing to disk.
+     * @param ds      The datastore to export.
+     * @throws UserWarningException When unable to save the database as a CSV to
+     *                              disk (usually because of permissions errors).
+     */
+    public void exportByFrame(final String outFile, final Datastore ds)
             throws UserWarningException {
-        try {
-            FileOutputStream outStream = new FileOutputStream(outFile);
-            PrintStream ps = new PrintStream(outStream);
-
-            // Get the variables, sort them, and cache the cells
-            List<Variable> variables = ds.getAllVariables();
-            Collections.sort(variables, new org.datavyu.util.VariableSort());
-
-            ArrayList<List<Cell>> cellCache = new ArrayList<List<Cell>>();
-            int[] currentIndex = new int[variables.size()];
-
-            int max_length = 0;
-            // Get all of the cells from the DB and store them locally
-            for (Variable v : variables) {
-                cellCache.add(v.getCellsTemporally());
-                if (v.getCells().size() > max_length) {
-                    max_length = v.getCells().size();
-                }
-            }
-
-            // Print header
-            String header = "";
-
-            List<Integer> arglengths = new ArrayList<Integer>();
-            for (Variable v : variables) {
-
-                header += v.getName() + ".ordinal";
-                header += "," + v.getName() + ".onset";
-                header += "," + v.getName() + ".offset,";
-
-                // Test if the variable is a matrix. If it is, then
-                // we have to print out all of its arguments.
-                if (v.getRootNode().type == Argument.Type.MATRIX) {
-                    for (Argument a : v.getRootNode().childArguments) {
-                        header += v.getName() + "." + a.name + ",";
-                    }
-                    arglengths.add(v.getRootNode().childArguments.size() + 3);
-                } else {
-                    header += v.getName() + ".value,";
-                    arglengths.add(4);
-                }
-            }
-            header = header.trim();
-
-            // Write header
-            ps.println(header);
-
-            // Now get the column that has the most cells, we are going to use
-            // that number as the number of iterations to loop over everything
-            // printing blanks if that column does not have a cell there
-            StringBuilder row;
-            for (int i = 0; i < max_length; i++) {
-                row = new StringBuilder();
-                for (int j = 0; j < variables.size(); j++) {
-                    Variable v = variables.get(j);
-                    if (cellCache.get(j).size() > i) {
-                        // Print the cell
-                        Cell c = cellCache.get(j).get(i);
-                        row.append(i);
-                        row.append(",");
-                        row.append(c.getOnset());
-                        row.append(",");
-                        row.append(c.getOffset());
-                        row.append(",");
-                        if (v.getRootNode().type == Argument.Type.MATRIX) {
-                            for (int k = 0; k < v.getRootNode().childArguments.size(); k++) {
-                                row.append(c.getMatrixValue(k).toString());
-                                row.append(",");
-                            }
-                        }
-                    } else {
-                        // Print a placeholder: we are out of cells
-                        for (int k = 0; k < arglengths.get(j); k++) {
-                            row.append(",");
-                        }
-                    }
+        exportByFrame(outFile, ds, DEFAULT_FRAME_RATE);
+    }
 
-                }
-                ps.println(row);
-            }
-            ps.flush();
-            ps.close();
-            outStream.flush();
-            outStream.close();
-        } catch (IOException ie) {
-            ie.printStackTrace();
-            ResourceMap rMap = Application.getInstance(Datavyu.class).getContext().getResourceMap(Datavyu.class);
-            throw new UserWarningException(rMap.getString("UnableToSave.message", outFile), ie);
-        }
+    /**
+     * Exports the database to the specified destination as a CSV file with a
+     * row per frame.
+     *
+     * @param outFile   The path of the file to use when writing to disk.
+     * @param ds        The datastore to export.
+     * @param framerate The number of frames per second to export.
+     * @throws UserWarningException When unable to save the database as a CSV to
+     *                              disk (usually because of permissions errors).
+     * @see FrameTable
+     */
+    public void exportByFrame(final String outFile,
+                              final Datastore ds,
+                              final float framerate)
+            throws UserWarningException {
+        export(outFile, new FrameTable(ds, framerate), DelimitedExporter.CSV);
+    }
 
+    /**
+     * Exports the database to the specified stream as CSV with a row per
+     * frame.
+     *
+     * @param out       The stream to export to.
+     * @param ds        The datastore to export.
+     * @param framerate The number of frames per second to export.
+     * @throws IOException If unable to write to out.
+     * @see FrameTable
+     */
+    public void exportByFrame(final OutputStream out,
+                              final Datastore ds,
+                              final float framerate)
+            throws IOException {
+        DelimitedExporter.CSV.export(new FrameTable(ds, framerate), out);
+    }
 
+    /**
+     * Exports the database to the specified destination as a CSV file with a
+     * row per ordinal, holding the cells of each variable side by side.
+     *
+     * @param outFile The path of the file to use when writing to disk.
+     * @param ds      The datastore to export.
+     * @throws UserWarningException When unable to save the database as a CSV to
+     *                              disk (usually because of permissions errors).
+     * @see CellTable
+     */
+    public void exportAsCells(final String outFile, final Datastore ds)
+            throws UserWarningException {
+        export(outFile, new CellTable(ds), DelimitedExporter.CSV);
     }
 
     /**
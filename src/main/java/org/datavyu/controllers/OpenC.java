@@ -128,7 +128,18 @@ public final class OpenC {
             }
 
             OpenDatabaseFileC odc = new OpenDatabaseFileC();
-            database = odc.openAsCSV(zf.getInputStream(zDb));
+
+            // Prefer the binary database when there is one, falling back to
+            // the CSV database (with a fresh controller, as a failed read may
+            // have counted some variables) if it is missing or unreadable.
+            database = null;
+            ZipEntry zBin = zf.getEntry("db.bin");
+            if (zBin != null) {
+                database = odc.openAsBinary(zf.getInputStream(zBin));
+            }
+            if (database == null) {
+                database = new OpenDatabaseFileC().openAsCSV(zf.getInputStream(zDb));
+            }
 
             // BugzID:1806
             for (ViewerSetting vs : project.getViewerSettings()) {
@@ -23,6 +23,12 @@ import javax.swing.*;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import static java.lang.Math.min;
 import org.datavyu.Configuration;
@@ -32,18 +38,6 @@ import org.datavyu.Configuration;
  */
 public final class OpenDatabaseFileC {
 
-    /**
-     * The index of the ONSET timestamp in the CSV line.
-     */
-    private static final int DATA_ONSET = 0;
-    /**
-     * The index of the OFFSET timestamp in the CSV line.
-     */
-    private static final int DATA_OFFSET = 1;
-    /**
-     * The start of the data arguments.
-     */
-    private static final int DATA_INDEX = 2;
     /**
      * Value to put into values we cannot read in the event of an error
      */
@@ -55,6 +49,16 @@ public final class OpenDatabaseFileC {
 
     private int numVarsRead = 0;
 
+    /**
+     * Buffer reused for unescaping the fields of each cell.
+     */
+    private final StringBuilder fieldBuffer = new StringBuilder();
+
+    /**
+     * The number of cells that could not be read.
+     */
+    private int corruptCells = 0;
+
     /**
      * The logger for this class.
      */
@@ -129,63 +133,111 @@ public final class OpenDatabaseFileC {
      * spreadsheet) with data. The caller is responsible for managing the
      * stream.
      *
+     * The text is split into the blocks declaring each variable as it is
+     * read. The blocks are independent of one another, and each is decoded
+     * concurrently as soon as it is complete. The decoded variables are then
+     * added to the datastore in file order.
+     *
      * @param inStream The stream to deserialized when populating the database.
      * @return populated database on sucess, null otherwise.
      */
     public Datastore openAsCSV(final InputStream inStream) {
+        return openAsCSV(inStream, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parses a CSV input stream, decoding its variables with the given number
+     * of threads.
+     *
+     * @param inStream The stream to deserialized when populating the database.
+     * @param threads  The number of threads decoding variables, the blocks
+     *                 are decoded one after another on the calling thread if
+     *                 this is one or less.
+     * @return populated database on sucess, null otherwise.
+     */
+    Datastore openAsCSV(final InputStream inStream, final int threads) {
+        ExecutorService decoders = null;
+
         try {
             LOGGER.event("open csv database from stream");
 
             Datastore db = DatastoreFactory.newDatastore();
             db.setTitleNotifier(Datavyu.getApplication());
             InputStreamReader isr = new InputStreamReader(inStream);
-            BufferedReader csvFile = new BufferedReader(isr);
+            DatabaseFileScanner csvFile = new DatabaseFileScanner(isr);
 
             // Read each line of the CSV file.
-            String line = csvFile.readLine();
+            String line = csvFile.nextLine() ? csvFile.getLine() : null;
+            String version;
+            boolean more;
 
             // If we have a version identifier parse the file using the schema
             // that matches that identifier.
             if ("#4".equalsIgnoreCase(line)) {
 
                 //Version 4 includes a comment for columns.
-                line = csvFile.readLine();
-                while (line != null) {
-                    line = parseVariable(csvFile, line, db, "#4");
-                }
-                if(!db.getExemptionVariables().isEmpty())
-                {
-                    System.out.println("WE HAVE EXEMPTION VARIABLES");
-                    SwingUtilities.invokeLater(new NameWarning(db.getExemptionVariables()));
-                }
+                version = "#4";
+                more = csvFile.nextLine();
             } else if ("#3".equalsIgnoreCase(line)) {
 
                 //Version 3 includes column visible status after the column type
-                line = csvFile.readLine();
-                while (line != null) {
-                    line = parseVariable(csvFile, line, db, "#3");
-                }
+                version = "#3";
+                more = csvFile.nextLine();
             } else if ("#2".equalsIgnoreCase(line)) {
 
-                line = csvFile.readLine();
-                while (line != null) {
-                    line = parseVariable(csvFile, line, db);
-                }
-
+                version = "#2";
+                more = csvFile.nextLine();
             } else {
 
                 // Use the original schema to load the file - just variables,
                 // and no escape characters.
-                while (line != null) {
-                    line = parseVariable(csvFile, line, db);
-                }
+                version = "#2";
+                more = (line != null);
             }
-            
-            
 
-            csvFile.close();
+            if (threads > 1) {
+                decoders = Executors.newFixedThreadPool(threads);
+            }
+            List<VariableBlockDecoder> blocks = splitVariableBlocks(csvFile, more, version, decoders);
             isr.close();
 
+            // Populate the new datastore without notifying anyone of every
+            // single variable, listeners get one event per variable at the end.
+            int corrupt = 0;
+            db.beginBulkUpdate();
+            try {
+                for (VariableBlockDecoder decoder : blocks) {
+                    Datastore block = decoder.getDecoded();
+                    corrupt += decoder.getCorruptCells();
+
+                    for (Variable var : block.getAllVariables()) {
+                        var.setOrderIndex(numVarsRead);
+                        numVarsRead++;
+                        db.addVariable(var);
+                    }
+
+                    for (String name : block.getExemptionVariables().split("\n")) {
+                        if (name.length() > 0) {
+                            db.addExemptionVariable(name);
+                        }
+                    }
+                }
+            } finally {
+                db.endBulkUpdate();
+            }
+
+            // The blocks are decoded off the event dispatch thread, so their
+            // corrupt cells are reported together once they are all done.
+            if (corrupt > 0) {
+                SwingUtilities.invokeLater(new CorruptCellWarning(corrupt));
+            }
+
+            if ("#4".equals(version) && !db.getExemptionVariables().isEmpty())
+            {
+                System.out.println("WE HAVE EXEMPTION VARIABLES");
+                SwingUtilities.invokeLater(new NameWarning(db.getExemptionVariables()));
+            }
+
             return db;
         } catch (IOException e) {
             LOGGER.error("Unable to read line from CSV file", e);
@@ -193,12 +245,258 @@ public final class OpenDatabaseFileC {
         } catch (UserWarningException e) {
             LOGGER.error("Unable to create new variable.", e);
             e.printStackTrace();
+        } finally {
+            if (decoders != null) {
+                decoders.shutdownNow();
+            }
         }
 
         // Error encountered - return null.
         return null;
     }
 
+    /**
+     * This method reads a database in the binary format described by
+     * BinaryDatabaseFormat and populates the database (and spreadsheet) with
+     * data. The caller is responsible for managing the stream.
+     *
+     * @param inStream The stream to deserialize when populating the database.
+     * @return populated database on success, null otherwise.
+     */
+    public Datastore openAsBinary(final InputStream inStream) {
+        try {
+            LOGGER.event("open binary database from stream");
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(inStream));
+            if (in.readInt() != BinaryDatabaseFormat.MAGIC) {
+                throw new IOException("Not a binary database.");
+            }
+            int version = BinaryDatabaseFormat.readVarInt(in);
+            if (version > BinaryDatabaseFormat.VERSION) {
+                throw new IOException("Unsupported binary database version " + version);
+            }
+
+            String[] strings = new String[BinaryDatabaseFormat.readVarInt(in)];
+            byte[] bytes = new byte[0];
+            for (int i = 0; i < strings.length; i++) {
+                int length = BinaryDatabaseFormat.readVarInt(in);
+                if (bytes.length < length) {
+                    bytes = new byte[length];
+                }
+                in.readFully(bytes, 0, length);
+                strings[i] = new String(bytes, 0, length, BinaryDatabaseFormat.UTF8);
+            }
+
+            Datastore db = DatastoreFactory.newDatastore();
+            db.setTitleNotifier(Datavyu.getApplication());
+
+            db.beginBulkUpdate();
+            try {
+                int numVars = BinaryDatabaseFormat.readVarInt(in);
+                for (int v = 0; v < numVars; v++) {
+                    readBinaryVariable(in, strings, db);
+                }
+            } finally {
+                db.endBulkUpdate();
+            }
+
+            if (!db.getExemptionVariables().isEmpty()) {
+                SwingUtilities.invokeLater(new NameWarning(db.getExemptionVariables()));
+            }
+
+            return db;
+        } catch (IOException e) {
+            LOGGER.error("Unable to read binary database", e);
+            e.printStackTrace();
+        } catch (UserWarningException e) {
+            LOGGER.error("Unable to create new variable.", e);
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            // A damaged database, e.g. a string id out of range.
+            LOGGER.error("Unable to decode binary database", e);
+            e.printStackTrace();
+        }
+
+        // Error encountered - return null.
+        return null;
+    }
+
+    /**
+     * Reads one variable of a binary database.
+     *
+     * @param in      The binary database, positioned at the start of a
+     *                variable.
+     * @param strings The string table of the database.
+     * @param ds      The data store we are populating.
+     * @throws IOException          When we are unable to read the variable.
+     * @throws UserWarningException When we are unable to create the variable.
+     */
+    private void readBinaryVariable(final DataInputStream in,
+                                    final String[] strings,
+                                    final Datastore ds)
+            throws IOException, UserWarningException {
+        String varName = strings[BinaryDatabaseFormat.readVarInt(in)];
+        Argument.Type variableType = Argument.Type.valueOf(strings[BinaryDatabaseFormat.readVarInt(in)]);
+        boolean hidden = in.readByte() != 0;
+
+        Variable newVar = ds.createVariable(varName, variableType, true);
+        newVar.setHidden(hidden);
+        newVar.setOrderIndex(numVarsRead);
+        numVarsRead++;
+
+        int numArgs = BinaryDatabaseFormat.readVarInt(in);
+        String[] argNames = new String[numArgs];
+        for (int a = 0; a < numArgs; a++) {
+            argNames[a] = strings[BinaryDatabaseFormat.readVarInt(in)];
+
+            // Argument type - like the CSV format, every argument is read
+            // back as nominal.
+            BinaryDatabaseFormat.readVarInt(in);
+        }
+
+        if (variableType == Argument.Type.MATRIX) {
+            Argument newArg = newVar.getRootNode();
+            newArg.clearChildArguments();
+            for (String argName : argNames) {
+                newArg.childArguments.add(new Argument(argName, Argument.Type.NOMINAL));
+            }
+            newVar.setRootNode(newArg);
+        } else if (numArgs != 1) {
+            throw new IOException("Expected a single argument for " + varName);
+        }
+
+        int numCells = BinaryDatabaseFormat.readVarInt(in);
+        List<Cell> cells = new ArrayList<Cell>(numCells);
+        long onset = 0;
+        for (int c = 0; c < numCells; c++) {
+            onset += BinaryDatabaseFormat.readSignedVarLong(in);
+            Cell newCell = newVar.createCell();
+            newCell.setOnset(onset);
+            cells.add(newCell);
+        }
+        for (Cell cell : cells) {
+            cell.setOffset(cell.getOnset() + BinaryDatabaseFormat.readSignedVarLong(in));
+        }
+
+        for (int a = 0; a < numArgs; a++) {
+            String[] dictionary = new String[BinaryDatabaseFormat.readVarInt(in)];
+            for (int d = 0; d < dictionary.length; d++) {
+                dictionary[d] = strings[BinaryDatabaseFormat.readVarInt(in)];
+            }
+
+            for (Cell cell : cells) {
+                int code = BinaryDatabaseFormat.readVarInt(in);
+                if (code == 0) {
+                    continue;
+                }
+
+                Value value = cell.getValue();
+                if (variableType == Argument.Type.MATRIX) {
+                    value = ((MatrixValue) value).getArguments().get(a);
+                }
+                value.set(dictionary[code - 1]);
+            }
+        }
+    }
+
+    /**
+     * Splits the text of a database into the blocks declaring each variable,
+     * i.e. a variable line and the cell lines that follow it, as it is read.
+     * Each block is copied out of the scanner and handed to the decoders once
+     * the line starting the next one is read, so the text of the whole
+     * database is never held at once.
+     *
+     * A split is only made on a line that the sequential parser is certain to
+     * treat as a new variable. Anything else it might treat differently ends
+     * up inside a block, where it is parsed exactly as before.
+     *
+     * @param csvFile  A scanner over the text, positioned on the first line
+     *                 after the version identifier.
+     * @param more     Is there a line after the version identifier?
+     * @param version  The version of the file format.
+     * @param decoders The executor decoding the blocks, null to decode each
+     *                 block on the calling thread.
+     * @return The decoders for each block, in file order.
+     * @throws IOException If unable to read the text.
+     */
+    private static List<VariableBlockDecoder> splitVariableBlocks(final DatabaseFileScanner csvFile,
+                                                                  final boolean more,
+                                                                  final String version,
+                                                                  final ExecutorService decoders)
+            throws IOException {
+        List<VariableBlockDecoder> blocks = new ArrayList<VariableBlockDecoder>();
+        if (!more) {
+            return blocks;
+        }
+
+        StringBuilder blockText = new StringBuilder();
+        csvFile.appendLine(blockText);
+        boolean continuation = csvFile.endsWithEscape();
+
+        while (csvFile.nextLine()) {
+            if (!continuation && csvFile.isVariableLine()) {
+                blocks.add(startBlock(blockText, version, decoders));
+            }
+            csvFile.appendLine(blockText);
+            continuation = csvFile.endsWithEscape();
+        }
+        blocks.add(startBlock(blockText, version, decoders));
+
+        return blocks;
+    }
+
+    /**
+     * Starts decoding a block of variables, emptying the buffer holding its
+     * text.
+     *
+     * @param blockText The text of the block.
+     * @param version   The version of the file format.
+     * @param decoders  The executor decoding the blocks, null to decode the
+     *                  block on the calling thread.
+     * @return The decoder of the block.
+     */
+    private static VariableBlockDecoder startBlock(final StringBuilder blockText,
+                                                   final String version,
+                                                   final ExecutorService decoders) {
+        char[] text = new char[blockText.length()];
+        blockText.getChars(0, text.length, text, 0);
+        blockText.setLength(0);
+
+        VariableBlockDecoder block = new VariableBlockDecoder(text, version);
+        block.start(decoders);
+        return block;
+    }
+
+    /**
+     * @param result The pending result of decoding a block of variables.
+     * @return The datastore holding the decoded variables.
+     * @throws IOException          If the block could not be read.
+     * @throws UserWarningException If the block could not create its variables.
+     */
+    private static Datastore getDecodedBlock(final Future<Datastore> result)
+            throws IOException, UserWarningException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while opening database.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof UserWarningException) {
+                throw (UserWarningException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IllegalStateException(cause);
+        }
+    }
+
     /**
      * Strips escape characters from a line of text.
      *
@@ -279,12 +577,10 @@ public final class OpenDatabaseFileC {
         for (int tokenIndex = startI; tokenIndex < endIndex; tokenIndex++) {
             int argIndex = tokenIndex - startI;
             Argument fa = destPattern.childArguments.get(argIndex);
-            boolean emptyArg = false;
 
             // If the field doesn't contain anything or matches the FargName
             // we consider the argument to be 'empty'. 
-            if ((tokens[tokenIndex].length() == 0) || tokens[tokenIndex].equals("<" + fa.name + ">")) {
-                emptyArg = true;
+            if ((tokens[tokenIndex].length() == 0) || isPlaceholder(tokens[tokenIndex], fa.name)) {
                 tokens[tokenIndex] = ""; //set <placeholder> to empty string. 
             }
 
@@ -293,6 +589,19 @@ public final class OpenDatabaseFileC {
         }
     }
 
+    /**
+     * @param token The token to check.
+     * @param name  The name of the formal argument the token belongs to.
+     * @return True if the token is the "<name>" placeholder of the formal
+     * argument.
+     */
+    private static boolean isPlaceholder(final String token, final String name) {
+        return token.length() == name.length() + 2
+                && token.charAt(0) == '<'
+                && token.charAt(token.length() - 1) == '>'
+                && token.regionMatches(1, name, 0, name.length());
+    }
+
     /**
      * Method to invoke when we encounter a block of text in the CSV file that
      * is the contents of a matrix variable.
@@ -301,73 +610,50 @@ public final class OpenDatabaseFileC {
      * @param var     The variable that we will be adding cells too.
      * @param arg     The matrix template we are using when parsing individual
      *                matrix elements to put in the spreadsheet.
-     * @return The next line in the file that is not part of the block of text
-     * in the CSV file.
+     * @return True if there is a line in the file after the block of text in
+     * the CSV file, false at the end of the file.
      * @throws IOException If unable to read the file correctly.
      */
-    private String parseMatrixVariable(final BufferedReader csvFile,
-                                       final Variable var,
-                                       final Argument arg) throws IOException {
-        String line = csvFile.readLine();
-
-        while ((line != null) && isCell(line)) {
-
-            ArrayList tokensList = new ArrayList<String>();
-            String[] onsetOffsetVals = line.split(",", 3);
-            tokensList.add(onsetOffsetVals[0]); //onset
-            tokensList.add(onsetOffsetVals[1]); //offset
-
-            String valuesStr = onsetOffsetVals[2];
-            StringBuilder sb = new StringBuilder();
-
-            for (int i = 0; i < valuesStr.length(); i++) {
-                char cur = valuesStr.charAt(i);
-                if (cur == '\\') {
-                    if (i + 1 == valuesStr.length()) //newline
-                    {
-                        sb.append('\n');
-                        valuesStr += csvFile.readLine();
-                    } else //stuff following escape backslash
-                    {
-                        i++;
-                        sb.append(valuesStr.charAt(i));
-                    }
-                } else if (cur == ',') //structural comma
-                {
-                    tokensList.add(sb.toString());
-                    sb = new StringBuilder();
-                } else sb.append(cur); //ordinary char
-            }
-            tokensList.add(sb.toString());
-
-            String[] tokens = (String[]) tokensList.toArray(new String[tokensList.size()]);
+    private boolean parseMatrixVariable(final DatabaseFileScanner csvFile,
+                                        final Variable var,
+                                        final Argument arg) throws IOException {
+        boolean more = csvFile.nextLine();
+        List<String> tokensList = new ArrayList<String>();
 
+        while (more && csvFile.isCellLine()) {
             Cell newCell = var.createCell();
-            // Set the onset and offset from tokens in the line.
-            newCell.setOnset(tokens[DATA_ONSET]);
-            newCell.setOffset(tokens[DATA_OFFSET]);
 
-            // Strip the first and last chars - presumably parens
-            tokens[DATA_INDEX] = tokens[DATA_INDEX].substring(1, tokens[DATA_INDEX].length());
-            int end = tokens.length - 1;
-            tokens[end] = tokens[end].substring(0, tokens[end].length() - 1);
+            // Set the onset and offset from the start of the line.
+            newCell.setOnset(csvFile.readTimestamp());
+            newCell.setOffset(csvFile.readTimestamp());
+
+            tokensList.clear();
+            boolean moreArgs = true;
+            while (moreArgs) {
+                fieldBuffer.setLength(0);
+                moreArgs = csvFile.readField(fieldBuffer);
+
+                // Strip the first and last chars - presumably parens
+                if (tokensList.isEmpty() && fieldBuffer.length() > 0) {
+                    fieldBuffer.deleteCharAt(0);
+                }
+                if (!moreArgs && fieldBuffer.length() > 0) {
+                    fieldBuffer.setLength(fieldBuffer.length() - 1);
+                }
+                tokensList.add(fieldBuffer.toString());
+            }
+
+            String[] tokens = tokensList.toArray(new String[tokensList.size()]);
+            parseFormalArgs(tokens, 0, var.getRootNode(), (MatrixValue) newCell.getValue());
 
-            parseFormalArgs(tokens, DATA_INDEX, var.getRootNode(), (MatrixValue) newCell.getValue());
             // Get the next line in the file for reading.
-            line = csvFile.readLine();
+            more = csvFile.nextLine();
         }
 
-        return line;
-    }
-    
-    private boolean isCell(String s)
-    {
-        if (Character.isDigit(s.charAt(0))) {
-            return (Character.isDigit(s.charAt(1)) && (s.charAt(2) == ':'));
-        }
-        return false;
+        return more;
     }
 
+
     /**
      * Method to invoke when we encounter a block of text in the CSV file that
      * is the contents of a variable.
@@ -376,67 +662,43 @@ public final class OpenDatabaseFileC {
      * @param var     The variable that we will be adding cells too.
      * @param The     populator to use when converting the contents of the cell into
      *                a datavalue that can be inserted into the spreadsheet.
-     * @return The next line in the file that is not part of the block of text
-     * in the CSV file.
+     * @return True if there is a line in the file after the block of text in
+     * the CSV file, false at the end of the file.
      * @throws IOException If unable to read the file correctly.
      */
-    private String parseEntries(final BufferedReader csvFile,
-                                final Variable var,
-                                final EntryPopulator populator)
+    private boolean parseEntries(final DatabaseFileScanner csvFile,
+                                 final Variable var,
+                                 final EntryPopulator populator)
             throws IOException {
 
         // Keep parsing lines and putting them in the newly formed nominal
         // variable until we get to a line indicating the end of file or a new
         // variable section.
-        String line = csvFile.readLine();
-
-        boolean error_line = false;
-        int error_count = 0;
-
-        while ((line != null) && Character.isDigit(line.charAt(0))) {
-
-            // Remove backslashes if there are more than would be used for 
-            // newline escapes
-
-            if (line.contains("\\")) {
-                if (line.endsWith("\\") || line.endsWith("\\\\")) {
-                    line = line.replace("\\", "") + "\\";
-                } else {
-                    line = line.replace("\\", "");
-                }
-            }
+        boolean more = csvFile.nextLine();
 
+        while (more && csvFile.startsWithDigit()) {
             try {
-                // Split the line into tokens using a comma delimiter.
-                String[] tokens = line.split(",");
-
-                // BugzID: 1075 - If the line ends with an escaped new line - add
-                // the next line to the current text field.
-                while ((line != null) && line.endsWith("\\")
-                        && !line.endsWith("\\\\")) {
-                    line = csvFile.readLine();
-
-                    String content = tokens[tokens.length - 1];
-                    content = content.substring(0, content.length() - 1);
-                    tokens[tokens.length - 1] = content + '\n' + line;
-                }
-
                 Cell newCell = var.createCell();
 
-                // Set the onset and offset from tokens in the line.
-                newCell.setOnset(tokens[DATA_ONSET]);
-                newCell.setOffset(tokens[DATA_OFFSET]);
-                populator.populate(tokens, newCell.getValue());
+                // Set the onset and offset from the start of the line.
+                newCell.setOnset(csvFile.readTimestamp());
+                newCell.setOffset(csvFile.readTimestamp());
+
+                // BugzID:722 - Only populate the value if we have one from the file
+                if (!csvFile.atLineEnd()) {
+                    populator.populate(csvFile, newCell.getValue());
+                }
 
                 // Get the next line in the file for reading.
-                line = csvFile.readLine();
+                more = csvFile.nextLine();
 
                 // Test to see if the new line is an error line
-                if ((line != null) && !Character.isDigit(line.charAt(0))) {
+                if (more && !csvFile.startsWithDigit()) {
+                    String line = csvFile.getLine();
                     if (testForCorruptLine(line)) {
-                        error_line = true;
-                        error_count += 1;
+                        corruptCells += 1;
                         line = fixCorruptLine(line);
+                        csvFile.replaceLine(line);
                         System.out.println("ERROR: " + line);
                     }
                 }
@@ -444,21 +706,13 @@ public final class OpenDatabaseFileC {
                 // TODO: Add in fix here for matrix cells that
                 // are corrupted in the data values
                 e.printStackTrace();
-                error_line = true;
-                error_count += 1;
-                System.out.println("ERROR: " + line);
+                corruptCells += 1;
+                System.out.println("ERROR: " + csvFile.getLine());
+                more = csvFile.nextLine();
             }
         }
 
-        if (error_line) {
-            JOptionPane.showMessageDialog(null,
-                    "Error reading file. " + String.valueOf(error_count) +
-                            " cells could not be read.\nRecovered files have time 99:00:00:000.\nPlease send this file to Datavyu Support for further analysis!",
-                    "Error reading file: Corrupted cells",
-                    JOptionPane.ERROR_MESSAGE);
-        }
-
-        return line;
+        return more;
     }
 
     private boolean testForCorruptLine(String line) {
@@ -512,38 +766,37 @@ public final class OpenDatabaseFileC {
     /**
      * Method to invoke when we encounter a block of text that is a variable.
      *
-     * @param csvFile The CSV file we are currently reading.
-     * @param line    The line of the CSV file we are currently reading.
+     * @param csvFile The CSV file we are currently reading, positioned on the
+     *                line declaring the variable.
      * @param db      The data store we are populating with data from the CSV file.
-     * @return The next String that is not part of the currently variable that
-     * we are parsing.
+     * @return True if there is a line in the file after the current variable,
+     * false at the end of the file.
      * @throws IOException          When we are unable to read from the csvFile.
      * @throws UserWarningException When we are unable to create a new variable.
      */
-    private String parseVariable(final BufferedReader csvFile,
-                                 final String line,
-                                 final Datastore db)
+    private boolean parseVariable(final DatabaseFileScanner csvFile,
+                                  final Datastore db)
             throws IOException, UserWarningException {
-        return parseVariable(csvFile, line, db, "#2");
+        return parseVariable(csvFile, db, "#2");
     }
 
     /**
      * Method to invoke when we encounter a block of text that is a variable.
      *
-     * @param csvFile The CSV file we are currently reading.
-     * @param line    The line of the CSV file we are currently reading.
+     * @param csvFile The CSV file we are currently reading, positioned on the
+     *                line declaring the variable.
      * @param db      The data store we are populating with data from the CSV file.
-     * @return The next String that is not part of the currently variable that
-     * we are parsing.
+     * @return True if there is a line in the file after the current variable,
+     * false at the end of the file.
      * @throws IOException          When we are unable to read from the csvFile.
      * @throws UserWarningException When we are unable to create variables.
      */
-    private String parseVariable(final BufferedReader csvFile,
-                                 final String line,
-                                 final Datastore ds,
-                                 final String version)
+    private boolean parseVariable(final DatabaseFileScanner csvFile,
+                                  final Datastore ds,
+                                  final String version)
             throws IOException, UserWarningException {
         // Determine the variable name and type.
+        String line = csvFile.getLine();
         String[] tokens = line.split("\\(");
         String varName = this.stripEscChars(tokens[0].trim());
         String varType = null;
@@ -570,14 +823,13 @@ public final class OpenDatabaseFileC {
         // between the untyped nature of macshapa and the typed nature of
         // Datavyu.
         if (varName.equals("###QueryVar###")) {
-            String lineEater = csvFile.readLine();
+            boolean more = csvFile.nextLine();
 
-            while ((lineEater != null)
-                    && Character.isDigit(lineEater.charAt(0))) {
-                lineEater = csvFile.readLine();
+            while (more && csvFile.startsWithDigit()) {
+                more = csvFile.nextLine();
             }
 
-            return lineEater;
+            return more;
         }
 
         // Create variable to put cells within.
@@ -662,12 +914,14 @@ public final class OpenDatabaseFileC {
     private abstract class EntryPopulator {
 
         /**
-         * Populates a DataValue from the supplied array of tokens.
+         * Populates a DataValue from the remainder of the current line.
          *
-         * @param tokens    The tokens to use when building a DataValue.
+         * @param csvFile   The CSV file, positioned after the offset of a cell.
          * @param destValue That this populator is filling with content.
+         * @throws IOException If unable to read the file correctly.
          */
-        abstract void populate(final String[] tokens, final Value destValue);
+        abstract void populate(final DatabaseFileScanner csvFile,
+                               final Value destValue) throws IOException;
     }
 
     /**
@@ -676,16 +930,20 @@ public final class OpenDatabaseFileC {
     private class PopulateNominal extends EntryPopulator {
 
         /**
-         * Populates a DataValue from the supplied array of tokens.
+         * Populates a DataValue from the next field of the current line.
          *
-         * @param tokens    The tokens to use when building a DataValue.
+         * @param csvFile   The CSV file, positioned after the offset of a cell.
          * @param destValue That this populator is filling with content.
+         * @throws IOException If unable to read the file correctly.
          */
         @Override
-        void populate(final String[] tokens, final Value destValue) {
-            // BugzID:722 - Only populate the value if we have one from the file
-            if (tokens.length > DATA_INDEX) {
-                destValue.set(stripEscChars(tokens[DATA_INDEX]));
+        void populate(final DatabaseFileScanner csvFile,
+                      final Value destValue) throws IOException {
+            fieldBuffer.setLength(0);
+            csvFile.readField(fieldBuffer);
+
+            if (fieldBuffer.length() > 0) {
+                destValue.set(fieldBuffer.toString());
             }
         }
     }
@@ -696,30 +954,148 @@ public final class OpenDatabaseFileC {
     private class PopulateText extends EntryPopulator {
 
         /**
-         * Populates a DataValue from the supplied array of tokens.
+         * Populates a DataValue from the remainder of the current line,
+         * unescaped commas are part of the text.
          *
-         * @param tokens    The tokens to use when building a DataValue.
+         * @param csvFile   The CSV file, positioned after the offset of a cell.
          * @param destValue That this populator is filling with content.
+         * @throws IOException If unable to read the file correctly.
          */
         @Override
-        void populate(final String[] tokens, final Value destValue) {
-            // BugzID:722 - Only populate the value if we have one from the file
-            if (tokens.length > DATA_INDEX) {
-                String text = "";
+        void populate(final DatabaseFileScanner csvFile,
+                      final Value destValue) throws IOException {
+            fieldBuffer.setLength(0);
+            csvFile.readRemainder(fieldBuffer);
 
-                for (int i = DATA_INDEX; i < tokens.length; i++) {
-                    text = text.concat(tokens[i]);
+            if (fieldBuffer.length() > 0) {
+                destValue.set(fieldBuffer.toString());
+            }
+        }
+    }
+    
+    /**
+     * Decodes one block of variables from the text of a database into a
+     * datastore of its own, leaving the caller to add the variables to the
+     * datastore being opened.
+     */
+    private static final class VariableBlockDecoder implements Callable<Datastore> {
 
-                    if (i < (tokens.length - 1)) {
-                        text = text.concat(",");
-                    }
-                }
+        /**
+         * The text of the block, null once it has been decoded.
+         */
+        private char[] text;
+
+        /**
+         * The version of the file format.
+         */
+        private final String version;
+
+        /**
+         * The pending result of decoding the block, null until it is started.
+         */
+        private Future<Datastore> result = null;
+
+        /**
+         * The number of cells of the block that could not be read.
+         */
+        private volatile int corruptCells = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param text    The text of the block.
+         * @param version The version of the file format.
+         */
+        VariableBlockDecoder(final char[] text, final String version) {
+            this.text = text;
+            this.version = version;
+        }
+
+        /**
+         * Starts decoding the block.
+         *
+         * @param decoders The executor to decode the block with, null to
+         *                 decode it on the calling thread.
+         */
+        void start(final ExecutorService decoders) {
+            if (decoders != null) {
+                result = decoders.submit(this);
+            } else {
+                FutureTask<Datastore> task = new FutureTask<Datastore>(this);
+                task.run();
+                result = task;
+            }
+        }
+
+        /**
+         * Waits for the block to be decoded.
+         *
+         * @return The datastore holding the decoded variables.
+         * @throws IOException          If the block could not be read.
+         * @throws UserWarningException If the block could not create its
+         *                              variables.
+         */
+        Datastore getDecoded() throws IOException, UserWarningException {
+            return getDecodedBlock(result);
+        }
+
+        /**
+         * @return The number of cells of the block that could not be read,
+         * once it has been decoded.
+         */
+        int getCorruptCells() {
+            return corruptCells;
+        }
 
-                destValue.set(stripEscChars(text));
+        @Override
+        public Datastore call() throws IOException, UserWarningException {
+            // The block datastore is left in bulk update for good, it is only
+            // a holder for the variables and must never notify anyone.
+            Datastore block = DatastoreFactory.newDatastore();
+            block.beginBulkUpdate();
+
+            OpenDatabaseFileC parser = new OpenDatabaseFileC();
+            DatabaseFileScanner csvFile = new DatabaseFileScanner(text, 0, text.length);
+            text = null;
+            boolean more = csvFile.nextLine();
+            while (more) {
+                more = parser.parseVariable(csvFile, block, version);
             }
+            corruptCells = parser.corruptCells;
+
+            return block;
         }
     }
-    
+
+    /**
+     * Tells the user how many cells of the opened file could not be read.
+     */
+    private static final class CorruptCellWarning implements Runnable {
+
+        /**
+         * The number of cells that could not be read.
+         */
+        private final int count;
+
+        /**
+         * Constructor.
+         *
+         * @param count The number of cells that could not be read.
+         */
+        CorruptCellWarning(final int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void run() {
+            JOptionPane.showMessageDialog(null,
+                    "Error reading file. " + String.valueOf(count) +
+                            " cells could not be read.\nRecovered files have time 99:00:00:000.\nPlease send this file to Datavyu Support for further analysis!",
+                    "Error reading file: Corrupted cells",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     private class NameWarning implements Runnable
     {
         private String names;
@@ -0,0 +1,441 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.usermetrix.jclient.Logger;
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.controllers.export.DelimitedExporter;
+import org.datavyu.controllers.export.VariableTable;
+import org.datavyu.models.db.*;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves the variables of a datastore into R and the results of an R script
+ * back into the datastore.
+ *
+ * Each variable is streamed once, in temporal order, to a CSV file of its own
+ * in a private temporary directory, and read by R into the data frame
+ * db[["name"]] with the types of the ordinal, onset and offset columns given
+ * up front. After the script has run, the data frames of db that the script
+ * changed or created are written back and applied to the datastore in bulk.
+ *
+ * The R code is run by RCaller, which only runs scripts held in files, so the
+ * data goes through files rather than the standard input of R.
+ */
+final class RDataBridge {
+
+    /**
+     * The logger for this class.
+     */
+    private static Logger LOGGER = UserMetrix.getLogger(RDataBridge.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The name of the value column of text and nominal variables in R.
+     */
+    private static final String VALUE_COLUMN = "arg";
+
+    /**
+     * The file listing the names of the data frames written back by R.
+     */
+    private static final String RESULTS_FILE = "results.txt";
+
+    /**
+     * The datastore being moved into R.
+     */
+    private final Datastore datastore;
+
+    /**
+     * The directory holding the files exchanged with R.
+     */
+    private final File directory;
+
+    /**
+     * The variables moved into R, by their name in R.
+     */
+    private final Map<String, Variable> variables = new HashMap<String, Variable>();
+
+    /**
+     * Constructor.
+     *
+     * @param ds The datastore to move into R.
+     * @throws IOException If unable to create the directory for the files
+     *                     exchanged with R.
+     */
+    RDataBridge(final Datastore ds) throws IOException {
+        datastore = ds;
+        directory = File.createTempFile("datavyu", ".r");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create " + directory);
+        }
+    }
+
+    /**
+     * Writes every variable of the datastore for R to read.
+     *
+     * @return The R code creating the list db holding a data frame per
+     * variable.
+     * @throws IOException If unable to write the variables.
+     */
+    String exportDatastore() throws IOException {
+        StringBuilder code = new StringBuilder("db <- list()\n");
+        String encoding = Charset.defaultCharset().name();
+
+        int index = 0;
+        for (Variable var : datastore.getAllVariables()) {
+            // Variables are known in R by their name in lower case.
+            String name = var.getName().toLowerCase(Locale.ENGLISH);
+            if (variables.containsKey(name)) {
+                continue;
+            }
+            variables.put(name, var);
+
+            File file = new File(directory, "var" + index + ".csv");
+            index++;
+            VariableTable table = new VariableTable(var, VALUE_COLUMN);
+            OutputStream out = new FileOutputStream(file);
+            try {
+                DelimitedExporter.CSV.export(table, out);
+            } finally {
+                out.close();
+            }
+
+            code.append("db[[").append(quote(name)).append("]] <- read.csv(")
+                    .append(quote(file)).append(", colClasses=c(\"integer\",\"numeric\",\"numeric\"");
+            for (int c = 3; c < table.getColumnCount(); c++) {
+                code.append(",NA");
+            }
+            code.append("), check.names=FALSE, fileEncoding=").append(quote(encoding))
+                    .append(")\n");
+        }
+
+        // Kept to find out which data frames the script changed.
+        code.append(".datavyu.db <- db\n");
+        return code.toString();
+    }
+
+    /**
+     * @return The R code writing back the data frames of db changed or
+     * created by the script.
+     */
+    String getResultsCode() {
+        return ".datavyu.changed <- character(0)\n"
+                + "for (.datavyu.name in names(db)) {\n"
+                + "  if (is.data.frame(db[[.datavyu.name]]) && "
+                + "!identical(db[[.datavyu.name]], .datavyu.db[[.datavyu.name]])) {\n"
+                + "    .datavyu.changed <- c(.datavyu.changed, .datavyu.name)\n"
+                + "    write.csv(db[[.datavyu.name]], file.path(" + quote(directory)
+                + ", paste0(\"result\", length(.datavyu.changed), \".csv\")), "
+                + "row.names=FALSE, na=\"\", fileEncoding=\"UTF-8\")\n"
+                + "  }\n"
+                + "}\n"
+                + ".datavyu.con <- file(file.path(" + quote(directory) + ", \""
+                + RESULTS_FILE + "\"), \"w\", encoding=\"UTF-8\")\n"
+                + "writeLines(.datavyu.changed, .datavyu.con)\n"
+                + "close(.datavyu.con)\n";
+    }
+
+    /**
+     * Applies the data frames written back by R to the datastore. Data frames
+     * of existing variables update their cells, matched by ordinal, other
+     * data frames create new variables. Does nothing if R did not write back
+     * any results, such as when the script failed.
+     *
+     * @throws IOException          If unable to read the results.
+     * @throws UserWarningException If unable to create a variable.
+     */
+    void importResults() throws IOException, UserWarningException {
+        File results = new File(directory, RESULTS_FILE);
+        if (!results.exists()) {
+            return;
+        }
+
+        BufferedReader names = new BufferedReader(new InputStreamReader(new FileInputStream(results), UTF8));
+        try {
+            int index = 1;
+            for (String name = names.readLine(); name != null; name = names.readLine()) {
+                File file = new File(directory, "result" + index + ".csv");
+                index++;
+
+                BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+                try {
+                    importResult(name, in);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            names.close();
+        }
+    }
+
+    /**
+     * Applies a data frame written back by R.
+     *
+     * @param name The name of the data frame in db.
+     * @param in   The data frame as CSV.
+     * @throws IOException          If unable to read the data frame.
+     * @throws UserWarningException If unable to create a variable.
+     */
+    private void importResult(final String name, final BufferedReader in)
+            throws IOException, UserWarningException {
+        String[] header = readRow(in);
+        if (header == null) {
+            return;
+        }
+
+        int ordinalColumn = -1;
+        int onsetColumn = -1;
+        int offsetColumn = -1;
+        List<Integer> valueColumns = new ArrayList<Integer>();
+        for (int c = 0; c < header.length; c++) {
+            if ("ordinal".equals(header[c])) {
+                ordinalColumn = c;
+            } else if ("onset".equals(header[c])) {
+                onsetColumn = c;
+            } else if ("offset".equals(header[c])) {
+                offsetColumn = c;
+            } else {
+                valueColumns.add(c);
+            }
+        }
+
+        Variable var = variables.get(name);
+        if (var == null) {
+            var = createVariable(name, header, valueColumns);
+        }
+
+        // The value index of each value column. Columns added by the script
+        // to a matrix variable become new arguments, other columns of text
+        // and nominal variables are ignored.
+        boolean matrix = var.getRootNode().type == Argument.Type.MATRIX;
+        int[] valueIndex = new int[valueColumns.size()];
+        for (int v = 0; v < valueIndex.length; v++) {
+            String column = header[valueColumns.get(v)];
+            if (matrix) {
+                valueIndex[v] = var.getArgumentIndex(column);
+                if (valueIndex[v] < 0) {
+                    addArgument(var, column);
+                    valueIndex[v] = var.getRootNode().childArguments.size() - 1;
+                }
+            } else {
+                valueIndex[v] = VALUE_COLUMN.equals(column) || valueColumns.size() == 1 ? 0 : -1;
+            }
+        }
+
+        // The cells by ordinal, as exported, before they are moved around.
+        List<Cell> cells = new ArrayList<Cell>(var.getCellsTemporally());
+        Set<Cell> kept = new HashSet<Cell>();
+        for (String[] row = readRow(in); row != null; row = readRow(in)) {
+            // Rows keep the cell of their ordinal, other rows are new cells.
+            Cell cell;
+            long ordinal = parseNumber(field(row, ordinalColumn));
+            if (ordinal >= 1 && ordinal <= cells.size()
+                    && !kept.contains(cells.get((int) ordinal - 1))) {
+                cell = cells.get((int) ordinal - 1);
+            } else {
+                cell = var.createCell();
+            }
+            kept.add(cell);
+
+            cell.setOnset(parseNumber(field(row, onsetColumn)));
+            cell.setOffset(parseNumber(field(row, offsetColumn)));
+            for (int v = 0; v < valueIndex.length; v++) {
+                if (valueIndex[v] < 0) {
+                    continue;
+                }
+
+                Value value = matrix ? cell.getMatrixValue(valueIndex[v]) : cell.getValue();
+                String s = field(row, valueColumns.get(v));
+                if (s.length() == 0) {
+                    value.clear();
+                } else {
+                    value.set(s);
+                }
+            }
+        }
+
+        // Cells whose rows were dropped by the script are removed.
+        for (Cell cell : cells) {
+            if (!kept.contains(cell)) {
+                var.removeCell(cell);
+            }
+        }
+    }
+
+    /**
+     * Creates a variable for a data frame created by the script: a text
+     * variable for a single value column, a matrix variable with an argument
+     * per value column otherwise.
+     *
+     * @param name         The name of the data frame.
+     * @param header       The names of its columns.
+     * @param valueColumns The indices of its value columns.
+     * @return The new variable.
+     * @throws UserWarningException If unable to create the variable.
+     */
+    private Variable createVariable(final String name,
+                                    final String[] header,
+                                    final List<Integer> valueColumns)
+            throws UserWarningException {
+        LOGGER.event("create variable from R");
+
+        if (valueColumns.size() == 1 && VALUE_COLUMN.equals(header[valueColumns.get(0)])) {
+            return datastore.createVariable(name, Argument.Type.TEXT);
+        }
+
+        Variable var = datastore.createVariable(name, Argument.Type.MATRIX);
+        if (!valueColumns.isEmpty()) {
+            var.removeArgument(var.getRootNode().childArguments.get(0).name);
+        }
+        for (int c : valueColumns) {
+            addArgument(var, header[c]);
+        }
+        return var;
+    }
+
+    /**
+     * Adds a nominal argument to a matrix variable.
+     *
+     * @param var  The variable.
+     * @param name The name of the argument.
+     */
+    private static void addArgument(final Variable var, final String name) {
+        var.addArgument(Argument.Type.NOMINAL).name = name;
+
+        // Lets the listeners of the variable know of the new name.
+        var.setRootNode(var.getRootNode());
+    }
+
+    /**
+     * Deletes the files exchanged with R.
+     */
+    void delete() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * @param row    A row of a data frame.
+     * @param column The index of a column, -1 for none.
+     * @return The value of the column, "" if the row has no such column.
+     */
+    private static String field(final String[] row, final int column) {
+        return column >= 0 && column < row.length ? row[column] : "";
+    }
+
+    /**
+     * @param value A number written by R.
+     * @return The number rounded to a whole number, 0 if value is not a
+     * number.
+     */
+    private static long parseNumber(final String value) {
+        if (value.length() == 0) {
+            return 0;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            try {
+                // Times computed by the script can be written as decimals.
+                return Math.round(Double.parseDouble(value));
+            } catch (NumberFormatException e2) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Reads a row of a CSV file as written by write.csv.
+     *
+     * @param in The file.
+     * @return The fields of the row, null at the end of the file.
+     * @throws IOException If unable to read the file.
+     */
+    static String[] readRow(final BufferedReader in) throws IOException {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        int c = in.read();
+        if (c == -1) {
+            return null;
+        }
+
+        while (c != -1) {
+            if (quoted) {
+                if (c == '"') {
+                    in.mark(1);
+                    int next = in.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        in.reset();
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+
+            c = in.read();
+        }
+
+        fields.add(field.toString());
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * @param value A string.
+     * @return value as an R string literal.
+     */
+    private static String quote(final String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * @param file A file.
+     * @return The path of file as an R string literal.
+     */
+    private static String quote(final File file) {
+        // R accepts forward slashes on every platform.
+        return quote(file.getAbsolutePath().replace('\\', '/'));
+    }
+}
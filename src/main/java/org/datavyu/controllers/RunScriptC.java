@@ -18,6 +18,7 @@ import com.usermetrix.jclient.Logger;
 import com.usermetrix.jclient.UserMetrix;
 import org.datavyu.Datavyu;
 import org.datavyu.RecentFiles;
+import org.datavyu.controllers.script.ScriptAPI;
 import org.datavyu.models.db.*;
 import org.datavyu.util.FileFilters.RBFilter;
 import org.datavyu.views.ConsoleV;
@@ -30,6 +31,7 @@ import javax.script.ScriptException;
 import javax.swing.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -74,6 +76,17 @@ public final class RunScriptC extends SwingWorker<Object, String> {
 
     private StringBuilder outString = new StringBuilder("");
 
+    /**
+     * Delivers the changes a script made in one bulk update to the listeners
+     * of the datastore on the event dispatch thread.
+     */
+    private static final Executor EDT_NOTIFIER = new Executor() {
+        @Override
+        public void execute(final Runnable notification) {
+            SwingUtilities.invokeLater(notification);
+        }
+    };
+
     /**
      * Constructs and invokes the runscript controller.
      *
@@ -143,10 +156,18 @@ public final class RunScriptC extends SwingWorker<Object, String> {
 
         RecentFiles.rememberScript(scriptFile);
 
-        if (scriptFile.getName().endsWith(".rb")) {
-            runRubyScript(scriptFile);
-        } else if (scriptFile.getName().endsWith(".r") || scriptFile.getName().endsWith(".R")) {
-            runRScript(scriptFile);
+        // The changes made by the script reach the spreadsheet in one batch
+        // once it has finished.
+        Datastore db = Datavyu.getProjectController().getDB();
+        db.beginBulkUpdate();
+        try {
+            if (scriptFile.getName().endsWith(".rb")) {
+                runRubyScript(scriptFile);
+            } else if (scriptFile.getName().endsWith(".r") || scriptFile.getName().endsWith(".R")) {
+                runRScript(scriptFile);
+            }
+        } finally {
+            db.endBulkUpdate(EDT_NOTIFIER);
         }
 
         // Close the output stream to kill our reader thread
@@ -176,6 +197,7 @@ public final class RunScriptC extends SwingWorker<Object, String> {
                 rubyEngine.put("pj", Datavyu.getProjectController().getProject());
                 rubyEngine.put("mixer", Datavyu.getDataController().getMixerController());
                 rubyEngine.put("viewers", Datavyu.getDataController());
+                rubyEngine.put("api", new ScriptAPI(Datavyu.getProjectController().getDB()));
                 String path = System.getProperty("user.dir") + File.separator;
                 
                 rubyEngine.put("path", path);
@@ -196,6 +218,7 @@ public final class RunScriptC extends SwingWorker<Object, String> {
                     rubyEngine.put("pj", null);
                     rubyEngine.put("mixer", null);
                     rubyEngine.put("viewers", null);
+                    rubyEngine.put("api", null);
 
                     consoleWriterAfter.write("\nScript completed successfully.");
                     consoleWriterAfter.flush();
@@ -315,47 +338,15 @@ public final class RunScriptC extends SwingWorker<Object, String> {
         }
         caller.redirectROutputToStream(sIn);
 
-        // Initialize our code buffer and database string representation
+        // Initialize our code buffer and move the database into R, as the
+        // list of data frames db.
         RCode code = new RCode();
-        HashMap db = convertDbToColStrings();
-        HashMap<String, File> temp_files = new HashMap<String, File>();
-
-        // Write the database out to tempory files
-        Iterator it = db.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry pairs = (Map.Entry) it.next();
-
-            // Now write this out to a temporary file
-            File outfile = new File(System.getProperty("java.io.tmpdir"), (String) pairs.getKey());
-            try {
-                BufferedWriter output = new BufferedWriter(new FileWriter(outfile));
-                output.write((String) pairs.getValue());
-                output.close();
-
-                temp_files.put((String) pairs.getKey(), outfile);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            it.remove(); // avoids a ConcurrentModificationException
-        }
-
-        // Create the R code to read in the temporary db files into a structure
-        // called db
-        code.addRCode("db <- list()");
+        RDataBridge bridge = null;
         try {
-            // Load each of the temporary files created above into R
-            it = temp_files.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry pairs = (Map.Entry) it.next();
-
-                String load = "db[[\"" + ((String) pairs.getKey()).toLowerCase() + "\"]] <- read.csv(\"" + ((File) pairs.getValue()).getPath() + "\",header=TRUE, sep=',')";
-                code.addRCode(load);
-
-                it.remove(); // avoids a ConcurrentModificationException
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+            bridge = new RDataBridge(Datavyu.getProjectController().getDB());
+            code.addRCode(bridge.exportDatastore());
+        } catch (IOException e) {
+            LOGGER.error("Unable to move the database into R", e);
         }
 
         // Set up plotting. If something gets plotted, display it.
@@ -363,63 +354,42 @@ public final class RunScriptC extends SwingWorker<Object, String> {
         try {
             File plt = code.startPlot();
             code.R_source(scriptFile.getPath());
+            if (bridge != null) {
+                code.addRCode(bridge.getResultsCode());
+            }
             caller.setRCode(code);
             caller.runOnly();
             code.endPlot();
             if (plt.length() > 0) {
                 code.showPlot(plt);
             }
+
+            if (bridge != null) {
+                updateDbFromR(bridge);
+            }
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            if (bridge != null) {
+                bridge.delete();
+            }
         }
     }
 
-    // TODO
-    private void updateDbFromR() {
-
-    }
-
     /**
-     * Convert the Datavyu database to a csv file per column.
-     * This allows for easy reading into R.
+     * Applies the changes made by an R script to the data frames of db to the
+     * database.
+     *
+     * @param bridge The bridge the database was moved into R with.
      */
-    private HashMap<String, String> convertDbToColStrings() {
-        Datastore db = Datavyu.getProjectController().getDB();
-        HashMap<String, String> str_db = new HashMap<String, String>();
-
-        String str_var;
-        for (Variable v : db.getAllVariables()) {
-            str_var = "ordinal,onset,offset";
-            if (v.getRootNode().type == Argument.Type.MATRIX) {
-                for (Argument a : v.getRootNode().childArguments) {
-                    str_var += "," + a.name;
-                }
-            } else {
-                str_var += ",arg";
-            }
-            str_var += "\n";
-            for (int i = 0; i < v.getCellsTemporally().size(); i++) {
-                Cell c = v.getCellsTemporally().get(i);
-
-                String row = String.format("%d,%d,%d", i + 1, c.getOnset(), c.getOffset());
-                if (v.getRootNode().type == Argument.Type.MATRIX) {
-                    for (Value val : ((MatrixValue) c.getValue()).getArguments()) {
-                        row += ",";
-                        if (!val.isEmpty())
-                            row += val.toString();
-                    }
-                } else {
-                    row += ",";
-                    if (!c.getValue().isEmpty()) {
-                        row += c.getValue().toString();
-                    }
-                }
-                str_var += row + "\n";
-            }
-            str_db.put(v.getName(), str_var);
+    private void updateDbFromR(final RDataBridge bridge) {
+        try {
+            bridge.importResults();
+        } catch (IOException e) {
+            LOGGER.error("Unable to read the results of the R script", e);
+        } catch (UserWarningException e) {
+            LOGGER.error("Unable to update the database from R", e);
         }
-
-        return str_db;
     }
 
     @Override
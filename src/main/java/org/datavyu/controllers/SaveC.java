@@ -19,18 +19,19 @@ import com.usermetrix.jclient.UserMetrix;
 import org.datavyu.Datavyu;
 import org.datavyu.RecentFiles;
 import org.datavyu.models.db.Datastore;
+import org.datavyu.models.db.DatastoreSnapshot;
 import org.datavyu.models.db.UserWarningException;
 import org.datavyu.models.project.Project;
 import org.datavyu.models.project.ViewerSetting;
 import org.jdesktop.application.Application;
 import org.jdesktop.application.ResourceMap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Master controller for handling project and database file saving logic.
@@ -42,6 +43,28 @@ public final class SaveC {
      */
     private static Logger LOGGER = UserMetrix.getLogger(SaveC.class);
 
+    /**
+     * Should projects also be saved with a binary database?
+     */
+    private final boolean binaryDatabase;
+
+    /**
+     * Constructor, projects are saved with a CSV database only.
+     */
+    public SaveC() {
+        this(false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param binaryDatabase Should projects also be saved with a binary
+     *                       database, read in preference to the CSV one?
+     */
+    public SaveC(final boolean binaryDatabase) {
+        this.binaryDatabase = binaryDatabase;
+    }
+
     /**
      * Saves only a database to disk.
      *
@@ -82,13 +105,29 @@ public final class SaveC {
             throws UserWarningException {
         LOGGER.event("saving database");
 
-        SaveDatabaseFileC saveDBC = new SaveDatabaseFileC();
-        saveDBC.saveDatabase(databaseFile, datastore);
+        prepareDatabase(databaseFile, datastore).write(null);
         if (remember) {
             RecentFiles.rememberProject(databaseFile);
         }
     }
 
+    /**
+     * Prepares the save of only a database, to be written later by
+     * SaveJob.write(). Must be called on the thread that modifies the
+     * datastore.
+     *
+     * @param databaseFile The location to save the database too.
+     * @param datastore    The datastore to save to disk.
+     * @return The prepared save.
+     */
+    public SaveJob prepareDatabase(final File databaseFile,
+                                   final Datastore datastore) {
+        return new SaveJob(databaseFile, null,
+                Collections.<String>emptyList(),
+                Collections.<byte[]>emptyList(),
+                DatastoreSnapshot.take(datastore),
+                false);
+    }
 
     /**
      * Saves an entire project, including database to disk.
@@ -120,45 +159,48 @@ public final class SaveC {
                             final Project project,
                             final Datastore datastore,
                             boolean remember) throws UserWarningException {
+        LOGGER.event("save project");
 
-        try {
-            LOGGER.event("save project");
-
-            FileOutputStream fos = new FileOutputStream(projectFile);
-            ZipOutputStream zos = new ZipOutputStream(fos);
+        prepareProject(projectFile, project, datastore).write(null);
+        if (remember) {
+            RecentFiles.rememberProject(projectFile);
+        }
+    }
 
-            ZipEntry projectEntry = new ZipEntry("project");
-            zos.putNextEntry(projectEntry);
-            new SaveProjectFileC().save(zos, project);
-            zos.closeEntry();
+    /**
+     * Prepares the save of an entire project, including database, to be
+     * written later by SaveJob.write(). Must be called on the thread that
+     * modifies the project and datastore.
+     *
+     * @param projectFile The destination to save the project too.
+     * @param project     The project to save to disk.
+     * @param datastore   The datastore to save to disk.
+     * @return The prepared save.
+     * @throws UserWarningException If unable to serialise the project.
+     */
+    public SaveJob prepareProject(final File projectFile,
+                                  final Project project,
+                                  final Datastore datastore)
+            throws UserWarningException {
 
-            ZipEntry dbEntry = new ZipEntry("db");
-            zos.putNextEntry(dbEntry);
-            new SaveDatabaseFileC().saveAsCSV(zos, datastore);
-            zos.closeEntry();
+        try {
+            ByteArrayOutputStream projectData = new ByteArrayOutputStream();
+            new SaveProjectFileC().save(projectData, project);
 
-            // BugzID:1806
+            List<String> settingsIds = new ArrayList<String>();
+            List<byte[]> settings = new ArrayList<byte[]>();
             for (ViewerSetting vs : project.getViewerSettings()) {
-                ZipEntry vsEntry = new ZipEntry(vs.getSettingsId());
-                zos.putNextEntry(vsEntry);
-                vs.writeSettings(zos);
+                ByteArrayOutputStream settingsData = new ByteArrayOutputStream();
+                vs.writeSettings(settingsData);
+                settingsIds.add(vs.getSettingsId());
+                settings.add(settingsData.toByteArray());
             }
 
-            zos.finish();
-            zos.close();
-
-            fos.flush();
-            fos.close();
-
-            if (remember) {
-                RecentFiles.rememberProject(projectFile);
-            }
+            return new SaveJob(projectFile, projectData.toByteArray(),
+                    settingsIds, settings,
+                    DatastoreSnapshot.take(datastore),
+                    binaryDatabase);
 
-        } catch (FileNotFoundException e) {
-            ResourceMap rMap = Application.getInstance(Datavyu.class)
-                    .getContext().getResourceMap(Datavyu.class);
-            e.printStackTrace();
-            throw new UserWarningException(rMap.getString("UnableToSave.message", projectFile), e);
         } catch (IOException e) {
             ResourceMap rMap = Application.getInstance(Datavyu.class)
                     .getContext().getResourceMap(Datavyu.class);
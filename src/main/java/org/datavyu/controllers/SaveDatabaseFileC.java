@@ -23,6 +23,10 @@ import org.jdesktop.application.Application;
 import org.jdesktop.application.ResourceMap;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -89,44 +93,256 @@ public final class SaveDatabaseFileC {
      */
     public void saveAsCSV(final OutputStream outStream, final Datastore ds)
             throws UserWarningException {
+        saveAsCSV(outStream, DatastoreSnapshot.take(ds));
+    }
+
+    /**
+     * Serialize a snapshot of the database to the specified stream in a CSV
+     * format. Can be called from any thread.
+     *
+     * @param outStream The stream to use when serializing.
+     * @param snapshot  The snapshot of the datastore to save as a CSV file.
+     */
+    public void saveAsCSV(final OutputStream outStream,
+                          final DatastoreSnapshot snapshot) {
         LOGGER.event("save database as CSV to stream");
 
         // Dump out an identifier for the version of file.
-        PrintStream ps = new PrintStream(outStream);
+        PrintStream ps = new PrintStream(new BufferedOutputStream(outStream));
         ps.println("#4");
 
-        for (Variable variable : ds.getAllVariables()) {
-            ps.printf("%s (%s,%s,%s)",
-                    StringUtils.escapeCSV(variable.getName()),
-                    variable.getRootNode().type,
-                    !variable.isHidden(),
-                    "");
-
-            if (variable.getRootNode().type == Argument.Type.MATRIX) {
-                ps.print('-');
-
-                int numArgs = 0;
-                for (Argument arg : variable.getRootNode().childArguments) {
-                    ps.printf("%s|%s",
-                            StringUtils.escapeCSV(arg.name),
-                            arg.type);
-
-                    if (numArgs < (variable.getRootNode().childArguments.size() - 1)) {
-                        ps.print(',');
-                    }
-                    numArgs++;
+        for (VariableSnapshot variable : snapshot.getVariables()) {
+            saveVariableAsCSV(ps, variable);
+        }
+        ps.flush();
+    }
+
+    /**
+     * Serialize a single variable, its declaration followed by its cells, in
+     * the CSV format.
+     *
+     * @param ps       The stream to use when serializing.
+     * @param variable The snapshot of the variable to serialize.
+     */
+    void saveVariableAsCSV(final PrintStream ps, final VariableSnapshot variable) {
+        StringBuilder line = new StringBuilder();
+        line.append(StringUtils.escapeCSV(variable.getName()))
+                .append(" (")
+                .append(variable.getType())
+                .append(',')
+                .append(!variable.isHidden())
+                .append(",)");
+
+        if (variable.getType() == Argument.Type.MATRIX) {
+            line.append('-');
+
+            for (int a = 0; a < variable.getArgumentCount(); a++) {
+                if (a > 0) {
+                    line.append(',');
+                }
+                line.append(StringUtils.escapeCSV(variable.getArgumentName(a)))
+                        .append('|')
+                        .append(variable.getArgumentType(a));
+            }
+        }
+
+        ps.println(line);
+
+        for (int c = 0; c < variable.getCellCount(); c++) {
+            line.setLength(0);
+            line.append(variable.getOnsetString(c))
+                    .append(',')
+                    .append(variable.getOffsetString(c))
+                    .append(',');
+            variable.serializeValue(c, line);
+            ps.println(line);
+        }
+    }
+
+    /**
+     * Serialize the database to the specified stream in the binary format
+     * described by BinaryDatabaseFormat. The stream is flushed but not closed.
+     *
+     * @param outStream The stream to use when serializing.
+     * @param ds        The datastore to save.
+     * @throws IOException When unable to write to the stream.
+     */
+    public void saveAsBinary(final OutputStream outStream, final Datastore ds)
+            throws IOException {
+        saveAsBinary(outStream, DatastoreSnapshot.take(ds));
+    }
+
+    /**
+     * Serialize a snapshot of the database to the specified stream in the
+     * binary format described by BinaryDatabaseFormat. The stream is flushed
+     * but not closed. Can be called from any thread.
+     *
+     * @param outStream The stream to use when serializing.
+     * @param snapshot  The snapshot of the datastore to save.
+     * @throws IOException When unable to write to the stream.
+     */
+    public void saveAsBinary(final OutputStream outStream,
+                             final DatastoreSnapshot snapshot)
+            throws IOException {
+        LOGGER.event("save database as binary to stream");
+
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        List<VariableSnapshot> variables = snapshot.getVariables();
+        List<int[]> orders = new ArrayList<int[]>();
+        List<List<Column>> columns = new ArrayList<List<Column>>();
+
+        // First pass - build the string table and the code of each value.
+        for (VariableSnapshot variable : variables) {
+            intern(strings, variable.getName());
+            intern(strings, variable.getType().name());
+
+            int[] order = variable.getTemporalOrder();
+            List<Column> varColumns = new ArrayList<Column>();
+            for (int a = 0; a < variable.getArgumentCount(); a++) {
+                intern(strings, variable.getArgumentName(a));
+                intern(strings, variable.getArgumentType(a).name());
+
+                Column column = new Column(variable.getArgumentName(a),
+                        variable.getArgumentType(a), order.length);
+                for (int c = 0; c < order.length; c++) {
+                    column.add(c, variable.getValue(a, order[c]), strings);
                 }
+                varColumns.add(column);
             }
 
-            ps.println();
+            orders.add(order);
+            columns.add(varColumns);
+        }
+
+        // Second pass - write everything out.
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outStream));
+        out.writeInt(BinaryDatabaseFormat.MAGIC);
+        BinaryDatabaseFormat.writeVarLong(out, BinaryDatabaseFormat.VERSION);
+
+        BinaryDatabaseFormat.writeVarLong(out, strings.size());
+        for (String string : strings.keySet()) {
+            byte[] bytes = string.getBytes(BinaryDatabaseFormat.UTF8);
+            BinaryDatabaseFormat.writeVarLong(out, bytes.length);
+            out.write(bytes);
+        }
+
+        BinaryDatabaseFormat.writeVarLong(out, variables.size());
+        for (int v = 0; v < variables.size(); v++) {
+            VariableSnapshot variable = variables.get(v);
+            BinaryDatabaseFormat.writeVarLong(out, strings.get(variable.getName()));
+            BinaryDatabaseFormat.writeVarLong(out, strings.get(variable.getType().name()));
+            out.writeByte(variable.isHidden() ? 1 : 0);
+
+            List<Column> varColumns = columns.get(v);
+            BinaryDatabaseFormat.writeVarLong(out, varColumns.size());
+            for (Column column : varColumns) {
+                BinaryDatabaseFormat.writeVarLong(out, strings.get(column.name));
+                BinaryDatabaseFormat.writeVarLong(out, strings.get(column.type.name()));
+            }
+
+            int[] order = orders.get(v);
+            BinaryDatabaseFormat.writeVarLong(out, order.length);
+            long previousOnset = 0;
+            for (int c : order) {
+                BinaryDatabaseFormat.writeSignedVarLong(out, variable.getOnset(c) - previousOnset);
+                previousOnset = variable.getOnset(c);
+            }
+            for (int c : order) {
+                BinaryDatabaseFormat.writeSignedVarLong(out, variable.getOffset(c) - variable.getOnset(c));
+            }
+
+            for (Column column : varColumns) {
+                BinaryDatabaseFormat.writeVarLong(out, column.dictionary.size());
+                for (Integer stringId : column.dictionary.keySet()) {
+                    BinaryDatabaseFormat.writeVarLong(out, stringId);
+                }
+                for (int code : column.codes) {
+                    BinaryDatabaseFormat.writeVarLong(out, code);
+                }
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Adds a string to the string table if it is not already there.
+     *
+     * @param strings The string table, mapping each string to its id.
+     * @param string  The string to add.
+     * @return The id of the string.
+     */
+    private static int intern(final Map<String, Integer> strings,
+                              final String string) {
+        Integer id = strings.get(string);
+        if (id == null) {
+            id = strings.size();
+            strings.put(string, id);
+        }
+
+        return id;
+    }
+
+    /**
+     * The dictionary encoded values of one argument of a variable.
+     */
+    private static final class Column {
+
+        /**
+         * The name of the argument the values belong to.
+         */
+        final String name;
+
+        /**
+         * The type of the argument the values belong to.
+         */
+        final Argument.Type type;
+
+        /**
+         * Maps the string id of each distinct value to its index in the
+         * dictionary, in order of first use.
+         */
+        final Map<Integer, Integer> dictionary = new LinkedHashMap<Integer, Integer>();
+
+        /**
+         * The code of the value of each cell.
+         */
+        final int[] codes;
+
+        /**
+         * Constructor.
+         *
+         * @param name  The name of the argument the values belong to.
+         * @param type  The type of the argument the values belong to.
+         * @param cells The number of cells in the variable.
+         */
+        Column(final String name, final Argument.Type type, final int cells) {
+            this.name = name;
+            this.type = type;
+            this.codes = new int[cells];
+        }
+
+        /**
+         * Encodes the value of a cell.
+         *
+         * @param cell    The temporal index of the cell.
+         * @param value   The value to encode, null if it is empty.
+         * @param strings The string table.
+         */
+        void add(final int cell, final String value,
+                 final Map<String, Integer> strings) {
+            if (value == null) {
+                codes[cell] = 0;
+                return;
+            }
 
-            for (Cell cell : variable.getCells()) {
-                ps.printf("%s,%s,%s",
-                        cell.getOnsetString(),
-                        cell.getOffsetString(),
-                        cell.getValue().serialize());
-                ps.println();
+            Integer stringId = intern(strings, value);
+            Integer index = dictionary.get(stringId);
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(stringId, index);
             }
+            codes[cell] = index + 1;
         }
     }
 }
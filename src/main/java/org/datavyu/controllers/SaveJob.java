@@ -0,0 +1,332 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.usermetrix.jclient.Logger;
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.Datavyu;
+import org.datavyu.models.db.DatastoreSnapshot;
+import org.datavyu.models.db.UserWarningException;
+import org.datavyu.models.db.VariableSnapshot;
+import org.datavyu.views.DVProgressBar;
+import org.jdesktop.application.Application;
+import org.jdesktop.application.ResourceMap;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A project or database save prepared by SaveC.
+ *
+ * Everything the save needs is copied when the job is prepared, on the thread
+ * that modifies the project, so that write() can run on a background thread
+ * while the user keeps editing. The file is written next to its destination
+ * under a temporary name and renamed over the destination once complete, so
+ * a failed or cancelled save leaves the previous file untouched.
+ */
+public final class SaveJob {
+
+    /**
+     * The logger for this class.
+     */
+    private static Logger LOGGER = UserMetrix.getLogger(SaveJob.class);
+
+    /**
+     * Runs the background saves one at a time, so that successive saves of a
+     * project reach the disk in order.
+     */
+    private static final ExecutorService SAVES =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread t = new Thread(r, "Project saver");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * The file to save to.
+     */
+    private final File file;
+
+    /**
+     * The serialised project, null when saving only the database.
+     */
+    private final byte[] project;
+
+    /**
+     * The ids of the viewer settings of the project.
+     */
+    private final List<String> settingsIds;
+
+    /**
+     * The serialised viewer settings, in the order of settingsIds.
+     */
+    private final List<byte[]> settings;
+
+    /**
+     * The snapshot of the datastore to save.
+     */
+    private final DatastoreSnapshot snapshot;
+
+    /**
+     * Should the binary database also be written?
+     */
+    private final boolean binaryDatabase;
+
+    /**
+     * Constructor.
+     *
+     * @param file           The file to save to.
+     * @param project        The serialised project, null to save only the
+     *                       database.
+     * @param settingsIds    The ids of the viewer settings.
+     * @param settings       The serialised viewer settings.
+     * @param snapshot       The snapshot of the datastore to save.
+     * @param binaryDatabase Should the binary database also be written?
+     */
+    SaveJob(final File file,
+            final byte[] project,
+            final List<String> settingsIds,
+            final List<byte[]> settings,
+            final DatastoreSnapshot snapshot,
+            final boolean binaryDatabase) {
+        this.file = file;
+        this.project = project;
+        this.settingsIds = settingsIds;
+        this.settings = settings;
+        this.snapshot = snapshot;
+        this.binaryDatabase = binaryDatabase;
+    }
+
+    /**
+     * Runs a task on the background saver, after the saves already started.
+     *
+     * @param task The task to run, usually one that writes a SaveJob.
+     */
+    public static void execute(final Runnable task) {
+        SAVES.execute(task);
+    }
+
+    /**
+     * @return The file to save to.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The snapshot of the datastore being saved.
+     */
+    public DatastoreSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Writes the save to disk. Can be called from any thread.
+     *
+     * @param progress The progress bar to report to, null for none. The save
+     *                 is abandoned if the progress bar is cancelled.
+     * @return True if the file was saved, false if the save was cancelled.
+     * @throws UserWarningException If unable to write the file.
+     */
+    public boolean write(final DVProgressBar progress)
+            throws UserWarningException {
+        // Database only saves are written as CSV, other formats are not
+        // supported.
+        if (project == null && !file.getName().toLowerCase().endsWith(".csv")) {
+            return true;
+        }
+
+        File temp = null;
+        try {
+            if (report(progress, 0, "Saving " + file.getName())) {
+                return false;
+            }
+
+            File dir = file.getAbsoluteFile().getParentFile();
+            temp = File.createTempFile("." + file.getName() + "_", ".tmp", dir);
+
+            boolean completed;
+            FileOutputStream fos = new FileOutputStream(temp);
+            try {
+                if (project == null) {
+                    completed = writeCSV(fos, progress, 0, 90);
+                } else {
+                    completed = writeArchive(fos, progress);
+                }
+                fos.flush();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+
+            if (!completed || report(progress, 95, "Replacing " + file.getName())) {
+                return false;
+            }
+
+            replace(temp, file);
+            temp = null;
+
+            report(progress, 100, "Completed!");
+            return true;
+
+        } catch (IOException e) {
+            LOGGER.error("Unable to save " + file, e);
+            ResourceMap rMap = Application.getInstance(Datavyu.class)
+                    .getContext().getResourceMap(Datavyu.class);
+            throw new UserWarningException(rMap.getString("UnableToSave.message", file), e);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the project archive.
+     *
+     * @param out      The stream to write the archive to.
+     * @param progress The progress bar to report to, null for none.
+     * @return True if the archive was written, false if cancelled.
+     * @throws IOException If unable to write the archive.
+     */
+    private boolean writeArchive(final OutputStream out,
+                                 final DVProgressBar progress)
+            throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(out));
+
+        zos.putNextEntry(new ZipEntry("project"));
+        zos.write(project);
+        zos.closeEntry();
+
+        zos.putNextEntry(new ZipEntry("db"));
+        if (!writeCSV(zos, progress, 5, binaryDatabase ? 50 : 90)) {
+            return false;
+        }
+        zos.closeEntry();
+
+        // The binary database is read in preference to the CSV one, which
+        // is still written for older versions of Datavyu.
+        if (binaryDatabase) {
+            if (report(progress, 50, "Writing binary database")) {
+                return false;
+            }
+            zos.putNextEntry(new ZipEntry("db.bin"));
+            new SaveDatabaseFileC().saveAsBinary(zos, snapshot);
+            zos.closeEntry();
+        }
+
+        // BugzID:1806
+        for (int i = 0; i < settingsIds.size(); i++) {
+            zos.putNextEntry(new ZipEntry(settingsIds.get(i)));
+            zos.write(settings.get(i));
+        }
+
+        zos.finish();
+        zos.flush();
+        return true;
+    }
+
+    /**
+     * Writes the database in the CSV format, reporting progress as each
+     * variable is written.
+     *
+     * @param out      The stream to write the database to.
+     * @param progress The progress bar to report to, null for none.
+     * @param from     The progress at the start of the database.
+     * @param to       The progress at the end of the database.
+     * @return True if the database was written, false if cancelled.
+     * @throws IOException If unable to write the database.
+     */
+    private boolean writeCSV(final OutputStream out,
+                             final DVProgressBar progress,
+                             final int from,
+                             final int to) throws IOException {
+        SaveDatabaseFileC saveDBC = new SaveDatabaseFileC();
+        PrintStream ps = new PrintStream(new BufferedOutputStream(out));
+        ps.println("#4");
+
+        int total = Math.max(1, snapshot.getCellCount());
+        int written = 0;
+        int reported = -1;
+        for (VariableSnapshot variable : snapshot.getVariables()) {
+            int percent = from + (int) ((long) (to - from) * written / total);
+            if (percent != reported) {
+                if (report(progress, percent, "Writing " + variable.getName())) {
+                    return false;
+                }
+                reported = percent;
+            }
+
+            saveDBC.saveVariableAsCSV(ps, variable);
+            written += variable.getCellCount();
+
+            // The print stream swallows write errors, so stop at the first
+            // one rather than renaming a truncated file over the destination.
+            if (ps.checkError()) {
+                throw new IOException("Unable to write " + variable.getName());
+            }
+        }
+
+        ps.flush();
+        if (ps.checkError()) {
+            throw new IOException("Unable to write the database");
+        }
+        return true;
+    }
+
+    /**
+     * @param progress The progress bar to report to, null for none.
+     * @param value    The progress, as a percentage.
+     * @param message  The description of the current step.
+     * @return True if the save has been cancelled.
+     */
+    private static boolean report(final DVProgressBar progress,
+                                  final int value,
+                                  final String message) {
+        return progress != null && progress.setProgress(value, message);
+    }
+
+    /**
+     * Renames a completed temporary file over its destination.
+     *
+     * @param temp   The temporary file.
+     * @param target The destination.
+     * @throws IOException If unable to replace the destination.
+     */
+    private static void replace(final File temp, final File target)
+            throws IOException {
+        if (temp.renameTo(target)) {
+            return;
+        }
+
+        // Some platforms will not rename over an existing file.
+        if (!target.delete() || !temp.renameTo(target)) {
+            throw new IOException("Unable to replace " + target);
+        }
+    }
+}
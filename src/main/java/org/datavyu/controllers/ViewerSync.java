@@ -0,0 +1,386 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.usermetrix.jclient.Logger;
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.plugins.DataViewer;
+import org.datavyu.util.ClockTimer;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Sends the commands of the data controller to its viewers.
+ *
+ * Each viewer has a lane of its own: its commands are carried out in the
+ * order they were sent, but on a pool thread and alongside those of the
+ * other viewers, so that a viewer slow to seek holds up neither the clock
+ * nor the other viewers. A seek replaces any seek still waiting in the lane,
+ * as only the latest position matters.
+ *
+ * Rather than a fixed threshold and pulse, the drift of each playing viewer
+ * from the clock is measured as it plays. A viewer is only sought when it
+ * drifts beyond what it usually does, and is checked less often while it
+ * keeps in step.
+ */
+public final class ViewerSync {
+
+    /**
+     * The logger for this class.
+     */
+    private static Logger LOGGER = UserMetrix.getLogger(ViewerSync.class);
+
+    /**
+     * The smallest drift to correct, in milliseconds.
+     */
+    private static final double MIN_THRESH = 40D;
+
+    /**
+     * The largest drift to leave uncorrected at normal speed, in
+     * milliseconds, unless a frame of the viewer is longer.
+     */
+    private static final double MAX_THRESH = 200D;
+
+    /**
+     * How many times the usual drift of a viewer is let pass.
+     */
+    private static final double JITTER_MARGIN = 3D;
+
+    /**
+     * The weight of a new drift measurement in the usual drift.
+     */
+    private static final double JITTER_WEIGHT = 0.25D;
+
+    /**
+     * The shortest and longest time between two checks of a viewer, in
+     * milliseconds.
+     */
+    private static final long MIN_PULSE = 100L;
+
+    private static final long MAX_PULSE = 1600L;
+
+    private static final long NANO_IN_MILLI = 1000000L;
+
+    /**
+     * Carries out the commands of all the lanes.
+     */
+    private static final ExecutorService WORKERS =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread t = new Thread(r, "Viewer sync");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * The clock the viewers follow.
+     */
+    private final ClockTimer clock;
+
+    /**
+     * The lane of each viewer.
+     */
+    private final Map<DataViewer, Lane> lanes = new HashMap<DataViewer, Lane>();
+
+    /**
+     * Constructor.
+     *
+     * @param clock The clock the viewers follow.
+     */
+    public ViewerSync(final ClockTimer clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @param viewer The viewer to seek.
+     * @param position The position to seek to, in the time of the viewer.
+     */
+    public void seekTo(final DataViewer viewer, final long position) {
+        laneOf(viewer).post(new Command(Command.SEEK) {
+            @Override
+            void run(final Lane lane) {
+                lane.viewer.seekTo(position);
+                lane.checkSoon();
+            }
+        });
+    }
+
+    /**
+     * @param viewer The viewer to start playing.
+     */
+    public void play(final DataViewer viewer) {
+        laneOf(viewer).post(new Command(Command.ORDERED) {
+            @Override
+            void run(final Lane lane) {
+                lane.viewer.play();
+            }
+        });
+    }
+
+    /**
+     * @param viewer The viewer to stop playing.
+     */
+    public void stop(final DataViewer viewer) {
+        laneOf(viewer).post(new Command(Command.ORDERED) {
+            @Override
+            void run(final Lane lane) {
+                lane.viewer.stop();
+                lane.checkNow();
+            }
+        });
+    }
+
+    /**
+     * @param viewer The viewer to change the speed of.
+     * @param rate The new playback speed.
+     */
+    public void setPlaybackSpeed(final DataViewer viewer, final float rate) {
+        laneOf(viewer).post(new Command(Command.ORDERED) {
+            @Override
+            void run(final Lane lane) {
+                lane.viewer.setPlaybackSpeed(rate);
+            }
+        });
+    }
+
+    /**
+     * Keeps a viewer in step with the clock while it runs: the viewer is
+     * started when the clock enters its data, stopped when the clock leaves
+     * it, and sought when it has drifted. The clock is read as the check is
+     * made rather than when it is asked for, and nothing is done once it has
+     * stopped.
+     *
+     * @param viewer The viewer to keep in step.
+     */
+    public void sync(final DataViewer viewer) {
+        laneOf(viewer).post(new Command(Command.SYNC) {
+            @Override
+            void run(final Lane lane) throws Exception {
+                lane.sync();
+            }
+        });
+    }
+
+    /**
+     * Forgets a viewer. Commands still waiting for it are dropped.
+     *
+     * @param viewer The viewer to forget.
+     */
+    public synchronized void remove(final DataViewer viewer) {
+        Lane lane = lanes.remove(viewer);
+        if (lane != null) {
+            lane.clear();
+        }
+    }
+
+    private synchronized Lane laneOf(final DataViewer viewer) {
+        Lane lane = lanes.get(viewer);
+        if (lane == null) {
+            lane = new Lane(viewer);
+            lanes.put(viewer, lane);
+        }
+
+        return lane;
+    }
+
+    /**
+     * A command for a viewer.
+     */
+    private abstract static class Command {
+
+        /** Carried out in turn. */
+        static final int ORDERED = 0;
+
+        /** Replaces any seek still waiting. */
+        static final int SEEK = 1;
+
+        /** Replaces any sync still waiting. */
+        static final int SYNC = 2;
+
+        final int kind;
+
+        Command(final int kind) {
+            this.kind = kind;
+        }
+
+        abstract void run(Lane lane) throws Exception;
+    }
+
+    /**
+     * The commands waiting for a viewer, and what is known of its drift.
+     */
+    private final class Lane implements Runnable {
+
+        final DataViewer viewer;
+
+        // Guarded by the lane.
+        private final LinkedList<Command> pending = new LinkedList<Command>();
+
+        // Guarded by the lane, is a worker carrying out the commands?
+        private boolean running = false;
+
+        // The drift of the viewer when it is left alone, in milliseconds.
+        private double jitter = 0D;
+
+        // How long to leave the viewer before checking it again.
+        private long pulse = MIN_PULSE;
+
+        // When to check the viewer next, in System.nanoTime() terms.
+        private long nextCheck = System.nanoTime();
+
+        Lane(final DataViewer viewer) {
+            this.viewer = viewer;
+        }
+
+        synchronized void post(final Command command) {
+            if (command.kind != Command.ORDERED) {
+                Iterator<Command> it = pending.iterator();
+                while (it.hasNext()) {
+                    if (it.next().kind == command.kind) {
+                        it.remove();
+                    }
+                }
+            }
+            pending.add(command);
+
+            if (!running) {
+                running = true;
+                WORKERS.execute(this);
+            }
+        }
+
+        synchronized void clear() {
+            pending.clear();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Command command;
+                synchronized (this) {
+                    command = pending.poll();
+                    if (command == null) {
+                        running = false;
+                        return;
+                    }
+                }
+
+                try {
+                    command.run(this);
+                } catch (Exception e) {
+                    LOGGER.error("Unable to sync viewer", e);
+                }
+            }
+        }
+
+        /**
+         * Checks the viewer again as soon as the shortest pulse has passed,
+         * after it has been moved.
+         */
+        void checkSoon() {
+            pulse = MIN_PULSE;
+            nextCheck = System.nanoTime() + MIN_PULSE * NANO_IN_MILLI;
+        }
+
+        /**
+         * Checks the viewer at the next sync, after it has been stopped.
+         */
+        void checkNow() {
+            pulse = MIN_PULSE;
+            nextCheck = System.nanoTime();
+        }
+
+        /**
+         * Leaves the viewer twice as long as last time before checking it
+         * again.
+         *
+         * @param now The current System.nanoTime().
+         */
+        private void backOff(final long now) {
+            pulse = Math.min(pulse * 2, MAX_PULSE);
+            nextCheck = now + pulse * NANO_IN_MILLI;
+        }
+
+        void sync() throws Exception {
+            if (clock.isStopped()) {
+                return;
+            }
+
+            long time = clock.getTime();
+            boolean inRange = (time >= viewer.getOffset())
+                    && (time < (viewer.getOffset() + viewer.getDuration()));
+            boolean playing = viewer.isPlaying();
+
+            // BugzID:1797 - Viewers who are "playing" outside their
+            // timeframe should be asked to stop.
+            if (playing && !inRange) {
+                viewer.stop();
+                checkNow();
+                return;
+            }
+
+            long now = System.nanoTime();
+            if (now - nextCheck < 0) {
+                return;
+            }
+
+            // A viewer yet to report that it plays is started again, but
+            // less and less often, rather than sought on every tick.
+            if (!playing) {
+                if (inRange) {
+                    viewer.seekTo(time - viewer.getOffset());
+                    viewer.play();
+                    backOff(now);
+                }
+                return;
+            }
+
+            long position = viewer.getCurrentTime();
+            long target = clock.getTime() - viewer.getOffset();
+            double drift = Math.abs(position - target);
+
+            if (drift > threshold()) {
+                viewer.seekTo(target);
+                checkSoon();
+            } else {
+                jitter += (drift - jitter) * JITTER_WEIGHT;
+                backOff(now);
+            }
+        }
+
+        /**
+         * @return The drift beyond which the viewer is sought, in
+         * milliseconds: a few times its usual drift, but at least two frames
+         * and at most MAX_THRESH, or a frame for viewers with few frames a
+         * second. Faster playback allows for more.
+         */
+        private double threshold() {
+            double frame = viewer.getFrameRate() > 0 ? 1000D / viewer.getFrameRate() : 0D;
+            double thresh = Math.max(JITTER_MARGIN * jitter, 2 * frame);
+            thresh = Math.min(Math.max(thresh, MIN_THRESH), MAX_THRESH);
+            thresh = Math.max(thresh, frame);
+
+            return thresh * Math.max(1F, Math.abs(clock.getRate()));
+        }
+    }
+}
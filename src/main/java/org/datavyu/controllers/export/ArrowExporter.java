@@ -0,0 +1,495 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.export;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a table in the Apache Arrow IPC file format (Feather V2), which can
+ * be loaded directly into pandas (pyarrow.feather.read_feather) and R
+ * (arrow::read_feather) without parsing text.
+ *
+ * INTEGER columns are written as 64 bit integers and TEXT columns as UTF-8
+ * strings, both nullable. Rows are written in record batches of up to
+ * BATCH_ROWS rows as the table is read, so only one batch is held in memory.
+ *
+ * The file is laid out as described by the Arrow columnar format
+ * specification: the magic bytes, a schema message, a message per record
+ * batch, an end of stream marker and finally a footer locating the batches.
+ */
+public final class ArrowExporter implements Exporter {
+
+    /** The exporter. */
+    public static final ArrowExporter INSTANCE = new ArrowExporter();
+
+    // The maximum number of rows in a record batch.
+    private static final int BATCH_ROWS = 64 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // The magic bytes at the start and end of the file.
+    private static final byte[] MAGIC = "ARROW1".getBytes(UTF8);
+
+    // MetadataVersion.V5
+    private static final short METADATA_VERSION = 4;
+
+    // MessageHeader union types.
+    private static final byte HEADER_SCHEMA = 1;
+    private static final byte HEADER_RECORD_BATCH = 3;
+
+    // Type union types.
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_UTF8 = 5;
+
+    // The alignment of messages and buffers.
+    private static final int ALIGNMENT = 8;
+
+    // The size of a Block struct of the footer.
+    private static final int BLOCK_SIZE = 24;
+
+    // The size of the FieldNode and Buffer structs of a record batch.
+    private static final int NODE_SIZE = 16;
+
+    private ArrowExporter() {
+    }
+
+    @Override
+    public String getExtension() {
+        return ".arrow";
+    }
+
+    @Override
+    public void export(final ExportTable table, final OutputStream out)
+            throws IOException {
+        ArrowOutput file = new ArrowOutput(out);
+        file.write(MAGIC);
+        file.pad();
+
+        int columnCount = table.getColumnCount();
+        file.writeMessage(buildSchemaMessage(table), null, null);
+
+        ColumnBatch[] columns = new ColumnBatch[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            columns[c] = new ColumnBatch(table.getColumnType(c));
+        }
+
+        List<long[]> blocks = new ArrayList<long[]>();
+        int rows = 0;
+        while (table.next()) {
+            for (int c = 0; c < columnCount; c++) {
+                columns[c].add(table, c, rows);
+            }
+            rows++;
+
+            if (rows == BATCH_ROWS) {
+                blocks.add(writeBatch(file, columns, rows));
+                rows = 0;
+            }
+        }
+        if (rows > 0 || blocks.isEmpty()) {
+            blocks.add(writeBatch(file, columns, rows));
+        }
+
+        // End of stream.
+        file.writeInt(0xFFFFFFFF);
+        file.writeInt(0);
+
+        byte[] footer = buildFooter(table, blocks);
+        file.write(footer);
+        file.writeInt(footer.length);
+        file.write(MAGIC);
+        file.flush();
+    }
+
+    /**
+     * Writes a record batch holding the rows added to the columns, and clears
+     * the columns for the next batch.
+     *
+     * @param file    The file to write to.
+     * @param columns The columns.
+     * @param rows    The number of rows added to the columns.
+     * @return The block of the footer locating the batch: its offset, the
+     * length of its metadata and the length of its body.
+     * @throws IOException If unable to write to file.
+     */
+    private static long[] writeBatch(final ArrowOutput file,
+                                     final ColumnBatch[] columns,
+                                     final int rows)
+            throws IOException {
+        List<byte[]> buffers = new ArrayList<byte[]>();
+        List<Integer> lengths = new ArrayList<Integer>();
+        for (ColumnBatch column : columns) {
+            column.addBuffers(rows, buffers, lengths);
+        }
+
+        // The body holds the buffers one after the other, each aligned.
+        long[] offsets = new long[buffers.size()];
+        long bodyLength = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = bodyLength;
+            bodyLength += align(lengths.get(i));
+        }
+
+        FlatBufferBuilder fb = new FlatBufferBuilder(1024);
+
+        fb.startVector(NODE_SIZE, offsets.length, ALIGNMENT);
+        for (int i = offsets.length - 1; i >= 0; i--) {
+            fb.putLong(lengths.get(i));
+            fb.putLong(offsets[i]);
+        }
+        int bufferVector = fb.endVector(offsets.length);
+
+        fb.startVector(NODE_SIZE, columns.length, ALIGNMENT);
+        for (int c = columns.length - 1; c >= 0; c--) {
+            fb.putLong(columns[c].nullCount);
+            fb.putLong(rows);
+        }
+        int nodeVector = fb.endVector(columns.length);
+
+        // RecordBatch
+        fb.startTable(3);
+        fb.addField(0, (long) rows);
+        fb.addOffsetField(1, nodeVector);
+        fb.addOffsetField(2, bufferVector);
+        int batch = fb.endTable();
+
+        long position = file.getPosition();
+        int metadataLength = file.writeMessage(
+                finishMessage(fb, HEADER_RECORD_BATCH, batch, bodyLength),
+                buffers, lengths);
+
+        for (ColumnBatch column : columns) {
+            column.clear();
+        }
+
+        return new long[] { position, metadataLength, bodyLength };
+    }
+
+    /**
+     * @param table The table being written.
+     * @return The schema message of the table.
+     */
+    private static byte[] buildSchemaMessage(final ExportTable table) {
+        FlatBufferBuilder fb = new FlatBufferBuilder(1024);
+        int schema = buildSchema(fb, table);
+        return finishMessage(fb, HEADER_SCHEMA, schema, 0);
+    }
+
+    /**
+     * Completes a message.
+     *
+     * @param fb         The builder holding the header of the message.
+     * @param headerType The type of the header.
+     * @param header     The offset of the header.
+     * @param bodyLength The length of the body of the message.
+     * @return The message.
+     */
+    private static byte[] finishMessage(final FlatBufferBuilder fb,
+                                        final byte headerType,
+                                        final int header,
+                                        final long bodyLength) {
+        fb.startTable(4);
+        fb.addField(3, bodyLength);
+        fb.addOffsetField(2, header);
+        fb.addField(0, METADATA_VERSION);
+        fb.addField(1, headerType);
+        return fb.finish(fb.endTable());
+    }
+
+    /**
+     * Writes the schema of a table.
+     *
+     * @param fb    The builder to write to.
+     * @param table The table.
+     * @return The offset of the schema.
+     */
+    private static int buildSchema(final FlatBufferBuilder fb,
+                                   final ExportTable table) {
+        int[] fields = new int[table.getColumnCount()];
+        for (int c = 0; c < fields.length; c++) {
+            int name = fb.createString(table.getColumnName(c));
+
+            boolean integer = table.getColumnType(c) == ExportTable.ColumnType.INTEGER;
+            int type;
+            if (integer) {
+                // Int
+                fb.startTable(2);
+                fb.addField(0, 64);
+                fb.addField(1, (byte) 1);
+                type = fb.endTable();
+            } else {
+                // Utf8
+                fb.startTable(0);
+                type = fb.endTable();
+            }
+
+            int children = fb.createOffsetVector(new int[0]);
+
+            // Field
+            fb.startTable(6);
+            fb.addOffsetField(0, name);
+            fb.addOffsetField(3, type);
+            fb.addOffsetField(5, children);
+            fb.addField(1, (byte) 1);
+            fb.addField(2, integer ? TYPE_INT : TYPE_UTF8);
+            fields[c] = fb.endTable();
+        }
+        int fieldVector = fb.createOffsetVector(fields);
+
+        // Schema, little endian
+        fb.startTable(2);
+        fb.addOffsetField(1, fieldVector);
+        fb.addField(0, (short) 0);
+        return fb.endTable();
+    }
+
+    /**
+     * @param table  The table written.
+     * @param blocks The blocks locating the record batches.
+     * @return The footer of the file.
+     */
+    private static byte[] buildFooter(final ExportTable table,
+                                      final List<long[]> blocks) {
+        FlatBufferBuilder fb = new FlatBufferBuilder(1024);
+        int schema = buildSchema(fb, table);
+
+        fb.startVector(BLOCK_SIZE, 0, ALIGNMENT);
+        int dictionaries = fb.endVector(0);
+
+        fb.startVector(BLOCK_SIZE, blocks.size(), ALIGNMENT);
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            long[] block = blocks.get(i);
+            fb.putLong(block[2]);
+            fb.putInt(0);
+            fb.putInt((int) block[1]);
+            fb.putLong(block[0]);
+        }
+        int batches = fb.endVector(blocks.size());
+
+        // Footer
+        fb.startTable(4);
+        fb.addOffsetField(1, schema);
+        fb.addOffsetField(2, dictionaries);
+        fb.addOffsetField(3, batches);
+        fb.addField(0, METADATA_VERSION);
+        return fb.finish(fb.endTable());
+    }
+
+    /**
+     * @param length A length in bytes.
+     * @return The length padded to the alignment of buffers.
+     */
+    private static long align(final long length) {
+        return (length + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+    }
+
+    /**
+     * The values of a column in the record batch being built.
+     */
+    private static final class ColumnBatch {
+
+        private final ExportTable.ColumnType type;
+
+        // One bit per row, set for rows that are not null.
+        private byte[] validity = new byte[BATCH_ROWS / 8];
+
+        private int nullCount = 0;
+
+        // The values of an INTEGER column.
+        private long[] longs;
+
+        // The start of the value of each row of a TEXT column in data.
+        private int[] offsets;
+
+        // The UTF-8 bytes of the values of a TEXT column.
+        private byte[] data;
+
+        private int dataLength = 0;
+
+        ColumnBatch(final ExportTable.ColumnType type) {
+            this.type = type;
+            if (type == ExportTable.ColumnType.INTEGER) {
+                longs = new long[BATCH_ROWS];
+            } else {
+                offsets = new int[BATCH_ROWS + 1];
+                data = new byte[BATCH_ROWS];
+            }
+        }
+
+        /**
+         * Adds the value of a column of the current row of a table.
+         *
+         * @param table  The table.
+         * @param column The index of the column.
+         * @param row    The index of the row in the batch.
+         */
+        void add(final ExportTable table, final int column, final int row) {
+            boolean isNull = table.isNull(column);
+            if (isNull) {
+                nullCount++;
+            } else {
+                validity[row >> 3] |= 1 << (row & 7);
+            }
+
+            if (type == ExportTable.ColumnType.INTEGER) {
+                longs[row] = isNull ? 0 : table.getLong(column);
+            } else {
+                if (!isNull) {
+                    byte[] bytes = table.getString(column).getBytes(UTF8);
+                    if (dataLength + bytes.length > data.length) {
+                        data = Arrays.copyOf(data, Math.max(data.length * 2,
+                                dataLength + bytes.length));
+                    }
+                    System.arraycopy(bytes, 0, data, dataLength, bytes.length);
+                    dataLength += bytes.length;
+                }
+                offsets[row + 1] = dataLength;
+            }
+        }
+
+        /**
+         * Adds the buffers of the column to the body of a record batch.
+         *
+         * @param rows    The number of rows in the batch.
+         * @param buffers The buffers of the body.
+         * @param lengths The length of each buffer.
+         */
+        void addBuffers(final int rows,
+                        final List<byte[]> buffers,
+                        final List<Integer> lengths) {
+            buffers.add(validity);
+            lengths.add((rows + 7) / 8);
+
+            if (type == ExportTable.ColumnType.INTEGER) {
+                byte[] values = new byte[rows * 8];
+                for (int r = 0; r < rows; r++) {
+                    long v = longs[r];
+                    for (int b = 0; b < 8; b++) {
+                        values[r * 8 + b] = (byte) (v >>> (b * 8));
+                    }
+                }
+                buffers.add(values);
+                lengths.add(values.length);
+            } else {
+                byte[] starts = new byte[(rows + 1) * 4];
+                for (int r = 0; r <= rows; r++) {
+                    int v = offsets[r];
+                    starts[r * 4] = (byte) v;
+                    starts[r * 4 + 1] = (byte) (v >> 8);
+                    starts[r * 4 + 2] = (byte) (v >> 16);
+                    starts[r * 4 + 3] = (byte) (v >> 24);
+                }
+                buffers.add(starts);
+                lengths.add(starts.length);
+                buffers.add(data);
+                lengths.add(dataLength);
+            }
+        }
+
+        /**
+         * Empties the column for the next batch.
+         */
+        void clear() {
+            Arrays.fill(validity, (byte) 0);
+            nullCount = 0;
+            dataLength = 0;
+        }
+    }
+
+    /**
+     * The output file, keeping track of the position and alignment.
+     */
+    private static final class ArrowOutput {
+
+        private final OutputStream out;
+
+        private long position = 0;
+
+        ArrowOutput(final OutputStream out) {
+            this.out = new BufferedOutputStream(out, 1 << 16);
+        }
+
+        long getPosition() {
+            return position;
+        }
+
+        void write(final byte[] bytes) throws IOException {
+            write(bytes, bytes.length);
+        }
+
+        void write(final byte[] bytes, final int length) throws IOException {
+            out.write(bytes, 0, length);
+            position += length;
+        }
+
+        void writeInt(final int value) throws IOException {
+            out.write(value);
+            out.write(value >> 8);
+            out.write(value >> 16);
+            out.write(value >> 24);
+            position += 4;
+        }
+
+        /**
+         * Pads the file to the alignment of messages and buffers.
+         */
+        void pad() throws IOException {
+            while (position % ALIGNMENT != 0) {
+                out.write(0);
+                position++;
+            }
+        }
+
+        /**
+         * Writes an encapsulated message.
+         *
+         * @param metadata The flatbuffer of the message.
+         * @param buffers  The buffers of the body, null for none.
+         * @param lengths  The length of each buffer.
+         * @return The length of the metadata, including its prefix and
+         * padding.
+         * @throws IOException If unable to write to the file.
+         */
+        int writeMessage(final byte[] metadata,
+                         final List<byte[]> buffers,
+                         final List<Integer> lengths) throws IOException {
+            int padded = (int) align(8 + metadata.length) - 8;
+
+            writeInt(0xFFFFFFFF);
+            writeInt(padded);
+            write(metadata);
+            pad();
+
+            if (buffers != null) {
+                for (int i = 0; i < buffers.size(); i++) {
+                    write(buffers.get(i), lengths.get(i));
+                    pad();
+                }
+            }
+
+            return 8 + padded;
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
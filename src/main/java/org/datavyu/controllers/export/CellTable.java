@@ -0,0 +1,58 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.export;
+
+import org.datavyu.models.db.Datastore;
+
+/**
+ * Lays out a datastore with a row per ordinal: row n holds the nth cell of
+ * every variable side by side, or blanks for variables with fewer cells.
+ */
+public final class CellTable extends WideTable {
+
+    // The number of rows, that of the variable with the most cells.
+    private final int rowCount;
+
+    // The index of the current row.
+    private int row = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param ds The datastore to lay out.
+     */
+    public CellTable(final Datastore ds) {
+        super(VariableCells.of(ds), true);
+
+        int max = 0;
+        for (VariableCells v : variables) {
+            max = Math.max(max, v.size());
+        }
+        rowCount = max;
+    }
+
+    @Override
+    public boolean next() {
+        if (row + 1 >= rowCount) {
+            return false;
+        }
+
+        row++;
+        for (int v = 0; v < variables.length; v++) {
+            setCell(v, row < variables[v].size() ? row : -1);
+        }
+        return true;
+    }
+}
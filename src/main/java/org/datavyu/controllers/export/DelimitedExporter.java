@@ -0,0 +1,123 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes a table as delimited text, with a header row holding the names of
+ * the columns. Null values are left blank and values holding the delimiter,
+ * quotes or line breaks are quoted.
+ */
+public final class DelimitedExporter implements Exporter {
+
+    /** Comma separated values. */
+    public static final DelimitedExporter CSV = new DelimitedExporter(',', ".csv");
+
+    /** Tab separated values. */
+    public static final DelimitedExporter TSV = new DelimitedExporter('\t', ".tsv");
+
+    // The line separator of the platform, as used by PrintStream.println.
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    // The size of the output buffer.
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The character between the values of a row.
+    private final char delimiter;
+
+    private final String extension;
+
+    /**
+     * Constructor.
+     *
+     * @param delimiter The character between the values of a row.
+     * @param extension The extension of the files written.
+     */
+    private DelimitedExporter(final char delimiter, final String extension) {
+        this.delimiter = delimiter;
+        this.extension = extension;
+    }
+
+    @Override
+    public String getExtension() {
+        return extension;
+    }
+
+    @Override
+    public void export(final ExportTable table, final OutputStream out)
+            throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out), BUFFER_SIZE);
+        int columns = table.getColumnCount();
+
+        // The row is built up and written in one go, the builder is reused
+        // from row to row.
+        StringBuilder row = new StringBuilder();
+        for (int c = 0; c < columns; c++) {
+            if (c > 0) {
+                row.append(delimiter);
+            }
+            appendField(row, table.getColumnName(c));
+        }
+        row.append(LINE_SEPARATOR);
+        writer.write(row.toString());
+
+        while (table.next()) {
+            row.setLength(0);
+            for (int c = 0; c < columns; c++) {
+                if (c > 0) {
+                    row.append(delimiter);
+                }
+                if (table.isNull(c)) {
+                    continue;
+                }
+
+                if (table.getColumnType(c) == ExportTable.ColumnType.INTEGER) {
+                    row.append(table.getLong(c));
+                } else {
+                    appendField(row, table.getString(c));
+                }
+            }
+            row.append(LINE_SEPARATOR);
+            writer.write(row.toString());
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Appends a value to a row, quoting it if needed.
+     *
+     * @param row   The row to append to.
+     * @param value The value to append.
+     */
+    private void appendField(final StringBuilder row, final String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (quote) {
+            row.append('"').append(value.replace("\"", "\"\"")).append('"');
+        } else {
+            row.append(value);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.export;
+
+/**
+ * A table of typed columns laid out from a datastore, read a row at a time.
+ *
+ * Tables lay out the content of a datastore, an Exporter writes a table to a
+ * file format. The rows are produced as they are read, so a table can be
+ * written without holding all of its rows in memory.
+ */
+public interface ExportTable {
+
+    /**
+     * The type of the values of a column.
+     */
+    enum ColumnType {
+        /** Whole numbers, such as ordinals and times in milliseconds. */
+        INTEGER,
+
+        /** Text. */
+        TEXT
+    }
+
+    /**
+     * @return The number of columns.
+     */
+    int getColumnCount();
+
+    /**
+     * @param column The index of the column.
+     *
+     * @return The name of the column.
+     */
+    String getColumnName(int column);
+
+    /**
+     * @param column The index of the column.
+     *
+     * @return The type of the values of the column.
+     */
+    ColumnType getColumnType(int column);
+
+    /**
+     * Moves to the next row. Must be called before reading the first row.
+     *
+     * @return True if there is a next row, false once all rows have been
+     * read.
+     */
+    boolean next();
+
+    /**
+     * @param column The index of the column.
+     *
+     * @return True if the column has no value in the current row.
+     */
+    boolean isNull(int column);
+
+    /**
+     * @param column The index of an INTEGER column.
+     *
+     * @return The value of the column in the current row, 0 if it is null.
+     */
+    long getLong(int column);
+
+    /**
+     * @param column The index of a column.
+     *
+     * @return The value of the column in the current row as text, null if it
+     * is null.
+     */
+    String getString(int column);
+}
@@ -0,0 +1,39 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an ExportTable in a particular file format.
+ */
+public interface Exporter {
+
+    /**
+     * @return The extension of files written by this exporter, such as
+     * ".csv".
+     */
+    String getExtension();
+
+    /**
+     * Writes all the remaining rows of a table.
+     *
+     * @param table The table to write.
+     * @param out   The stream to write to. It is flushed but not closed.
+     * @throws IOException If unable to write to out.
+     */
+    void export(ExportTable table, OutputStream out) throws IOException;
+}
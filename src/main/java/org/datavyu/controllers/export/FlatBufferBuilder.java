@@ -0,0 +1,293 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.export;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The subset of a FlatBuffers builder needed to write the metadata of Arrow
+ * files: tables of scalars and offsets, strings, and vectors of offsets and
+ * structs.
+ *
+ * As with the reference implementation, the buffer is built from back to
+ * front, so the children of a table must be created before the table itself.
+ * Offsets returned by this builder are measured from the end of the buffer.
+ */
+final class FlatBufferBuilder {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // The buffer, of which the bytes from space onwards are in use.
+    private byte[] buf;
+
+    private int space;
+
+    // The largest alignment required so far.
+    private int minAlign = 1;
+
+    // The offset of each field of the table being built, 0 if not set.
+    private int[] vtable = null;
+
+    // The offset at which the table being built started.
+    private int objectStart;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity The initial size of the buffer.
+     */
+    FlatBufferBuilder(final int capacity) {
+        buf = new byte[capacity];
+        space = capacity;
+    }
+
+    /**
+     * @return The offset of the last thing written.
+     */
+    int offset() {
+        return buf.length - space;
+    }
+
+    /**
+     * Pads the buffer so that, once additional bytes have been written, the
+     * next value of size bytes is aligned, growing the buffer if needed.
+     *
+     * @param size       The size of the next value.
+     * @param additional The number of bytes to write before it.
+     */
+    private void prep(final int size, final int additional) {
+        minAlign = Math.max(minAlign, size);
+        int alignSize = (~(offset() + additional) + 1) & (size - 1);
+
+        while (space < alignSize + size + additional) {
+            int used = offset();
+            byte[] grown = new byte[buf.length * 2];
+            System.arraycopy(buf, space, grown, grown.length - used, used);
+            buf = grown;
+            space = grown.length - used;
+        }
+
+        for (int i = 0; i < alignSize; i++) {
+            buf[--space] = 0;
+        }
+    }
+
+    /**
+     * Writes a byte without aligning it.
+     *
+     * @param value The byte.
+     */
+    void putByte(final byte value) {
+        buf[--space] = value;
+    }
+
+    /**
+     * Writes a little endian short without aligning it.
+     *
+     * @param value The short.
+     */
+    void putShort(final short value) {
+        space -= 2;
+        buf[space] = (byte) value;
+        buf[space + 1] = (byte) (value >> 8);
+    }
+
+    /**
+     * Writes a little endian int without aligning it.
+     *
+     * @param value The int.
+     */
+    void putInt(final int value) {
+        space -= 4;
+        setInt(space, value);
+    }
+
+    /**
+     * Writes a little endian long without aligning it, as the field of a
+     * struct.
+     *
+     * @param value The long.
+     */
+    void putLong(final long value) {
+        space -= 8;
+        setInt(space, (int) value);
+        setInt(space + 4, (int) (value >>> 32));
+    }
+
+    private void setInt(final int index, final int value) {
+        buf[index] = (byte) value;
+        buf[index + 1] = (byte) (value >> 8);
+        buf[index + 2] = (byte) (value >> 16);
+        buf[index + 3] = (byte) (value >> 24);
+    }
+
+    private void addByte(final byte value) {
+        prep(1, 0);
+        putByte(value);
+    }
+
+    private void addShort(final short value) {
+        prep(2, 0);
+        putShort(value);
+    }
+
+    private void addInt(final int value) {
+        prep(4, 0);
+        putInt(value);
+    }
+
+    private void addLong(final long value) {
+        prep(8, 0);
+        putLong(value);
+    }
+
+    /**
+     * Writes a reference to something already written.
+     *
+     * @param target The offset of the thing to refer to.
+     */
+    private void addOffset(final int target) {
+        prep(4, 0);
+        putInt(offset() - target + 4);
+    }
+
+    /**
+     * @param value The string to write.
+     *
+     * @return The offset of the string.
+     */
+    int createString(final String value) {
+        byte[] bytes = value.getBytes(UTF8);
+        addByte((byte) 0);
+        startVector(1, bytes.length, 1);
+        space -= bytes.length;
+        System.arraycopy(bytes, 0, buf, space, bytes.length);
+        return endVector(bytes.length);
+    }
+
+    /**
+     * Starts a vector. Its elements must then be written in reverse order,
+     * using the put methods for the fields of structs.
+     *
+     * @param elementSize The size of each element.
+     * @param count       The number of elements.
+     * @param alignment   The alignment of the elements.
+     */
+    void startVector(final int elementSize, final int count, final int alignment) {
+        prep(4, elementSize * count);
+        prep(alignment, elementSize * count);
+    }
+
+    /**
+     * @param count The number of elements written.
+     *
+     * @return The offset of the vector.
+     */
+    int endVector(final int count) {
+        putInt(count);
+        return offset();
+    }
+
+    /**
+     * @param targets The offsets of the elements.
+     *
+     * @return The offset of a vector of references to the elements.
+     */
+    int createOffsetVector(final int[] targets) {
+        startVector(4, targets.length, 4);
+        for (int i = targets.length - 1; i >= 0; i--) {
+            addOffset(targets[i]);
+        }
+        return endVector(targets.length);
+    }
+
+    /**
+     * Starts a table. The children of the table must already be written.
+     *
+     * @param fieldCount The number of fields of the table.
+     */
+    void startTable(final int fieldCount) {
+        vtable = new int[fieldCount];
+        objectStart = offset();
+    }
+
+    void addField(final int field, final byte value) {
+        addByte(value);
+        vtable[field] = offset();
+    }
+
+    void addField(final int field, final short value) {
+        addShort(value);
+        vtable[field] = offset();
+    }
+
+    void addField(final int field, final int value) {
+        addInt(value);
+        vtable[field] = offset();
+    }
+
+    void addField(final int field, final long value) {
+        addLong(value);
+        vtable[field] = offset();
+    }
+
+    /**
+     * @param field  The index of the field.
+     * @param target The offset of the child the field refers to.
+     */
+    void addOffsetField(final int field, final int target) {
+        addOffset(target);
+        vtable[field] = offset();
+    }
+
+    /**
+     * Ends the table, writing its vtable.
+     *
+     * @return The offset of the table.
+     */
+    int endTable() {
+        addInt(0);
+        int object = offset();
+
+        int count = vtable.length;
+        while (count > 0 && vtable[count - 1] == 0) {
+            count--;
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            addShort((short) (vtable[i] != 0 ? object - vtable[i] : 0));
+        }
+        addShort((short) (object - objectStart));
+        addShort((short) ((count + 2) * 2));
+
+        // The table starts with the distance back to its vtable.
+        setInt(buf.length - object, offset() - object);
+        vtable = null;
+        return object;
+    }
+
+    /**
+     * Completes the buffer.
+     *
+     * @param root The offset of the root table.
+     *
+     * @return The content of the buffer.
+     */
+    byte[] finish(final int root) {
+        prep(minAlign, 4);
+        addOffset(root);
+        return Arrays.copyOfRange(buf, space, buf.length);
+    }
+}
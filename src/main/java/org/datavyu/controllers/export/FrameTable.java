@@ -0,0 +1,191 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.export;
+
+import org.datavyu.models.db.Cell;
+import org.datavyu.models.db.Datastore;
+
+import java.util.Arrays;
+
+/**
+ * Lays out a datastore with a row per frame, from the earliest onset to the
+ * latest offset of any cell.
+ *
+ * Each row holds the frame number and time in milliseconds, followed by the
+ * cell of each variable covering the frame, or blanks if there is none. When
+ * cells of a variable overlap, the one with the latest onset is used.
+ *
+ * The cells of every variable are swept in temporal order with a cursor per
+ * variable, so reading the table takes time proportional to the number of
+ * frames times the number of variables plus the number of cells.
+ */
+public final class FrameTable extends WideTable {
+
+    // The leading column holding the frame number, starting at 1.
+    private static final int FRAMENUM = 0;
+
+    // The leading column holding the time of the frame.
+    private static final int TIME = 1;
+
+    // The cursor of each variable.
+    private final FrameCursor[] cursors;
+
+    // The duration of a frame in milliseconds.
+    private final double frameDuration;
+
+    // The time of the first frame.
+    private final long firstTime;
+
+    // The latest time covered by a cell.
+    private final long lastTime;
+
+    // The number of frames read so far.
+    private long frames = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param ds        The datastore to lay out.
+     * @param framerate The number of frames per second.
+     */
+    public FrameTable(final Datastore ds, final float framerate) {
+        super(VariableCells.of(ds), true, "framenum", "time");
+
+        if (!(framerate > 0)) {
+            throw new IllegalArgumentException("Invalid frame rate: " + framerate);
+        }
+        frameDuration = 1000.0 / framerate;
+
+        cursors = new FrameCursor[variables.length];
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (int v = 0; v < variables.length; v++) {
+            cursors[v] = new FrameCursor(variables[v]);
+            first = Math.min(first, cursors[v].getFirstTime());
+            last = Math.max(last, cursors[v].getLastTime());
+        }
+        firstTime = first;
+        lastTime = last;
+    }
+
+    @Override
+    public boolean next() {
+        // The time of each frame is worked out from its number, rather than
+        // by adding up frame durations, so that rounding does not accumulate
+        // over long sessions.
+        long time = firstTime + Math.round(frames * frameDuration);
+        if (firstTime > lastTime || time > lastTime) {
+            return false;
+        }
+
+        frames++;
+        leading[FRAMENUM] = frames;
+        leading[TIME] = time;
+        for (int v = 0; v < cursors.length; v++) {
+            setCell(v, cursors[v].advance(time));
+        }
+        return true;
+    }
+
+    /**
+     * Sweeps over the cells of a variable in temporal order, keeping track of
+     * the cells covering the current frame.
+     */
+    private static final class FrameCursor {
+
+        /**
+         * The cells of the variable, in temporal order.
+         */
+        private final VariableCells cells;
+
+        /**
+         * The index of the next cell to reach.
+         */
+        private int next = 0;
+
+        /**
+         * The indices of the cells reached that may still cover a frame.
+         */
+        private int[] active = new int[4];
+
+        private int activeCount = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param cells The cells to sweep over.
+         */
+        FrameCursor(final VariableCells cells) {
+            this.cells = cells;
+        }
+
+        /**
+         * @return The earliest onset of the cells, Long.MAX_VALUE if there are
+         * none.
+         */
+        long getFirstTime() {
+            return cells.size() == 0 ? Long.MAX_VALUE : cells.get(0).getOnset();
+        }
+
+        /**
+         * @return The latest time covered by the cells, Long.MIN_VALUE if
+         * there are none.
+         */
+        long getLastTime() {
+            long last = Long.MIN_VALUE;
+            for (int i = 0; i < cells.size(); i++) {
+                Cell c = cells.get(i);
+                last = Math.max(last, Math.max(c.getOnset(), c.getOffset()));
+            }
+            return last;
+        }
+
+        /**
+         * Moves the cursor to a frame. Frames must be visited in increasing
+         * time order.
+         *
+         * @param time The time of the frame.
+         * @return The index of the cell covering the frame, -1 if there is
+         * none.
+         */
+        int advance(final long time) {
+            // Reach the cells that start at or before the frame.
+            while (next < cells.size() && cells.get(next).getOnset() <= time) {
+                if (activeCount == active.length) {
+                    active = Arrays.copyOf(active, active.length * 2);
+                }
+                active[activeCount] = next;
+                activeCount++;
+                next++;
+            }
+
+            // Drop the cells that ended before the frame and pick the latest
+            // to start of those that remain. Cells are reached in order of
+            // onset, so that is the last one still active.
+            int current = -1;
+            int kept = 0;
+            for (int i = 0; i < activeCount; i++) {
+                if (cells.get(active[i]).getOffset() >= time) {
+                    active[kept] = active[i];
+                    current = active[i];
+                    kept++;
+                }
+            }
+            activeCount = kept;
+
+            return current;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.export;
+
+import org.datavyu.models.db.Cell;
+import org.datavyu.models.db.Datastore;
+
+/**
+ * Lays out a datastore in long format, with a row per value of every cell:
+ * variable, ordinal, onset, offset, argument and value.
+ *
+ * Unlike the wide tables, the columns do not depend on the variables of the
+ * datastore, so tables of different datastores can be appended to each other.
+ */
+public final class TidyTable implements ExportTable {
+
+    private static final String[] NAMES = {
+            "variable", "ordinal", "onset", "offset", "argument", "value"
+    };
+
+    private static final ColumnType[] TYPES = {
+            ColumnType.TEXT, ColumnType.INTEGER, ColumnType.INTEGER,
+            ColumnType.INTEGER, ColumnType.TEXT, ColumnType.TEXT
+    };
+
+    private static final int VARIABLE = 0;
+    private static final int ORDINAL = 1;
+    private static final int ONSET = 2;
+    private static final int OFFSET = 3;
+    private static final int ARGUMENT = 4;
+    private static final int VALUE = 5;
+
+    // The cells of each variable.
+    private final VariableCells[] variables;
+
+    // The variable, cell and argument of the current row.
+    private int variable = 0;
+    private int cell = 0;
+    private int argument = -1;
+
+    // The values of the current cell.
+    private String[] values = null;
+
+    /**
+     * Constructor.
+     *
+     * @param ds The datastore to lay out.
+     */
+    public TidyTable(final Datastore ds) {
+        variables = VariableCells.of(ds);
+    }
+
+    @Override
+    public int getColumnCount() {
+        return NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(final int column) {
+        return NAMES[column];
+    }
+
+    @Override
+    public ColumnType getColumnType(final int column) {
+        return TYPES[column];
+    }
+
+    @Override
+    public boolean next() {
+        argument++;
+        while (variable < variables.length) {
+            VariableCells v = variables[variable];
+            if (cell < v.size() && argument < v.getArgumentCount()) {
+                if (argument == 0) {
+                    values = v.getValues(cell);
+                }
+                return true;
+            }
+
+            argument = 0;
+            cell++;
+            if (cell >= v.size()) {
+                cell = 0;
+                variable++;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean isNull(final int column) {
+        return column == VALUE && values[argument] == null;
+    }
+
+    @Override
+    public long getLong(final int column) {
+        Cell c = variables[variable].get(cell);
+        switch (column) {
+            case ORDINAL:
+                return cell + 1;
+            case ONSET:
+                return c.getOnset();
+            case OFFSET:
+                return c.getOffset();
+            default:
+                throw new IllegalArgumentException("Not an INTEGER column: " + column);
+        }
+    }
+
+    @Override
+    public String getString(final int column) {
+        switch (column) {
+            case VARIABLE:
+                return variables[variable].getName();
+            case ARGUMENT:
+                return variables[variable].getArgumentName(argument);
+            case VALUE:
+                return values[argument];
+            default:
+                return Long.toString(getLong(column));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.export;
+
+import org.datavyu.models.db.*;
+import org.datavyu.util.VariableSort;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The cells of a variable in temporal order, as read by the export tables.
+ *
+ * The ordinal of a cell is its position in temporal order, starting at 1, and
+ * its values are those of the arguments of a matrix variable or the single
+ * value of a text or nominal variable.
+ */
+final class VariableCells {
+
+    /**
+     * The variable.
+     */
+    private final Variable variable;
+
+    /**
+     * The cells of the variable, in temporal order.
+     */
+    private final List<Cell> cells;
+
+    /**
+     * The names of the values of each cell.
+     */
+    private final String[] argumentNames;
+
+    /**
+     * Constructor.
+     *
+     * @param variable The variable to read.
+     */
+    VariableCells(final Variable variable) {
+        this(variable, "value");
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param variable  The variable to read.
+     * @param valueName The name of the value of a text or nominal variable.
+     */
+    VariableCells(final Variable variable, final String valueName) {
+        this.variable = variable;
+        cells = variable.getCellsTemporally();
+
+        Argument root = variable.getRootNode();
+        if (root.type == Argument.Type.MATRIX) {
+            argumentNames = new String[root.childArguments.size()];
+            for (int a = 0; a < argumentNames.length; a++) {
+                argumentNames[a] = root.childArguments.get(a).name;
+            }
+        } else {
+            argumentNames = new String[] { valueName };
+        }
+    }
+
+    /**
+     * @param ds The datastore to read.
+     *
+     * @return The cells of every variable of ds, with the variables ordered
+     * by name.
+     */
+    static VariableCells[] of(final Datastore ds) {
+        List<Variable> variables = ds.getAllVariables();
+        Collections.sort(variables, new VariableSort());
+
+        VariableCells[] result = new VariableCells[variables.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new VariableCells(variables.get(i));
+        }
+        return result;
+    }
+
+    String getName() {
+        return variable.getName();
+    }
+
+    /**
+     * @return The number of cells.
+     */
+    int size() {
+        return cells.size();
+    }
+
+    /**
+     * @param index The position of the cell in temporal order.
+     *
+     * @return The cell.
+     */
+    Cell get(final int index) {
+        return cells.get(index);
+    }
+
+    /**
+     * @return The number of values of each cell.
+     */
+    int getArgumentCount() {
+        return argumentNames.length;
+    }
+
+    /**
+     * @param arg The index of the value.
+     *
+     * @return The name of the value, "value" by default for text and nominal
+     * variables.
+     */
+    String getArgumentName(final int arg) {
+        return argumentNames[arg];
+    }
+
+    /**
+     * @param index The position of the cell in temporal order.
+     *
+     * @return The values of the cell, null for empty values.
+     */
+    String[] getValues(final int index) {
+        String[] values = new String[argumentNames.length];
+        Value value = cells.get(index).getValue();
+
+        if (value instanceof MatrixValue) {
+            List<Value> args = ((MatrixValue) value).getArguments();
+            for (int a = 0; a < values.length && a < args.size(); a++) {
+                values[a] = args.get(a).isEmpty() ? null : args.get(a).toString();
+            }
+        } else {
+            values[0] = value.isEmpty() ? null : value.toString();
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.export;
+
+import org.datavyu.models.db.Variable;
+
+/**
+ * Lays out a single variable with a row per cell, in temporal order: ordinal,
+ * onset, offset and the values of the cell.
+ */
+public final class VariableTable extends WideTable {
+
+    // The index of the current row.
+    private int row = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param variable  The variable to lay out.
+     * @param valueName The name of the value column of a text or nominal
+     *                  variable.
+     */
+    public VariableTable(final Variable variable, final String valueName) {
+        super(new VariableCells[] { new VariableCells(variable, valueName) }, false);
+    }
+
+    @Override
+    public boolean next() {
+        if (row + 1 >= variables[0].size()) {
+            return false;
+        }
+
+        row++;
+        setCell(0, row);
+        return true;
+    }
+}
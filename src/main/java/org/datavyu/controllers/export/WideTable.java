@@ -0,0 +1,183 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.export;
+
+import org.datavyu.models.db.Cell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A table with a group of columns per variable, holding the ordinal, onset,
+ * offset and values of a cell of the variable, preceded by a number of
+ * INTEGER columns that identify the row.
+ *
+ * Subclasses choose the cell of each variable in every row.
+ */
+abstract class WideTable implements ExportTable {
+
+    // The number of columns of each variable before its values.
+    private static final int CELL_COLUMNS = 3;
+
+    /**
+     * The cells of each variable.
+     */
+    protected final VariableCells[] variables;
+
+    /**
+     * The values of the leading columns in the current row.
+     */
+    protected final long[] leading;
+
+    // The names of the columns.
+    private final List<String> names = new ArrayList<String>();
+
+    // The variable of each column, -1 for the leading columns.
+    private final int[] columnVariable;
+
+    // The field of the cell held in each column: 0 the ordinal, 1 the onset,
+    // 2 the offset and the values from CELL_COLUMNS.
+    private final int[] columnField;
+
+    // The index of the cell of each variable in the current row, -1 if none.
+    private final int[] current;
+
+    // The values of the cell of each variable in the current row.
+    private final String[][] values;
+
+    /**
+     * Constructor.
+     *
+     * @param variables    The cells of each variable.
+     * @param prefixed     Should the columns of each variable be named after
+     *                     it, as in "name.onset"?
+     * @param leadingNames The names of the leading columns.
+     */
+    WideTable(final VariableCells[] variables,
+              final boolean prefixed,
+              final String... leadingNames) {
+        this.variables = variables;
+        leading = new long[leadingNames.length];
+        current = new int[variables.length];
+        values = new String[variables.length][];
+
+        List<Integer> vars = new ArrayList<Integer>();
+        List<Integer> fields = new ArrayList<Integer>();
+        for (String name : leadingNames) {
+            names.add(name);
+            vars.add(-1);
+            fields.add(0);
+        }
+        for (int v = 0; v < variables.length; v++) {
+            String prefix = prefixed ? variables[v].getName() + "." : "";
+            names.add(prefix + "ordinal");
+            names.add(prefix + "onset");
+            names.add(prefix + "offset");
+            for (int a = 0; a < variables[v].getArgumentCount(); a++) {
+                names.add(prefix + variables[v].getArgumentName(a));
+            }
+            for (int f = 0; f < CELL_COLUMNS + variables[v].getArgumentCount(); f++) {
+                vars.add(v);
+                fields.add(f);
+            }
+            current[v] = -1;
+        }
+
+        columnVariable = new int[vars.size()];
+        columnField = new int[fields.size()];
+        for (int c = 0; c < columnVariable.length; c++) {
+            columnVariable[c] = vars.get(c);
+            columnField[c] = fields.get(c);
+        }
+    }
+
+    /**
+     * Sets the cell of a variable in the current row.
+     *
+     * @param variable The index of the variable.
+     * @param index    The position of the cell in temporal order, -1 for no
+     *                 cell.
+     */
+    protected final void setCell(final int variable, final int index) {
+        if (current[variable] != index) {
+            current[variable] = index;
+            values[variable] = index < 0 ? null : variables[variable].getValues(index);
+        }
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnVariable.length;
+    }
+
+    @Override
+    public String getColumnName(final int column) {
+        return names.get(column);
+    }
+
+    @Override
+    public ColumnType getColumnType(final int column) {
+        return columnField[column] < CELL_COLUMNS ? ColumnType.INTEGER : ColumnType.TEXT;
+    }
+
+    @Override
+    public boolean isNull(final int column) {
+        int v = columnVariable[column];
+        if (v < 0) {
+            return false;
+        }
+
+        return current[v] < 0
+                || (columnField[column] >= CELL_COLUMNS
+                    && values[v][columnField[column] - CELL_COLUMNS] == null);
+    }
+
+    @Override
+    public long getLong(final int column) {
+        int v = columnVariable[column];
+        if (v < 0) {
+            return leading[column];
+        }
+        if (current[v] < 0) {
+            return 0;
+        }
+
+        Cell cell = variables[v].get(current[v]);
+        switch (columnField[column]) {
+            case 0:
+                return current[v] + 1;
+            case 1:
+                return cell.getOnset();
+            case 2:
+                return cell.getOffset();
+            default:
+                throw new IllegalArgumentException("Not an INTEGER column: " + column);
+        }
+    }
+
+    @Override
+    public String getString(final int column) {
+        if (isNull(column)) {
+            return null;
+        }
+
+        int v = columnVariable[column];
+        if (v < 0 || columnField[column] < CELL_COLUMNS) {
+            return Long.toString(getLong(column));
+        }
+
+        return values[v][columnField[column] - CELL_COLUMNS];
+    }
+}
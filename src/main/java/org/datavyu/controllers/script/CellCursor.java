@@ -0,0 +1,158 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.script;
+
+import org.datavyu.models.db.Cell;
+import org.datavyu.models.db.Variable;
+
+import java.util.List;
+
+/**
+ * Steps through a selection of the cells of a variable in temporal order,
+ * reading and changing them in place.
+ *
+ * The selection and the ordinals of its cells are fixed when the cursor is
+ * created, so the cells can be moved around or removed while stepping through
+ * them.
+ *
+ * <pre>
+ * c = $api.cellsWhere("trial", "unit", "2")
+ * while c.next
+ *   c.setOffset(c.getOnset + 1000)
+ * end
+ * </pre>
+ */
+public final class CellCursor {
+
+    /**
+     * The variable holding the cells.
+     */
+    private final Variable variable;
+
+    /**
+     * The selected cells, in temporal order.
+     */
+    private final List<Cell> cells;
+
+    /**
+     * The ordinal of each selected cell.
+     */
+    private final int[] ordinals;
+
+    /**
+     * The index of the current cell, -1 before the first call to next.
+     */
+    private int index = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param variable The variable holding the cells.
+     * @param cells    The selected cells, in temporal order.
+     * @param ordinals The ordinal of each selected cell.
+     */
+    CellCursor(final Variable variable, final List<Cell> cells, final int[] ordinals) {
+        this.variable = variable;
+        this.cells = cells;
+        this.ordinals = ordinals;
+    }
+
+    /**
+     * Moves to the next selected cell.
+     *
+     * @return True if there is one, false once all have been visited.
+     */
+    public boolean next() {
+        if (index + 1 >= cells.size()) {
+            index = cells.size();
+            return false;
+        }
+
+        index++;
+        return true;
+    }
+
+    /**
+     * @return The number of selected cells.
+     */
+    public int size() {
+        return cells.size();
+    }
+
+    /**
+     * @return The current cell.
+     */
+    public Cell getCell() {
+        if (index < 0 || index >= cells.size()) {
+            throw new IllegalStateException("The cursor is not on a cell.");
+        }
+
+        return cells.get(index);
+    }
+
+    /**
+     * @return The position of the current cell among all the cells of the
+     * variable in temporal order, starting at 1.
+     */
+    public int getOrdinal() {
+        getCell();
+        return ordinals[index];
+    }
+
+    public long getOnset() {
+        return getCell().getOnset();
+    }
+
+    public void setOnset(final long onset) {
+        getCell().setOnset(onset);
+    }
+
+    public long getOffset() {
+        return getCell().getOffset();
+    }
+
+    public void setOffset(final long offset) {
+        getCell().setOffset(offset);
+    }
+
+    /**
+     * @param argument The name of an argument of the variable, ignored for
+     *                 text and nominal variables.
+     *
+     * @return The value of the argument in the current cell, null if empty.
+     */
+    public String get(final String argument) {
+        return ScriptAPI.getValue(getCell(), ScriptAPI.argumentIndex(variable, argument));
+    }
+
+    /**
+     * Sets the value of an argument in the current cell.
+     *
+     * @param argument The name of an argument of the variable, ignored for
+     *                 text and nominal variables.
+     * @param value    The new value, null or empty to clear it.
+     */
+    public void set(final String argument, final String value) {
+        ScriptAPI.setValue(getCell(), ScriptAPI.argumentIndex(variable, argument), value);
+    }
+
+    /**
+     * Removes the current cell from the variable. The cursor stays in place,
+     * so the next call to next moves on to the following cell.
+     */
+    public void remove() {
+        variable.removeCell(getCell());
+    }
+}
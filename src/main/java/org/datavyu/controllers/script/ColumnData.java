@@ -0,0 +1,87 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.script;
+
+import org.datavyu.models.db.Cell;
+
+/**
+ * A copy of the cells of a variable in temporal order, laid out in arrays so
+ * that a script can take a whole column in a handful of calls rather than
+ * several calls per cell.
+ *
+ * The values are held row by row in a single array: the value of argument a
+ * of cell i is at i * getArgumentNames().length + a. Empty values are shown
+ * as the name of their argument in angle brackets, as in the spreadsheet.
+ *
+ * Columns worked out by ScriptAPI without being written to the datastore,
+ * such as a mutex, have a null in place of each cell.
+ */
+public final class ColumnData {
+
+    private final String[] argumentNames;
+
+    private final Cell[] cells;
+
+    private final long[] onsets;
+
+    private final long[] offsets;
+
+    private final String[] values;
+
+    /**
+     * Constructor.
+     *
+     * @param argumentNames The names of the arguments.
+     * @param cells         The cells, in temporal order.
+     * @param onsets        The onset of each cell.
+     * @param offsets       The offset of each cell.
+     * @param values        The values of each cell, row by row.
+     */
+    ColumnData(final String[] argumentNames,
+               final Cell[] cells,
+               final long[] onsets,
+               final long[] offsets,
+               final String[] values) {
+        this.argumentNames = argumentNames;
+        this.cells = cells;
+        this.onsets = onsets;
+        this.offsets = offsets;
+        this.values = values;
+    }
+
+    /**
+     * @return The names of the arguments, "var" for the value of text and
+     * nominal variables.
+     */
+    public String[] getArgumentNames() {
+        return argumentNames;
+    }
+
+    public Cell[] getCells() {
+        return cells;
+    }
+
+    public long[] getOnsets() {
+        return onsets;
+    }
+
+    public long[] getOffsets() {
+        return offsets;
+    }
+
+    public String[] getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,717 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.script;
+
+import org.datavyu.models.db.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queries and changes the variables of a datastore on behalf of scripts.
+ *
+ * Scripts reach the datastore through JRuby, where every call into Java goes
+ * through reflection. Reading or writing a column one cell and one value at
+ * a time from Ruby therefore costs several reflective calls per cell; this
+ * class does that work in Java so that a script needs a handful of calls per
+ * column instead. It is available to Ruby scripts as $api.
+ */
+public final class ScriptAPI {
+
+    /**
+     * The name given to the value of text and nominal variables.
+     */
+    private static final String VALUE_NAME = "var";
+
+    /**
+     * The datastore to work on.
+     */
+    private final Datastore datastore;
+
+    /**
+     * Constructor.
+     *
+     * @param datastore The datastore to work on.
+     */
+    public ScriptAPI(final Datastore datastore) {
+        this.datastore = datastore;
+    }
+
+    /**
+     * @return The datastore worked on.
+     */
+    public Datastore getDatastore() {
+        return datastore;
+    }
+
+    /**
+     * Starts a batch of changes: the spreadsheet is refreshed once when the
+     * batch ends rather than after every change. Batches can be nested and
+     * each must be ended with endBatch.
+     */
+    public void beginBatch() {
+        datastore.beginBulkUpdate();
+    }
+
+    /**
+     * Ends a batch of changes started with beginBatch.
+     */
+    public void endBatch() {
+        datastore.endBulkUpdate();
+    }
+
+    /**
+     * @param name The name of a variable.
+     *
+     * @return A cursor over all the cells of the variable.
+     * @throws UserWarningException If there is no such variable.
+     */
+    public CellCursor cells(final String name) throws UserWarningException {
+        Variable var = getVariable(name);
+        List<Cell> cells = new ArrayList<Cell>(var.getCellsTemporally());
+        int[] ordinals = new int[cells.size()];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = i + 1;
+        }
+
+        return new CellCursor(var, cells, ordinals);
+    }
+
+    /**
+     * @param name  The name of a variable.
+     * @param start The start of the window in milliseconds.
+     * @param end   The end of the window in milliseconds.
+     *
+     * @return A cursor over the cells of the variable that overlap the window,
+     * both ends included.
+     * @throws UserWarningException If there is no such variable.
+     */
+    public CellCursor cellsOverlapping(final String name, final long start, final long end)
+            throws UserWarningException {
+        Variable var = getVariable(name);
+        List<Cell> cells = var.getCellsOverlapping(start, end);
+        int[] ordinals = new int[cells.size()];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = var.getCellTemporalIndex(cells.get(i)) + 1;
+        }
+
+        return new CellCursor(var, cells, ordinals);
+    }
+
+    /**
+     * @param name     The name of a variable.
+     * @param argument The name of one of its arguments, ignored for text and
+     *                 nominal variables.
+     * @param value    The value to look for, null for empty values.
+     *
+     * @return A cursor over the cells of the variable holding the value.
+     * @throws UserWarningException If there is no such variable.
+     */
+    public CellCursor cellsWhere(final String name, final String argument, final String value)
+            throws UserWarningException {
+        Variable var = getVariable(name);
+        int index = argumentIndex(var, argument);
+        String wanted = value == null || value.length() == 0 ? null : value;
+
+        List<Cell> all = var.getCellsTemporally();
+        List<Cell> cells = new ArrayList<Cell>();
+        int[] ordinals = new int[all.size()];
+        for (int i = 0; i < all.size(); i++) {
+            String v = getValue(all.get(i), index);
+            if (wanted == null ? v == null : wanted.equals(v)) {
+                ordinals[cells.size()] = i + 1;
+                cells.add(all.get(i));
+            }
+        }
+
+        return new CellCursor(var, cells, Arrays.copyOf(ordinals, cells.size()));
+    }
+
+    /**
+     * @param name The name of a variable.
+     *
+     * @return A copy of the cells of the variable.
+     * @throws UserWarningException If there is no such variable.
+     */
+    public ColumnData read(final String name) throws UserWarningException {
+        Variable var = getVariable(name);
+        String[] names = getArgumentNames(var);
+        boolean matrix = var.getRootNode().type == Argument.Type.MATRIX;
+
+        List<Cell> all = var.getCellsTemporally();
+        Cell[] cells = all.toArray(new Cell[all.size()]);
+        long[] onsets = new long[cells.length];
+        long[] offsets = new long[cells.length];
+        String[] values = new String[cells.length * names.length];
+        for (int i = 0; i < cells.length; i++) {
+            onsets[i] = cells[i].getOnset();
+            offsets[i] = cells[i].getOffset();
+            for (int a = 0; a < names.length; a++) {
+                Value v = matrix ? cells[i].getMatrixValue(a) : cells[i].getValue();
+                values[i * names.length + a] = v.toString();
+            }
+        }
+
+        return new ColumnData(names, cells, onsets, offsets, values);
+    }
+
+    /**
+     * Writes a column back to a variable in a single batch.
+     *
+     * Each row is written to its cell, or to a new cell when it has none or
+     * its cell belongs to another variable. Empty values leave the values of
+     * the cell as they are, as do values naming arguments the variable does
+     * not have.
+     *
+     * @param var           The variable to write to.
+     * @param argumentNames The names of the arguments held by each row.
+     * @param cells         The cell of each row, null for new cells.
+     * @param onsets        The onset of each row.
+     * @param offsets       The offset of each row.
+     * @param values        The values of each row, row by row.
+     *
+     * @return The cell each row was written to.
+     */
+    public Cell[] update(final Variable var,
+                         final String[] argumentNames,
+                         final Cell[] cells,
+                         final long[] onsets,
+                         final long[] offsets,
+                         final String[] values) {
+        int[] index = new int[argumentNames.length];
+        for (int a = 0; a < index.length; a++) {
+            index[a] = var.getRootNode().type == Argument.Type.MATRIX
+                    ? var.getArgumentIndex(argumentNames[a]) : 0;
+        }
+
+        Cell[] result = new Cell[cells.length];
+        datastore.beginBulkUpdate();
+        try {
+            for (int i = 0; i < cells.length; i++) {
+                Cell cell = cells[i];
+                if (cell == null || !var.contains(cell)) {
+                    cell = var.createCell();
+                }
+
+                cell.setOnset(onsets[i]);
+                cell.setOffset(offsets[i]);
+                for (int a = 0; a < index.length; a++) {
+                    String v = values[i * index.length + a];
+                    if (index[a] >= 0 && v != null && v.length() > 0) {
+                        valueOf(cell, index[a]).set(v);
+                    }
+                }
+                result[i] = cell;
+            }
+        } finally {
+            datastore.endBulkUpdate();
+        }
+
+        return result;
+    }
+
+    /**
+     * Closes the gaps between consecutive cells of a variable that are
+     * shorter than a tolerance, by moving the onset of the later cell back to
+     * the offset of the earlier one.
+     *
+     * @param name      The name of the variable.
+     * @param tolerance The gap below which cells are joined, in milliseconds.
+     *
+     * @return The number of cells moved.
+     * @throws UserWarningException If there is no such variable.
+     */
+    public int smooth(final String name, final long tolerance) throws UserWarningException {
+        List<Cell> cells = new ArrayList<Cell>(getVariable(name).getCellsTemporally());
+
+        int moved = 0;
+        datastore.beginBulkUpdate();
+        try {
+            for (int i = 0; i + 1 < cells.size(); i++) {
+                long offset = cells.get(i).getOffset();
+                Cell next = cells.get(i + 1);
+                if (next.getOnset() - offset < tolerance && next.getOnset() != offset) {
+                    next.setOnset(offset);
+                    moved++;
+                }
+            }
+        } finally {
+            datastore.endBulkUpdate();
+        }
+
+        return moved;
+    }
+
+    /**
+     * Creates a variable holding a copy of every cell of a number of others.
+     * The new variable has the arguments of all of them, arguments with the
+     * same name being merged, and replaces any variable of the same name.
+     *
+     * @param name  The name of the new variable.
+     * @param names The names of the variables to merge.
+     *
+     * @return The new variable.
+     * @throws UserWarningException If a variable is missing or the new
+     * variable cannot be created.
+     */
+    public Variable merge(final String name, final String... names) throws UserWarningException {
+        Variable[] sources = new Variable[names.length];
+        Map<String, Integer> arguments = new LinkedHashMap<String, Integer>();
+        for (int v = 0; v < sources.length; v++) {
+            sources[v] = getSource(name, names[v]);
+            for (String arg : getArgumentNames(sources[v])) {
+                if (!arguments.containsKey(arg)) {
+                    arguments.put(arg, arguments.size());
+                }
+            }
+        }
+
+        datastore.beginBulkUpdate();
+        try {
+            Variable merged = replaceVariable(name, arguments.keySet());
+            for (Variable source : sources) {
+                String[] args = getArgumentNames(source);
+                for (Cell cell : source.getCellsTemporally()) {
+                    Cell copy = merged.createCell();
+                    copy.setOnset(cell.getOnset());
+                    copy.setOffset(cell.getOffset());
+                    for (int a = 0; a < args.length; a++) {
+                        setValue(copy, arguments.get(args[a]), getValue(cell, a));
+                    }
+                }
+            }
+
+            return merged;
+        } finally {
+            datastore.endBulkUpdate();
+        }
+    }
+
+    /**
+     * Works out a column that is mutually exclusive of two variables: it has
+     * a cell for every stretch of time over which the cells of the two
+     * variables covering it stay the same, holding the ordinal and values of
+     * both. The datastore is left as it is; the column has no cells in it
+     * and is written to a variable by the script, as with any other column.
+     *
+     * The arguments of the column are those of each variable, named as
+     * scripts name them and preceded by a prefix, with "___" turned into "_".
+     * The arguments of a variable that does not cover a stretch are left
+     * blank.
+     *
+     * @param name    The name of the new column, used for the default
+     *                prefixes only.
+     * @param name1   The name of the first variable.
+     * @param name2   The name of the second variable.
+     * @param prefix1 The prefix of the arguments of the first variable, null
+     *                for its name followed by "___".
+     * @param prefix2 The prefix of the arguments of the second variable, null
+     *                for its name followed by "___".
+     *
+     * @return The mutually exclusive column.
+     * @throws UserWarningException If a variable is missing or has a cell
+     * that ends before it starts or has no offset.
+     */
+    public ColumnData mutex(final String name,
+                            final String name1,
+                            final String name2,
+                            final String prefix1,
+                            final String prefix2) throws UserWarningException {
+        Variable var1 = getVariable(name1);
+        Variable var2 = getVariable(name2);
+        List<Cell> cells1 = getCheckedCells(var1);
+        List<Cell> cells2 = getCheckedCells(var2);
+        String[] args1 = getScriptNames(var1);
+        String[] args2 = getScriptNames(var2);
+
+        List<String> arguments = new ArrayList<String>();
+        String p1 = prefix1 == null ? getScriptName(var1.getName()) + "___" : prefix1;
+        String p2 = prefix2 == null ? getScriptName(var2.getName()) + "___" : prefix2;
+        arguments.add((p1 + "ordinal").replace("___", "_"));
+        for (String arg : args1) {
+            arguments.add((p1 + arg).replace("___", "_"));
+        }
+        arguments.add((p2 + "ordinal").replace("___", "_"));
+        for (String arg : args2) {
+            arguments.add((p2 + arg).replace("___", "_"));
+        }
+
+        // Every onset and offset starts a new stretch of time.
+        long[] onsets1 = getOnsets(cells1);
+        long[] offsets1 = getOffsets(cells1);
+        long[] onsets2 = getOnsets(cells2);
+        long[] offsets2 = getOffsets(cells2);
+        long[] times = new long[(cells1.size() + cells2.size()) * 2];
+        System.arraycopy(onsets1, 0, times, 0, onsets1.length);
+        System.arraycopy(offsets1, 0, times, cells1.size(), offsets1.length);
+        System.arraycopy(onsets2, 0, times, cells1.size() * 2, onsets2.length);
+        System.arraycopy(offsets2, 0, times, cells1.size() * 2 + cells2.size(), offsets2.length);
+        Arrays.sort(times);
+
+        long[] starts = new long[times.length];
+        long[] ends = new long[times.length];
+        int stretches = 0;
+        for (int i = 0; i + 1 < times.length; i++) {
+            if (times[i] != times[i + 1]) {
+                starts[stretches] = times[i];
+                ends[stretches] = times[i + 1];
+                stretches++;
+            }
+        }
+        starts = Arrays.copyOf(starts, stretches);
+        ends = Arrays.copyOf(ends, stretches);
+
+        int[] cover1 = TemporalJoin.covering(onsets1, offsets1, starts, ends);
+        int[] cover2 = TemporalJoin.covering(onsets2, offsets2, starts, ends);
+
+        int n = arguments.size();
+        long[] onsets = new long[stretches];
+        long[] offsets = new long[stretches];
+        String[] values = new String[stretches * n];
+        Arrays.fill(values, "");
+        int rows = 0;
+        for (int s = 0; s < stretches; s++) {
+            int c1 = cover1[s];
+            int c2 = cover2[s];
+            if (c1 < 0 && c2 < 0) {
+                continue;
+            }
+
+            onsets[rows] = starts[s];
+            offsets[rows] = ends[s];
+            if (c1 >= 0) {
+                copyValues(cells1.get(c1), c1 + 1, values, rows * n, args1.length);
+            }
+            if (c2 >= 0) {
+                copyValues(cells2.get(c2), c2 + 1, values, rows * n + 1 + args1.length, args2.length);
+            }
+            rows++;
+        }
+
+        return new ColumnData(arguments.toArray(new String[n]), new Cell[rows],
+                Arrays.copyOf(onsets, rows), Arrays.copyOf(offsets, rows),
+                Arrays.copyOf(values, rows * n));
+    }
+
+    /**
+     * Creates a variable with a cell for each stretch of time covered by a
+     * cell of either of two variables. The new variable replaces any
+     * variable of the same name.
+     *
+     * @param name  The name of the new variable.
+     * @param name1 The name of the first variable.
+     * @param name2 The name of the second variable.
+     *
+     * @return The new variable.
+     * @throws UserWarningException If a variable is missing or the new
+     * variable cannot be created.
+     */
+    public Variable union(final String name, final String name1, final String name2)
+            throws UserWarningException {
+        List<Cell> cells1 = getSource(name, name1).getCellsTemporally();
+        List<Cell> cells2 = getSource(name, name2).getCellsTemporally();
+
+        return createVariable(name, TemporalJoin.union(getOnsets(cells1), getOffsets(cells1),
+                getOnsets(cells2), getOffsets(cells2)));
+    }
+
+    /**
+     * Creates a variable with a cell for each stretch of time covered by a
+     * cell of both of two variables. The new variable replaces any variable
+     * of the same name.
+     *
+     * @param name  The name of the new variable.
+     * @param name1 The name of the first variable.
+     * @param name2 The name of the second variable.
+     *
+     * @return The new variable.
+     * @throws UserWarningException If a variable is missing or the new
+     * variable cannot be created.
+     */
+    public Variable intersection(final String name, final String name1, final String name2)
+            throws UserWarningException {
+        List<Cell> cells1 = getSource(name, name1).getCellsTemporally();
+        List<Cell> cells2 = getSource(name, name2).getCellsTemporally();
+
+        return createVariable(name, TemporalJoin.intersection(getOnsets(cells1), getOffsets(cells1),
+                getOnsets(cells2), getOffsets(cells2)));
+    }
+
+    /**
+     * Creates a variable with a cell per stretch of time, replacing any
+     * variable of the same name.
+     *
+     * @param name      The name of the variable.
+     * @param intervals The stretches of time.
+     *
+     * @return The new variable.
+     * @throws UserWarningException If unable to create the variable.
+     */
+    private Variable createVariable(final String name, final TemporalJoin.Intervals intervals)
+            throws UserWarningException {
+        datastore.beginBulkUpdate();
+        try {
+            Variable var = replaceVariable(name, new ArrayList<String>());
+            for (int i = 0; i < intervals.size(); i++) {
+                Cell cell = var.createCell();
+                cell.setOnset(intervals.getStarts()[i]);
+                cell.setOffset(intervals.getEnds()[i]);
+            }
+            return var;
+        } finally {
+            datastore.endBulkUpdate();
+        }
+    }
+
+    /**
+     * @param cells Some cells.
+     *
+     * @return The onset of each cell.
+     */
+    private static long[] getOnsets(final List<Cell> cells) {
+        long[] onsets = new long[cells.size()];
+        for (int i = 0; i < onsets.length; i++) {
+            onsets[i] = cells.get(i).getOnset();
+        }
+        return onsets;
+    }
+
+    /**
+     * @param cells Some cells.
+     *
+     * @return The offset of each cell.
+     */
+    private static long[] getOffsets(final List<Cell> cells) {
+        long[] offsets = new long[cells.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = cells.get(i).getOffset();
+        }
+        return offsets;
+    }
+
+    /**
+     * Copies the ordinal and values of a cell into a run of the values of a
+     * row of a mutually exclusive column, as read would show them.
+     *
+     * @param source  The cell to copy.
+     * @param ordinal The ordinal of the cell to copy.
+     * @param target  The values of the column.
+     * @param first   The index of the value holding the ordinal, followed by
+     *                those holding the values.
+     * @param count   The number of values to copy.
+     */
+    private static void copyValues(final Cell source,
+                                   final int ordinal,
+                                   final String[] target,
+                                   final int first,
+                                   final int count) {
+        target[first] = Integer.toString(ordinal);
+        for (int a = 0; a < count; a++) {
+            target[first + 1 + a] = valueOf(source, a).toString();
+        }
+    }
+
+    /**
+     * @param name The name of a variable.
+     *
+     * @return The variable.
+     * @throws UserWarningException If there is no such variable.
+     */
+    private Variable getVariable(final String name) throws UserWarningException {
+        Variable var = datastore.getVariable(name);
+        if (var == null) {
+            throw new UserWarningException("No column with name '" + name + "' was found.");
+        }
+        return var;
+    }
+
+    /**
+     * @param target The name of the variable to create from the source.
+     * @param name   The name of the source variable.
+     *
+     * @return The source variable.
+     * @throws UserWarningException If there is no such variable or it is the
+     * one to be replaced.
+     */
+    private Variable getSource(final String target, final String name) throws UserWarningException {
+        if (name.equals(target)) {
+            throw new UserWarningException("Unable to replace column '" + name + "' with a column made from it.");
+        }
+        return getVariable(name);
+    }
+
+    /**
+     * @param var A variable.
+     *
+     * @return The cells of the variable in temporal order.
+     * @throws UserWarningException If a cell ends before it starts or has no
+     * offset.
+     */
+    private static List<Cell> getCheckedCells(final Variable var) throws UserWarningException {
+        List<Cell> cells = new ArrayList<Cell>(var.getCellsTemporally());
+        for (int i = 0; i < cells.size(); i++) {
+            Cell cell = cells.get(i);
+            if (cell.getOnset() > cell.getOffset()) {
+                throw new UserWarningException("Cell " + (i + 1) + " in column " + var.getName()
+                        + " has an onset greater than its offset.");
+            }
+            if (cell.getOffset() == 0) {
+                throw new UserWarningException("Cell " + (i + 1) + " in column " + var.getName()
+                        + " has a blank offset.");
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Creates an empty matrix variable, replacing any of the same name.
+     *
+     * @param name      The name of the variable.
+     * @param arguments The names of its arguments.
+     *
+     * @return The new variable.
+     * @throws UserWarningException If unable to create the variable.
+     */
+    private Variable replaceVariable(final String name, final Iterable<String> arguments)
+            throws UserWarningException {
+        Variable old = datastore.getVariable(name);
+        if (old != null) {
+            datastore.removeVariable(old);
+        }
+
+        Variable var = datastore.createVariable(name, Argument.Type.MATRIX);
+        boolean placeholder = true;
+        for (String arg : arguments) {
+            if (placeholder) {
+                var.removeArgument(var.getRootNode().childArguments.get(0).name);
+                placeholder = false;
+            }
+            var.addArgument(Argument.Type.NOMINAL).name = arg;
+
+            // Lets the listeners of the variable know of the new name.
+            var.setRootNode(var.getRootNode());
+        }
+        return var;
+    }
+
+    /**
+     * @param var A variable.
+     *
+     * @return The names of the arguments of a matrix variable, or "var" for
+     * the value of a text or nominal variable.
+     */
+    private static String[] getArgumentNames(final Variable var) {
+        Argument root = var.getRootNode();
+        if (root.type != Argument.Type.MATRIX) {
+            return new String[] { VALUE_NAME };
+        }
+
+        String[] names = new String[root.childArguments.size()];
+        for (int a = 0; a < names.length; a++) {
+            names[a] = root.childArguments.get(a).name;
+        }
+        return names;
+    }
+
+    /**
+     * @param var A variable.
+     *
+     * @return The names scripts give to the arguments of the variable.
+     */
+    private static String[] getScriptNames(final Variable var) {
+        String[] names = getArgumentNames(var);
+        for (int a = 0; a < names.length; a++) {
+            names[a] = (Character.isDigit(names[a].charAt(0)) ? "_" : "") + getScriptName(names[a]);
+        }
+        return names;
+    }
+
+    /**
+     * @param name A name.
+     *
+     * @return The name in lower case, without the characters that can not
+     * appear in Ruby method names.
+     */
+    private static String getScriptName(final String name) {
+        return name.replaceAll("\\W+", "").toLowerCase();
+    }
+
+    /**
+     * @param var      A variable.
+     * @param argument The name of one of its arguments, ignored for text and
+     *                 nominal variables.
+     *
+     * @return The index of the argument, 0 for text and nominal variables.
+     */
+    static int argumentIndex(final Variable var, final String argument) {
+        if (var.getRootNode().type != Argument.Type.MATRIX) {
+            return 0;
+        }
+
+        int index = var.getArgumentIndex(argument);
+        if (index < 0) {
+            throw new IllegalArgumentException("Column " + var.getName()
+                    + " has no code named '" + argument + "'.");
+        }
+        return index;
+    }
+
+    /**
+     * @param cell  A cell.
+     * @param index The index of an argument, ignored for text and nominal
+     *              variables.
+     *
+     * @return The value of the argument.
+     */
+    private static Value valueOf(final Cell cell, final int index) {
+        Value value = cell.getValue();
+        if (value instanceof MatrixValue) {
+            return cell.getMatrixValue(index);
+        }
+        return value;
+    }
+
+    /**
+     * @param cell  A cell.
+     * @param index The index of an argument, ignored for text and nominal
+     *              variables.
+     *
+     * @return The value of the argument, null if empty.
+     */
+    static String getValue(final Cell cell, final int index) {
+        Value value = valueOf(cell, index);
+        return value.isEmpty() ? null : value.toString();
+    }
+
+    /**
+     * Sets the value of an argument of a cell.
+     *
+     * @param cell  A cell.
+     * @param index The index of an argument, ignored for text and nominal
+     *              variables.
+     * @param value The new value, null or empty to clear it.
+     */
+    static void setValue(final Cell cell, final int index, final String value) {
+        Value v = valueOf(cell, index);
+        if (value == null || value.length() == 0) {
+            v.clear();
+        } else {
+            v.set(value);
+        }
+    }
+}
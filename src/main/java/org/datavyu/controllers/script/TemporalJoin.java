@@ -0,0 +1,489 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.script;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pairs up the cells of two columns by time or by value.
+ *
+ * Columns are given as arrays of onsets, offsets or values, in any order, so
+ * that both cells of the datastore and cells changed by a script but not yet
+ * written back can be joined. Results refer to cells by their index in those
+ * arrays. Each join sorts the cells once and sweeps over them, rather than
+ * comparing every cell of one column with every cell of the other.
+ *
+ * Times are in milliseconds and cells cover their onset and offset.
+ */
+public final class TemporalJoin {
+
+    private TemporalJoin() {
+    }
+
+    /**
+     * Pairs of cells, one from each of two columns.
+     */
+    public static final class Matches {
+
+        /**
+         * The index of the cell of the first column of each pair.
+         */
+        private final int[] left;
+
+        /**
+         * The index of the cell of the second column of each pair.
+         */
+        private final int[] right;
+
+        /**
+         * Constructor.
+         *
+         * @param pairs Each pair, the index of the left cell in the high 32
+         *              bits and that of the right cell in the low 32 bits.
+         * @param count The number of pairs.
+         */
+        Matches(final long[] pairs, final int count) {
+            left = new int[count];
+            right = new int[count];
+            for (int i = 0; i < count; i++) {
+                left[i] = (int) (pairs[i] >>> 32);
+                right[i] = (int) pairs[i];
+            }
+        }
+
+        /**
+         * @return The number of pairs.
+         */
+        public int size() {
+            return left.length;
+        }
+
+        /**
+         * @return The index of the cell of the first column of each pair.
+         */
+        public int[] getLeft() {
+            return left;
+        }
+
+        /**
+         * @return The index of the cell of the second column of each pair.
+         */
+        public int[] getRight() {
+            return right;
+        }
+    }
+
+    /**
+     * Stretches of time, in order and not overlapping.
+     */
+    public static final class Intervals {
+
+        private final long[] starts;
+
+        private final long[] ends;
+
+        /**
+         * Constructor.
+         *
+         * @param starts The start of each stretch.
+         * @param ends   The end of each stretch.
+         */
+        Intervals(final long[] starts, final long[] ends) {
+            this.starts = starts;
+            this.ends = ends;
+        }
+
+        public int size() {
+            return starts.length;
+        }
+
+        public long[] getStarts() {
+            return starts;
+        }
+
+        public long[] getEnds() {
+            return ends;
+        }
+    }
+
+    /**
+     * Pairs the cells of two columns that hold the same value, as a
+     * reliability check pairs the cells of a column with those of its
+     * reliability column.
+     *
+     * @param values1 The value of each cell of the first column.
+     * @param values2 The value of each cell of the second column.
+     *
+     * @return Every pair of cells with equal values, ordered by the cell of
+     * the first column then that of the second. Null values match nothing.
+     */
+    public static Matches sameValue(final String[] values1, final String[] values2) {
+        Map<String, List<Integer>> byValue = new HashMap<String, List<Integer>>();
+        for (int j = 0; j < values2.length; j++) {
+            if (values2[j] == null) {
+                continue;
+            }
+
+            List<Integer> cells = byValue.get(values2[j]);
+            if (cells == null) {
+                cells = new ArrayList<Integer>(1);
+                byValue.put(values2[j], cells);
+            }
+            cells.add(j);
+        }
+
+        PairList pairs = new PairList();
+        for (int i = 0; i < values1.length; i++) {
+            List<Integer> cells = values1[i] == null ? null : byValue.get(values1[i]);
+            if (cells != null) {
+                for (int j : cells) {
+                    pairs.add(i, j);
+                }
+            }
+        }
+        return pairs.toMatches(false);
+    }
+
+    /**
+     * Pairs the cells of two columns that overlap in time, allowing for a
+     * tolerance: cells a and b are paired when a starts no more than
+     * tolerance after b ends and b starts no more than tolerance after a
+     * ends.
+     *
+     * @param onsets1   The onset of each cell of the first column.
+     * @param offsets1  The offset of each cell of the first column.
+     * @param onsets2   The onset of each cell of the second column.
+     * @param offsets2  The offset of each cell of the second column.
+     * @param tolerance The tolerance in milliseconds, 0 for cells that share
+     *                  at least an instant.
+     *
+     * @return Every pair of overlapping cells, ordered by the cell of the
+     * first column then that of the second.
+     */
+    public static Matches overlapping(final long[] onsets1,
+                                      final long[] offsets1,
+                                      final long[] onsets2,
+                                      final long[] offsets2,
+                                      final long tolerance) {
+        int[] order1 = sortByTime(onsets1, offsets1);
+        int[] order2 = sortByTime(onsets2, offsets2);
+
+        // Cells of the second column are reached in order of onset and kept
+        // until they end too early for the cells of the first column still
+        // to come, which start no earlier than the current one.
+        PairList pairs = new PairList();
+        int[] active = new int[4];
+        int activeCount = 0;
+        int next = 0;
+        for (int i : order1) {
+            long start = onsets1[i] - tolerance;
+            long end = offsets1[i] + tolerance;
+
+            while (next < order2.length && onsets2[order2[next]] <= end) {
+                if (activeCount == active.length) {
+                    active = Arrays.copyOf(active, active.length * 2);
+                }
+                active[activeCount] = order2[next];
+                activeCount++;
+                next++;
+            }
+
+            int kept = 0;
+            for (int a = 0; a < activeCount; a++) {
+                int j = active[a];
+                if (offsets2[j] >= start) {
+                    active[kept] = j;
+                    kept++;
+                    if (onsets2[j] <= end) {
+                        pairs.add(i, j);
+                    }
+                }
+            }
+            activeCount = kept;
+        }
+        return pairs.toMatches(true);
+    }
+
+    /**
+     * Pairs each cell of a column with the cell of another column whose onset
+     * is nearest its own, if that is within a tolerance. A cell of the second
+     * column may be paired with several of the first.
+     *
+     * @param onsets1   The onset of each cell of the first column.
+     * @param onsets2   The onset of each cell of the second column.
+     * @param tolerance The largest difference in onset allowed, in
+     *                  milliseconds.
+     *
+     * @return The pair of each cell of the first column that has one, in the
+     * order of the first column. Of two cells equally near, the one starting
+     * earlier is used.
+     */
+    public static Matches nearest(final long[] onsets1, final long[] onsets2, final long tolerance) {
+        int[] order2 = sortByTime(onsets2, onsets2);
+        long[] sorted = new long[order2.length];
+        for (int j = 0; j < sorted.length; j++) {
+            sorted[j] = onsets2[order2[j]];
+        }
+
+        PairList pairs = new PairList();
+        for (int i = 0; i < onsets1.length; i++) {
+            // The first cell starting at or after the cell, and the one before.
+            int lo = 0;
+            int hi = sorted.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid] < onsets1[i]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+
+            int best = -1;
+            if (lo > 0) {
+                best = lo - 1;
+            }
+            if (lo < sorted.length
+                    && (best < 0 || sorted[lo] - onsets1[i] < onsets1[i] - sorted[best])) {
+                best = lo;
+            }
+            if (best >= 0 && Math.abs(sorted[best] - onsets1[i]) <= tolerance) {
+                pairs.add(i, order2[best]);
+            }
+        }
+        return pairs.toMatches(false);
+    }
+
+    /**
+     * Finds the cell of a column covering each of a series of stretches of
+     * time, as the stretches of a mutually exclusive column are filled in.
+     *
+     * @param onsets  The onset of each cell, in temporal order.
+     * @param offsets The offset of each cell.
+     * @param starts  The start of each stretch, in increasing order.
+     * @param ends    The end of each stretch.
+     *
+     * @return For each stretch, the index of the first cell that starts at or
+     * before the start of the stretch and ends at or after its end, -1 if
+     * there is none. Once a cell has been used, no earlier cell is used for
+     * a later stretch.
+     */
+    public static int[] covering(final long[] onsets,
+                                 final long[] offsets,
+                                 final long[] starts,
+                                 final long[] ends) {
+        int[] result = new int[starts.length];
+        int[] active = new int[4];
+        int activeCount = 0;
+        int next = 0;
+        for (int s = 0; s < starts.length; s++) {
+            while (next < onsets.length && onsets[next] <= starts[s]) {
+                if (activeCount == active.length) {
+                    active = Arrays.copyOf(active, active.length * 2);
+                }
+                active[activeCount] = next;
+                activeCount++;
+                next++;
+            }
+
+            // Cells ending before this stretch end before all later ones too,
+            // and the cells before the one used are not used again.
+            int kept = 0;
+            for (int a = 0; a < activeCount; a++) {
+                if (offsets[active[a]] >= ends[s]) {
+                    active[kept] = active[a];
+                    kept++;
+                }
+            }
+            activeCount = kept;
+
+            result[s] = activeCount == 0 ? -1 : active[0];
+        }
+        return result;
+    }
+
+    /**
+     * @param onsets1  The onset of each cell of the first column.
+     * @param offsets1 The offset of each cell of the first column.
+     * @param onsets2  The onset of each cell of the second column.
+     * @param offsets2 The offset of each cell of the second column.
+     *
+     * @return The stretches of time covered by a cell of either column.
+     */
+    public static Intervals union(final long[] onsets1,
+                                  final long[] offsets1,
+                                  final long[] onsets2,
+                                  final long[] offsets2) {
+        long[] onsets = Arrays.copyOf(onsets1, onsets1.length + onsets2.length);
+        long[] offsets = Arrays.copyOf(offsets1, offsets1.length + offsets2.length);
+        System.arraycopy(onsets2, 0, onsets, onsets1.length, onsets2.length);
+        System.arraycopy(offsets2, 0, offsets, offsets1.length, offsets2.length);
+        return coalesce(onsets, offsets);
+    }
+
+    /**
+     * @param onsets1  The onset of each cell of the first column.
+     * @param offsets1 The offset of each cell of the first column.
+     * @param onsets2  The onset of each cell of the second column.
+     * @param offsets2 The offset of each cell of the second column.
+     *
+     * @return The stretches of time covered by a cell of both columns,
+     * including single instants where cells only touch.
+     */
+    public static Intervals intersection(final long[] onsets1,
+                                         final long[] offsets1,
+                                         final long[] onsets2,
+                                         final long[] offsets2) {
+        Intervals a = coalesce(onsets1, offsets1);
+        Intervals b = coalesce(onsets2, offsets2);
+
+        long[] starts = new long[a.size() + b.size()];
+        long[] ends = new long[starts.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            long start = Math.max(a.starts[i], b.starts[j]);
+            long end = Math.min(a.ends[i], b.ends[j]);
+            if (start <= end) {
+                starts[count] = start;
+                ends[count] = end;
+                count++;
+            }
+
+            if (a.ends[i] < b.ends[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return new Intervals(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+    }
+
+    /**
+     * @param onsets  The onset of each cell.
+     * @param offsets The offset of each cell.
+     *
+     * @return The stretches of time covered by the cells, cells that overlap
+     * or touch being joined together. Cells ending before they start are
+     * ignored.
+     */
+    static Intervals coalesce(final long[] onsets, final long[] offsets) {
+        int[] order = sortByTime(onsets, offsets);
+        long[] starts = new long[order.length];
+        long[] ends = new long[order.length];
+        int count = 0;
+        for (int i : order) {
+            if (offsets[i] < onsets[i]) {
+                continue;
+            }
+
+            if (count > 0 && onsets[i] <= ends[count - 1]) {
+                ends[count - 1] = Math.max(ends[count - 1], offsets[i]);
+            } else {
+                starts[count] = onsets[i];
+                ends[count] = offsets[i];
+                count++;
+            }
+        }
+        return new Intervals(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+    }
+
+    /**
+     * @param onsets  The onset of each cell.
+     * @param offsets The offset of each cell.
+     *
+     * @return The indices of the cells in temporal order: by onset, then by
+     * offset, then by index.
+     */
+    private static int[] sortByTime(final long[] onsets, final long[] offsets) {
+        int[] order = new int[onsets.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        // Sorting is stable, so sorting by offset then by onset leaves cells
+        // with the same onset ordered by offset.
+        return sortBy(sortBy(order, offsets), onsets);
+    }
+
+    /**
+     * Stable merge sort of indices by a field, without boxing them.
+     *
+     * @param order The indices, in their current order.
+     * @param keys  The field to sort by.
+     *
+     * @return The indices sorted by the field, ties kept in their order.
+     */
+    private static int[] sortBy(final int[] order, final long[] keys) {
+        int n = order.length;
+        int[] from = order;
+        int[] to = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + 2 * width, n);
+                int a = lo;
+                int b = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (a < mid && (b >= hi || keys[from[a]] <= keys[from[b]])) {
+                        to[k] = from[a++];
+                    } else {
+                        to[k] = from[b++];
+                    }
+                }
+            }
+            int[] t = from;
+            from = to;
+            to = t;
+        }
+        return from;
+    }
+
+    /**
+     * A growing list of pairs of indices.
+     */
+    private static final class PairList {
+
+        private long[] pairs = new long[16];
+
+        private int count = 0;
+
+        void add(final int left, final int right) {
+            if (count == pairs.length) {
+                pairs = Arrays.copyOf(pairs, count * 2);
+            }
+            pairs[count] = ((long) left << 32) | (right & 0xFFFFFFFFL);
+            count++;
+        }
+
+        /**
+         * @param sort Should the pairs be put in order of left then right
+         *             index?
+         *
+         * @return The pairs.
+         */
+        Matches toMatches(final boolean sort) {
+            if (sort) {
+                Arrays.sort(pairs, 0, count);
+            }
+            return new Matches(pairs, count);
+        }
+    }
+}
@@ -30,9 +30,6 @@ public final class PlaybackModel {
     /** The rate to use when resumed from pause. */
     private float pauseRate;
 
-    /** The time the last sync was performed. */
-    private long lastSync;
-
     /** The maximum duration out of all data being played. */
     private long maxDuration = ViewportStateImpl.MINIMUM_MAX_END;
 
@@ -61,14 +58,6 @@ public final class PlaybackModel {
         this.pauseRate = pauseRate;
     }
 
-    public long getLastSync() {
-        return lastSync;
-    }
-
-    public void setLastSync(final long lastSync) {
-        this.lastSync = lastSync;
-    }
-
     public long getMaxDuration() {
         return maxDuration;
     }
@@ -24,6 +24,7 @@ package org.datavyu.models.db;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -53,6 +54,9 @@ public final class Argument implements Serializable {
 
     private int lastCodeNumber = 0;
 
+    // The values held by the cells of the variable for this argument.
+    private transient CodeDictionary codes;
+
     /**
      * Constructor.
      *
@@ -92,6 +96,46 @@ public final class Argument implements Serializable {
         childArguments.clear();
     }
 
+    /**
+     * @return The dictionary of the values held for this argument.
+     */
+    CodeDictionary getCodes() {
+        if (codes == null) {
+            codes = new CodeDictionary();
+        }
+
+        return codes;
+    }
+
+    /**
+     * @return The distinct non-empty values held for this argument by the
+     * cells of its variable, sorted. Empty for the root of a matrix, whose
+     * values are held by its child arguments.
+     */
+    public List<String> getDistinctValues() {
+        if (codes == null) {
+            return new ArrayList<String>();
+        }
+
+        List<String> values = codes.getValues();
+        Collections.sort(values);
+        return values;
+    }
+
+    /**
+     * @param value The value to count, null or "" to count the empty values.
+     *
+     * @return The number of cells of the variable that hold value for this
+     * argument.
+     */
+    public int getValueCount(final String value) {
+        if (codes == null) {
+            return 0;
+        }
+
+        return codes.count(value);
+    }
+
     public boolean equals(Argument other) {
         if (other.id == this.id) {
             return true;
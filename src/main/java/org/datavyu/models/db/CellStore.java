@@ -0,0 +1,483 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Column storage for the cells of a single variable.
+ *
+ * Rather than an object graph per cell, the onsets and offsets of the cells
+ * are held in primitive arrays, their selection in bitsets over the rows (see
+ * SelectionModel) and the value of each argument as an
+ * array of codes into a CodeDictionary. A DatavyuCell is a small handle onto
+ * a row of the store, and the Value objects handed out by a cell are views
+ * created on demand that read and write the row.
+ *
+ * The store of a variable shares the dictionary of each argument (see
+ * Argument.getDistinctValues()), so the argument always knows the values held
+ * by the cells of its variable.
+ *
+ * Rows are kept dense: removing a cell moves the last row into its place and
+ * updates the handle of the moved cell. A cell removed from its variable is
+ * copied into a store of its own, with dictionaries of its own, so that it
+ * can be added back later.
+ */
+final class CellStore {
+
+    // The number of rows allocated for a new store.
+    private static final int INITIAL_CAPACITY = 16;
+
+    // The variable the cells belong, or last belonged, to.
+    private final Variable variable;
+
+    // Are the dictionaries those of the arguments? False for the store of a
+    // removed cell.
+    private final boolean shared;
+
+    // The root argument of the cells.
+    private Argument root;
+
+    // The argument held in each column, the children of a matrix root or the
+    // root itself.
+    private Argument[] columns;
+
+    // codes[a][row] is the code of the value of column a.
+    private int[][] codes;
+
+    // dictionaries[a] holds the values of column a.
+    private CodeDictionary[] dictionaries;
+
+    // The handle of each row.
+    private DatavyuCell[] cells;
+
+    private long[] onsets;
+
+    private long[] offsets;
+
+    // The rows of the selected cells.
+    private final BitSet selected = new BitSet();
+
+    // The rows of the highlighted cells.
+    private final BitSet highlighted = new BitSet();
+
+    private int size = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param variable The variable the cells belong to.
+     * @param root     The root argument of the cells.
+     * @param capacity The number of rows to allocate.
+     * @param shared   Should the dictionaries of the arguments be used? True
+     *                 for the store of a variable.
+     */
+    CellStore(final Variable variable,
+              final Argument root,
+              final int capacity,
+              final boolean shared) {
+        this.variable = variable;
+        this.root = root;
+        this.shared = shared;
+        columns = columnsOf(root);
+
+        cells = new DatavyuCell[capacity];
+        onsets = new long[capacity];
+        offsets = new long[capacity];
+        codes = new int[columns.length][capacity];
+        dictionaries = new CodeDictionary[columns.length];
+        for (int a = 0; a < columns.length; a++) {
+            dictionaries[a] = dictionaryOf(columns[a]);
+        }
+    }
+
+    /**
+     * Constructor. Creates the store of a variable.
+     *
+     * @param variable The variable the cells belong to.
+     * @param root     The root argument of the cells.
+     */
+    CellStore(final Variable variable, final Argument root) {
+        this(variable, root, INITIAL_CAPACITY, true);
+    }
+
+    /**
+     * @param arg The argument of a column.
+     *
+     * @return The dictionary to hold the values of the column.
+     */
+    private CodeDictionary dictionaryOf(final Argument arg) {
+        return shared ? arg.getCodes() : new CodeDictionary();
+    }
+
+    /**
+     * @param root A root argument.
+     *
+     * @return The arguments held in the columns of a store with root.
+     */
+    private static Argument[] columnsOf(final Argument root) {
+        if (root.type == Argument.Type.MATRIX) {
+            List<Argument> children = root.childArguments;
+            return children.toArray(new Argument[children.size()]);
+        }
+
+        return new Argument[] { root };
+    }
+
+    Variable getVariable() {
+        return variable;
+    }
+
+    Argument getRoot() {
+        return root;
+    }
+
+    /**
+     * @return The number of columns, one per argument of a matrix.
+     */
+    int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * @param column The index of the column.
+     *
+     * @return The argument held in the column.
+     */
+    Argument getArgument(final int column) {
+        return columns[column];
+    }
+
+    /**
+     * Replaces the root argument and brings the columns in line with it.
+     * Columns are matched to arguments by identity, so values follow their
+     * argument when the arguments of a matrix are added, moved or removed.
+     * The single column of a text or nominal variable is always kept.
+     *
+     * @param newRoot The new root argument.
+     */
+    void setRoot(final Argument newRoot) {
+        Argument[] newColumns = columnsOf(newRoot);
+        boolean single = root.type != Argument.Type.MATRIX
+                && newRoot.type != Argument.Type.MATRIX;
+        if (shared && variable instanceof DatavyuVariable
+                && (newRoot != root || !Arrays.equals(newColumns, columns))) {
+            // Values are lost when a column of a matrix is dropped.
+            boolean dropping = !single
+                    && !Arrays.asList(newColumns).containsAll(Arrays.asList(columns));
+            ((DatavyuVariable) variable).rootChanging(this, dropping);
+        }
+        Argument oldRoot = root;
+        root = newRoot;
+
+        if (Arrays.equals(newColumns, columns)) {
+            return;
+        }
+
+        if (single) {
+            // The values of the single column now belong to the new root.
+            columns = newColumns;
+            if (newRoot != oldRoot) {
+                recode(0, dictionaryOf(newRoot));
+            }
+            return;
+        }
+
+        int[][] newCodes = new int[newColumns.length][];
+        CodeDictionary[] newDictionaries = new CodeDictionary[newColumns.length];
+        boolean[] kept = new boolean[columns.length];
+        for (int n = 0; n < newColumns.length; n++) {
+            int old = indexOf(newColumns[n]);
+            if (old >= 0) {
+                newCodes[n] = codes[old];
+                newDictionaries[n] = dictionaries[old];
+                kept[old] = true;
+            } else {
+                newCodes[n] = new int[cells.length];
+                newDictionaries[n] = dictionaryOf(newColumns[n]);
+                for (int row = 0; row < size; row++) {
+                    newCodes[n][row] = newDictionaries[n].acquire(null);
+                }
+            }
+        }
+
+        // The values of removed columns no longer count towards their
+        // argument.
+        for (int a = 0; a < columns.length; a++) {
+            if (!kept[a]) {
+                for (int row = 0; row < size; row++) {
+                    dictionaries[a].release(codes[a][row]);
+                }
+            }
+        }
+
+        columns = newColumns;
+        codes = newCodes;
+        dictionaries = newDictionaries;
+    }
+
+    /**
+     * Moves the values of a column to another dictionary.
+     *
+     * @param column     The index of the column.
+     * @param dictionary The new dictionary of the column.
+     */
+    private void recode(final int column, final CodeDictionary dictionary) {
+        CodeDictionary old = dictionaries[column];
+        for (int row = 0; row < size; row++) {
+            int code = codes[column][row];
+            codes[column][row] = dictionary.acquire(old.get(code));
+            old.release(code);
+        }
+        dictionaries[column] = dictionary;
+    }
+
+    /**
+     * Brings the columns in line with the arguments of the root, after the
+     * children of a matrix root have been changed in place.
+     */
+    void syncColumns() {
+        setRoot(root);
+    }
+
+    /**
+     * @param arg The argument to find.
+     *
+     * @return The index of the column holding arg, -1 if there is none.
+     */
+    private int indexOf(final Argument arg) {
+        for (int a = 0; a < columns.length; a++) {
+            if (columns[a] == arg) {
+                return a;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return The number of rows.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param row The index of the row.
+     *
+     * @return The cell held in the row.
+     */
+    DatavyuCell getCell(final int row) {
+        return cells[row];
+    }
+
+    /**
+     * Appends an empty, selected and highlighted row.
+     *
+     * @param cell The handle of the new row.
+     *
+     * @return The index of the new row.
+     */
+    int add(final DatavyuCell cell) {
+        if (size == cells.length) {
+            grow();
+        }
+
+        int row = size;
+        size++;
+
+        cells[row] = cell;
+        onsets[row] = 0L;
+        offsets[row] = 0L;
+        selected.set(row);
+        highlighted.set(row);
+        for (int a = 0; a < columns.length; a++) {
+            codes[a][row] = dictionaries[a].acquire(null);
+        }
+
+        return row;
+    }
+
+    /**
+     * Appends a copy of a row of another store.
+     *
+     * @param source The store to copy from.
+     * @param row    The row of source to copy.
+     * @param cell   The handle of the new row.
+     *
+     * @return The index of the new row.
+     */
+    int copy(final CellStore source, final int row, final DatavyuCell cell) {
+        int copy = add(cell);
+
+        onsets[copy] = source.onsets[row];
+        offsets[copy] = source.offsets[row];
+        selected.set(copy, source.selected.get(row));
+        highlighted.set(copy, source.highlighted.get(row));
+
+        for (int a = 0; a < columns.length; a++) {
+            int from = source.indexOf(columns[a]);
+            if (from < 0 && source.root.type != Argument.Type.MATRIX
+                    && root.type != Argument.Type.MATRIX) {
+                from = 0;
+            }
+
+            if (from >= 0) {
+                setValue(a, copy, source.getValue(from, row));
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Removes a row, moving the last row into its place.
+     *
+     * @param row The index of the row to remove.
+     */
+    void remove(final int row) {
+        for (int a = 0; a < columns.length; a++) {
+            dictionaries[a].release(codes[a][row]);
+        }
+
+        size--;
+        if (row != size) {
+            cells[row] = cells[size];
+            onsets[row] = onsets[size];
+            offsets[row] = offsets[size];
+            selected.set(row, selected.get(size));
+            highlighted.set(row, highlighted.get(size));
+            for (int a = 0; a < columns.length; a++) {
+                codes[a][row] = codes[a][size];
+            }
+            cells[row].moved(row);
+        }
+        cells[size] = null;
+        selected.clear(size);
+        highlighted.clear(size);
+    }
+
+    /**
+     * Doubles the number of rows allocated.
+     */
+    private void grow() {
+        int capacity = Math.max(INITIAL_CAPACITY, cells.length * 2);
+
+        cells = Arrays.copyOf(cells, capacity);
+        onsets = Arrays.copyOf(onsets, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        for (int a = 0; a < columns.length; a++) {
+            codes[a] = Arrays.copyOf(codes[a], capacity);
+        }
+    }
+
+    long getOnset(final int row) {
+        return onsets[row];
+    }
+
+    void setOnset(final int row, final long onset) {
+        onsets[row] = onset;
+    }
+
+    long getOffset(final int row) {
+        return offsets[row];
+    }
+
+    void setOffset(final int row, final long offset) {
+        offsets[row] = offset;
+    }
+
+    boolean isSelected(final int row) {
+        return selected.get(row);
+    }
+
+    void setSelected(final int row, final boolean select) {
+        selected.set(row, select);
+    }
+
+    boolean isHighlighted(final int row) {
+        return highlighted.get(row);
+    }
+
+    void setHighlighted(final int row, final boolean highlight) {
+        highlighted.set(row, highlight);
+    }
+
+    /**
+     * @param from The row to start looking from.
+     *
+     * @return The first selected row at or after from, -1 if there is none.
+     */
+    int nextSelected(final int from) {
+        return selected.nextSetBit(from);
+    }
+
+    /**
+     * @return True if any row is selected.
+     */
+    boolean hasSelection() {
+        return !selected.isEmpty();
+    }
+
+    /**
+     * Selects exactly the given rows, none of them highlighted.
+     *
+     * @param rows The rows to select.
+     *
+     * @return True if the selection of any row changed.
+     */
+    boolean setSelection(final BitSet rows) {
+        boolean changed = !highlighted.isEmpty() || !selected.equals(rows);
+
+        selected.clear();
+        selected.or(rows);
+        highlighted.clear();
+
+        return changed;
+    }
+
+    /**
+     * @param column The index of the column.
+     * @param row    The index of the row.
+     *
+     * @return The value held in the column, null if it is empty.
+     */
+    String getValue(final int column, final int row) {
+        return dictionaries[column].get(codes[column][row]);
+    }
+
+    /**
+     * @param column The index of the column.
+     * @param row    The index of the row.
+     *
+     * @return True if the value held in the column is empty.
+     */
+    boolean isEmpty(final int column, final int row) {
+        return codes[column][row] == CodeDictionary.EMPTY;
+    }
+
+    /**
+     * @param column The index of the column.
+     * @param row    The index of the row.
+     * @param value  The new value of the column, null or "" to empty it.
+     */
+    void setValue(final int column, final int row, final String value) {
+        int code = dictionaries[column].acquire(value);
+        dictionaries[column].release(codes[column][row]);
+        codes[column][row] = code;
+    }
+}
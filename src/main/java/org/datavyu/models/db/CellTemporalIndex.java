@@ -0,0 +1,318 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Temporal index over the cells of a single variable.
+ *
+ * Cells are kept ordered by onset then offset (see CellComparator) alongside
+ * parallel arrays of onsets and offsets, and a binary tree over the positions
+ * holding the largest offset below each node. Range queries binary search the
+ * onsets for the cells starting before the end of the window, then descend the
+ * tree only into the nodes holding an offset that reaches the window. A query
+ * reporting k cells costs O(log n + k log n) however long the other cells are,
+ * and O(log n + k) in practice as the reported cells are mostly adjacent.
+ *
+ * The index is invalidated when a cell is added, removed or has its onset or
+ * offset changed, and is rebuilt on the next query. The rebuild is a merge
+ * sort over an almost sorted list, so it is linear for the common single edit
+ * and free when nothing has changed since the last query.
+ *
+ * Removing a cell from a valid index finds it with a binary search over the
+ * onset and offset arrays and leaves a null in its place, so a run of
+ * removals costs O(log n) each. The holes are compacted in one pass the next
+ * time the position of a cell or the plain list of cells is needed.
+ */
+final class CellTemporalIndex {
+
+    // Comparator used to order the cells.
+    private static final CellComparator COMPARATOR = new CellComparator();
+
+    // The cells of the variable, temporally ordered while the index is valid.
+    private final List<Cell> cells = new ArrayList<Cell>();
+
+    // onsets[i] is the onset of cells.get(i).
+    private long[] onsets = new long[0];
+
+    // offsets[i] is the offset of cells.get(i).
+    private long[] offsets = new long[0];
+
+    // Implicit binary tree of the largest offsets: node 1 is the root, the
+    // children of node p are 2p and 2p + 1, and node leaves + i holds the
+    // offset of cells.get(i).
+    private long[] maxOffsets = new long[2];
+
+    // The number of leaves of the tree, a power of two >= the cell count.
+    private int leaves = 1;
+
+    // Is the ordering and the onset/offset arrays up to date? Stays true
+    // when cells are removed.
+    private boolean valid = true;
+
+    // The number of removed cells left as nulls in the list.
+    private int removed;
+
+    // Changed whenever the index is invalidated.
+    private long stamp;
+
+    /**
+     * @return The cells in the index, in temporal order only if the index is
+     * currently valid.
+     */
+    List<Cell> getCells() {
+        if (removed > 0) {
+            validate();
+        }
+        return cells;
+    }
+
+    /**
+     * Adds a cell to the index.
+     *
+     * @param cell The cell to add.
+     */
+    void add(final Cell cell) {
+        cells.add(cell);
+        invalidate();
+    }
+
+    /**
+     * Removes a cell from the index.
+     *
+     * @param cell The cell to remove.
+     */
+    void remove(final Cell cell) {
+        if (!valid) {
+            if (cells.remove(cell)) {
+                stamp++;
+            }
+            return;
+        }
+
+        // While the index is valid the cell can be found by onset and offset
+        // and left as a hole, keeping the order and the arrays intact.
+        int index = search(cell);
+        if (index >= 0) {
+            cells.set(index, null);
+            removed++;
+            stamp++;
+        }
+    }
+
+    /**
+     * Marks the index as stale, called when the onset or offset of one of the
+     * indexed cells changes.
+     */
+    void invalidate() {
+        valid = false;
+        stamp++;
+    }
+
+    /**
+     * @return A stamp that changes whenever a cell is added to or removed
+     * from the index, or the onset or offset of one of its cells changes.
+     */
+    long getStamp() {
+        return stamp;
+    }
+
+    /**
+     * @return All the cells ordered temporally.
+     */
+    List<Cell> getCellsTemporally() {
+        validate();
+        return cells;
+    }
+
+    /**
+     * @param index The temporal index of the cell to fetch.
+     *
+     * @return The cell at the supplied temporal index.
+     */
+    Cell getCellTemporally(final int index) {
+        validate();
+        return cells.get(index);
+    }
+
+    /**
+     * @param cell The cell to locate.
+     *
+     * @return The temporal index of the supplied cell, -1 if the cell is not
+     * part of this index.
+     */
+    int indexOf(final Cell cell) {
+        validate();
+        return search(cell);
+    }
+
+    /**
+     * @param cell The cell to locate, the index must be valid.
+     *
+     * @return The position of the supplied cell in the list, -1 if the cell
+     * is not part of this index.
+     */
+    private int search(final Cell cell) {
+        long onset = cell.getOnset();
+        long offset = cell.getOffset();
+
+        // Lower bound of the cells sharing the supplied cell's onset/offset,
+        // found through the arrays as removed cells leave holes in the list.
+        int lo = 0;
+        int hi = cells.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (onsets[mid] < onset
+                    || (onsets[mid] == onset && offsets[mid] < offset)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        for (int i = lo; i < cells.size(); i++) {
+            if (onsets[i] != onset || offsets[i] != offset) {
+                break;
+            }
+            Cell c = cells.get(i);
+            if (c != null && c.equals(cell)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param start The start of the window in milliseconds (inclusive).
+     * @param end The end of the window in milliseconds (inclusive).
+     *
+     * @return The cells with onset <= end and offset >= start, in temporal
+     * order.
+     */
+    List<Cell> getCellsOverlapping(final long start, final long end) {
+        // Holes are skipped, so there is no need to compact them here.
+        if (!valid) {
+            validate();
+        }
+
+        // First cell that starts after the window.
+        int lo = 0;
+        int hi = cells.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (onsets[mid] <= end) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        List<Cell> result = new ArrayList<Cell>();
+        collect(1, 0, leaves, lo, start, result);
+
+        return result;
+    }
+
+    /**
+     * Adds the cells below a node of the tree that are before the limit and
+     * end at or after the start of the window, in temporal order.
+     *
+     * @param node The node to descend from.
+     * @param from The position of the first cell below the node.
+     * @param to The position after the last cell below the node.
+     * @param limit The position of the first cell that starts after the window.
+     * @param start The start of the window in milliseconds.
+     * @param result The list to add the cells to.
+     */
+    private void collect(final int node, final int from, final int to,
+                         final int limit, final long start,
+                         final List<Cell> result) {
+        if (from >= limit || maxOffsets[node] < start) {
+            return;
+        }
+
+        if (to - from == 1) {
+            // Removed cells leave holes until the next compaction.
+            Cell c = cells.get(from);
+            if (c != null) {
+                result.add(c);
+            }
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        collect(2 * node, from, mid, limit, start, result);
+        collect(2 * node + 1, mid, to, limit, start, result);
+    }
+
+    /**
+     * Drops the holes left by removed cells, and re-sorts the cells if the
+     * index has been invalidated since it was last used, then rebuilds the
+     * onset and offset arrays.
+     */
+    private void validate() {
+        if (valid && removed == 0) {
+            return;
+        }
+
+        if (removed > 0) {
+            int live = 0;
+            for (int i = 0; i < cells.size(); i++) {
+                Cell c = cells.get(i);
+                if (c != null) {
+                    cells.set(live++, c);
+                }
+            }
+            cells.subList(live, cells.size()).clear();
+            removed = 0;
+        }
+
+        if (!valid) {
+            Collections.sort(cells, COMPARATOR);
+        }
+
+        int size = cells.size();
+        if (onsets.length < size || onsets.length > size * 2) {
+            onsets = new long[size];
+            offsets = new long[size];
+        }
+
+        leaves = 1;
+        while (leaves < size) {
+            leaves <<= 1;
+        }
+        if (maxOffsets.length != 2 * leaves) {
+            maxOffsets = new long[2 * leaves];
+        }
+
+        for (int i = 0; i < size; i++) {
+            Cell c = cells.get(i);
+            onsets[i] = c.getOnset();
+            offsets[i] = c.getOffset();
+            maxOffsets[leaves + i] = offsets[i];
+        }
+        Arrays.fill(maxOffsets, leaves + size, 2 * leaves, Long.MIN_VALUE);
+        for (int p = leaves - 1; p > 0; p--) {
+            maxOffsets[p] = Math.max(maxOffsets[2 * p], maxOffsets[2 * p + 1]);
+        }
+
+        valid = true;
+    }
+}
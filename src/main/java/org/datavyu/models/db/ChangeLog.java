@@ -0,0 +1,425 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import com.usermetrix.jclient.Logger;
+import com.usermetrix.jclient.UserMetrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The changes made to a datastore while it is recording, started with
+ * Datastore.recordChanges(). Only what is touched is recorded: the content of
+ * a cell is copied the first time it changes, the name and arguments of a
+ * variable the first time they change, and cells and variables that are
+ * added or removed are remembered. Anything created while recording is not
+ * copied, it is simply removed again on undo.
+ *
+ * Once recording has stopped, undo() and redo() swap the recorded state with
+ * the current one, so that the cost of either is proportional to the number
+ * of things touched rather than to the size of the datastore.
+ */
+public final class ChangeLog {
+
+    /** The logger for this class. */
+    private static final Logger LOGGER = UserMetrix.getLogger(ChangeLog.class);
+
+    // Estimate of the memory held by a cell or a copy of its content, without
+    // its values, in bytes.
+    private static final long CELL_SIZE = 128;
+
+    private final DatavyuDatastore datastore;
+
+    private volatile boolean recording = true;
+
+    // The content of each changed cell, before the change on undo and after
+    // it on redo.
+    private Map<DatavyuCell, CellImage> cells = new LinkedHashMap<DatavyuCell, CellImage>();
+
+    // The name and arguments of each changed variable.
+    private final Map<DatavyuVariable, Structure> structures = new LinkedHashMap<DatavyuVariable, Structure>();
+
+    private final Set<DatavyuCell> addedCells = new LinkedHashSet<DatavyuCell>();
+
+    private final Set<DatavyuCell> removedCells = new LinkedHashSet<DatavyuCell>();
+
+    private final Set<Variable> addedVariables = new LinkedHashSet<Variable>();
+
+    private final Set<Variable> removedVariables = new LinkedHashSet<Variable>();
+
+    /**
+     * Constructor.
+     *
+     * @param datastore The datastore to record the changes of.
+     */
+    ChangeLog(final DatavyuDatastore datastore) {
+        this.datastore = datastore;
+    }
+
+    /**
+     * Stops recording. Changes made to the datastore afterwards are not part
+     * of this log.
+     */
+    public void stop() {
+        recording = false;
+        datastore.changeLogStopped(this);
+    }
+
+    /**
+     * @return True if changes to the datastore are still being recorded.
+     */
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * @return True if nothing was changed while recording.
+     */
+    public boolean isEmpty() {
+        return cells.isEmpty() && structures.isEmpty()
+                && addedCells.isEmpty() && removedCells.isEmpty()
+                && addedVariables.isEmpty() && removedVariables.isEmpty();
+    }
+
+    /**
+     * @return An estimate of the memory held by this log, in bytes. Removed
+     * cells and variables are kept alive by the log and count towards it.
+     */
+    public long getRetainedSize() {
+        if (recording) {
+            // The changes may still be coming in on another thread, only
+            // count them.
+            return CELL_SIZE * (cells.size() + structures.size()
+                    + addedCells.size() + removedCells.size());
+        }
+
+        long size = 0;
+        for (CellImage image : cells.values()) {
+            size += image.getRetainedSize();
+        }
+        for (Structure structure : structures.values()) {
+            size += CELL_SIZE + 8L * structure.columns.size();
+        }
+        size += CELL_SIZE * (addedCells.size() + removedCells.size());
+        for (Variable var : removedVariables) {
+            size += CELL_SIZE * var.getCells().size();
+        }
+
+        return size;
+    }
+
+    /**
+     * Puts the datastore back the way it was when recording started. Stops
+     * recording if it is still in progress.
+     */
+    public void undo() {
+        swap(true);
+    }
+
+    /**
+     * Puts the datastore back the way it was when recording stopped, after a
+     * call to undo().
+     */
+    public void redo() {
+        swap(false);
+    }
+
+    /**
+     * Swaps the recorded state of everything touched with its current state.
+     *
+     * The content of cells is taken before anything else is changed, as
+     * removing arguments drops their values, and put back last once the
+     * arguments are in place again. Cells created while recording are
+     * removed before the arguments are restored and added back after, so
+     * that they keep the values of arguments that only exist after the
+     * change.
+     *
+     * @param undo True to go back to the state before the changes, false to
+     * go forward to the state after them.
+     */
+    private void swap(final boolean undo) {
+        if (recording) {
+            stop();
+        }
+
+        Map<DatavyuCell, CellImage> current = new LinkedHashMap<DatavyuCell, CellImage>();
+        for (DatavyuCell cell : cells.keySet()) {
+            current.put(cell, new CellImage(cell));
+        }
+
+        datastore.beginBulkUpdate();
+        try {
+            if (undo) {
+                removeVariables(addedVariables);
+                removeCells(addedCells);
+                addCells(removedCells);
+                swapStructures();
+                addVariables(removedVariables);
+            } else {
+                removeVariables(removedVariables);
+                swapStructures();
+                removeCells(removedCells);
+                addCells(addedCells);
+                addVariables(addedVariables);
+            }
+
+            for (CellImage image : cells.values()) {
+                image.restore();
+            }
+            cells = current;
+        } finally {
+            datastore.endBulkUpdate();
+        }
+    }
+
+    private void removeVariables(final Set<Variable> vars) {
+        for (Variable var : vars) {
+            datastore.removeVariable(var);
+        }
+    }
+
+    private void addVariables(final Set<Variable> vars) {
+        for (Variable var : vars) {
+            try {
+                datastore.addVariable(var);
+            } catch (UserWarningException uwe) {
+                LOGGER.error("Unable to restore variable " + var.getName(), uwe);
+            }
+        }
+    }
+
+    private static void removeCells(final Set<DatavyuCell> cells) {
+        for (DatavyuCell cell : cells) {
+            cell.getVariable().removeCell(cell);
+        }
+    }
+
+    private static void addCells(final Set<DatavyuCell> cells) {
+        for (DatavyuCell cell : cells) {
+            ((DatavyuVariable) cell.getVariable()).restoreCell(cell);
+        }
+    }
+
+    private void swapStructures() {
+        for (Map.Entry<DatavyuVariable, Structure> entry : structures.entrySet()) {
+            DatavyuVariable var = entry.getKey();
+            Structure current = new Structure(var, var.getCellStore());
+            entry.getValue().restore(var);
+            entry.setValue(current);
+        }
+    }
+
+    /**
+     * @param var The variable to check.
+     *
+     * @return True if var was created while recording, in which case its
+     * content does not need to be recorded.
+     */
+    private boolean isAdded(final Variable var) {
+        return addedVariables.contains(var);
+    }
+
+    /**
+     * Called before the onset, offset or values of a cell change.
+     *
+     * @param cell The cell about to change.
+     */
+    void cellChanging(final DatavyuCell cell) {
+        if (!recording || addedCells.contains(cell) || isAdded(cell.getVariable())
+                || cells.containsKey(cell)) {
+            return;
+        }
+
+        cells.put(cell, new CellImage(cell));
+    }
+
+    /**
+     * Called after a cell has been created in, or added back to, a variable.
+     *
+     * @param cell The added cell.
+     */
+    void cellAdded(final DatavyuCell cell) {
+        if (!recording || removedCells.remove(cell) || isAdded(cell.getVariable())) {
+            return;
+        }
+
+        addedCells.add(cell);
+    }
+
+    /**
+     * Called before a cell is removed from its variable.
+     *
+     * @param cell The cell about to be removed.
+     */
+    void cellRemoved(final DatavyuCell cell) {
+        if (!recording || addedCells.remove(cell) || isAdded(cell.getVariable())) {
+            return;
+        }
+
+        cellChanging(cell);
+        removedCells.add(cell);
+    }
+
+    /**
+     * Called before the name or the arguments of a variable change. When
+     * arguments are dropped their values are lost, so the content of every
+     * cell of the variable is recorded along with the arguments.
+     *
+     * @param var      The variable about to change.
+     * @param store    The store holding the cells of the variable.
+     * @param dropping True if the values of some arguments are about to be
+     *                 dropped.
+     */
+    void structureChanging(final DatavyuVariable var, final CellStore store, final boolean dropping) {
+        if (!recording || isAdded(var)) {
+            return;
+        }
+
+        if (!structures.containsKey(var)) {
+            structures.put(var, new Structure(var, store));
+        }
+
+        if (dropping) {
+            for (int row = 0; row < store.size(); row++) {
+                cellChanging(store.getCell(row));
+            }
+        }
+    }
+
+    /**
+     * Called after a variable has been added to the datastore.
+     *
+     * @param var The added variable.
+     */
+    void variableAdded(final Variable var) {
+        if (!recording || removedVariables.remove(var)) {
+            return;
+        }
+
+        addedVariables.add(var);
+    }
+
+    /**
+     * Called after a variable has been removed from the datastore.
+     *
+     * @param var The removed variable.
+     */
+    void variableRemoved(final Variable var) {
+        if (!recording || addedVariables.remove(var)) {
+            return;
+        }
+
+        removedVariables.add(var);
+    }
+
+    /**
+     * The onset, offset and values of a cell. Values are held against their
+     * argument so that they can be put back once the arguments of the
+     * variable have been restored.
+     */
+    private static final class CellImage {
+
+        private final DatavyuCell cell;
+
+        private final long onset;
+
+        private final long offset;
+
+        private final Argument[] arguments;
+
+        private final String[] values;
+
+        CellImage(final DatavyuCell cell) {
+            this.cell = cell;
+            CellStore store = cell.getStore();
+            int row = cell.getRow();
+
+            onset = store.getOnset(row);
+            offset = store.getOffset(row);
+            arguments = new Argument[store.getColumnCount()];
+            values = new String[arguments.length];
+            for (int a = 0; a < arguments.length; a++) {
+                arguments[a] = store.getArgument(a);
+                values[a] = store.getValue(a, row);
+            }
+        }
+
+        long getRetainedSize() {
+            long size = CELL_SIZE + 8L * arguments.length;
+            for (String value : values) {
+                if (value != null) {
+                    size += 40 + 2L * value.length();
+                }
+            }
+
+            return size;
+        }
+
+        /**
+         * Puts the recorded content back into the cell. Arguments that were
+         * not recorded are left empty.
+         */
+        void restore() {
+            CellStore store = cell.getStore();
+            int row = cell.getRow();
+
+            store.setOnset(row, onset);
+            store.setOffset(row, offset);
+            for (int a = 0; a < store.getColumnCount(); a++) {
+                int recorded = Arrays.asList(arguments).indexOf(store.getArgument(a));
+                store.setValue(a, row, recorded < 0 ? null : values[recorded]);
+            }
+
+            // The content changed under the variable, which needs a new
+            // version so that snapshots and the autosave journal see it.
+            if (cell.getVariable() instanceof DatavyuVariable) {
+                DatavyuVariable var = (DatavyuVariable) cell.getVariable();
+                var.cellTimeChanged(cell);
+                var.markDB();
+            }
+        }
+    }
+
+    /**
+     * The name and arguments of a variable.
+     */
+    private static final class Structure {
+
+        private final String name;
+
+        private final Argument root;
+
+        private final List<Argument> columns;
+
+        Structure(final DatavyuVariable var, final CellStore store) {
+            name = var.getName();
+            root = store.getRoot();
+            columns = new ArrayList<Argument>(store.getColumnCount());
+            for (int a = 0; a < store.getColumnCount(); a++) {
+                columns.add(store.getArgument(a));
+            }
+        }
+
+        void restore(final DatavyuVariable var) {
+            var.restoreStructure(name, root, columns);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns the values of a single argument as integer codes.
+ *
+ * Each distinct value is stored once and the cells refer to it by code. Codes
+ * are reference counted so that a value no longer held by any cell, such as
+ * the intermediate text left behind while a value is typed in, is dropped and
+ * its code reused. The counts double as statistics on the values of the
+ * argument. Code 0 is reserved for the empty value.
+ */
+final class CodeDictionary {
+
+    // The code of the empty value.
+    static final int EMPTY = 0;
+
+    // The code of each interned value.
+    private final Map<String, Integer> codes = new HashMap<String, Integer>();
+
+    // values.get(code) is the value interned as code, null if unused.
+    private final List<String> values = new ArrayList<String>();
+
+    // counts[code] is the number of references to the code.
+    private int[] counts = new int[2];
+
+    // Codes released for reuse.
+    private int[] free = new int[2];
+
+    private int freeCount = 0;
+
+    /**
+     * Constructor.
+     */
+    CodeDictionary() {
+        values.add(null);
+    }
+
+    /**
+     * @param code The code to look up.
+     *
+     * @return The value interned as code, null for the empty value.
+     */
+    String get(final int code) {
+        return values.get(code);
+    }
+
+    /**
+     * Adds a reference to a value, interning it if it is not already held.
+     *
+     * @param value The value to intern, null or "" for the empty value.
+     *
+     * @return The code of the value.
+     */
+    int acquire(final String value) {
+        if (value == null || value.length() == 0) {
+            counts[EMPTY]++;
+            return EMPTY;
+        }
+
+        Integer existing = codes.get(value);
+        int code;
+        if (existing != null) {
+            code = existing;
+        } else {
+            if (freeCount > 0) {
+                freeCount--;
+                code = free[freeCount];
+                values.set(code, value);
+            } else {
+                code = values.size();
+                values.add(value);
+                if (code >= counts.length) {
+                    counts = Arrays.copyOf(counts, counts.length * 2);
+                }
+            }
+            codes.put(value, code);
+        }
+
+        counts[code]++;
+        return code;
+    }
+
+    /**
+     * Drops a reference to a value, releasing its code once the last
+     * reference is gone.
+     *
+     * @param code The code of the value.
+     */
+    void release(final int code) {
+        counts[code]--;
+        if (counts[code] == 0 && code != EMPTY) {
+            codes.remove(values.get(code));
+            values.set(code, null);
+
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            free[freeCount] = code;
+            freeCount++;
+        }
+    }
+
+    /**
+     * @param value The value to count, null or "" for the empty value.
+     *
+     * @return The number of references to value.
+     */
+    int count(final String value) {
+        if (value == null || value.length() == 0) {
+            return counts[EMPTY];
+        }
+
+        Integer code = codes.get(value);
+        return code == null ? 0 : counts[code];
+    }
+
+    /**
+     * @return The distinct non-empty values currently referenced, in no
+     * particular order.
+     */
+    List<String> getValues() {
+        return new ArrayList<String>(codes.keySet());
+    }
+}
@@ -23,6 +23,7 @@
 package org.datavyu.models.db;
 
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * An interface which abstracts away from the specific underlying database,
@@ -62,6 +63,12 @@ public interface Datastore {
      */
     void deselectAll();
 
+    /**
+     * @return The cell selection of the datastore, for selecting or clearing
+     * many cells at once.
+     */
+    SelectionModel getSelectionModel();
+
     /**
      * @param varName The name of the variable to fetch.
      *
@@ -102,6 +109,17 @@ public interface Datastore {
     Variable createVariable(final String name, final Argument.Type type, boolean grandfathered)
     throws UserWarningException;
 
+    /**
+     * Adds a variable that was built outside of this datastore, along with
+     * all of its cells. Used by loaders that decode variables on their own
+     * before handing them over.
+     *
+     * @param var The variable to add to the datastore.
+     * @throws UserWarningException If a variable with the same name already
+     * exists in the datastore.
+     */
+    void addVariable(final Variable var) throws UserWarningException;
+
     /**
      * Removes a variable from the datastore.
      *
@@ -137,6 +155,50 @@ public interface Datastore {
 
     void markDBAsChanged();
 
+    /**
+     * Starts a bulk update of the datastore. Until the matching call to
+     * endBulkUpdate cells can be created, removed, re-timed, edited and
+     * selected without the variable and cell listeners being notified of
+     * each individual change, and the datastore is only marked as changed
+     * once. Bulk updates may be nested, only the outermost endBulkUpdate call
+     * notifies listeners.
+     */
+    void beginBulkUpdate();
+
+    /**
+     * Ends a bulk update started with beginBulkUpdate. Every variable with
+     * cells added or removed during the update fires a single cellsReplaced
+     * event to its listeners, and every other variable with changed cells a
+     * single cellsChanged event listing them.
+     */
+    void endBulkUpdate();
+
+    /**
+     * Ends a bulk update started with beginBulkUpdate, like endBulkUpdate(),
+     * but hands the notification of the listeners to the given executor. This
+     * lets a bulk update made off the event dispatch thread deliver its
+     * changes on it.
+     *
+     * @param notifier The executor to notify the listeners with.
+     */
+    void endBulkUpdate(Executor notifier);
+
+    /**
+     * @return True if the datastore is in the middle of a bulk update, false
+     * otherwise.
+     */
+    boolean isBulkUpdating();
+
+    /**
+     * Starts recording the changes made to the datastore, so that they can
+     * be undone and redone without copying the whole datastore. Only one log
+     * records at a time, starting a new one stops the previous one.
+     *
+     * @return The log the changes are recorded in, call ChangeLog.stop()
+     * once the changes are complete.
+     */
+    ChangeLog recordChanges();
+
     /**
      * @return True if the datastore has changed since it was last saved, false
      * otherwise.
@@ -0,0 +1,144 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable copy of the variables of a datastore, so that the datastore can
+ * be saved on a background thread while it is still being edited.
+ *
+ * Taking a snapshot copies the cell content of every variable into arrays on
+ * the calling thread, which must be the thread that modifies the datastore.
+ * When a previous snapshot of the same datastore is supplied, variables whose
+ * version has not changed since are shared with it rather than copied again.
+ */
+public final class DatastoreSnapshot {
+
+    // The datastore the snapshot was taken from.
+    private final Datastore datastore;
+
+    // The variables of the datastore in order, as they were snapshot.
+    private final List<Variable> sources;
+
+    private final List<VariableSnapshot> variables;
+
+    private final int cellCount;
+
+    /**
+     * Constructor.
+     *
+     * @param ds       The datastore to copy.
+     * @param previous An earlier snapshot of ds, null if there is none.
+     */
+    private DatastoreSnapshot(final Datastore ds,
+                              final DatastoreSnapshot previous) {
+        Map<Variable, VariableSnapshot> reusable =
+                new IdentityHashMap<Variable, VariableSnapshot>();
+        if (previous != null && previous.datastore == ds) {
+            for (int i = 0; i < previous.sources.size(); i++) {
+                reusable.put(previous.sources.get(i), previous.variables.get(i));
+            }
+        }
+
+        datastore = ds;
+        List<Variable> vars = ds.getAllVariables();
+        List<VariableSnapshot> copies = new ArrayList<VariableSnapshot>(vars.size());
+        int cells = 0;
+
+        for (Variable var : vars) {
+            VariableSnapshot copy = reusable.get(var);
+            if (copy == null || copy.getVersion() != var.getVersion()) {
+                copy = VariableSnapshot.take(var);
+            }
+            copies.add(copy);
+            cells += copy.getCellCount();
+        }
+
+        sources = Collections.unmodifiableList(vars);
+        variables = Collections.unmodifiableList(copies);
+        cellCount = cells;
+    }
+
+    /**
+     * Takes a snapshot of a datastore. Must be called on the thread that
+     * modifies the datastore.
+     *
+     * @param ds The datastore to copy.
+     * @return The snapshot of the datastore.
+     */
+    public static DatastoreSnapshot take(final Datastore ds) {
+        return new DatastoreSnapshot(ds, null);
+    }
+
+    /**
+     * Takes a snapshot of a datastore, sharing the variables that have not
+     * changed since an earlier snapshot. Must be called on the thread that
+     * modifies the datastore.
+     *
+     * @param ds       The datastore to copy.
+     * @param previous An earlier snapshot, ignored if null or if it was taken
+     *                 from a different datastore.
+     * @return The snapshot of the datastore.
+     */
+    public static DatastoreSnapshot take(final Datastore ds,
+                                         final DatastoreSnapshot previous) {
+        return new DatastoreSnapshot(ds, previous);
+    }
+
+    /**
+     * @return The variables of the datastore, in order.
+     */
+    public List<VariableSnapshot> getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return The total number of cells across all the variables.
+     */
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * @param ds The datastore to compare against.
+     * @return True if this snapshot was taken from ds and nothing in ds has
+     * changed since. Must be called on the thread that modifies the
+     * datastore.
+     */
+    public boolean isCurrent(final Datastore ds) {
+        if (ds != datastore) {
+            return false;
+        }
+
+        List<Variable> vars = ds.getAllVariables();
+        if (vars.size() != sources.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < vars.size(); i++) {
+            if (vars.get(i) != sources.get(i)
+                    || vars.get(i).getVersion() != variables.get(i).getVersion()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
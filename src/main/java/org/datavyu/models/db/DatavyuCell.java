@@ -15,94 +15,221 @@
 package org.datavyu.models.db;
 
 import org.datavyu.Datavyu;
+import org.datavyu.util.SequentialNumberGenerator;
 
-import java.util.*;
-
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
+/**
+ * A cell of a DatavyuVariable.
+ *
+ * The content of the cell is held in a row of the CellStore of its variable,
+ * the cell itself only records where that row is.
+ */
 public class DatavyuCell implements Cell {
 
-    static Map<UUID, List<CellListener>> allListeners = new HashMap<UUID, List<CellListener>>();
-    private long onset = 0L;
-    private long offset = 0L;
-    private Argument type;
-    private boolean selected;
-    private boolean highlighted;
-    private Variable parent;
-    private Map<String, Value> arguments = new HashMap<String, Value>();
-    private Value value;
-    final private UUID id = UUID.randomUUID();
+    // The store holding the content of this cell.
+    private CellStore store;
+    // The row of the store holding this cell.
+    private int row;
+    final private long id = SequentialNumberGenerator.getNextId();
+
+    // The listeners of this cell, created when the first one is added.
+    private List<CellListener> listeners = null;
 
     /**
-     * @param cellId The ID of the variable we want the listeners for.
-     * @return The list of listeners for the specified cellId.
+     * @return The listeners of this cell.
      */
-    private static List<CellListener> getListeners(UUID cellId) {
-        List<CellListener> result = allListeners.get(cellId);
-
-        if (result == null) {
-            result = new ArrayList<CellListener>();
-            allListeners.put(cellId, result);
+    private List<CellListener> getListeners() {
+        if (listeners == null) {
+            return Collections.emptyList();
         }
 
-        return result;
+        return listeners;
     }
 
-    public DatavyuCell() {
+    /**
+     * Drops all the listeners of this cell, called once the cell has been
+     * removed from its variable so that the views it was displayed in can be
+     * reclaimed.
+     */
+    void clearListeners() {
+        listeners = null;
     }
 
-    public DatavyuCell(Variable parent, Argument type) {
-        this.parent = parent;
-        this.type = type;
+    /**
+     * Constructor. Creates an empty cell in a new row of the supplied store.
+     *
+     * @param store The store to hold the content of the cell.
+     */
+    DatavyuCell(final CellStore store) {
+        this.store = store;
+        this.row = store.add(this);
+    }
 
-        this.onset = 0L;
-        this.offset = 0L;
-        this.selected = true;
-        this.highlighted = true;
+    public Variable getVariable() {
+        return store.getVariable();
+    }
 
-        // Build argument list from the argument given
+    /**
+     * @return The store holding the content of this cell.
+     */
+    CellStore getStore() {
+        return store;
+    }
 
-        if (type.type == Argument.Type.NOMINAL) {
-            this.value = new DatavyuNominalValue(getID(), type);
-        } else if (type.type == Argument.Type.TEXT) {
-            this.value = new DatavyuTextValue(getID(), type);
-        } else {
-            this.value = new DatavyuMatrixValue(getID(), type);
+    /**
+     * @return The row of the store holding the content of this cell.
+     */
+    int getRow() {
+        return row;
+    }
+
+    /**
+     * Called by the store when the content of this cell is moved to another
+     * row.
+     *
+     * @param newRow The row now holding this cell.
+     */
+    void moved(final int newRow) {
+        row = newRow;
+    }
+
+    /**
+     * Moves the content of this cell into another store.
+     *
+     * @param target The store to move to.
+     */
+    void moveTo(final CellStore target) {
+        if (target == store) {
+            return;
         }
+
+        int newRow = target.copy(store, row, this);
+        store.remove(row);
+        store = target;
+        row = newRow;
     }
 
-    public Variable getVariable() {
-        return parent;
+    /**
+     * Moves the content of this cell into a store of its own, called when
+     * the cell is removed from its variable so that it keeps its content if
+     * it is added back.
+     */
+    void detach() {
+        moveTo(new CellStore(store.getVariable(), store.getRoot(), 1, false));
+    }
+
+    /**
+     * Lets the parent variable know that the temporal position of this cell
+     * has changed.
+     */
+    private void notifyTimeChanged() {
+        if (getVariable() instanceof DatavyuVariable) {
+            ((DatavyuVariable) getVariable()).cellTimeChanged(this);
+        }
+    }
+
+    /**
+     * @return True if the datastore holding this cell is in the middle of a
+     * bulk update, in which case listeners are notified once the update ends.
+     */
+    private boolean isBulkUpdating() {
+        return getVariable() instanceof DatavyuVariable
+                && ((DatavyuVariable) getVariable()).isBulkUpdating();
     }
 
-    private String convertMStoTimestamp(long time) {
+    /**
+     * Called before the onset, offset or values of this cell change, so that
+     * the datastore can record the change.
+     */
+    void changing() {
+        if (getVariable() instanceof DatavyuVariable) {
+            ((DatavyuVariable) getVariable()).cellChanging(this);
+        }
+    }
+
+    /**
+     * Marks the datastore holding this cell as changed.
+     */
+    void markChanged() {
+        if (getVariable() instanceof DatavyuVariable) {
+            ((DatavyuVariable) getVariable()).markDB();
+            ((DatavyuVariable) getVariable()).cellChangedInBulk(this);
+        } else {
+            Datavyu.getProjectController().getDB().markDBAsChanged();
+        }
+    }
+
+    static String convertMStoTimestamp(long time) {
         long hours = Math.round(Math.floor((time / 1000.0 / 60.0 / 60.0)));
         long minutes = Math.round(Math.floor(time / 1000.0 / 60.0 - (hours * 60)));
         long seconds = Math.round(Math.floor(time / 1000.0 - (hours * 60 * 60) - (minutes * 60)));
         long mseconds = Math.round(Math.floor(time - (hours * 60 * 60 * 1000) - (minutes * 60 * 1000) - (seconds * 1000)));
 
-        return String.format("%02d:%02d:%02d:%03d", hours, minutes, seconds, mseconds);
+        if (time < 0) {
+            return String.format("%02d:%02d:%02d:%03d", hours, minutes, seconds, mseconds);
+        }
+
+        // Same as the format above, without the cost of String.format when
+        // saving large databases.
+        StringBuilder result = new StringBuilder(12);
+        appendPadded(result, hours, 2).append(':');
+        appendPadded(result, minutes, 2).append(':');
+        appendPadded(result, seconds, 2).append(':');
+        return appendPadded(result, mseconds, 3).toString();
+    }
+
+    private static StringBuilder appendPadded(final StringBuilder dest,
+                                              final long value,
+                                              final int width) {
+        String digits = Long.toString(value);
+        for (int i = digits.length(); i < width; i++) {
+            dest.append('0');
+        }
+        return dest.append(digits);
     }
 
     private long convertTimestampToMS(String timestamp) {
+        long result = 0;
+        long field = 0;
+        int fields = 0;
+        int digits = 0;
+
+        // Parse "HH:MM:SS:mmm" in place, folding each field into the result.
+        for (int i = 0; i < timestamp.length(); i++) {
+            char c = timestamp.charAt(i);
+
+            if (c >= '0' && c <= '9') {
+                field = (field * 10) + (c - '0');
+                digits++;
+            } else if (c == ':' && digits > 0 && fields < 3) {
+                result = (result + field) * (fields < 2 ? 60 : 1000);
+                field = 0;
+                digits = 0;
+                fields++;
+            } else {
+                throw new NumberFormatException("Invalid timestamp: " + timestamp);
+            }
+        }
 
-        String[] s = timestamp.split(":");
-        long hours = Long.valueOf(s[0]) * 60 * 60 * 1000;
-        long minutes = Long.valueOf(s[1]) * 60 * 1000;
-        long seconds = Long.valueOf(s[2]) * 1000;
-        long mseconds = Long.valueOf(s[3]);
+        if (fields != 3 || digits == 0) {
+            throw new NumberFormatException("Invalid timestamp: " + timestamp);
+        }
 
-        return hours + minutes + seconds + mseconds;
+        return result + field;
     }
 
 
     @Override
     public String getOffsetString() {
-        return convertMStoTimestamp(offset);
+        return convertMStoTimestamp(getOffset());
     }
 
     @Override
     public long getOffset() {
-        return offset;
+        return store.getOffset(row);
     }
 
     @Override
@@ -112,10 +239,17 @@ public class DatavyuCell implements Cell {
 
     @Override
     public void setOffset(final long newOffset) {
-        if (newOffset != offset) Datavyu.getProjectController().getDB().markDBAsChanged();
-        offset = newOffset;
-        for (CellListener cl : getListeners(getID())) {
-            cl.offsetChanged(offset);
+        if (newOffset != getOffset()) {
+            changing();
+            markChanged();
+            store.setOffset(row, newOffset);
+            notifyTimeChanged();
+        }
+
+        if (!isBulkUpdating()) {
+            for (CellListener cl : getListeners()) {
+                cl.offsetChanged(newOffset);
+            }
         }
     }
 
@@ -126,12 +260,12 @@ public class DatavyuCell implements Cell {
 
     @Override
     public long getOnset() {
-        return onset;
+        return store.getOnset(row);
     }
 
     @Override
     public String getOnsetString() {
-        return convertMStoTimestamp(onset);
+        return convertMStoTimestamp(getOnset());
 
     }
 
@@ -142,10 +276,17 @@ public class DatavyuCell implements Cell {
 
     @Override
     public void setOnset(final long newOnset) {
-        if (newOnset != onset) Datavyu.getProjectController().getDB().markDBAsChanged();
-        onset = newOnset;
-        for (CellListener cl : getListeners(getID())) {
-            cl.onsetChanged(onset);
+        if (newOnset != getOnset()) {
+            changing();
+            markChanged();
+            store.setOnset(row, newOnset);
+            notifyTimeChanged();
+        }
+
+        if (!isBulkUpdating()) {
+            for (CellListener cl : getListeners()) {
+                cl.onsetChanged(newOnset);
+            }
         }
     }
 
@@ -156,22 +297,35 @@ public class DatavyuCell implements Cell {
 
     @Override
     public Value getValue() {
-        return this.value;
+        // Values are views onto the store, created as they are asked for.
+        Argument root = store.getRoot();
+        if (root.type == Argument.Type.MATRIX) {
+            return new DatavyuMatrixValue(this);
+        } else if (root.type == Argument.Type.NOMINAL) {
+            return new DatavyuNominalValue(this, -1);
+        } else {
+            return new DatavyuTextValue(this, -1);
+        }
     }
 
     @Override
     public boolean isSelected() {
-        return selected;
+        return store.isSelected(row);
     }
 
     @Override
     public void setSelected(final boolean selected) {
-        this.selected = selected;
+        store.setSelected(row, selected);
         if (!selected) {
             setHighlighted(false);
         }
 
-        for (CellListener cl : getListeners(getID())) {
+        if (isBulkUpdating()) {
+            ((DatavyuVariable) getVariable()).cellChangedInBulk(this);
+            return;
+        }
+
+        for (CellListener cl : getListeners()) {
             cl.selectionChange(selected);
             if (!selected) {
                 cl.highlightingChange(false);
@@ -181,105 +335,94 @@ public class DatavyuCell implements Cell {
 
     @Override
     public boolean isHighlighted() {
-        return highlighted;
+        return store.isHighlighted(row);
     }
 
     @Override
     public void setHighlighted(final boolean highlighted) {
-        this.highlighted = highlighted;
+        store.setHighlighted(row, highlighted);
 
         if (highlighted) {
             setSelected(highlighted);
         }
 
-        for (CellListener cl : getListeners(getID())) {
+        if (isBulkUpdating()) {
+            ((DatavyuVariable) getVariable()).cellChangedInBulk(this);
+            return;
+        }
+
+        for (CellListener cl : getListeners()) {
             cl.highlightingChange(highlighted);
         }
     }
 
+    // The arguments of a matrix are shared by all the cells of the variable,
+    // which updates the columns of its store when they change. The methods
+    // below only bring the store in line with the root argument.
+
     @Override
     public void addMatrixValue(Argument type) {
-        DatavyuMatrixValue val = (DatavyuMatrixValue) getValue();
-        val.createArgument(type);
+        store.syncColumns();
     }
 
     @Override
     public void moveMatrixValue(final int old_index, int new_index) {
-        DatavyuMatrixValue val = (DatavyuMatrixValue) getValue();
-        List<Value> values = val.getArguments();
-        Value v = values.get(old_index);
-
-        values.remove(old_index);
-        values.add(new_index, v);
-
-        for (int i = 0; i < values.size(); i++) {
-            ((DatavyuValue) values.get(i)).setIndex(i);
-        }
+        store.syncColumns();
     }
 
     @Override
     public void removeMatrixValue(final int index) {
-        ((DatavyuMatrixValue) getValue()).removeArgument(index);
+        store.syncColumns();
     }
 
     @Override
     public void setMatrixValue(final int index, final String v) {
-        DatavyuMatrixValue val = (DatavyuMatrixValue) getValue();
-        List<Value> values = val.getArguments();
-        values.get(index).set(v);
+        getMatrixValue(index).set(v);
     }
 
     @Override
     public Value getMatrixValue(final int index) {
-        return ((DatavyuMatrixValue) getValue()).getArguments().get(index);
+        return DatavyuMatrixValue.createArgumentValue(this, index);
     }
 
     @Override
     public void clearMatrixValue(final int index) {
-        DatavyuMatrixValue val = (DatavyuMatrixValue) getValue();
-        List<Value> values = val.getArguments();
-        values.get(index).clear();
+        getMatrixValue(index).clear();
     }
 
     @Override
     public void addListener(final CellListener listener) {
-        getListeners(getID()).add(listener);
+        if (listeners == null) {
+            listeners = new ArrayList<CellListener>();
+        }
+        listeners.add(listener);
     }
 
     @Override
     public void removeListener(final CellListener listener) {
-        getListeners(getID()).remove(listener);
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
     }
 
-    public UUID getID() {
+    public long getID() {
         return id;
     }
 
     @Override
     public String getCellID() {
-        return this.getID().toString();
+        return Long.toString(id);
     }
 
     @Override
     public int hashCode() {
-        return this.getID().hashCode();
+        return (int) (id ^ (id >>> 32));
     }
 
     @Override
     public boolean equals(Object other) {
-        if (this == other) {
-            return true;
-        }
-        if (!(other instanceof DatavyuCell)) {
-            return false;
-        }
-        DatavyuCell otherC = (DatavyuCell) other;
-
-        if (otherC.getID().toString().equals(this.getID().toString())) {
-            return true;
-        } else {
-            return false;
-        }
+        // Each cell is only ever equal to itself.
+        return this == other;
     }
 }
 
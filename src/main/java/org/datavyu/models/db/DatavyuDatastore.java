@@ -26,6 +26,7 @@ import com.usermetrix.jclient.Logger;
 import com.usermetrix.jclient.UserMetrix;
 
 import java.util.*;
+import java.util.concurrent.Executor;
 
 /**
  * Acts as a connector between Datavyu's various data structures.
@@ -51,19 +52,56 @@ public class DatavyuDatastore implements Datastore {
     
     private String exemptionVariables = "";
 
+    // Guards the state of the bulk update, which scripts make off the event
+    // dispatch thread.
+    private final Object bulkLock = new Object();
+
+    // Depth of the nested bulk updates currently in progress.
+    private volatile int bulkUpdateDepth = 0;
+
+    // Has the datastore changed during the current bulk update?
+    private boolean changedDuringBulkUpdate = false;
+
+    // The variables whose cells have been added or removed during the current
+    // bulk update.
+    private Set<Variable> bulkUpdatedVariables = new LinkedHashSet<Variable>();
+
+    // The cells of each variable that have otherwise changed during the
+    // current bulk update.
+    private Map<Variable, Set<Cell>> bulkChangedCells = new LinkedHashMap<Variable, Set<Cell>>();
+
+    // Notifies listeners on the thread ending the bulk update.
+    private static final Executor DIRECT_NOTIFIER = new Executor() {
+        @Override
+        public void execute(final Runnable notification) {
+            notification.run();
+        }
+    };
+
+    // The log recording changes to the datastore, null if none are recorded.
+    private volatile ChangeLog changeLog = null;
+
+    // The cell selection.
+    private final SelectionModel selection = new SelectionModel(this);
+
 
     public DatavyuDatastore() {
 
         // Set up variable collection
         variables = new HashMap<String, Variable>();
 
-        // Clear variable listeners.
-//        DatavyuVariable.clearListeners();
         changed = false;
     }
 
     @Override
     public void markDBAsChanged() {
+        synchronized (bulkLock) {
+            if (bulkUpdateDepth > 0) {
+                changedDuringBulkUpdate = true;
+                return;
+            }
+        }
+
         if (!changed) {
             changed = true;
 
@@ -73,6 +111,160 @@ public class DatavyuDatastore implements Datastore {
         }
     }
 
+    @Override
+    public void beginBulkUpdate() {
+        synchronized (bulkLock) {
+            bulkUpdateDepth++;
+        }
+    }
+
+    @Override
+    public void endBulkUpdate() {
+        endBulkUpdate(DIRECT_NOTIFIER);
+    }
+
+    @Override
+    public void endBulkUpdate(final Executor notifier) {
+        final List<Variable> updated;
+        final Map<Variable, Set<Cell>> changedCells;
+        final boolean dbChanged;
+        synchronized (bulkLock) {
+            if (bulkUpdateDepth == 0) {
+                throw new IllegalStateException("No bulk update in progress.");
+            }
+
+            bulkUpdateDepth--;
+            if (bulkUpdateDepth > 0) {
+                return;
+            }
+
+            updated = new ArrayList<Variable>(bulkUpdatedVariables);
+            changedCells = bulkChangedCells;
+            dbChanged = changedDuringBulkUpdate;
+            bulkUpdatedVariables.clear();
+            bulkChangedCells = new LinkedHashMap<Variable, Set<Cell>>();
+            changedDuringBulkUpdate = false;
+        }
+
+        notifier.execute(new Runnable() {
+            @Override
+            public void run() {
+                fireBulkUpdate(updated, changedCells, dbChanged);
+            }
+        });
+    }
+
+    /**
+     * Notifies the listeners of the changes collected during a bulk update.
+     *
+     * @param updated      The variables whose cells were added or removed.
+     * @param changedCells The other changed cells of each variable.
+     * @param dbChanged    Did the datastore change during the update?
+     */
+    private void fireBulkUpdate(final List<Variable> updated,
+                                final Map<Variable, Set<Cell>> changedCells,
+                                final boolean dbChanged) {
+        for (Variable v : updated) {
+            // Variables removed during the update have nothing to announce.
+            if (variables.get(v.getName()) == v) {
+                ((DatavyuVariable) v).fireCellsReplaced();
+            }
+        }
+
+        for (Map.Entry<Variable, Set<Cell>> entry : changedCells.entrySet()) {
+            Variable v = entry.getKey();
+            // Replacing the cells of a variable covers the changes to them.
+            if (variables.get(v.getName()) != v || updated.contains(v)) {
+                continue;
+            }
+
+            List<Cell> cells = new ArrayList<Cell>(entry.getValue().size());
+            for (Cell c : entry.getValue()) {
+                if (v.contains(c)) {
+                    cells.add(c);
+                }
+            }
+            if (!cells.isEmpty()) {
+                ((DatavyuVariable) v).fireCellsChanged(Collections.unmodifiableList(cells));
+            }
+        }
+
+        if (dbChanged) {
+            markDBAsChanged();
+        }
+    }
+
+    @Override
+    public boolean isBulkUpdating() {
+        return bulkUpdateDepth > 0;
+    }
+
+    /**
+     * Records that the cells of a variable changed during the current bulk
+     * update, so that its listeners are notified when the update ends.
+     *
+     * @param var The variable whose cells have changed.
+     */
+    void variableChangedInBulk(final Variable var) {
+        synchronized (bulkLock) {
+            if (bulkUpdateDepth > 0) {
+                bulkUpdatedVariables.add(var);
+            }
+        }
+    }
+
+    /**
+     * Records that the onset, offset, value or selection of a cell changed
+     * during the current bulk update. However often a cell changes, its
+     * variable lists it once when the update ends.
+     *
+     * @param var  The variable holding the cell.
+     * @param cell The changed cell.
+     */
+    void cellChangedInBulk(final Variable var, final Cell cell) {
+        synchronized (bulkLock) {
+            if (bulkUpdateDepth == 0 || bulkUpdatedVariables.contains(var)) {
+                return;
+            }
+
+            Set<Cell> cells = bulkChangedCells.get(var);
+            if (cells == null) {
+                cells = new LinkedHashSet<Cell>();
+                bulkChangedCells.put(var, cells);
+            }
+            cells.add(cell);
+        }
+    }
+
+    @Override
+    public ChangeLog recordChanges() {
+        if (changeLog != null) {
+            changeLog.stop();
+        }
+
+        changeLog = new ChangeLog(this);
+        return changeLog;
+    }
+
+    /**
+     * @return The log recording changes to the datastore, null if changes
+     * are not being recorded.
+     */
+    ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /**
+     * Called when a log stops recording changes to the datastore.
+     *
+     * @param log The log that has stopped.
+     */
+    void changeLogStopped(final ChangeLog log) {
+        if (changeLog == log) {
+            changeLog = null;
+        }
+    }
+
     @Override
     public List<Variable> getAllVariables() {
         List<Variable> varList = new ArrayList<Variable>();
@@ -103,24 +295,12 @@ public class DatavyuDatastore implements Datastore {
 
     @Override
     public List<Cell> getSelectedCells() {
-        List<Cell> selectedCells = new ArrayList<Cell>();
-
-        for (Variable v : variables.values()) {
-            for (Cell c : v.getCells()) {
-                if (c.isSelected()) selectedCells.add(c);
-            }
-        }
-
-        return selectedCells;
+        return selection.getSelectedCells();
     }
 
     @Override
     public void clearCellSelection() {
-        for (Variable v : variables.values()) {
-            for (Cell c : v.getCells()) {
-                if (c.isSelected()) c.setSelected(false);
-            }
-        }
+        selection.clear();
     }
 
     @Override
@@ -129,6 +309,11 @@ public class DatavyuDatastore implements Datastore {
         this.clearVariableSelection();
     }
 
+    @Override
+    public SelectionModel getSelectionModel() {
+        return selection;
+    }
+
     @Override
     public Variable getVariable(String varName) {
         return variables.get(varName);
@@ -136,8 +321,19 @@ public class DatavyuDatastore implements Datastore {
 
     @Override
     public Variable getVariable(Cell cell) {
+        // Cells know the variable holding them, which only needs checking
+        // against the variables of this datastore. Cells that have been
+        // removed still name their old variable but are no longer in it.
+        if (cell instanceof DatavyuCell) {
+            Variable v = ((DatavyuCell) cell).getVariable();
+            if (v != null && v.contains(cell) && variables.get(v.getName()) == v) {
+                return v;
+            }
+            return null;
+        }
+
         for (Variable v : variables.values()) {
-            if (v.getCells().contains(cell)) return v;
+            if (v.contains(cell)) return v;
         }
         return null;
     }
@@ -163,6 +359,9 @@ public class DatavyuDatastore implements Datastore {
 
         Variable v = new DatavyuVariable(name, rootNode, grandfathered, this);
         variables.put(name, v);
+        if (changeLog != null) {
+            changeLog.variableAdded(v);
+        }
 
         for (DatastoreListener dbl : this.dbListeners) {
             dbl.variableAdded(v);
@@ -172,6 +371,27 @@ public class DatavyuDatastore implements Datastore {
         return v;
     }
 
+    @Override
+    public void addVariable(final Variable var) throws UserWarningException {
+        if (getVariable(var.getName()) != null) {
+            throw new UserWarningException("Unable to add column with name '" + var.getName() + "', one with the same name already exists.");
+        }
+
+        if (var instanceof DatavyuVariable) {
+            ((DatavyuVariable) var).setDatastore(this);
+        }
+        variables.put(var.getName(), var);
+        if (changeLog != null) {
+            changeLog.variableAdded(var);
+        }
+
+        for (DatastoreListener dbl : this.dbListeners) {
+            dbl.variableAdded(var);
+        }
+
+        markDBAsChanged();
+    }
+
     @Override
     public void removeVariable(final Variable var) {
         for (DatastoreListener dbl : this.dbListeners) {
@@ -179,6 +399,9 @@ public class DatavyuDatastore implements Datastore {
         }
 
         variables.remove(var.getName());
+        if (changeLog != null) {
+            changeLog.variableRemoved(var);
+        }
         markDBAsChanged();
     }
 
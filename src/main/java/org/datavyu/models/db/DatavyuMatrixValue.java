@@ -23,113 +23,145 @@
 
 package org.datavyu.models.db;
 
-import java.util.*;
-
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
+/**
+ * A view onto the arguments of a matrix cell. Like the other values, the
+ * arguments are held in the CellStore of the cell.
+ */
 public final class DatavyuMatrixValue extends DatavyuValue implements MatrixValue {
 
-    private UUID parentId;
-    private String value;
-    private List<Value> values;
+    /**
+     * Constructor.
+     *
+     * @param cell The cell holding the matrix.
+     */
+    DatavyuMatrixValue(final DatavyuCell cell) {
+        super(cell, -1);
+    }
 
+    /**
+     * @param cell  A matrix cell.
+     * @param index The index of the argument.
+     *
+     * @return The value of the argument in the cell.
+     */
+    static Value createArgumentValue(final DatavyuCell cell, final int index) {
+        if (cell.getStore().getArgument(index).type == Argument.Type.TEXT) {
+            return new DatavyuTextValue(cell, index);
+        }
 
-    public DatavyuMatrixValue() {
+        return new DatavyuNominalValue(cell, index);
     }
 
-    public DatavyuMatrixValue(UUID parent_id, Argument type) {
-        this.parentId = parent_id;
-        values = new ArrayList<Value>();
-        for (Argument arg : type.childArguments) {
-            createArgument(arg);
+    @Override
+    public boolean isEmpty() {
+        CellStore store = cell.getStore();
+        for (int a = 0; a < store.getColumnCount(); a++) {
+            if (!store.isEmpty(a, cell.getRow())) {
+                return false;
+            }
         }
-        this.arg = type;
-        value = "MATRIX";
+
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        for (Value v : getArguments()) {
+            v.clear();
+        }
+    }
+
+    /**
+     * The content of a matrix is held by its arguments, which are set
+     * individually. This leaves the matrix unchanged.
+     *
+     * @param newValue Ignored.
+     */
+    @Override
+    public void set(final String newValue) {
+    }
+
+    @Override
+    public Argument getArgument() {
+        return cell.getStore().getRoot();
     }
 
     @Override
     public String toString() {
-        String result = "";
+        StringBuilder result = new StringBuilder("(");
         List<Value> values = getArguments();
-
-        result += "(";
         for (int i = 0; i < values.size(); i++) {
-            Value v = values.get(i);
-            if (v.toString() == null) {
-                result += "<code" + String.valueOf(i) + ">";
-            } else {
-                result += v.toString();
-            }
-            if (i < values.size() - 1) {
-                result += ",";
+            if (i > 0) {
+                result.append(',');
             }
+            result.append(values.get(i).toString());
         }
-        result += ")";
+        result.append(')');
 
-        return result;
+        return result.toString();
     }
     
     public String serialize() {
-        List<Value> values = getArguments();
-
         StringBuilder result = new StringBuilder("(");
-        for (Iterator<Value> i = values.iterator(); i.hasNext();) {
-            Value v = i.next();
-            result.append(v.serialize());
-            if (i.hasNext()) 
+        List<Value> values = getArguments();
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
                 result.append(',');
+            }
+            result.append(values.get(i).serialize());
         }
         result.append(')');
 
         return result.toString();
     }
 
-
     @Override
     public List<Value> getArguments() {
-        order(values);
-        return values;
-    }
-
-    // Method to order the values coming out of the DB.
-    private static void order(List<Value> values) {
-
-        Collections.sort(values, new Comparator() {
-            @Override
-            public int compare(Object o1, Object o2) {
-
-                int x1 = ((DatavyuValue) o1).getIndex();
-                int x2 = ((DatavyuValue) o2).getIndex();
+        int count = cell.getStore().getColumnCount();
+        List<Value> values = new ArrayList<Value>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(createArgumentValue(cell, i));
+        }
 
-                if (x1 != x2) {
-                    return x1 - x2;
-                } else {
-                    return 0;
-                }
-            }
-        });
+        return Collections.unmodifiableList(values);
     }
 
+    /**
+     * The arguments of a matrix are shared by every cell of the variable and
+     * are added with Variable.addArgument(). This brings the cell in line
+     * with the arguments of its variable.
+     *
+     * @param arg The argument to fetch the value of.
+     *
+     * @return The value of arg in this matrix, null if arg is not one of the
+     * arguments of the variable.
+     */
     @Override
     public Value createArgument(Argument arg) {
-        Value val = null;
-        String name = String.format("code%02d", getArguments().size() + 1);
-        if (arg.type == Argument.Type.NOMINAL) {
-            val = new DatavyuNominalValue(this.id, name, getArguments().size(), arg);
-        } else if (arg.type == Argument.Type.TEXT) {
-            val = new DatavyuTextValue(this.id, name, getArguments().size(), arg);
+        CellStore store = cell.getStore();
+        store.syncColumns();
+        for (int i = 0; i < store.getColumnCount(); i++) {
+            if (store.getArgument(i) == arg) {
+                return createArgumentValue(cell, i);
+            }
         }
-        this.getArguments().add(val);
-        return val;
+
+        return null;
     }
 
+    /**
+     * The arguments of a matrix are shared by every cell of the variable and
+     * are removed with Variable.removeArgument(). This brings the cell in
+     * line with the arguments of its variable.
+     *
+     * @param index Ignored.
+     */
     @Override
     public void removeArgument(final int index) {
-        List<Value> args = getArguments();
-        args.remove(index);
-        Value v;
-        for (int i = 0; i < args.size(); i++) {
-            v = args.get(i);
-            ((DatavyuNominalValue) v).setIndex(i);
-        }
+        cell.getStore().syncColumns();
     }
 }
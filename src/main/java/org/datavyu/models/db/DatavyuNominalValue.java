@@ -23,28 +23,16 @@
 
 package org.datavyu.models.db;
 
-import java.util.UUID;
-
 public final class DatavyuNominalValue extends DatavyuValue implements NominalValue {
 
-    public DatavyuNominalValue() {
-    }
-
-    public DatavyuNominalValue(UUID parent_id) {
-        this.parent_id = parent_id;
-        this.index = -1;
-    }
-
-    public DatavyuNominalValue(UUID parent_id, Argument arg) {
-        this(parent_id);
-        this.arg = arg;
-    }
-
-    public DatavyuNominalValue(UUID parent_id, String name, int index, Argument type) {
-        this(parent_id);
-        this.index = index;
-        this.name = name;
-        this.arg = type;
+    /**
+     * Constructor.
+     *
+     * @param cell  The cell holding the value.
+     * @param index The index of the argument within a matrix, -1 for the
+     *              value of a nominal cell.
+     */
+    DatavyuNominalValue(final DatavyuCell cell, final int index) {
+        super(cell, index);
     }
-
 }
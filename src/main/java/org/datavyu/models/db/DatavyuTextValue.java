@@ -23,27 +23,16 @@
 
 package org.datavyu.models.db;
 
-import java.util.UUID;
-
 public final class DatavyuTextValue extends DatavyuValue implements TextValue {
 
-    public DatavyuTextValue() {
-    }
-
-    public DatavyuTextValue(UUID parent_id) {
-        this.parent_id = parent_id;
-        this.index = -1;
-    }
-
-    public DatavyuTextValue(UUID parent_id, Argument arg) {
-        this(parent_id);
-        this.arg = arg;
-    }
-
-    public DatavyuTextValue(UUID parent_id, String name, int index, Argument arg) {
-        this(parent_id);
-        this.name = name;
-        this.index = index;
-        this.arg = arg;
+    /**
+     * Constructor.
+     *
+     * @param cell  The cell holding the value.
+     * @param index The index of the argument within a matrix, -1 for the
+     *              value of a text cell.
+     */
+    DatavyuTextValue(final DatavyuCell cell, final int index) {
+        super(cell, index);
     }
-}
\ No newline at end of file
+}
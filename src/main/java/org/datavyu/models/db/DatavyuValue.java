@@ -23,21 +23,39 @@
 
 package org.datavyu.models.db;
 
-import org.datavyu.Datavyu;
 import org.datavyu.util.StringUtils;
 
-import java.io.Serializable;
-import java.util.UUID;
 
+/**
+ * A view onto the value of a single argument of a cell. The value itself is
+ * held in the CellStore of the cell, views are created as they are needed.
+ */
+public abstract class DatavyuValue implements Value, Comparable<DatavyuValue> {
 
-public abstract class DatavyuValue implements Value, Serializable, Comparable<DatavyuValue> {
+    // The cell holding this value.
+    final DatavyuCell cell;
+    // The index of the argument within a matrix, -1 for the value of a text
+    // or nominal cell.
+    final int index;
 
-    String value;
-    int index;
-    UUID parent_id;
-    UUID id = UUID.randomUUID();
-    String name = "";
-    Argument arg;
+    /**
+     * Constructor.
+     *
+     * @param cell  The cell holding the value.
+     * @param index The index of the argument within a matrix, -1 for the
+     *              value of a text or nominal cell.
+     */
+    DatavyuValue(final DatavyuCell cell, final int index) {
+        this.cell = cell;
+        this.index = index;
+    }
+
+    /**
+     * @return The column of the cell store holding this value.
+     */
+    private int getColumn() {
+        return index < 0 ? 0 : index;
+    }
 
     @Override
     public boolean isValid(final String value) {
@@ -46,24 +64,27 @@ public abstract class DatavyuValue implements Value, Serializable, Comparable<Da
 
     @Override
     public void clear() {
-        this.value = null;
+        if (!isEmpty()) {
+            cell.changing();
+            cell.getStore().setValue(getColumn(), cell.getRow(), null);
+            markChanged();
+        }
     }
 
     @Override
     public boolean isEmpty() {
-        if (value == null || value.isEmpty()) {
-            return true;
-        } else {
-            return false;
-        }
+        return cell.getStore().isEmpty(getColumn(), cell.getRow());
     }
     
     public int getIndex() {
         return index;
     }
-    
-    public void setIndex(int index) {
-        this.index = index;
+
+    /**
+     * Marks the datastore holding this value as changed.
+     */
+    void markChanged() {
+        cell.markChanged();
     }
 
     @Override
@@ -80,32 +101,52 @@ public abstract class DatavyuValue implements Value, Serializable, Comparable<Da
     @Override
     public void set(final String newValue)
     {
-        if(!newValue.equals(toString()) && !newValue.equals(this.value))
+        if(!newValue.equals(toString()) && !newValue.equals(getStoredValue()))
         {
-            this.value = newValue;
-            Datavyu.getProjectController().getDB().markDBAsChanged();
-        }
-        else
-        {
-            //System.out.println("STOPPED set to " + newValue);
+            cell.changing();
+            cell.getStore().setValue(getColumn(), cell.getRow(), newValue);
+            markChanged();
         }
     };
 
+    /**
+     * @return The content of this value, null if it is empty.
+     */
+    String getStoredValue() {
+        return cell.getStore().getValue(getColumn(), cell.getRow());
+    }
+
     public Argument getArgument() {
-        return arg;
+        return cell.getStore().getArgument(getColumn());
     }
 
     @Override
     public String toString() {
         if (this.isEmpty()) {
-            return "<" + arg.name + ">";
+            return "<" + getArgument().name + ">";
         } else {
-            return value;
+            return getStoredValue();
         }
     }
     
     public String serialize() {
+        String value = getStoredValue();
         if(value == null) return "";
         return StringUtils.escapeCSVArgument(value);
     }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (!(other instanceof DatavyuValue)) {
+            return false;
+        }
+
+        DatavyuValue v = (DatavyuValue) other;
+        return v.getClass() == getClass() && v.cell == cell && v.index == index;
+    }
+
+    @Override
+    public int hashCode() {
+        return cell.hashCode() * 31 + index;
+    }
 }
@@ -26,19 +26,25 @@ package org.datavyu.models.db;
 import java.awt.Component;
 import org.datavyu.Configuration;
 import org.datavyu.Datavyu;
+import org.datavyu.util.SequentialNumberGenerator;
 
 import javax.swing.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Maps a variable object to a datastore.
  */
 public final class DatavyuVariable implements Variable {
-    // All the listeners for variables in teh datastore.
-    static Map<UUID, List<VariableListener>> allListeners =
-            new HashMap<UUID, List<VariableListener>>();
-    final private UUID variableId = UUID.randomUUID();
-    private List<Cell> cells = new ArrayList<Cell>();
+    // Source of the version stamps of all variables.
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    final private long variableId = SequentialNumberGenerator.getNextId();
+    private volatile long version = VERSIONS.incrementAndGet();
+    private final CellTemporalIndex cellIndex = new CellTemporalIndex();
+    // The content of the cells, created along with the root argument.
+    private CellStore cellStore = null;
+    // The listeners of this variable.
+    private final List<VariableListener> listeners = new ArrayList<VariableListener>();
     private Argument rootNodeArgument = null;
     private Boolean selected;
     private Boolean highlighted;
@@ -48,30 +54,6 @@ public final class DatavyuVariable implements Variable {
 
     private DatavyuDatastore owningDatastore;
 
-    private static CellComparator CellComparator = new CellComparator();
-
-    /**
-     * @param variableId The ID of the variable we want the listeners for.
-     *
-     * @return The list of listeners for the specified variableId.
-     */
-    private static List<VariableListener> getListeners(UUID variableId) {
-        List<VariableListener> result = allListeners.get(variableId);
-        if (result == null) {
-            result = new ArrayList<VariableListener>();
-            allListeners.put(variableId, result);
-        }
-
-        return result;
-    }
-
-    /**
-     * Removes all the listeners for all the variables.
-     */
-    public static void clearListeners() {
-        allListeners.clear();
-    }
-
     /**
      * Default constructor.
      */
@@ -106,62 +88,273 @@ public final class DatavyuVariable implements Variable {
         this.setHidden(false);
         this.setSelected(true);
 
-
-
-        Datavyu.getProjectController().getDB().markDBAsChanged();
+        markDB();
     }
     
     
     public void addCell(Cell cell) {
         if (cell.getValue().getArgument() == this.getRootNode()) {
-            cells.add(cell);
+            if (cell instanceof DatavyuCell) {
+                ((DatavyuCell) cell).moveTo(cellStore);
+                cellAdded((DatavyuCell) cell);
+            }
+            cellIndex.add(cell);
+            markDB();
+        }
+    }
+
+    /**
+     * Adds back a cell that was removed from this variable, whatever the
+     * root argument it was removed with. Used to undo changes.
+     *
+     * @param cell The cell to add back.
+     */
+    void restoreCell(final DatavyuCell cell) {
+        if (cell.getStore() == cellStore) {
+            return;
         }
+
+        cell.moveTo(cellStore);
+        cellIndex.add(cell);
+
+        if (isBulkUpdating()) {
+            owningDatastore.variableChangedInBulk(this);
+        } else {
+            for (VariableListener vl : listeners) {
+                vl.cellInserted(cell);
+            }
+        }
+
+        markDB();
     }
 
+    /**
+     * @return The log recording the changes made to the datastore holding
+     * this variable, null if changes are not being recorded.
+     */
+    private ChangeLog getChangeLog() {
+        return owningDatastore == null ? null : owningDatastore.getChangeLog();
+    }
 
+    /**
+     * Records a cell created in, or added back to, this variable.
+     *
+     * @param cell The added cell.
+     */
+    private void cellAdded(final DatavyuCell cell) {
+        ChangeLog log = getChangeLog();
+        if (log != null) {
+            log.cellAdded(cell);
+        }
+    }
+
+    /**
+     * Called by the cells of this variable before their onset, offset or
+     * values change, so that the change can be recorded.
+     *
+     * @param cell The cell about to change.
+     */
+    void cellChanging(final DatavyuCell cell) {
+        ChangeLog log = getChangeLog();
+        if (log != null) {
+            log.cellChanging(cell);
+        }
+    }
+
+    /**
+     * Called by the store of this variable before its root argument or the
+     * arguments of its root change, so that the change can be recorded.
+     *
+     * @param store    The store about to change.
+     * @param dropping True if the values of some arguments are about to be
+     *                 dropped.
+     */
+    void rootChanging(final CellStore store, final boolean dropping) {
+        ChangeLog log = getChangeLog();
+        if (log != null && store == cellStore) {
+            log.structureChanging(this, store, dropping);
+        }
+    }
+
+    /**
+     * @return The store holding the content of the cells of this variable.
+     */
+    CellStore getCellStore() {
+        return cellStore;
+    }
+
+    /**
+     * Puts back the name and the arguments of this variable. Used to undo
+     * changes, the values of the cells are restored separately.
+     *
+     * @param newName The name to put back.
+     * @param root    The root argument to put back.
+     * @param columns The arguments of the root, the root itself if it is not
+     *                a matrix.
+     */
+    void restoreStructure(final String newName, final Argument root, final List<Argument> columns) {
+        if (root.type == Argument.Type.MATRIX) {
+            root.childArguments.clear();
+            root.childArguments.addAll(columns);
+        }
+        setRootNode(root);
+
+        if (!newName.equals(name)) {
+            // Only a variable held by the datastore is listed under its name.
+            if (owningDatastore != null && owningDatastore.getVariable(name) == this) {
+                owningDatastore.updateVariableName(name, newName, this);
+            }
+            name = newName;
+            for (VariableListener vl : listeners) {
+                vl.nameChanged(newName);
+            }
+        }
+    }
+
+
+
+    /**
+     * @param dds The datastore that now holds this variable.
+     */
+    void setDatastore(final DatavyuDatastore dds) {
+        owningDatastore = dds;
+    }
 
     /**
      * @return The internal ID for this variable.
      */
-    public UUID getID() {
+    public long getID() {
         return variableId;
     }
 
     @Override
     public Cell createCell() {
-        Cell c = new DatavyuCell(this, this.getRootNode());
+        DatavyuCell c = new DatavyuCell(cellStore);
 
-        cells.add(c);
+        cellIndex.add(c);
+        cellAdded(c);
 
-        for(VariableListener vl : getListeners(getID()) ) {
-            vl.cellInserted(c);
+        if (isBulkUpdating()) {
+            owningDatastore.variableChangedInBulk(this);
+        } else {
+            for(VariableListener vl : listeners ) {
+                vl.cellInserted(c);
+            }
         }
 
-        Datavyu.getProjectController().getDB().markDBAsChanged();
+        markDB();
         return c;
     }
 
+    /**
+     * Called by the cells of this variable when their onset or offset changes,
+     * so that the temporal index is rebuilt before it is next queried.
+     *
+     * @param cell The cell whose onset or offset has changed.
+     */
+    void cellTimeChanged(final Cell cell) {
+        cellIndex.invalidate();
+        cellChangedInBulk(cell);
+    }
+
+    /**
+     * Records a cell of this variable whose onset, offset, value or selection
+     * changed, if a bulk update is in progress, so that the listeners are
+     * notified once the update ends.
+     *
+     * @param cell The changed cell.
+     */
+    void cellChangedInBulk(final Cell cell) {
+        if (isBulkUpdating()) {
+            owningDatastore.cellChangedInBulk(this, cell);
+        }
+    }
+
+    /**
+     * @return True if the datastore holding this variable is in the middle of
+     * a bulk update, false otherwise.
+     */
+    boolean isBulkUpdating() {
+        return owningDatastore != null && owningDatastore.isBulkUpdating();
+    }
+
+    /**
+     * Notifies the listeners that the cells of this variable have changed in
+     * bulk. Called by the owning datastore at the end of a bulk update.
+     */
+    void fireCellsReplaced() {
+        for (VariableListener vl : listeners) {
+            vl.cellsReplaced();
+        }
+    }
+
+    /**
+     * Notifies the listeners that some cells of this variable changed during
+     * a bulk update. Called by the owning datastore at the end of the update.
+     *
+     * @param changedCells The changed cells, each listed once.
+     */
+    void fireCellsChanged(final Collection<Cell> changedCells) {
+        for (VariableListener vl : listeners) {
+            vl.cellsChanged(changedCells);
+        }
+    }
+
     @Override
     public void removeCell(final Cell cell) {
-        cells.remove(cell);
+        if (cell instanceof DatavyuCell && contains(cell)) {
+            ChangeLog log = getChangeLog();
+            if (log != null) {
+                log.cellRemoved((DatavyuCell) cell);
+            }
+        }
 
-        Datavyu.getProjectController().getDB().markDBAsChanged();
+        cellIndex.remove(cell);
 
-        for(VariableListener vl : getListeners(getID()) ) {
-            vl.cellRemoved(cell);
+        markDB();
+
+        if (isBulkUpdating()) {
+            owningDatastore.variableChangedInBulk(this);
+        } else {
+            for(VariableListener vl : listeners ) {
+                vl.cellRemoved(cell);
+            }
         }
 
+        // The views of the cell have been told it is gone, drop any that did
+        // not unregister so the removed cell does not keep them alive. The
+        // content of the cell is moved out of the store so that it can be
+        // added back.
+        if (cell instanceof DatavyuCell
+                && ((DatavyuCell) cell).getStore() == cellStore) {
+            ((DatavyuCell) cell).clearListeners();
+            ((DatavyuCell) cell).detach();
+        }
     }
 
     @Override
     public List<Cell> getCells() {
-        return cells;
+        return cellIndex.getCells();
     }
 
     @Override
     public Cell getCellTemporally(final int index) {
-        Collections.sort(cells, CellComparator);
-        return cells.get(index);
+        return cellIndex.getCellTemporally(index);
+    }
+
+    @Override
+    public int getCellTemporalIndex(final Cell cell) {
+        return cellIndex.indexOf(cell);
+    }
+
+    @Override
+    public List<Cell> getCellsAt(final long time) {
+        return cellIndex.getCellsOverlapping(time, time);
+    }
+
+    @Override
+    public List<Cell> getCellsOverlapping(final long start, final long end) {
+        return cellIndex.getCellsOverlapping(start, end);
     }
 
     @Override
@@ -177,8 +370,14 @@ public final class DatavyuVariable implements Variable {
 
     @Override
     public void setRootNode(final Argument a) {
-        Datavyu.getProjectController().getDB().markDBAsChanged();
+        markDB();
         rootNodeArgument = a;
+
+        if (cellStore == null) {
+            cellStore = new CellStore(this, a);
+        } else {
+            cellStore.setRoot(a);
+        }
     }
     
     @Override
@@ -189,13 +388,16 @@ public final class DatavyuVariable implements Variable {
 
     @Override
     public List<Cell> getCellsTemporally() {
-        Collections.sort(cells, CellComparator);
-        return cells;
+        return cellIndex.getCellsTemporally();
     }
 
     @Override
     public boolean contains(final Cell c) {
-        return cells.contains(c);
+        if (c instanceof DatavyuCell) {
+            return ((DatavyuCell) c).getStore() == cellStore;
+        }
+
+        return cellIndex.getCells().contains(c);
     }
 
     @Override
@@ -211,10 +413,10 @@ public final class DatavyuVariable implements Variable {
     @Override
     public void setHidden(final boolean hiddenParm) {
         if (hidden == null || hiddenParm != hidden) {
-            Datavyu.getProjectController().getDB().markDBAsChanged();
+            markDB();
             hidden = hiddenParm;
 
-            for (VariableListener vl : getListeners(getID())) {
+            for (VariableListener vl : listeners) {
                 vl.visibilityChanged(hidden);
             }
         }
@@ -253,10 +455,15 @@ public final class DatavyuVariable implements Variable {
         }
 
         if (name != null && owningDatastore != null) {
+            ChangeLog log = getChangeLog();
+            if (log != null) {
+                log.structureChanging(this, cellStore, false);
+            }
             owningDatastore.updateVariableName(name, newName, this);
         }
         this.name = newName;
-        for(VariableListener vl : getListeners(getID()) ) {
+        version = VERSIONS.incrementAndGet();
+        for(VariableListener vl : listeners ) {
             vl.nameChanged(newName);
         }
     }
@@ -272,12 +479,9 @@ public final class DatavyuVariable implements Variable {
         Argument arg = getRootNode();
         Argument child = arg.addChildArgument(type);
 
-        for(Cell cell : getCells()) {
-            cell.addMatrixValue(child);
-        }
-
+        // Adds an empty column for the new argument to the store.
         this.setRootNode(arg);
-        return arg.childArguments.get(arg.childArguments.size()-1);
+        return child;
     }
 
     @Override
@@ -293,10 +497,7 @@ public final class DatavyuVariable implements Variable {
         arg.childArguments.remove(moved_arg);
         arg.childArguments.add(new_index, moved_arg);
 
-        // Move in all cells
-        for(Cell cell : getCells()) {
-            cell.moveMatrixValue(old_index, new_index);
-        }
+        // Moves the column of the argument in the store.
         this.setRootNode(arg);
     }
 
@@ -312,11 +513,7 @@ public final class DatavyuVariable implements Variable {
         int arg_index = getArgumentIndex(name);
         arg.childArguments.remove(arg_index);
 
-        // Now send this change to the cells
-        for(Cell cell : getCells()) {
-            cell.removeMatrixValue(arg_index);
-        }
-
+        // Drops the column of the argument from the store.
         this.setRootNode(arg);
     }
 
@@ -333,12 +530,12 @@ public final class DatavyuVariable implements Variable {
 
     @Override
     public void addListener(final VariableListener listener) {
-        getListeners(getID()).add(listener);
+        listeners.add(listener);
     }
 
     @Override
     public void removeListener(final VariableListener listener) {
-        getListeners(getID()).remove(listener);
+        listeners.remove(listener);
     }
 
     @Override
@@ -351,16 +548,27 @@ public final class DatavyuVariable implements Variable {
         return orderIndex;
     }
 
-    //would like to change the above calls to DatavyuDatastore.markDBAsChanged to this,
-    //but am holding off for now to avoid merge complications
-    private void markDB() {
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public long getTemporalVersion() {
+        return cellIndex.getStamp();
+    }
+
+    /**
+     * Stamps a new version on this variable and marks the datastore holding
+     * it as changed.
+     */
+    void markDB() {
+        version = VERSIONS.incrementAndGet();
+
         if (owningDatastore != null) {
             owningDatastore.markDBAsChanged();
-        } else if (Datavyu.getProjectController() != null) {
-            //uncomment the below when markDBAsChanged is non-static
-            //Datavyu.getProjectController().getDB().markDBAsChanged();
         } else {
-            System.out.println("FAILED TO MARK DATASTORE");
+            Datavyu.getProjectController().getDB().markDBAsChanged();
         }
     }
 }
\ No newline at end of file
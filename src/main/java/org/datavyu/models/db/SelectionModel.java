@@ -0,0 +1,171 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The cell selection of a datastore. The selection of the cells of a variable
+ * is held as a bitset over the rows of its CellStore, so finding or clearing
+ * the selected cells costs a word per 64 cells rather than a call per cell.
+ *
+ * Selecting a single cell is done through Cell.setSelected(), which notifies
+ * the listeners of that cell. The bulk operations here change the selection
+ * of any number of cells and notify the SelectionListeners once instead.
+ */
+public final class SelectionModel {
+
+    private final Datastore datastore;
+
+    private final List<SelectionListener> listeners = new ArrayList<SelectionListener>();
+
+    /**
+     * Constructor.
+     *
+     * @param datastore The datastore whose cells are selected.
+     */
+    SelectionModel(final Datastore datastore) {
+        this.datastore = datastore;
+    }
+
+    /**
+     * @return All the selected cells, across the entire datastore.
+     */
+    public List<Cell> getSelectedCells() {
+        List<Cell> selectedCells = new ArrayList<Cell>();
+
+        for (Variable var : datastore.getAllVariables()) {
+            if (var instanceof DatavyuVariable) {
+                CellStore store = ((DatavyuVariable) var).getCellStore();
+                for (int row = store.nextSelected(0); row >= 0; row = store.nextSelected(row + 1)) {
+                    selectedCells.add(store.getCell(row));
+                }
+            } else {
+                for (Cell c : var.getCells()) {
+                    if (c.isSelected()) selectedCells.add(c);
+                }
+            }
+        }
+
+        return selectedCells;
+    }
+
+    /**
+     * Deselects every cell of the datastore.
+     */
+    public void clear() {
+        boolean changed = false;
+        BitSet none = new BitSet();
+
+        for (Variable var : datastore.getAllVariables()) {
+            if (var instanceof DatavyuVariable) {
+                CellStore store = ((DatavyuVariable) var).getCellStore();
+                if (store.hasSelection()) {
+                    changed |= store.setSelection(none);
+                }
+            } else {
+                for (Cell c : var.getCells()) {
+                    if (c.isSelected()) c.setSelected(false);
+                }
+            }
+        }
+
+        if (changed) {
+            fireSelectionChanged();
+        }
+    }
+
+    /**
+     * Selects every cell of a variable. The selection of other variables is
+     * left as it is.
+     *
+     * @param var The variable whose cells to select.
+     */
+    public void selectAll(final Variable var) {
+        if (!(var instanceof DatavyuVariable)) {
+            for (Cell c : var.getCells()) {
+                c.setSelected(true);
+            }
+            return;
+        }
+
+        CellStore store = ((DatavyuVariable) var).getCellStore();
+        BitSet rows = new BitSet(store.size());
+        rows.set(0, store.size());
+        if (store.setSelection(rows)) {
+            fireSelectionChanged();
+        }
+    }
+
+    /**
+     * Selects the cells of a variable that lie temporally between two of its
+     * cells, both included, and deselects the rest of its cells. The
+     * selection of other variables is left as it is.
+     *
+     * @param var   The variable whose cells to select.
+     * @param first One end of the range.
+     * @param last  The other end of the range, may be before first.
+     */
+    public void selectRange(final Variable var, final Cell first, final Cell last) {
+        List<Cell> ordered = var.getCellsTemporally();
+        int from = var.getCellTemporalIndex(first);
+        int to = var.getCellTemporalIndex(last);
+        if (from < 0 || to < 0) {
+            return;
+        }
+        if (from > to) {
+            int swap = from;
+            from = to;
+            to = swap;
+        }
+
+        if (!(var instanceof DatavyuVariable)) {
+            for (int i = 0; i < ordered.size(); i++) {
+                ordered.get(i).setSelected(i >= from && i <= to);
+            }
+            return;
+        }
+
+        BitSet rows = new BitSet();
+        for (int i = from; i <= to; i++) {
+            rows.set(((DatavyuCell) ordered.get(i)).getRow());
+        }
+        if (((DatavyuVariable) var).getCellStore().setSelection(rows)) {
+            fireSelectionChanged();
+        }
+    }
+
+    /**
+     * Adds a listener to notify after bulk changes to the selection.
+     */
+    public void addListener(final SelectionListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addListener().
+     */
+    public void removeListener(final SelectionListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireSelectionChanged() {
+        for (SelectionListener listener : new ArrayList<SelectionListener>(listeners)) {
+            listener.selectionChanged();
+        }
+    }
+}
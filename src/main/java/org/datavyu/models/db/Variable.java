@@ -63,6 +63,28 @@ public interface Variable {
      */
     Cell getCellTemporally(final int index);
 
+    /**
+     * @param cell The cell to locate.
+     * @return The index (from first onset to last offset) of the cell, -1 if
+     * the cell is not part of this variable.
+     */
+    int getCellTemporalIndex(final Cell cell);
+
+    /**
+     * @param time The time in milliseconds.
+     * @return The cells that span the supplied time (onset <= time <= offset)
+     * in temporal order.
+     */
+    List<Cell> getCellsAt(final long time);
+
+    /**
+     * @param start The start of the time window in milliseconds (inclusive).
+     * @param end The end of the time window in milliseconds (inclusive).
+     * @return The cells that overlap the supplied time window in temporal
+     * order.
+     */
+    List<Cell> getCellsOverlapping(final long start, final long end);
+
     /**
      * @return The type of the variable.
      */
@@ -176,4 +198,18 @@ public interface Variable {
     void setOrderIndex(int newIndex);
 
     int getOrderIndex();
+
+    /**
+     * @return A stamp that changes whenever the variable, its cells or their
+     * values change. Stamps are unique across variables, so a variable never
+     * shares the stamp of the one it replaced.
+     */
+    long getVersion();
+
+    /**
+     * @return A stamp that changes whenever cells are added to or removed
+     * from the variable, or the onset or offset of one of them changes, so
+     * that views can keep the temporal order of the cells until it does.
+     */
+    long getTemporalVersion();
 }
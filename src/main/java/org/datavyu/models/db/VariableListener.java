@@ -22,6 +22,8 @@
  */
 package org.datavyu.models.db;
 
+import java.util.Collection;
+
 /**
  * Implement this interface to be notified of changes to a variable.
  */
@@ -55,4 +57,20 @@ public interface VariableListener {
      * @param deletedCell The cell that has been removed from the variable.
      */
     void cellRemoved(final Cell deletedCell);
+
+    /**
+     * The cells of the variable have been changed in bulk (see
+     * Datastore.beginBulkUpdate), and need to be read from the variable again.
+     */
+    void cellsReplaced();
+
+    /**
+     * The onset, offset, value or selection of some cells of the variable
+     * changed during a bulk update (see Datastore.beginBulkUpdate). Each cell
+     * is listed once, however many times it changed. Not called for a
+     * variable whose cells were replaced in the same update.
+     *
+     * @param changedCells The cells that have changed.
+     */
+    void cellsChanged(final Collection<Cell> changedCells);
 }
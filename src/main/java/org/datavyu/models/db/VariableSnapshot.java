@@ -0,0 +1,264 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import org.datavyu.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable copy of a variable and the content of its cells, taken on the
+ * thread that modifies the datastore so that it can be serialised on another.
+ *
+ * The cells are held as parallel arrays in the order of Variable.getCells().
+ * Values are stored per argument: text and nominal variables have a single
+ * argument, matrix variables have one per formal argument. An empty value is
+ * stored as null.
+ */
+public final class VariableSnapshot {
+
+    // The version of the variable when the snapshot was taken.
+    private final long version;
+
+    private final String name;
+
+    private final Argument.Type type;
+
+    private final boolean hidden;
+
+    // The name and type of each argument.
+    private final String[] argNames;
+
+    private final Argument.Type[] argTypes;
+
+    private final long[] onsets;
+
+    private final long[] offsets;
+
+    // values[a][c] is the value of argument a of cell c.
+    private final String[][] values;
+
+    /**
+     * Constructor.
+     *
+     * @param variable The variable to copy.
+     */
+    private VariableSnapshot(final Variable variable) {
+        version = variable.getVersion();
+        name = variable.getName();
+        hidden = variable.isHidden();
+
+        Argument root = variable.getRootNode();
+        type = root.type;
+        if (type == Argument.Type.MATRIX) {
+            argNames = new String[root.childArguments.size()];
+            argTypes = new Argument.Type[root.childArguments.size()];
+            for (int a = 0; a < argNames.length; a++) {
+                argNames[a] = root.childArguments.get(a).name;
+                argTypes[a] = root.childArguments.get(a).type;
+            }
+        } else {
+            argNames = new String[] { root.name };
+            argTypes = new Argument.Type[] { root.type };
+        }
+
+        List<Cell> cells = variable.getCells();
+        onsets = new long[cells.size()];
+        offsets = new long[cells.size()];
+        values = new String[argNames.length][cells.size()];
+
+        for (int c = 0; c < cells.size(); c++) {
+            Cell cell = cells.get(c);
+            onsets[c] = cell.getOnset();
+            offsets[c] = cell.getOffset();
+
+            if (type == Argument.Type.MATRIX) {
+                List<Value> args = ((MatrixValue) cell.getValue()).getArguments();
+                for (int a = 0; a < argNames.length; a++) {
+                    values[a][c] = copyValue(args.get(a));
+                }
+            } else {
+                values[0][c] = copyValue(cell.getValue());
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot of a variable. Must be called on the thread that
+     * modifies the datastore.
+     *
+     * @param variable The variable to copy.
+     * @return The snapshot of the variable.
+     */
+    public static VariableSnapshot take(final Variable variable) {
+        return new VariableSnapshot(variable);
+    }
+
+    /**
+     * @param value The value to copy.
+     * @return The content of the value, null if it is empty.
+     */
+    private static String copyValue(final Value value) {
+        return value.isEmpty() ? null : value.toString();
+    }
+
+    /**
+     * @return The version of the variable when the snapshot was taken.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The type of the root argument of the variable.
+     */
+    public Argument.Type getType() {
+        return type;
+    }
+
+    public boolean isHidden() {
+        return hidden;
+    }
+
+    /**
+     * @return The number of arguments held by each cell.
+     */
+    public int getArgumentCount() {
+        return argNames.length;
+    }
+
+    /**
+     * @param arg The index of the argument.
+     * @return The name of the argument.
+     */
+    public String getArgumentName(final int arg) {
+        return argNames[arg];
+    }
+
+    /**
+     * @param arg The index of the argument.
+     * @return The type of the argument.
+     */
+    public Argument.Type getArgumentType(final int arg) {
+        return argTypes[arg];
+    }
+
+    public int getCellCount() {
+        return onsets.length;
+    }
+
+    public long getOnset(final int cell) {
+        return onsets[cell];
+    }
+
+    public long getOffset(final int cell) {
+        return offsets[cell];
+    }
+
+    /**
+     * @param cell The index of the cell.
+     * @return The onset of the cell in the HH:MM:SS:mmm format.
+     */
+    public String getOnsetString(final int cell) {
+        return DatavyuCell.convertMStoTimestamp(onsets[cell]);
+    }
+
+    /**
+     * @param cell The index of the cell.
+     * @return The offset of the cell in the HH:MM:SS:mmm format.
+     */
+    public String getOffsetString(final int cell) {
+        return DatavyuCell.convertMStoTimestamp(offsets[cell]);
+    }
+
+    /**
+     * @param arg  The index of the argument.
+     * @param cell The index of the cell.
+     * @return The value of the argument in the cell, null if it is empty.
+     */
+    public String getValue(final int arg, final int cell) {
+        return values[arg][cell];
+    }
+
+    /**
+     * Serializes the value of a cell, as Value.serialize() does.
+     *
+     * @param cell The index of the cell.
+     * @param dest The buffer to append the serialized value to.
+     */
+    public void serializeValue(final int cell, final StringBuilder dest) {
+        if (type != Argument.Type.MATRIX) {
+            serializeArgument(values[0][cell], dest);
+            return;
+        }
+
+        dest.append('(');
+        for (int a = 0; a < values.length; a++) {
+            if (a > 0) {
+                dest.append(',');
+            }
+            serializeArgument(values[a][cell], dest);
+        }
+        dest.append(')');
+    }
+
+    /**
+     * @param value The value of a single argument, null if it is empty.
+     * @param dest  The buffer to append the serialized value to.
+     */
+    private static void serializeArgument(final String value,
+                                          final StringBuilder dest) {
+        if (value != null) {
+            dest.append(StringUtils.escapeCSVArgument(value));
+        }
+    }
+
+    /**
+     * @return The indices of the cells ordered by onset then offset, as
+     * Variable.getCellsTemporally() orders them.
+     */
+    public int[] getTemporalOrder() {
+        Integer[] order = new Integer[onsets.length];
+        for (int c = 0; c < order.length; c++) {
+            order[c] = c;
+        }
+
+        // A stable sort, so that cells with equal times keep their order.
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer c1, final Integer c2) {
+                if (onsets[c1] != onsets[c2]) {
+                    return onsets[c1] < onsets[c2] ? -1 : 1;
+                }
+                if (offsets[c1] != offsets[c2]) {
+                    return offsets[c1] < offsets[c2] ? -1 : 1;
+                }
+                return 0;
+            }
+        });
+
+        int[] result = new int[order.length];
+        for (int c = 0; c < order.length; c++) {
+            result[c] = order[c];
+        }
+        return result;
+    }
+}
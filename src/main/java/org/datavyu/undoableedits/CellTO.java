@@ -30,6 +30,10 @@ import org.datavyu.models.db.Variable;
  * undo / redo states to the datastore.
  */
 public final class CellTO {
+    // Estimate of the memory held by a transfer object and the cell it was
+    // taken from, without the value, in bytes.
+    static final long CELL_SIZE = 160;
+
     private Cell cell;
     private Variable variable;
 
@@ -62,6 +66,31 @@ public final class CellTO {
 //        }
     }
 
+    /**
+     * Constructor. Creates a transfer object that is not tied to a cell, used
+     * when reading back the content of an edit.
+     *
+     * @param variableName The name of the parent variable.
+     * @param onset        The onset of the cell.
+     * @param offset       The offset of the cell.
+     * @param value        The value of the cell.
+     */
+    CellTO(final String variableName, final long onset, final long offset, final String value) {
+        this.variableName = variableName;
+        this.onset = onset;
+        this.offset = offset;
+        this.value = value;
+    }
+
+    /**
+     * @return An estimate of the memory held by this object and the cell it
+     * was taken from, in bytes.
+     */
+    long getRetainedSize() {
+        // Two bytes a character, held once here and once by the cell.
+        return CELL_SIZE + 4L * value.length();
+    }
+
     /**
      * @return The onset this object is transferring.
      */
@@ -62,6 +62,16 @@ public class RemoveCellEdit extends SpreadsheetEdit {
         return msg;
     }
 
+    @Override
+    public long getRetainedSize() {
+        long size = EDIT_SIZE;
+        for (CellTO cellTO : cellTOV) {
+            size += cellTO.getRetainedSize();
+        }
+
+        return size;
+    }
+
     @Override
     public void redo() throws CannotRedoException {
         super.redo();
@@ -23,6 +23,10 @@ import org.datavyu.models.db.Variable;
 
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -38,6 +42,13 @@ public class RemoveVariableEdit extends VocabEditorEdit {
 
     private List<VariableTO> varToDeleteTOs;
 
+    // The file holding the cells of the variables once they have been moved
+    // out of memory, null while they are in memory.
+    private UndoSpillFile spillFile = null;
+
+    // The position of the cells in the spill file.
+    private long spilledAt;
+
     public RemoveVariableEdit(List<Variable> varsToDelete) {
         varToDeleteTOs = new ArrayList<VariableTO>();
 
@@ -66,8 +77,78 @@ public class RemoveVariableEdit extends VocabEditorEdit {
         return msg;
     }
 
+    @Override
+    public long getRetainedSize() {
+        long size = EDIT_SIZE;
+        for (VariableTO varTO : varToDeleteTOs) {
+            size += varTO.getRetainedSize();
+        }
+
+        return size;
+    }
+
+    @Override
+    boolean spill(final UndoSpillFile file) throws IOException {
+        if (spillFile != null) {
+            return false;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (VariableTO varTO : varToDeleteTOs) {
+            varTO.writeCells(out);
+        }
+        out.close();
+
+        spilledAt = file.write(bytes.toByteArray());
+        spillFile = file;
+        for (VariableTO varTO : varToDeleteTOs) {
+            varTO.dropCells();
+        }
+
+        return true;
+    }
+
+    @Override
+    boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Reads back the cells of the variables if they were moved to the spill
+     * file. The cells stay in the spill file if they cannot be read, so that
+     * undo can be tried again.
+     *
+     * @throws CannotUndoException If the cells cannot be read.
+     */
+    private void readBack() throws CannotUndoException {
+        if (spillFile == null) {
+            return;
+        }
+
+        try {
+            DataInputStream in = spillFile.read(spilledAt);
+            try {
+                for (VariableTO varTO : varToDeleteTOs) {
+                    varTO.readCells(in);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Unable to read back deleted variables.", e);
+            for (VariableTO varTO : varToDeleteTOs) {
+                varTO.dropCells();
+            }
+            throw new CannotUndoException();
+        }
+        spillFile = null;
+    }
+
     @Override
     public void undo() throws CannotRedoException {
+        // Nothing is changed unless the deleted cells can be restored.
+        readBack();
         super.undo();
         for (VariableTO varTO : varToDeleteTOs) {
             try {
@@ -14,34 +14,31 @@
  */
 package org.datavyu.undoableedits;
 
-import com.usermetrix.jclient.Logger;
-import com.usermetrix.jclient.UserMetrix;
-import org.datavyu.controllers.DeleteColumnC;
-import org.datavyu.models.db.Cell;
-import org.datavyu.models.db.UserWarningException;
-import org.datavyu.models.db.Variable;
+import org.datavyu.models.db.ChangeLog;
 
+import javax.swing.SwingWorker;
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
-import java.util.ArrayList;
-import java.util.List;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 
 /**
- * Undoable script edit.
+ * Undoable script edit. The changes made by the script are recorded as it
+ * runs, and only the cells and variables it touched are swapped on undo and
+ * redo. Listens to the worker running the script to stop recording once it
+ * is done.
  */
-public class RunScriptEdit extends SpreadsheetEdit {
-    /**
-     * The logger for this class.
-     */
-    private static final Logger LOGGER = UserMetrix.getLogger(RunScriptEdit.class);
+public class RunScriptEdit extends SpreadsheetEdit implements PropertyChangeListener {
 
     private String scriptPath;
-    private List<VariableTO> colsTO; // DataColumn relevant values
+
+    // The changes made to the spreadsheet by the script.
+    private final ChangeLog changes;
 
     public RunScriptEdit(String scriptPath) {
         super();
         this.scriptPath = scriptPath;
-        colsTO = getSpreadsheetState();
+        changes = model.recordChanges();
     }
 
     @Override
@@ -50,53 +47,29 @@ public class RunScriptEdit extends SpreadsheetEdit {
     }
 
     @Override
-    public void undo() throws CannotRedoException {
-        super.undo();
-        toogleSpreadsheetState();
+    public long getRetainedSize() {
+        return EDIT_SIZE + changes.getRetainedSize();
     }
 
     @Override
-    public void redo() throws CannotUndoException {
-        super.redo();
-        toogleSpreadsheetState();
-    }
-
-    private void toogleSpreadsheetState() {
-        List<VariableTO> tempColsTO = this.getSpreadsheetState();
-        setSpreadsheetState(colsTO);
-        colsTO = tempColsTO;
-    }
-
-    private List<VariableTO> getSpreadsheetState() {
-        List<VariableTO> varsTO = new ArrayList<VariableTO>();
-
-        int pos = 0;
-        for (Variable var : model.getAllVariables()) {
-            varsTO.add(new VariableTO(var, pos));
-            pos++;
+    public void propertyChange(final PropertyChangeEvent evt) {
+        if ("state".equals(evt.getPropertyName())
+                && evt.getNewValue() == SwingWorker.StateValue.DONE) {
+            changes.stop();
         }
-
-        return varsTO;
     }
 
-    private void setSpreadsheetState(List<VariableTO> varsTO) {
-        try {
-            new DeleteColumnC(new ArrayList(model.getAllVariables()));
-
-            for (VariableTO varTO : varsTO) {
-                Variable var = model.createVariable(varTO.getName(), varTO.getType().type);
-
-                for (CellTO cellTO : varTO.getTOCells()) {
-                    Cell c = var.createCell();
-                    c.setOnset(cellTO.getOnset());
-                    c.setOffset(cellTO.getOffset());
-                    c.getValue().set(cellTO.getValue());
-                }
-            }
-        } catch (UserWarningException uwe) {
-            LOGGER.error("Unable to set spreadsheet state", uwe);
-        }
+    @Override
+    public void undo() throws CannotRedoException {
+        super.undo();
+        changes.undo();
+        unselectAll();
+    }
 
+    @Override
+    public void redo() throws CannotUndoException {
+        super.redo();
+        changes.redo();
         unselectAll();
     }
 }
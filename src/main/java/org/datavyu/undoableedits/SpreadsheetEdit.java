@@ -27,6 +27,7 @@ import org.datavyu.views.discrete.SpreadsheetPanel;
 import javax.swing.undo.AbstractUndoableEdit;
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -34,6 +35,9 @@ import java.util.Date;
  * An undoable edit for altering the contents of a spreadsheet.
  */
 public abstract class SpreadsheetEdit extends AbstractUndoableEdit {
+    // Estimate of the memory held by an edit without bulky content, in bytes.
+    static final long EDIT_SIZE = 256;
+
     private Date timestamp; // when the action was done
 
     protected ProjectController controller;
@@ -63,12 +67,42 @@ public abstract class SpreadsheetEdit extends AbstractUndoableEdit {
         super.undo();
     }
 
+    /**
+     * @return An estimate of the memory held by this edit, in bytes. Used by
+     * the undo manager to keep the history within its memory budget.
+     */
+    public long getRetainedSize() {
+        return EDIT_SIZE;
+    }
+
+    /**
+     * Moves the bulky content of this edit out of memory and into the spill
+     * file, to be read back when the edit is undone or redone. Edits that
+     * hold on to cells of the datastore cannot be spilled.
+     *
+     * @param file The file to write the content of the edit to.
+     *
+     * @return True if the content was moved to the file, false if the edit
+     * cannot be spilled or has been already.
+     *
+     * @throws IOException If the content cannot be written.
+     */
+    boolean spill(final UndoSpillFile file) throws IOException {
+        return false;
+    }
+
+    /**
+     * @return True if the content of this edit is held in the spill file.
+     */
+    boolean isSpilled() {
+        return false;
+    }
+
     protected SpreadsheetCell getSpreadsheetCell(Cell cell) {
         for (SpreadsheetColumn sCol : getSpreadsheet().getColumns()) {
-            for (SpreadsheetCell sCell : sCol.getCells()) {
-                if (sCell.getCell().equals(cell)) {
-                    return sCell;
-                }
+            SpreadsheetCell sCell = sCol.getDataPanel().getSpreadsheetCell(cell);
+            if (sCell != null) {
+                return sCell;
             }
         }
         return null;
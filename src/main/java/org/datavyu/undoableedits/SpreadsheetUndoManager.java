@@ -14,6 +14,9 @@
  */
 package org.datavyu.undoableedits;
 
+import com.usermetrix.jclient.Logger;
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.Configuration;
 import org.datavyu.undoableedits.ChangeCellEdit.Granularity;
 
 import javax.swing.*;
@@ -22,18 +25,156 @@ import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.UndoManager;
 import javax.swing.undo.UndoableEdit;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
+ * The undo history of the spreadsheet.
  *
+ * The history keeps an estimate of the memory held by its edits. Once that
+ * goes over the memory budget set in the preferences, the content of the
+ * oldest edits is moved to a compressed temporary file, and if that is not
+ * enough the oldest edits are dropped from the history.
  */
 public class SpreadsheetUndoManager extends UndoManager implements ListModel {
 
+    /** The logger for this class. */
+    private static final Logger LOGGER = UserMetrix.getLogger(SpreadsheetUndoManager.class);
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
     List<ListDataListener> listeners;
 
+    // The memory the edits may hold, in bytes.
+    private long memoryBudget;
+
+    // The file holding the content of old edits, created when first needed.
+    private UndoSpillFile spillFile = null;
+
     public SpreadsheetUndoManager() {
+        this(Configuration.getInstance().getUndoMemoryBudget() * MEGABYTE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryBudget The memory the edits may hold, in bytes.
+     */
+    public SpreadsheetUndoManager(final long memoryBudget) {
         listeners = new ArrayList<ListDataListener>();
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sets the memory the edits may hold, moving the content of the oldest
+     * edits to disk or dropping them if they hold more.
+     *
+     * @param bytes The new budget, in bytes.
+     */
+    public synchronized void setMemoryBudget(final long bytes) {
+        memoryBudget = bytes;
+        trimToBudget();
+    }
+
+    /**
+     * @return The memory the edits may hold, in bytes.
+     */
+    public synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return An estimate of the memory held by the edits, in bytes.
+     */
+    public synchronized long getRetainedSize() {
+        long size = 0;
+        for (UndoableEdit edit : edits) {
+            size += getRetainedSize(edit);
+        }
+
+        return size;
+    }
+
+    private static long getRetainedSize(final UndoableEdit edit) {
+        if (edit instanceof SpreadsheetEdit) {
+            return ((SpreadsheetEdit) edit).getRetainedSize();
+        }
+
+        return SpreadsheetEdit.EDIT_SIZE;
+    }
+
+    /**
+     * Brings the memory held by the edits within the budget. The content of
+     * the oldest edits is moved to the spill file first, then the oldest
+     * edits that can be undone are dropped. The newest edit is always kept.
+     */
+    private void trimToBudget() {
+        long retained = getRetainedSize();
+
+        for (int i = 0; i < edits.size() - 1 && retained > memoryBudget; i++) {
+            if (edits.get(i) instanceof SpreadsheetEdit) {
+                SpreadsheetEdit edit = (SpreadsheetEdit) edits.get(i);
+                long before = edit.getRetainedSize();
+                try {
+                    if (spillFile == null) {
+                        spillFile = new UndoSpillFile();
+                    }
+                    if (edit.spill(spillFile)) {
+                        retained -= before - edit.getRetainedSize();
+                    }
+                } catch (IOException e) {
+                    LOGGER.error("Unable to move undo history to disk", e);
+                    break;
+                }
+            }
+        }
+
+        // Only edits older than the next one to undo can be dropped.
+        int undoable = edits.indexOf(editToBeUndone());
+        int dropped = 0;
+        while (retained > memoryBudget && dropped < undoable) {
+            retained -= getRetainedSize(edits.get(dropped));
+            dropped++;
+        }
+
+        if (dropped > 0) {
+            trimEdits(0, dropped - 1);
+        }
+    }
+
+    /**
+     * Removes edits from the history, and empties the spill file once none of
+     * the remaining edits has content in it.
+     */
+    @Override
+    protected void trimEdits(final int from, final int to) {
+        super.trimEdits(from, to);
+
+        if (spillFile == null) {
+            return;
+        }
+        for (UndoableEdit edit : edits) {
+            if (edit instanceof SpreadsheetEdit && ((SpreadsheetEdit) edit).isSpilled()) {
+                return;
+            }
+        }
+
+        try {
+            spillFile.truncate();
+        } catch (IOException e) {
+            LOGGER.error("Unable to empty the undo history file", e);
+        }
+    }
+
+    @Override
+    public synchronized void discardAllEdits() {
+        super.discardAllEdits();
+
+        if (spillFile != null) {
+            spillFile.close();
+            spillFile = null;
+        }
     }
 
     @Override
@@ -75,6 +216,7 @@ public class SpreadsheetUndoManager extends UndoManager implements ListModel {
         }
         if (addEdit && ue != null) {
             result = super.addEdit(ue);
+            trimToBudget();
         } else {
             result = false;
         }
@@ -0,0 +1,107 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.undoableedits;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A temporary file holding the content of old undo edits, so that long
+ * editing sessions do not keep every deleted column in memory. Each edit
+ * writes its content as a compressed block and reads it back by the position
+ * of the block when it is undone or redone.
+ */
+final class UndoSpillFile {
+
+    private final File path;
+
+    private final RandomAccessFile file;
+
+    /**
+     * Constructor. Creates an empty temporary file, deleted when the
+     * application exits.
+     *
+     * @throws IOException If the file cannot be created.
+     */
+    UndoSpillFile() throws IOException {
+        path = File.createTempFile("datavyu-undo", ".bin");
+        path.deleteOnExit();
+        file = new RandomAccessFile(path, "rw");
+    }
+
+    /**
+     * Appends a compressed block to the file.
+     *
+     * @param data The content of the block.
+     *
+     * @return The position of the block, to read it back with.
+     *
+     * @throws IOException If the block cannot be written.
+     */
+    synchronized long write(final byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream zip = new GZIPOutputStream(bytes);
+        zip.write(data);
+        zip.close();
+
+        long position = file.length();
+        file.seek(position);
+        file.writeInt(bytes.size());
+        file.write(bytes.toByteArray());
+        return position;
+    }
+
+    /**
+     * @param position The position of a block written to the file.
+     *
+     * @return The content of the block.
+     *
+     * @throws IOException If the block cannot be read.
+     */
+    synchronized DataInputStream read(final long position) throws IOException {
+        file.seek(position);
+        byte[] compressed = new byte[file.readInt()];
+        file.readFully(compressed);
+
+        return new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+    }
+
+    /**
+     * Empties the file, once none of its blocks will be read again.
+     *
+     * @throws IOException If the file cannot be truncated.
+     */
+    synchronized void truncate() throws IOException {
+        file.setLength(0);
+    }
+
+    /**
+     * Closes and deletes the file. Blocks can no longer be read.
+     */
+    synchronized void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            // The file is deleted regardless.
+        }
+        path.delete();
+    }
+}
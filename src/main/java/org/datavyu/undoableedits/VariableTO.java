@@ -26,6 +26,9 @@ import org.datavyu.models.db.Argument;
 import org.datavyu.models.db.Cell;
 import org.datavyu.models.db.Variable;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -67,6 +70,67 @@ public final class VariableTO implements Comparable<VariableTO> {
         return cellTOs;
     }
 
+    /**
+     * @return An estimate of the memory held by the cells of this object, in
+     * bytes.
+     */
+    long getRetainedSize() {
+        long size = 0;
+        if (cellTOs != null) {
+            for (CellTO c : cellTOs) {
+                size += c.getRetainedSize();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Writes the cells of this object.
+     *
+     * @param out The stream to write the cells to.
+     *
+     * @throws IOException If the cells cannot be written.
+     */
+    void writeCells(final DataOutputStream out) throws IOException {
+        out.writeInt(cellTOs.size());
+        for (CellTO c : cellTOs) {
+            out.writeLong(c.getOnset());
+            out.writeLong(c.getOffset());
+            out.writeInt(c.getValue().length());
+            out.writeChars(c.getValue());
+        }
+    }
+
+    /**
+     * Lets go of the cells of this object once they have been written, so
+     * that they and the cells they were taken from can be reclaimed.
+     */
+    void dropCells() {
+        cellTOs = null;
+    }
+
+    /**
+     * Reads back the cells written by writeCells.
+     *
+     * @param in The stream to read the cells from.
+     *
+     * @throws IOException If the cells cannot be read.
+     */
+    void readCells(final DataInputStream in) throws IOException {
+        int count = in.readInt();
+        cellTOs = new ArrayList<CellTO>(count);
+        for (int i = 0; i < count; i++) {
+            long onset = in.readLong();
+            long offset = in.readLong();
+            char[] value = new char[in.readInt()];
+            for (int c = 0; c < value.length; c++) {
+                value[c] = in.readChar();
+            }
+            cellTOs.add(new CellTO(name, onset, offset, new String(value)));
+        }
+    }
+
     /**
      * @return The name of variable
      */
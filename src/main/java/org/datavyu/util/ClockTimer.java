@@ -14,15 +14,23 @@
  */
 package org.datavyu.util;
 
-import java.util.HashSet;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * ClockTime is a class which can be used as a time marshall to keep multiple
  * objects in sync.
+ *
+ * The time of the clock is worked out from the time and System.nanoTime() at
+ * which it was last started, stepped or changed rate, so reading it never
+ * waits on anything and it does not drift however late the ticks are. Ticks
+ * are delivered to the listeners by a thread of the clock's own, outside of
+ * the lock guarding the state of the clock.
  */
 public final class ClockTimer {
 
@@ -36,36 +44,38 @@ public final class ClockTimer {
     private static final long CLOCK_TICK = 31L;
 
     /**
-     * Clock initial delay.
+     * Used to convert between nanoseconds and milliseconds.
      */
-    private static final long CLOCK_DELAY = 0L;
+    private static final long NANO_IN_MILLI = 1000000L;
 
     /**
-     * Used to convert between nanoseconds and milliseconds.
+     * Used to convert between frame rates and nanosecond periods.
      */
-    private static final long NANO_IN_MILLI = 1000000L;
+    private static final long NANO_IN_SECOND = 1000000000L;
 
     //--------------------------------------------------------------------------
     //
     //
 
     /**
-     * Current time of the clock.
+     * Where the clock was last anchored: the time, rate and running state,
+     * replaced as a whole so that it can be read without locking.
      */
-    private double time;
+    private volatile Anchor anchor;
+
+    /** Delivers the ticks of the clock. */
+    private final ScheduledExecutorService clock;
 
     /**
-     * Used to calculate elapsed time.
+     * Clock tick period, in nanoseconds.
      */
-    private long nanoTime;
-
-    /** */
-    private Timer clock;
+    private volatile long tickPeriod = CLOCK_TICK * NANO_IN_MILLI;
 
     /**
-     * Is the clock currently stopped?
+     * When the next tick is due, in System.nanoTime() terms. Only used by
+     * the clock thread.
      */
-    private boolean isStopped;
+    private long nextTick;
 
     /**
      * What was the state of the clock in the previous tick?
@@ -73,14 +83,16 @@ public final class ClockTimer {
     private boolean oldIsStopped;
 
     /**
-     * Update multiplier.
+     * Held while notifying the listeners, so that they are never notified
+     * of two things at once. Never acquired while holding the lock on the
+     * clock itself.
      */
-    private float rate = 1F;
+    private final Object dispatchLock = new Object();
 
     /**
      * The set of objects that listen to this clock.
      */
-    private Set<ClockListener> clockListeners = new HashSet<ClockListener>();
+    private Set<ClockListener> clockListeners = new CopyOnWriteArraySet<ClockListener>();
 
 
     //--------------------------------------------------------------------------
@@ -100,16 +112,23 @@ public final class ClockTimer {
      * @param initialTime Intial clock time.
      */
     public ClockTimer(final long initialTime) {
-        time = initialTime;
-        isStopped = true;
+        anchor = new Anchor(initialTime, System.nanoTime(), 1F, true);
         oldIsStopped = true;
-        clock = new Timer();
-        clock.scheduleAtFixedRate(new TimerTask() {
+        clock = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "ClockTimer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        nextTick = System.nanoTime();
+        clock.execute(new Runnable() {
             @Override
             public void run() {
                 tick();
             }
-        }, CLOCK_DELAY, CLOCK_TICK);
+        });
     }
 
     //--------------------------------------------------------------------------
@@ -117,14 +136,25 @@ public final class ClockTimer {
     //
 
     /**
+     * Moves a stopped clock to the given time, or stops a running one. The
+     * listeners are told of the step before this returns, but need not have
+     * acted on it yet: the data controller hands the seeks of its viewers to
+     * ViewerSync, which carries them out on threads of its own.
+     *
      * @param newTime Millisecond time to set clock to.
      */
-    public synchronized void setTime(final long newTime) {
+    public void setTime(final long newTime) {
+        Anchor stepped = null;
 
-        if (isStopped) {
-            time = newTime;
-            time = Math.max(time, 0);
-            notifyStep();
+        synchronized (this) {
+            if (anchor.stopped) {
+                anchor = anchor.moveTo(Math.max(newTime, 0), System.nanoTime());
+                stepped = anchor;
+            }
+        }
+
+        if (stepped != null) {
+            notifyStep((long) stepped.time);
         } else {
             stop();
         }
@@ -133,23 +163,43 @@ public final class ClockTimer {
     /**
      * @return Current clock time.
      */
-    public synchronized long getTime() {
-        return (long) time;
+    public long getTime() {
+        return (long) anchor.timeAt(System.nanoTime());
     }
 
     /**
      * @param newRate Multiplier for CLOCK_TICK.
      */
-    public synchronized void setRate(final float newRate) {
-        rate = newRate;
-        notifyRate();
+    public void setRate(final float newRate) {
+        synchronized (this) {
+            anchor = anchor.withRate(newRate, System.nanoTime());
+        }
+
+        notifyRate(newRate);
     }
 
     /**
      * @return Current clock multipler.
      */
-    public synchronized float getRate() {
-        return rate;
+    public float getRate() {
+        return anchor.rate;
+    }
+
+    /**
+     * Ticks once per frame of the given frame rate, such as that of the
+     * fastest data viewer, so that each frame is shown as it falls due.
+     * Rates slower than the default clock tick keep the default tick.
+     *
+     * @param fps The frame rate to tick at, zero or less for the default
+     * clock tick.
+     */
+    public void setFrameRate(final float fps) {
+        long period = CLOCK_TICK * NANO_IN_MILLI;
+        if (fps > 0) {
+            period = Math.min(period, (long) (NANO_IN_SECOND / fps));
+        }
+
+        tickPeriod = period;
     }
 
     /**
@@ -157,45 +207,59 @@ public final class ClockTimer {
      */
     public synchronized void start() {
 
-        if (isStopped) {
-            nanoTime = System.nanoTime();
-            isStopped = false;
+        if (anchor.stopped) {
+            anchor = anchor.withStopped(false, System.nanoTime());
         }
     }
 
     /**
      * Set flag to stop clock at next time update (boundary).
      */
-    public synchronized void stop() {
+    public void stop() {
+        boolean stopped = false;
 
-        if (!isStopped) {
-            isStopped = true;
+        synchronized (this) {
+            if (!anchor.stopped) {
+                anchor = anchor.withStopped(true, System.nanoTime());
+                stopped = true;
+            }
+        }
+
+        if (stopped) {
             setRate(0);
         }
     }
 
     /**
+     * Steps the time of the clock. As with setTime, the listeners are told
+     * of the step before this returns, but viewers may still be seeking.
+     *
      * @param ms Time step to apply to current time when clock stopped.
      */
-    public synchronized void stepTime(final long ms) {
+    public void stepTime(final long ms) {
+        Anchor stepped;
 
-        time += ms;
-        time = Math.max(time, 0);
-        notifyStep();
+        synchronized (this) {
+            long now = System.nanoTime();
+            anchor = anchor.moveTo(Math.max(anchor.timeAt(now) + ms, 0), now);
+            stepped = anchor;
+        }
+
+        notifyStep((long) stepped.time);
     }
 
 
     /**
      * @return True if clock is stopped.
      */
-    public synchronized boolean isStopped() {
-        return isStopped;
+    public boolean isStopped() {
+        return anchor.stopped;
     }
 
     /**
      * @param listener Listener requiring clockTick updates.
      */
-    public synchronized void registerListener(final ClockListener listener) {
+    public void registerListener(final ClockListener listener) {
         clockListeners.add(listener);
     }
 
@@ -204,29 +268,48 @@ public final class ClockTimer {
     //
 
     /**
-     * The "tick" of the clock - updates listeners of changes in time.
+     * The "tick" of the clock - updates listeners of changes in time, then
+     * schedules the next tick. Ticks that fell due while the listeners were
+     * busy are skipped rather than delivered late.
      */
-    private synchronized void tick() {
+    private void tick() {
 
-        if (!isStopped) {
-            long currentNano = System.nanoTime();
-            time += rate * (currentNano - nanoTime) / NANO_IN_MILLI;
-            nanoTime = currentNano;
+        try {
+            synchronized (dispatchLock) {
+                Anchor current = anchor;
 
-            notifyTick();
-        }
+                if (!current.stopped) {
+                    notifyTick((long) current.timeAt(System.nanoTime()));
+                }
 
-        // Notify listeners if the clock has started or stopped since the last
-        // tick.
-        if (oldIsStopped != isStopped) {
+                // Notify listeners if the clock has started or stopped since
+                // the last tick.
+                if (oldIsStopped != current.stopped) {
+                    long time = (long) current.timeAt(System.nanoTime());
 
-            if (isStopped) {
-                notifyStop();
-            } else {
-                notifyStart();
+                    if (current.stopped) {
+                        notifyStop(time);
+                    } else {
+                        notifyStart(time);
+                    }
+
+                    oldIsStopped = current.stopped;
+                }
+            }
+        } finally {
+            long period = tickPeriod;
+            long now = System.nanoTime();
+            nextTick += period;
+            if (nextTick - now < 0) {
+                nextTick = now + period - ((now - nextTick) % period);
             }
 
-            oldIsStopped = isStopped;
+            clock.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    tick();
+                }
+            }, nextTick - now, TimeUnit.NANOSECONDS);
         }
     }
 
@@ -237,50 +320,111 @@ public final class ClockTimer {
     /**
      * Notify clock listeners of tick event.
      */
-    private void notifyTick() {
+    private void notifyTick(final long time) {
 
-        for (ClockListener l : clockListeners) {
-            l.clockTick((long) time);
+        synchronized (dispatchLock) {
+            for (ClockListener l : clockListeners) {
+                l.clockTick(time);
+            }
         }
     }
 
     /**
      * Notify clock listeners of rate update event.
      */
-    private void notifyRate() {
+    private void notifyRate(final float rate) {
 
-        for (ClockListener l : clockListeners) {
-            l.clockRate(rate);
+        synchronized (dispatchLock) {
+            for (ClockListener l : clockListeners) {
+                l.clockRate(rate);
+            }
         }
     }
 
     /**
      * Notify clock listeners of start event.
      */
-    private void notifyStart() {
+    private void notifyStart(final long time) {
 
-        for (ClockListener l : clockListeners) {
-            l.clockStart((long) time);
+        synchronized (dispatchLock) {
+            for (ClockListener l : clockListeners) {
+                l.clockStart(time);
+            }
         }
     }
 
     /**
      * Notify clock listeners of stop event.
      */
-    private void notifyStop() {
+    private void notifyStop(final long time) {
 
-        for (ClockListener l : clockListeners) {
-            l.clockStop((long) time);
+        synchronized (dispatchLock) {
+            for (ClockListener l : clockListeners) {
+                l.clockStop(time);
+            }
         }
     }
 
     /**
      * Notify clock listeners of time step event.
      */
-    private void notifyStep() {
+    private void notifyStep(final long time) {
+
+        synchronized (dispatchLock) {
+            for (ClockListener l : clockListeners) {
+                l.clockStep(time);
+            }
+        }
+    }
+
+    /**
+     * The time of the clock at a given System.nanoTime(), along with the
+     * rate and state of the clock from then on.
+     */
+    private static final class Anchor {
+
+        /** Clock time at the anchor, in milliseconds. */
+        final double time;
+
+        /** System.nanoTime() at the anchor. */
+        final long nanos;
+
+        /** Update multiplier. */
+        final float rate;
+
+        /** Is the clock stopped? */
+        final boolean stopped;
+
+        Anchor(final double time, final long nanos, final float rate, final boolean stopped) {
+            this.time = time;
+            this.nanos = nanos;
+            this.rate = rate;
+            this.stopped = stopped;
+        }
+
+        /**
+         * @param now A System.nanoTime() at or after the anchor.
+         *
+         * @return The time of the clock at now, in milliseconds.
+         */
+        double timeAt(final long now) {
+            if (stopped) {
+                return time;
+            }
+
+            return time + (double) rate * (now - nanos) / NANO_IN_MILLI;
+        }
+
+        Anchor moveTo(final double newTime, final long now) {
+            return new Anchor(newTime, now, rate, stopped);
+        }
+
+        Anchor withRate(final float newRate, final long now) {
+            return new Anchor(timeAt(now), now, newRate, stopped);
+        }
 
-        for (ClockListener l : clockListeners) {
-            l.clockStep((long) time);
+        Anchor withStopped(final boolean newStopped, final long now) {
+            return new Anchor(timeAt(now), now, rate, newStopped);
         }
     }
 
@@ -114,6 +114,17 @@ public final class ConfigProperties implements Serializable {
      */
     private boolean prereleasePreference;
 
+    /**
+     * true if projects should also be saved with a binary database
+     */
+    private boolean binaryDatabase = true;
+
+    /**
+     * The memory the undo history may hold before old edits are moved to
+     * disk or dropped, in megabytes.
+     */
+    private int undoMemoryBudget = 64;
+
     /**
      * Default constructor.
      */
@@ -379,4 +390,33 @@ public final class ConfigProperties implements Serializable {
     public void setPrereleasePreference(boolean preference) {
         prereleasePreference = preference;
     }
+
+    /**
+     * @return true if projects should also be saved with a binary database
+     */
+    public boolean getBinaryDatabase() {
+        return binaryDatabase;
+    }
+
+    /**
+     * @param binary true if projects should also be saved with a binary
+     *               database
+     */
+    public void setBinaryDatabase(final boolean binary) {
+        binaryDatabase = binary;
+    }
+
+    /**
+     * @return the memory the undo history may hold, in megabytes
+     */
+    public int getUndoMemoryBudget() {
+        return undoMemoryBudget;
+    }
+
+    /**
+     * @param megabytes the memory the undo history may hold, in megabytes
+     */
+    public void setUndoMemoryBudget(final int megabytes) {
+        undoMemoryBudget = megabytes;
+    }
 }
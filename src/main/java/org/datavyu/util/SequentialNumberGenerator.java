@@ -14,6 +14,8 @@
  */
 package org.datavyu.util;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Create a new static sequential number generator, as an external sequential 
  * validation tool.
@@ -24,6 +26,10 @@ public class SequentialNumberGenerator {
     private static SequentialNumberGenerator sng;
     private static int num = 0;
 
+    // The last id handed out by getNextId, shared by all datastores so that
+    // ids stay unique when variables move from one datastore to another.
+    private static final AtomicLong lastId = new AtomicLong();
+
     private SequentialNumberGenerator(){
     }
 
@@ -46,5 +52,12 @@ public class SequentialNumberGenerator {
         return num++;
     }
 
+    /*
+     * Get the next id for a cell or variable, safe to call from any thread.
+     */
+    public static long getNextId(){
+        return lastId.incrementAndGet();
+    }
+
 
 }
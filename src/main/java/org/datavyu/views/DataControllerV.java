@@ -24,6 +24,7 @@ import org.datavyu.controllers.CreateNewCellC;
 import org.datavyu.controllers.SetNewCellStopTimeC;
 import org.datavyu.controllers.SetSelectedCellStartTimeC;
 import org.datavyu.controllers.SetSelectedCellStopTimeC;
+import org.datavyu.controllers.ViewerSync;
 import org.datavyu.controllers.component.MixerController;
 import org.datavyu.controllers.id.IDController;
 import org.datavyu.event.component.CarriageEvent;
@@ -72,8 +73,6 @@ public final class DataControllerV extends DatavyuDialog
         implements ClockListener, TracksControllerListener, DataController,
         PropertyChangeListener {
 
-    private static final double LOW_RATE = 5D;
-
     /**
      * One second in milliseconds.
      */
@@ -99,16 +98,6 @@ public final class DataControllerV extends DatavyuDialog
      */
     private static final float[] SHUTTLE_RATES;
 
-    /**
-     * The threshold to use while synchronising viewers (augmented by rate).
-     */
-    private static final long SYNC_THRESH = 200;
-
-    /**
-     * How often to synchronise the viewers with the master clock.
-     */
-    private static final long SYNC_PULSE = 500;
-
     private boolean visible = false;
 
     // Initialize SHUTTLE_RATES
@@ -224,6 +213,11 @@ public final class DataControllerV extends DatavyuDialog
      */
     private ClockTimer clock = new ClockTimer();
 
+    /**
+     * Sends commands to the viewers and keeps them in step with the clock.
+     */
+    private final ViewerSync sync = new ViewerSync(clock);
+
     /**
      * Is the tracks panel currently shown?
      */
@@ -372,7 +366,6 @@ public final class DataControllerV extends DatavyuDialog
 
         playbackModel = new PlaybackModel();
         playbackModel.setPauseRate(0);
-        playbackModel.setLastSync(0);
         playbackModel.setMaxDuration(ViewportStateImpl.MINIMUM_MAX_END);
 
         final int defaultEndTime = (int) MixerConstants.DEFAULT_DURATION;
@@ -467,8 +460,6 @@ public final class DataControllerV extends DatavyuDialog
      * @param time Current clock time in milliseconds.
      */
     public void clockStart(final long time) {
-        resetSync();
-
         long playTime = time;
         final long windowPlayStart = playbackModel.getWindowPlayStart();
 
@@ -487,13 +478,6 @@ public final class DataControllerV extends DatavyuDialog
         clock.start();
     }
 
-    /**
-     * Reset the sync.
-     */
-    private void resetSync() {
-        playbackModel.setLastSync(0);
-    }
-
     /**
      * Keep track of whether this should be visible or not
      */
@@ -518,60 +502,21 @@ public final class DataControllerV extends DatavyuDialog
             // playback by doing a bunch of seekTo's.
             if (playbackModel.isFakePlayback()) {
 
+                // Seeks still waiting for a viewer are superseded.
                 for (DataViewer v : viewers) {
 
                     if ((time > v.getOffset()) && isWithinPlayRange(time, v)) {
-                        v.seekTo(time - v.getOffset());
+                        sync.seekTo(v, time - v.getOffset());
                     }
                 }
 
                 // DataViewer is responsible for playing video.
             } else {
 
-                // Synchronise viewers only if we have exceeded our pulse time.
-                if ((time - playbackModel.getLastSync())
-                        > (SYNC_PULSE * clock.getRate())) {
-                    long thresh = (long) (SYNC_THRESH
-                            * Math.abs(clock.getRate()));
-                    playbackModel.setLastSync(time);
-
-                    for (DataViewer v : viewers) {
-
-                        /*
-                         * Use offsets to determine if the video file should
-                         * start playing.
-                         */
-
-                        if (!v.isPlaying() && isWithinPlayRange(time, v)) {
-                            v.seekTo(time - v.getOffset());
-                            v.play();
-                        }
-
-                        // BugzID:1797 - Viewers who are "playing" outside their
-                        // timeframe should be asked to stop.
-                        if (v.isPlaying() && !isWithinPlayRange(time, v)) {
-                            v.stop();
-                        }
-
-                        // For plugins with low data rate, use frame rate
-                        // to determine threshold.
-                        if ((0 < v.getFrameRate())
-                                && (v.getFrameRate() <= LOW_RATE)) {
-                            thresh = (long) (ONE_SECOND / v.getFrameRate()
-                                    / clock.getRate());
-                        }
-
-                        /*
-                         * Only synchronise the data viewers if we have a
-                         * noticable drift.
-                         */
-                        if (v.isPlaying()
-                                && (Math.abs(
-                                v.getCurrentTime()
-                                        - (time - v.getOffset())) > thresh)) {
-                            v.seekTo(time - v.getOffset());
-                        }
-                    }
+                // Starts and stops the viewers as the clock enters and leaves
+                // their data, and seeks those that have noticeably drifted.
+                for (DataViewer v : viewers) {
+                    sync.sync(v);
                 }
             }
 
@@ -619,14 +564,13 @@ public final class DataControllerV extends DatavyuDialog
      */
     public void clockStop(final long time) {
         clock.stop();
-        resetSync();
         setCurrentTime(time);
 
         for (DataViewer viewer : viewers) {
-            viewer.stop();
+            sync.stop(viewer);
 
             if (isWithinPlayRange(time, viewer)) {
-                viewer.seekTo(time - viewer.getOffset());
+                sync.seekTo(viewer, time - viewer.getOffset());
             }
         }
     }
@@ -635,7 +579,6 @@ public final class DataControllerV extends DatavyuDialog
      * @param rate Current (updated) clock rate.
      */
     public void clockRate(final float rate) {
-        resetSync();
         lblSpeed.setText(FloatUtils.doubleToFractionStr(new Double(rate)));
 
         long time = getCurrentTime();
@@ -647,10 +590,10 @@ public final class DataControllerV extends DatavyuDialog
             playbackModel.setFakePlayback(true);
 
             for (DataViewer viewer : viewers) {
-                viewer.stop();
+                sync.stop(viewer);
 
                 if (isWithinPlayRange(time, viewer)) {
-                    viewer.setPlaybackSpeed(rate);
+                    sync.setPlaybackSpeed(viewer, rate);
                 }
             }
 
@@ -660,10 +603,10 @@ public final class DataControllerV extends DatavyuDialog
             playbackModel.setFakePlayback(false);
 
             for (DataViewer viewer : viewers) {
-                viewer.setPlaybackSpeed(rate);
+                sync.setPlaybackSpeed(viewer, rate);
 
                 if (!clock.isStopped()) {
-                    viewer.play();
+                    sync.play(viewer);
                 }
             }
         }
@@ -673,13 +616,12 @@ public final class DataControllerV extends DatavyuDialog
      * @param time Current clock time in milliseconds.
      */
     public void clockStep(final long time) {
-        resetSync();
         setCurrentTime(time);
 
         for (DataViewer viewer : viewers) {
 
             if (isWithinPlayRange(time, viewer)) {
-                viewer.seekTo(time - viewer.getOffset());
+                sync.seekTo(viewer, time - viewer.getOffset());
             }
         }
     }
@@ -697,7 +639,6 @@ public final class DataControllerV extends DatavyuDialog
      * @param milliseconds The millisecond time.
      */
     public void setCurrentTime(final long milliseconds) {
-        resetSync();
         updateCurrentTimeLabel();
         mixerController.getMixerModel().getNeedleModel().setCurrentTime(
                 milliseconds);
@@ -743,6 +684,19 @@ public final class DataControllerV extends DatavyuDialog
         }
     }
 
+    /**
+     * Ticks the master clock at the frame rate of the fastest viewer.
+     */
+    private void updateClockFrameRate() {
+        float fps = 0;
+
+        for (DataViewer dv : viewers) {
+            fps = Math.max(fps, dv.getFrameRate());
+        }
+
+        clock.setFrameRate(fps);
+    }
+
     /**
      * Remove the specified viewer from the controller.
      *
@@ -755,6 +709,7 @@ public final class DataControllerV extends DatavyuDialog
         boolean removed = viewers.remove(viewer);
 
         if (removed) {
+            sync.remove(viewer);
 
             viewer.clearDataFeed();
 
@@ -765,6 +720,7 @@ public final class DataControllerV extends DatavyuDialog
 
             // Recalculate the maximum playback duration.
             updateMaxViewerDuration();
+            updateClockFrameRate();
 
             // Remove the data viewer from the tracks panel.
             mixerController.deregisterTrack(viewer.getIdentifier());
@@ -798,6 +754,7 @@ public final class DataControllerV extends DatavyuDialog
         }
 
         viewers.remove(viewer);
+        sync.remove(viewer);
 
         viewer.stop();
         viewer.clearDataFeed();
@@ -822,6 +779,7 @@ public final class DataControllerV extends DatavyuDialog
 
         // Recalculate the maximum playback duration.
         updateMaxViewerDuration();
+        updateClockFrameRate();
 
         // Remove the data viewer from the tracks panel.
         mixerController.deregisterTrack(viewer.getIdentifier());
@@ -1438,6 +1396,7 @@ public final class DataControllerV extends DatavyuDialog
             playbackModel.setCurrentFPS(fps);
             updateStepSizeTextField();
         }
+        updateClockFrameRate();
 
         // Update track viewer.
         long maxDuration = playbackModel.getMaxDuration();
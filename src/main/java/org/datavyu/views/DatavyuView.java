@@ -22,6 +22,9 @@ import org.datavyu.Datavyu;
 import org.datavyu.Datavyu.Platform;
 import org.datavyu.RecentFiles;
 import org.datavyu.controllers.*;
+import org.datavyu.controllers.export.ArrowExporter;
+import org.datavyu.controllers.export.DelimitedExporter;
+import org.datavyu.controllers.export.TidyTable;
 import org.datavyu.controllers.project.ProjectController;
 import org.datavyu.event.component.FileDropEvent;
 import org.datavyu.event.component.FileDropEventListener;
@@ -59,6 +62,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 
 /**
@@ -97,6 +101,18 @@ public final class DatavyuView extends FrameView
     private DVProgressBar progressBar;
     private OpenTask task;
 
+    /**
+     * The saves started that have not been reported yet, only used on the
+     * event dispatch thread.
+     */
+    private final List<SaveTask> pendingSaves = new ArrayList<SaveTask>();
+
+    /**
+     * How long a background save runs before its progress is shown, in
+     * milliseconds.
+     */
+    private static final int SAVE_PROGRESS_DELAY = 500;
+
     /**
      * undo system elements
      */
@@ -765,6 +781,7 @@ public final class DatavyuView extends FrameView
                     }
                     // delete the recovered file
                     f.delete();
+                    AutosaveJournal.getJournalFile(f).delete();
                 }
             }
         } catch (IOException ex) {
@@ -842,7 +859,7 @@ public final class DatavyuView extends FrameView
     public void save() {
 
         try {
-            SaveC saveC = new SaveC();
+            SaveC saveC = new SaveC(Configuration.getInstance().getBinaryDatabase());
 
             // If the user has not saved before - invoke the saveAs()
             // controller to force the user to nominate a destination file.
@@ -852,7 +869,7 @@ public final class DatavyuView extends FrameView
                     || (projController.getProjectName() == null)) {
                 saveAs();
             } else {
-                SaveC saveController = new SaveC();
+                SaveC saveController = new SaveC(Configuration.getInstance().getBinaryDatabase());
 
                 // Force people to use new
                 if ((projController.getLastSaveOption() instanceof SHAPAFilter)
@@ -870,25 +887,19 @@ public final class DatavyuView extends FrameView
                     projController.updateProject();
                     projController.setLastSaveOption(OPFFilter.INSTANCE);
 
-                    saveController.saveProject(new File(projController.getProjectDirectory(),
-                                    projController.getProjectName() + ".opf"),
-                            projController.getProject(),
-                            projController.getDB()
-                    );
-
-                    projController.markProjectAsUnchanged();
-                    projController.getDB().markAsUnchanged();
+                    saveInBackground(saveController.prepareProject(
+                                    new File(projController.getProjectDirectory(),
+                                            projController.getProjectName() + ".opf"),
+                                    projController.getProject(),
+                                    projController.getDB()),
+                            projController);
 
                     // Save content just as a database.
                 } else {
                     File file = new File(projController.getProjectDirectory(),
                             projController.getDatabaseFileName());
-                    saveC.saveDatabase(file, projController.getDB());
-
-                    projController.markProjectAsUnchanged();
-
-                    projController.getDB().markAsUnchanged();
-
+                    saveInBackground(saveC.prepareDatabase(file, projController.getDB()),
+                            projController);
                 }
             }
 
@@ -932,10 +943,10 @@ public final class DatavyuView extends FrameView
     public void exportFile() {
         DatavyuFileChooser jd = new DatavyuFileChooser();
 
-        // Not fully implemented
-//	jd.addChoosableFileFilter(FrameCSVFilter.INSTANCE);
-
+        jd.addChoosableFileFilter(FrameCSVFilter.INSTANCE);
         jd.addChoosableFileFilter(CellCSVFilter.INSTANCE);
+        jd.addChoosableFileFilter(TidyCSVFilter.INSTANCE);
+        jd.addChoosableFileFilter(ArrowFilter.INSTANCE);
 
         int result = jd.showSaveDialog(getComponent());
 
@@ -952,9 +963,10 @@ public final class DatavyuView extends FrameView
             ExportDatabaseFileC exportC = new ExportDatabaseFileC();
 
             FileFilter filter = fc.getFileFilter();
+            String extension = (filter instanceof ArrowFilter) ? ".arrow" : ".csv";
             String dbFileName = fc.getSelectedFile().getPath();
-            if (!dbFileName.endsWith(".csv")) {
-                dbFileName = dbFileName.concat(".csv");
+            if (!dbFileName.endsWith(extension)) {
+                dbFileName = dbFileName.concat(extension);
             }
 
             // Only save if the project file does not exists or if the user
@@ -965,15 +977,59 @@ public final class DatavyuView extends FrameView
             File f = new File(fc.getSelectedFile().getParent(), dbFileName);
 
             if (filter instanceof FrameCSVFilter) {
-                exportC.exportByFrame(dbFileName, projController.getDB());
+                Float framerate = askExportFrameRate();
+                if (framerate != null) {
+                    exportC.exportByFrame(dbFileName, projController.getDB(), framerate);
+                }
             } else if (filter instanceof CellCSVFilter) {
                 exportC.exportAsCells(dbFileName, projController.getDB());
+            } else if (filter instanceof TidyCSVFilter) {
+                exportC.export(dbFileName, new TidyTable(projController.getDB()),
+                        DelimitedExporter.CSV);
+            } else if (filter instanceof ArrowFilter) {
+                exportC.export(dbFileName, new TidyTable(projController.getDB()),
+                        ArrowExporter.INSTANCE);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Asks the user for the frame rate to export by frame at, suggesting the
+     * rate detected in the open videos.
+     *
+     * @return The frame rate, null if the user cancelled.
+     */
+    private Float askExportFrameRate() {
+        float suggested = ExportDatabaseFileC.DEFAULT_FRAME_RATE;
+        for (DataViewer dv : Datavyu.getDataController().getDataViewers()) {
+            if (dv.getDetectedFrameRate() > 0) {
+                suggested = dv.getDetectedFrameRate();
+                break;
+            }
+        }
+
+        String input = Float.toString(suggested);
+        while (true) {
+            input = (String) JOptionPane.showInputDialog(getComponent(),
+                    "Frames per second:", "Export by frame",
+                    JOptionPane.PLAIN_MESSAGE, null, null, input);
+            if (input == null) {
+                return null;
+            }
+
+            try {
+                float framerate = Float.parseFloat(input.trim());
+                if (framerate > 0 && !Float.isInfinite(framerate)) {
+                    return framerate;
+                }
+            } catch (NumberFormatException e) {
+                // Ask again.
+            }
+        }
+    }
+
     private boolean canSave(final String directory, final String file) {
         File newFile = new File(directory, file);
 
@@ -987,7 +1043,7 @@ public final class DatavyuView extends FrameView
         projController.updateProject();
 
         try {
-            SaveC saveC = new SaveC();
+            SaveC saveC = new SaveC(Configuration.getInstance().getBinaryDatabase());
 
             FileFilter filter = fc.getFileFilter();
 
@@ -1087,7 +1143,8 @@ public final class DatavyuView extends FrameView
         projController.updateProject();
 
         try {
-            SaveC saveC = new SaveC();
+            SaveC saveC = new SaveC(Configuration.getInstance().getBinaryDatabase());
+            SaveJob job = null;
 
             FileFilter filter = fc.getFileFilter();
 
@@ -1105,7 +1162,7 @@ public final class DatavyuView extends FrameView
                 }
 
                 File f = new File(fc.getSelectedFile().getParent(), dbFileName);
-                saveC.saveDatabase(f, projController.getDB());
+                job = saveC.prepareDatabase(f, projController.getDB());
 
                 projController.getDB().setName(dbFileName);
                 projController.setProjectName(dbFileName);
@@ -1127,7 +1184,7 @@ public final class DatavyuView extends FrameView
                 }
 
                 File f = new File(fc.getSelectedFile().getParent(), dbFileName);
-                saveC.saveDatabase(f, projController.getDB());
+                job = saveC.prepareDatabase(f, projController.getDB());
 
                 if (dbFileName.lastIndexOf('.') != -1) {
                     dbFileName = dbFileName.substring(0,
@@ -1165,7 +1222,7 @@ public final class DatavyuView extends FrameView
 
                 projController.updateProject();
 
-                saveC.saveProject(new File(fc.getSelectedFile().getParent(),
+                job = saveC.prepareProject(new File(fc.getSelectedFile().getParent(),
                                 archiveName),
                         projController.getProject(),
                         projController.getDB()
@@ -1176,8 +1233,9 @@ public final class DatavyuView extends FrameView
             }
 
             projController.setLastSaveOption(filter);
-            projController.markProjectAsUnchanged();
-            projController.getDB().markAsUnchanged();
+            if (job != null) {
+                saveInBackground(job, projController);
+            }
             this.tabbedPane.setTitleAt(this.tabbedPane.getSelectedIndex(), projController.getDB().getName());
 
         } catch (UserWarningException e) {
@@ -1185,6 +1243,141 @@ public final class DatavyuView extends FrameView
         }
     }
 
+    /**
+     * Writes a prepared save on the background saver, showing its progress if
+     * it takes a while. The project is marked as unchanged once the save
+     * completes, unless it was edited while being saved.
+     *
+     * @param job            The save to write.
+     * @param projController The controller of the project being saved.
+     */
+    private void saveInBackground(final SaveJob job,
+                                  final ProjectController projController) {
+        final DVProgressBar saveProgress = new DVProgressBar(this.getFrame(), false);
+        saveProgress.setTitle("Saving " + job.getFile().getName());
+        saveProgress.setFocusableWindowState(false);
+
+        final SaveTask saveTask = new SaveTask(job, projController, saveProgress);
+        final Timer showProgress = new Timer(SAVE_PROGRESS_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(final ActionEvent e) {
+                if (!saveTask.isDone()) {
+                    saveProgress.setLocationRelativeTo(getFrame());
+                    saveProgress.setVisible(true);
+                }
+            }
+        });
+        showProgress.setRepeats(false);
+        showProgress.start();
+
+        pendingSaves.add(saveTask);
+        SaveJob.execute(saveTask);
+    }
+
+    /**
+     * Blocks until all the saves started so far have been written, used
+     * before quitting. Saves that fail are reported straight away, as the
+     * event dispatch thread is blocked until this returns.
+     *
+     * @return True if every save was written, false if one failed or was
+     * cancelled and quitting should not go ahead.
+     */
+    public boolean waitForSaves() {
+        boolean saved = true;
+        for (SaveTask saveTask : new ArrayList<SaveTask>(pendingSaves)) {
+            saved &= saveTask.waitForWrite();
+        }
+
+        return saved;
+    }
+
+    /**
+     * Writes a prepared save off the event dispatch thread.
+     */
+    class SaveTask extends SwingWorker<Boolean, Void> {
+        private final SaveJob job;
+        private final ProjectController projController;
+        private final DVProgressBar saveProgress;
+
+        // Has a failure of this save already been shown to the user?
+        private boolean reported;
+
+        public SaveTask(final SaveJob job,
+                        final ProjectController projController,
+                        final DVProgressBar saveProgress) {
+            this.job = job;
+            this.projController = projController;
+            this.saveProgress = saveProgress;
+        }
+
+        @Override
+        public Boolean doInBackground() throws UserWarningException {
+            return job.write(saveProgress);
+        }
+
+        /**
+         * Blocks until the save has been written, reporting a failure.
+         *
+         * @return True if the save was written, false if it failed or was
+         * cancelled.
+         */
+        boolean waitForWrite() {
+            try {
+                return get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                report(e);
+                return false;
+            }
+        }
+
+        /**
+         * Shows the user why the save failed, once.
+         *
+         * @param e The failure of the save.
+         */
+        private void report(final ExecutionException e) {
+            if (reported) {
+                return;
+            }
+            reported = true;
+
+            saveProgress.close();
+            if (e.getCause() instanceof UserWarningException) {
+                Datavyu.getApplication().showWarningDialog((UserWarningException) e.getCause());
+            } else {
+                LOGGER.error("Unable to save", e.getCause());
+            }
+        }
+
+        @Override
+        protected void done() {
+            pendingSaves.remove(this);
+            saveProgress.close();
+
+            try {
+                if (!get()) {
+                    return;
+                }
+
+                RecentFiles.rememberProject(job.getFile());
+                projController.markProjectAsUnchanged();
+
+                // Edits made while the snapshot was being written are still
+                // unsaved.
+                if (job.getSnapshot().isCurrent(projController.getDB())) {
+                    projController.getDB().markAsUnchanged();
+                }
+            } catch (InterruptedException e) {
+                LOGGER.error("Interrupted while saving", e);
+            } catch (ExecutionException e) {
+                report(e);
+            }
+        }
+    }
+
     public String convertTreePathToString(TreePath tp) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < tp.getPath().length; i++) {
@@ -1394,23 +1587,41 @@ public final class DatavyuView extends FrameView
         // Clear the current spreadsheet before loading the new content - we
         // need to clean up resources.
 //        clearSpreadsheet();
-        String filename = FilenameUtils.getBaseName(f.getAbsolutePath());
         String ext = FilenameUtils.getExtension(f.getAbsolutePath());
-        //ext = ext.substring(10);
-        //f.renameTo(new File(filename + "." + ext));
+        OpenC openC;
+        FileFilter filter;
+
         // Opening a project or project archive file
         if (ext.equalsIgnoreCase("opf")) {
-            openProject(f);
+            openC = openProject(f);
+            filter = OPFFilter.INSTANCE;
             // Opening a database file
         } else {
-            openDatabase(f);
+            openC = openDatabase(f);
+            filter = CSVFilter.INSTANCE;
         }
 
-        // Display any changes to the database.
-//        showSpreadsheet();
+        if (openC == null) {
+            return;
+        }
 
-        // Default is to highlight cells when created - clear selection on load.
-        panel.clearCellSelection();
+        // Apply the changes journaled since the autosave was written.
+        File journal = AutosaveJournal.getJournalFile(f);
+        if (journal.exists()) {
+            try {
+                AutosaveJournal.replay(journal, openC.getDatastore());
+            } catch (IOException e) {
+                LOGGER.error("Unable to replay autosave journal", e);
+            } catch (UserWarningException e) {
+                LOGGER.error("Unable to replay autosave journal", e);
+            }
+        }
+
+        ProjectController pController = new ProjectController(openC.getProject(), openC.getDatastore());
+        pController.setLastSaveOption(filter);
+
+        // Display any changes to the database.
+        createNewSpreadsheet(pController);
     }
 
 
@@ -1603,7 +1814,8 @@ public final class DatavyuView extends FrameView
         try {
             RunScriptC scriptC = new RunScriptC();
             // record the effect
-            UndoableEdit edit = new RunScriptEdit(scriptC.getScriptFilePath());
+            RunScriptEdit edit = new RunScriptEdit(scriptC.getScriptFilePath());
+            scriptC.addPropertyChangeListener(edit);
             // notify the listeners
             Datavyu.getView().getUndoSupport().postEdit(edit);
             scriptC.execute();
@@ -1616,7 +1828,8 @@ public final class DatavyuView extends FrameView
         try {
             RunScriptC scriptC = new RunScriptC(scriptFile);
             // record the effect
-            UndoableEdit edit = new RunScriptEdit(scriptC.getScriptFilePath());
+            RunScriptEdit edit = new RunScriptEdit(scriptC.getScriptFilePath());
+            scriptC.addPropertyChangeListener(edit);
             // notify the listeners
             Datavyu.getView().getUndoSupport().postEdit(edit);
             scriptC.execute();
@@ -2602,10 +2815,11 @@ public final class DatavyuView extends FrameView
 
         try {
             // record the effect
-            UndoableEdit edit = new RunScriptEdit(evt.getActionCommand());
+            RunScriptEdit edit = new RunScriptEdit(evt.getActionCommand());
             ////
 
             RunScriptC scriptC = new RunScriptC(evt.getActionCommand());
+            scriptC.addPropertyChangeListener(edit);
 
             // notify the listeners
             Datavyu.getView().getUndoSupport().postEdit(edit);
@@ -16,10 +16,12 @@ package org.datavyu.views.discrete;
 
 import com.usermetrix.jclient.Logger;
 import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.Configuration;
 import org.datavyu.models.db.Cell;
 import org.datavyu.models.db.Datastore;
 import org.datavyu.models.db.Variable;
 import org.datavyu.util.Constants;
+import org.datavyu.views.discrete.layouts.SheetLayout;
 
 import javax.swing.*;
 import javax.swing.text.BadLocationException;
@@ -30,8 +32,30 @@ import java.util.List;
 
 /**
  * ColumnDataPanel panel that contains the SpreadsheetCell panels.
+ *
+ * SpreadsheetCells are only built for the cells that are in view, or close to
+ * it. A small pool of them is reused as the spreadsheet scrolls, and cells
+ * without one are painted as a plain stand-in until they come into view.
+ * Layouts work out positions from the cells of the variable, using the
+ * measured height of cells that have been shown and an estimate for the
+ * others.
  */
 public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher {
+    /**
+     * The most SpreadsheetCells kept for reuse once they leave the view.
+     */
+    private static final int MAX_POOL_SIZE = 32;
+
+    /**
+     * Gap around the text of a stand-in cell, in pixels.
+     */
+    private static final int STAND_IN_INSET = 4;
+
+    /**
+     * Height of the overlap marker at the bottom of a stand-in cell.
+     */
+    private static final int OVERLAP_HEIGHT = 3;
+
     /**
      * Width of the column.
      */
@@ -47,6 +71,11 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
      */
     private Variable model;
 
+    /**
+     * The datastore holding the variable.
+     */
+    private Datastore datastore;
+
     /**
      * The cell selection listener used for cells in this column.
      */
@@ -62,6 +91,58 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
      */
     private Map<Cell, SpreadsheetCell> viewMap;
 
+    /**
+     * SpreadsheetCells that have left the view, ready to be reused.
+     */
+    private Deque<SpreadsheetCell> pool;
+
+    /**
+     * The cells of the variable in temporal order, kept until the temporal
+     * version of the variable changes.
+     */
+    private Cell[] ordered;
+
+    /**
+     * The temporal version of the variable when the cells were ordered.
+     */
+    private long orderedVersion;
+
+    /**
+     * The measured height of each cell that has been shown, in pixels.
+     */
+    private Map<Cell, Integer> heights;
+
+    /**
+     * The height used for cells that have not been shown yet.
+     */
+    private int estimatedHeight;
+
+    /**
+     * The cells in the order they were last laid out, null if the layout
+     * is out of date.
+     */
+    private Cell[] laidCells;
+
+    /**
+     * The top of each laid out cell.
+     */
+    private int[] laidTops;
+
+    /**
+     * The bottom of each laid out cell.
+     */
+    private int[] laidBottoms;
+
+    /**
+     * Whether each laid out cell overlaps the one after it.
+     */
+    private boolean[] laidOverlaps;
+
+    /**
+     * The width the cells were last laid out with.
+     */
+    private int laidWidth;
+
     /**
      * The logger for this class.
      */
@@ -96,7 +177,10 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
         columnHeight = 0;
         cells = new ArrayList<SpreadsheetCell>();
         viewMap = new HashMap<Cell, SpreadsheetCell>();
+        pool = new ArrayDeque<SpreadsheetCell>();
+        heights = new HashMap<Cell, Integer>();
         cellSelectionL = cellSelL;
+        datastore = db;
         model = variable;
 
         setLayout(null);
@@ -110,9 +194,6 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
         padding.setBackground(new Color(237, 237, 237));
         padding.setBorder(BorderFactory.createMatteBorder(0, 0, 0, Constants.BORDER_SIZE, new Color(175, 175, 175)));
         this.add(padding);
-
-        // Populate the data column with spreadsheet cells.
-        buildDataPanelCells(db, variable, cellSelL);
     }
 
     /**
@@ -134,35 +215,60 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
     }
 
     /**
-     * Build the SpreadsheetCells and add to the DataPanel.
+     * Shows a cell with a SpreadsheetCell, reusing one from the pool if there
+     * is one.
      *
-     * @param db       The datastore holding cells that this column will represent.
-     * @param variable The variable to display.
-     * @param cellSelL Spreadsheet listener to notify about cell selection
-     *                 changes.
+     * @param cell The cell to show.
+     * @return The SpreadsheetCell showing the cell.
      */
-    private void buildDataPanelCells(final Datastore db,
-                                     final Variable variable,
-                                     final CellSelectionListener cellSelL) {
+    private SpreadsheetCell realise(final Cell cell) {
+        SpreadsheetCell sc = viewMap.get(cell);
+        if (sc != null) {
+            return sc;
+        }
 
-        // traverse and build the cells
-        for (Cell cell : variable.getCellsTemporally()) {
-            SpreadsheetCell sc = new SpreadsheetCell(db, cell, cellSelL);
-            cell.addListener(sc);
+        sc = pool.poll();
+        if (sc == null) {
+            sc = new SpreadsheetCell(datastore, cell, cellSelectionL);
+        } else {
+            sc.setCell(cell);
+        }
+        sc.setWidth(getWidth());
+        cell.addListener(sc);
 
-            // add cell to the JPanel
-            this.add(sc);
+        this.add(sc);
+        cells.add(sc);
+        viewMap.put(cell, sc);
 
-            // and add it to our reference list
-            cells.add(sc);
+        return sc;
+    }
 
-            // Add the ID's to the mapping.
-            viewMap.put(cell, sc);
-            columnHeight += sc.getHeight();
+    /**
+     * Stops showing a cell with a SpreadsheetCell, keeping the SpreadsheetCell
+     * for reuse.
+     *
+     * @param sc The SpreadsheetCell to release.
+     */
+    private void release(final SpreadsheetCell sc) {
+        Cell cell = sc.getCell();
+        cell.removeListener(sc);
+        this.remove(sc);
+        cells.remove(sc);
+        viewMap.remove(cell);
+
+        if (pool.size() < MAX_POOL_SIZE) {
+            pool.push(sc);
         }
+    }
 
-        this.add(newCellButton);
-        this.setSize(columnWidth, columnHeight);
+    /**
+     * @param sc The SpreadsheetCell to check.
+     * @return True if the SpreadsheetCell must be kept even when out of view,
+     * as the user is working with it.
+     */
+    private static boolean isInUse(final SpreadsheetCell sc) {
+        Cell cell = sc.getCell();
+        return cell.isHighlighted() || cell.isSelected() || sc.isFocusOwner();
     }
 
     /**
@@ -176,6 +282,44 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
 
         cells.clear();
         viewMap.clear();
+        pool.clear();
+        heights.clear();
+        laidCells = null;
+    }
+
+    /**
+     * Discards the SpreadsheetCells in this column, so that they are built
+     * again from the cells currently held by the variable.
+     *
+     * @param db The datastore holding the cells that this column represents.
+     */
+    public void rebuildCells(final Datastore db) {
+        datastore = db;
+        for (SpreadsheetCell cell : new ArrayList<SpreadsheetCell>(cells)) {
+            release(cell);
+        }
+
+        heights.clear();
+        laidCells = null;
+        columnHeight = 0;
+    }
+
+    /**
+     * Shows the current content of cells that changed during a bulk update.
+     * The SpreadsheetCells built for them are bound to them again and they
+     * are measured afresh when next laid out.
+     *
+     * @param changed The cells that have changed.
+     */
+    public void refreshCells(final Collection<Cell> changed) {
+        for (Cell cell : changed) {
+            heights.remove(cell);
+            SpreadsheetCell sc = viewMap.get(cell);
+            if (sc != null) {
+                sc.setCell(cell);
+            }
+        }
+        repaint();
     }
 
     /**
@@ -185,10 +329,12 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
      */
     public void deleteCell(final Cell cell) {
         SpreadsheetCell sCell = viewMap.get(cell);
-        cell.removeListener(sCell);
-        this.remove(sCell);
-        cells.remove(sCell);
-        viewMap.remove(cell);
+        if (sCell != null) {
+            release(sCell);
+        }
+
+        heights.remove(cell);
+        laidCells = null;
     }
 
     /**
@@ -203,15 +349,13 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
     public void insertCell(final Datastore ds,
                            final Cell cell,
                            final CellSelectionListener cellSelL) {
+        datastore = ds;
+        cellSelectionL = cellSelL;
+        laidCells = null;
 
-        SpreadsheetCell nCell = new SpreadsheetCell(ds, cell, cellSelL);
+        SpreadsheetCell nCell = realise(cell);
         nCell.setWidth(this.getWidth());
-        cell.addListener(nCell);
-
         nCell.setAlignmentX(Component.RIGHT_ALIGNMENT);
-        this.add(nCell);
-        this.cells.add(nCell);
-        viewMap.put(cell, nCell);
         nCell.requestFocus();
     }
 
@@ -247,37 +391,74 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
         return this.padding;
     }
 
+    /**
+     * Places a SpreadsheetCell where the last layout put its cell, so that it
+     * can be scrolled to before the column is laid out again.
+     *
+     * @param sc    The SpreadsheetCell to place.
+     * @param index The temporal index of its cell.
+     */
+    private void place(final SpreadsheetCell sc, final int index) {
+        sc.setOrdinal(index + 1);
+
+        if (laidCells != null && index < laidCells.length
+                && laidCells[index].equals(sc.getCell())) {
+            sc.setBounds(0, laidTops[index], laidWidth,
+                    laidBottoms[index] - laidTops[index]);
+        }
+    }
+
+    /**
+     * @return The cells of the variable in temporal order. The same array is
+     * returned until cells are added, removed or moved in time, and must not
+     * be modified.
+     */
+    public Cell[] getOrderedCells() {
+        long version = model.getTemporalVersion();
+        if (ordered == null || version != orderedVersion) {
+            ordered = model.getCellsTemporally().toArray(new Cell[0]);
+            orderedVersion = version;
+        }
+
+        return ordered;
+    }
+
     public SpreadsheetCell getCellTemporally(final int index) {
-        return viewMap.get(model.getCellTemporally(index));
+        SpreadsheetCell sc = realise(getOrderedCells()[index]);
+        place(sc, index);
+
+        return sc;
     }
 
     /**
-     * @return The SpreadsheetCells in this column temporally.
+     * @param cell The cell to find.
+     * @return The SpreadsheetCell showing the cell, built if the cell was not
+     * in view, or null if the cell is not in this column.
      */
-    public List<SpreadsheetCell> getCellsTemporally() {
-        ArrayList<SpreadsheetCell> result = new ArrayList<SpreadsheetCell>();
+    public SpreadsheetCell getSpreadsheetCell(final Cell cell) {
+        SpreadsheetCell sc = viewMap.get(cell);
+        if (sc != null) {
+            return sc;
+        }
 
-        int ord = 1;
-        for (Cell c : model.getCellsTemporally()) {
-            SpreadsheetCell sc = viewMap.get(c);
-            sc.forceCellRefresh();
-            sc.setOrdinal(ord);
-            ord++;
-            result.add(sc);
+        int index = model.getCellTemporalIndex(cell);
+        if (index < 0) {
+            return null;
         }
 
-        return result;
+        return getCellTemporally(index);
     }
 
     /**
      * @return The number of cells stored in this column.
      */
     public int getNumCells() {
-        return cells.size();
+        return getOrderedCells().length;
     }
 
     /**
-     * @return The SpreadsheetCells in this column.
+     * @return The SpreadsheetCells currently built for the cells of this
+     * column.
      */
     public List<SpreadsheetCell> getCells() {
         return cells;
@@ -298,6 +479,236 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
         return selectedCells;
     }
 
+    /**
+     * Shows the current selection of the cells of this column, after the
+     * selection of many cells has been changed at once. Only the
+     * SpreadsheetCells currently built need updating, the others are painted
+     * from the cells themselves.
+     */
+    public void refreshSelection() {
+        for (SpreadsheetCell sc : cells) {
+            sc.refreshSelection();
+        }
+        repaint();
+    }
+
+    /**
+     * @param cell The cell to measure.
+     * @return The height of the cell when it was last shown, or the estimate
+     * if it has not been shown.
+     */
+    private int heightOf(final Cell cell) {
+        Integer height = heights.get(cell);
+        return height == null ? estimatedHeight : height;
+    }
+
+    /**
+     * Gets the height to lay out a cell with. The first cell measured is
+     * built to find an estimate for the cells that have not been shown yet.
+     *
+     * @param cell The cell to measure.
+     * @return The height of the cell when it was last shown, or the estimate
+     * if it has not been shown.
+     */
+    public int getCellHeight(final Cell cell) {
+        if (estimatedHeight == 0) {
+            estimatedHeight = realise(cell).getPreferredSize().height;
+            heights.put(cell, estimatedHeight);
+        }
+
+        return heightOf(cell);
+    }
+
+    /**
+     * Shows the cells of this column at the given positions. Only the cells
+     * within a view height of the view are shown with a SpreadsheetCell,
+     * along with any that the user is working with, the others are released
+     * and painted as stand-ins.
+     *
+     * @param order    The cells of the column, in temporal order.
+     * @param tops     The top of each cell.
+     * @param bottoms  The bottom of each cell, no lower than the top of the
+     *                 next one.
+     * @param overlaps Whether each cell overlaps the one after it.
+     * @param view     The part of this panel that is in view.
+     * @param width    The width to lay the cells out with.
+     * @return True if the shown cells measured differently to the height
+     * they were laid out with, in which case the positions are out by that
+     * much and should be worked out again.
+     */
+    public boolean showCells(final Cell[] order,
+                             final int[] tops,
+                             final int[] bottoms,
+                             final boolean[] overlaps,
+                             final Rectangle view,
+                             final int width) {
+        Set<Cell> near = new HashSet<Cell>();
+        for (int i : SheetLayout.getNearCells(tops, bottoms, view)) {
+            near.add(order[i]);
+        }
+        for (SpreadsheetCell sc : new ArrayList<SpreadsheetCell>(cells)) {
+            if (!near.contains(sc.getCell()) && !isInUse(sc)) {
+                release(sc);
+            }
+        }
+        for (Cell cell : near) {
+            realise(cell);
+        }
+
+        // Measure the shown cells, any that differ from the height they were
+        // laid out with move everything below them.
+        boolean changed = false;
+        for (SpreadsheetCell sc : cells) {
+            int height = sc.getPreferredSize().height;
+            if (height != heightOf(sc.getCell())) {
+                heights.put(sc.getCell(), height);
+                changed = true;
+            }
+            if (height < estimatedHeight) {
+                estimatedHeight = height;
+                changed = true;
+            }
+        }
+
+        laidWidth = width;
+        for (int i = 0; i < order.length; i++) {
+            SpreadsheetCell sc = viewMap.get(order[i]);
+            if (sc != null) {
+                sc.setBounds(0, tops[i], width, bottoms[i] - tops[i]);
+                sc.setOrdinal(i + 1);
+                sc.setOverlapBorder(overlaps[i]);
+            }
+        }
+
+        laidCells = order;
+        laidTops = tops;
+        laidBottoms = bottoms;
+        laidOverlaps = overlaps;
+        repaint();
+
+        return changed;
+    }
+
+    /**
+     * Lays out the cells of this column in ordinal order, one below the
+     * other.
+     *
+     * @param view  The part of this panel that is in view.
+     * @param width The width to lay the cells out with.
+     * @return The height of the laid out cells.
+     */
+    public int layoutOrdinal(final Rectangle view, final int width) {
+        Cell[] order = getOrderedCells();
+        int n = order.length;
+        int[] tops = new int[n];
+        int[] bottoms = new int[n];
+        boolean[] overlaps = new boolean[n];
+
+        // Cells shown for the first time may measure differently to the
+        // estimate they were placed with, so place them again if needed.
+        int height = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            height = 0;
+            for (int i = 0; i < n; i++) {
+                tops[i] = height;
+                height += getCellHeight(order[i]);
+                bottoms[i] = height;
+                overlaps[i] = (i + 1) < n && isOverlapping(order[i], order[i + 1]);
+            }
+
+            if (!showCells(order, tops, bottoms, overlaps, view, width)) {
+                break;
+            }
+        }
+
+        return height;
+    }
+
+    /**
+     * @param cell The cell to check.
+     * @param next The cell that follows it.
+     * @return True if the cell ends after the next one starts.
+     */
+    private static boolean isOverlapping(final Cell cell, final Cell next) {
+        return Math.max(cell.getOffset(), cell.getOnset()) > next.getOnset();
+    }
+
+    /**
+     * Paints the stand-ins for the cells that are laid out but do not have a
+     * SpreadsheetCell.
+     *
+     * @param g The graphics context to paint with.
+     */
+    @Override
+    protected void paintComponent(final Graphics g) {
+        super.paintComponent(g);
+
+        if (laidCells == null || laidCells.length == 0) {
+            return;
+        }
+
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+
+        // The bottoms of the cells run down the column, find the first cell
+        // reaching into the clip.
+        int lo = 0;
+        int hi = laidCells.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (laidBottoms[mid] <= clip.y) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        for (int i = lo; i < laidCells.length && laidTops[i] < (clip.y + clip.height); i++) {
+            if (!viewMap.containsKey(laidCells[i])) {
+                paintStandIn(g, i);
+            }
+        }
+    }
+
+    /**
+     * Paints the ordinal, timestamps and value of a cell in its place.
+     *
+     * @param g     The graphics context to paint with.
+     * @param index The temporal index of the cell.
+     */
+    private void paintStandIn(final Graphics g, final int index) {
+        Configuration config = Configuration.getInstance();
+        Cell cell = laidCells[index];
+        int top = laidTops[index];
+        int height = laidBottoms[index] - top;
+
+        g.setColor(cell.isSelected() ? config.getSSSelectedColour() : config.getSSBackgroundColour());
+        g.fillRect(0, top, laidWidth, height);
+        if (laidOverlaps[index]) {
+            g.setColor(config.getSSOverlapColour());
+            g.fillRect(0, top + height - OVERLAP_HEIGHT - 1, laidWidth, OVERLAP_HEIGHT);
+        }
+        g.setColor(Configuration.BORDER_COLOUR);
+        g.drawLine(0, top + height - 1, laidWidth, top + height - 1);
+
+        g.setFont(config.getSSLabelFont());
+        FontMetrics fm = g.getFontMetrics();
+        int y = top + STAND_IN_INSET + fm.getAscent();
+        g.setColor(config.getSSOrdinalColour());
+        g.drawString(Integer.toString(index + 1), STAND_IN_INSET, y);
+
+        String times = cell.getOnsetString() + "  " + cell.getOffsetString();
+        g.setColor(config.getSSTimestampColour());
+        g.drawString(times, laidWidth - STAND_IN_INSET - fm.stringWidth(times), y);
+
+        g.setFont(config.getSSDataFont());
+        g.setColor(config.getSSForegroundColour());
+        g.drawString(cell.getValue().toString(), STAND_IN_INSET,
+                y + fm.getDescent() + g.getFontMetrics().getAscent());
+    }
+
     /**
      * Dispatches the key event to the desired components.
      *
@@ -316,17 +727,20 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
             return false;
         }
 
-        SpreadsheetCell[] components = this.getCellsTemporally().toArray(new SpreadsheetCell[0]);
-        int numCells = components.length;
+        int numCells = getNumCells();
 
-        // For each of the cells in the column - see if one has focus.
-        for (int i = 0; i < numCells; i++) {
+        // For each of the cells shown in the column - see if one has focus.
+        for (SpreadsheetCell current : new ArrayList<SpreadsheetCell>(cells)) {
+            if (!current.isFocusOwner()) {
+                continue;
+            }
+            int i = model.getCellTemporalIndex(current.getCell());
 
-            if (components[i].isFocusOwner()
-                    && components[i].getClass().equals(JButton.class)) { //what is this about? eliminate? haven't found a way to make this happen
+            if (current.isFocusOwner()
+                    && current.getClass().equals(JButton.class)) { //what is this about? eliminate? haven't found a way to make this happen
 
                 if ((e.getKeyCode() == KeyEvent.VK_UP) && (i > 0)) {
-                    SpreadsheetCell sc = (SpreadsheetCell) components[i - 1];
+                    SpreadsheetCell sc = getCellTemporally(i - 1);
                     EditorTracker et = sc.getDataView().getEdTracker();
                     EditorComponent ec = et.getCurrentEditor();
 
@@ -364,12 +778,12 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
             }
 
             // The current cell has focus.
-            if (components[i].isFocusOwner()
-                    && components[i].getClass().equals(SpreadsheetCell.class)) {
+            if (current.isFocusOwner()
+                    && current.getClass().equals(SpreadsheetCell.class)) {
 
                 // Get the current editor tracker and component for the cell
                 // that has focus.
-                SpreadsheetCell scCur = (SpreadsheetCell) components[i];
+                SpreadsheetCell scCur = current;
                 EditorTracker etCur = scCur.getDataView().getEdTracker();
                 EditorComponent ecCur = etCur.getCurrentEditor();
 
@@ -391,8 +805,8 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
                         // if we are not on the top line - pressing up should
                         // select the line above.
 
-                        if (a.getLineOfOffset(a.getCaretPosition()) == 0 && components[i - 1] instanceof SpreadsheetCell) {
-                            SpreadsheetCell scNew = (SpreadsheetCell) components[i - 1];
+                        if (a.getLineOfOffset(a.getCaretPosition()) == 0) {
+                            SpreadsheetCell scNew = getCellTemporally(i - 1);
                             EditorTracker etNew = scNew.getDataView().getEdTracker();
                             EditorComponent ecNew = etNew.getEditorAtIndex(etCur.indexOfCurrentEditor());
                             etNew.setEditor(ecNew);
@@ -442,21 +856,14 @@ public final class ColumnDataPanel extends JPanel implements KeyEventDispatcher
                         // down should select the line below.
                         if ((a.getLineOfOffset(a.getCaretPosition()) + 1)
                                 >= a.getLineCount()) {
-                            components[i + 1].requestFocus();
-
-                            if (components[i + 1] instanceof SpreadsheetCell) {
-                                SpreadsheetCell scNew = (SpreadsheetCell) components[i + 1];
-                                EditorTracker etNew = scNew.getDataView().getEdTracker();
-                                EditorComponent ecNew = etNew.getEditorAtIndex(etCur.indexOfCurrentEditor());
-                                etNew.setEditor(ecNew);
-                                
-                                scNew.requestFocus();
-                                scNew.getCell().setHighlighted(true);
-                                cellSelectionL.setHighlightedCell(scNew);
-                            } else {
-                                scCur.getCell().setHighlighted(false);
-                                cellSelectionL.clearCellSelection();
-                            }
+                            SpreadsheetCell scNew = getCellTemporally(i + 1);
+                            EditorTracker etNew = scNew.getDataView().getEdTracker();
+                            EditorComponent ecNew = etNew.getEditorAtIndex(etCur.indexOfCurrentEditor());
+                            etNew.setEditor(ecNew);
+
+                            scNew.requestFocus();
+                            scNew.getCell().setHighlighted(true);
+                            cellSelectionL.setHighlightedCell(scNew);
 
                             e.consume();
 
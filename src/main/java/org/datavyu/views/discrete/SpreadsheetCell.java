@@ -125,6 +125,11 @@ public class SpreadsheetCell extends JPanel
      */
     private JLabel ord;
 
+    /**
+     * The ordinal value displayed, zero if none has been set.
+     */
+    private int ordinal;
+
     /**
      * The Onset display component.
      */
@@ -279,6 +284,36 @@ public class SpreadsheetCell extends JPanel
         Dimension d = new Dimension(229, 0);
         stretcher = new Filler(d, d, d);
         cellPanel.add(stretcher, BorderLayout.SOUTH);
+
+        updateSelectionDisplay();
+    }
+
+    /**
+     * Shows another cell in this view. The spreadsheet keeps a small number of
+     * SpreadsheetCells and reuses them for whichever cells are in view, rather
+     * than building one for every cell of a column.
+     *
+     * @param cell The cell that this SpreadsheetCell now represents.
+     */
+    public void setCell(final Cell cell) {
+        model = cell;
+        onset.setCell(cell);
+        offset.setCell(cell);
+        dataPanel.setCell(cell);
+
+        isLaid = false;
+        onsetProcessed = false;
+        beingProcessed = false;
+        cellOverlap = false;
+        updateSelectionDisplay();
+    }
+
+    /**
+     * Shows the current selection of the cell, after the selection of many
+     * cells has been changed at once.
+     */
+    public void refreshSelection() {
+        updateSelectionDisplay();
     }
 
     /**
@@ -347,7 +382,10 @@ public class SpreadsheetCell extends JPanel
      * @param ord The new ordinal value to use with this cell.
      */
     public void setOrdinal(final Integer ordInt) {
-        ord.setText(ordInt.toString());
+        if (ordInt != ordinal) {
+            ordinal = ordInt;
+            ord.setText(ordInt.toString());
+        }
     }
 
     /**
@@ -31,6 +31,7 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -437,13 +438,6 @@ public final class SpreadsheetColumn extends JLabel
         return datapanel.getCellTemporally(index);
     }
 
-    /**
-     * @return The Spreadsheet cells in this column temporally.
-     */
-    public List<SpreadsheetCell> getCellsTemporally() {
-        return datapanel.getCellsTemporally();
-    }
-
     @Action
     public void addNewCellToVar() {
 //        new NewVariableC();
@@ -487,8 +481,8 @@ public final class SpreadsheetColumn extends JLabel
          * SpreadsheetCell in the column if one exists. If no cells exist it
          * will request focus for the datapanel of the column.
          */
-        if (datapanel.getCells().size() > 0) {
-            datapanel.getCells().get(0).requestFocusInWindow();
+        if (datapanel.getNumCells() > 0) {
+            datapanel.getCellTemporally(0).requestFocusInWindow();
         } else {
             datapanel.requestFocusInWindow();
         }
@@ -522,6 +516,18 @@ public final class SpreadsheetColumn extends JLabel
         datapanel.deleteCell(deletedCell);
     }
 
+    @Override
+    public void cellsReplaced() {
+        datapanel.rebuildCells(datastore);
+        revalidate();
+    }
+
+    @Override
+    public void cellsChanged(final Collection<Cell> changedCells) {
+        datapanel.refreshCells(changedCells);
+        revalidate();
+    }
+
     // *************************************************************************
     // MouseListener Overrides
     // *************************************************************************
@@ -61,6 +61,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
  */
 public final class SpreadsheetPanel extends JPanel
         implements DatastoreListener,
+        SelectionListener,
         CellSelectionListener,
         ColumnSelectionListener,
         ColumnVisibilityListener,
@@ -461,11 +462,13 @@ public final class SpreadsheetPanel extends JPanel
         // check if we need to deregister any existing listeners.
         if ((datastore != null) && (datastore != db)) {
             datastore.removeListener(this);
+            datastore.getSelectionModel().removeListener(this);
         }
 
         // set the database
         datastore = db;
         datastore.addListener(this);
+        datastore.getSelectionModel().addListener(this);
 
         // setName to remember screen locations
         setName(db.getName());
@@ -512,6 +515,13 @@ public final class SpreadsheetPanel extends JPanel
         // Do nothing.
     }
 
+    @Override
+    public void selectionChanged() {
+        for (SpreadsheetColumn col : getColumns()) {
+            col.getDataPanel().refreshSelection();
+        }
+    }
+
     /**
      * Dispatches the key event to the desired components.
      *
@@ -563,35 +573,30 @@ public final class SpreadsheetPanel extends JPanel
             return;
         }
 
+        Cell cell = highlightedCell.getCell();
         for (int colID = 0; colID < columns.size(); colID++) {
+            Variable var = columns.get(colID).getVariable();
 
-            for (int cellID = 0; cellID < columns.get(colID).getCells().size();
-                 cellID++) {
+            // Look for the column holding the highlighted cell.
+            if (var.contains(cell)) {
 
-                // For each of the cells in the columns - look for the
-                // highlighted cell.
-                SpreadsheetCell cell = columns.get(colID).getCells().get(cellID);
+                // Find column in the desired direction
+                int newColID = colID + direction;
 
-                if (cell.getCell().equals(highlightedCell.getCell())) {
+                if ((newColID >= 0) && (newColID < columns.size())
+                        && (columns.get(newColID).getDataPanel().getNumCells() > 0)) {
 
-                    // Find column in the desired direction
-                    int newColID = colID + direction;
+                    // Find the most appopriate cell in the new column.
+                    int newCellID = Math.min(var.getCellTemporalIndex(cell),
+                            (columns.get(newColID).getDataPanel().getNumCells() - 1));
 
-                    if ((newColID >= 0) && (newColID < columns.size())) {
-
-                        // Find the most appopriate cell in the new
-                        // column.
-                        int newCellID = Math.min(cellID,
-                                (columns.get(newColID).getCells().size() - 1));
-
-                        SpreadsheetCell newCell = columns.get(newColID)
-                                .getCells().get(newCellID);
-                        newCell.requestFocus();
-                        setHighlightedCell(newCell);
-
-                        return;
-                    }
+                    SpreadsheetCell newCell = columns.get(newColID)
+                            .getCellTemporally(newCellID);
+                    newCell.requestFocus();
+                    setHighlightedCell(newCell);
                 }
+
+                return;
             }
         }
     }
@@ -634,13 +639,16 @@ public final class SpreadsheetPanel extends JPanel
      * @param cell The cell to mark as highlighted.
      */
     public void highlightCell(final Cell cell) {
+        if (cell == null) {
+            return;
+        }
+
         for (SpreadsheetColumn col : getColumns()) {
-            for (SpreadsheetCell spreadsheetCell : col.getCells()) {
-                if (cell != null && spreadsheetCell.getCell().equals(cell)) {
-                    setHighlightedCell(spreadsheetCell);
+            SpreadsheetCell spreadsheetCell = col.getDataPanel().getSpreadsheetCell(cell);
+            if (spreadsheetCell != null) {
+                setHighlightedCell(spreadsheetCell);
 
-                    return;
-                }
+                return;
             }
         }
     }
@@ -773,22 +781,6 @@ public final class SpreadsheetPanel extends JPanel
         revalidate();
     }
 
-    /**
-     * Returns the cells of the supplied column as ordered by the current
-     * layout.
-     *
-     * @param col The column to fetch the cells from.
-     * @return The cells in ordinal order if SheetLayoutType is Ordinal,
-     * otherwise the cells will be in temporal alignment.
-     */
-    public List<SpreadsheetCell> getOrderedCells(SpreadsheetColumn col) {
-        if (this.currentLayoutType == SheetLayoutType.Ordinal) {
-            return col.getCells();
-        } else {
-            return col.getCellsTemporally();
-        }
-    }
-
     /**
      * Adds a series of cells as a continuous selection.
      *
@@ -814,34 +806,13 @@ public final class SpreadsheetPanel extends JPanel
                     highlightedCell = null;
                 }
 
-                for (SpreadsheetColumn col : getColumns()) {
+                // Perform continuous selection, start and end cells
+                // included.
+                datastore.getSelectionModel().selectRange(v1, c1, c2);
 
-                    if (v1.equals(col.getVariable())) {
-
-                        // Perform continuous selection.
-                        boolean addToSelection = false;
-
-                        for (SpreadsheetCell c : getOrderedCells(col)) {
-
-                            if (!addToSelection) {
-                                c.getCell().setSelected(false);
-                            }
-
-                            if (c.equals(cell) || c.equals(lastSelectedCell)) {
-                                addToSelection = !addToSelection;
-
-                                // We always include start and end cells.
-                                c.getCell().setSelected(true);
-                            }
-
-                            if (addToSelection) {
-                                c.getCell().setSelected(true);
-                            }
-                        }
-
-                        break;
-                    }
-                }
+                // Update the find windows to the end of the selection.
+                Datavyu.getDataController().setOnsetField(c2.getOnset());
+                Datavyu.getDataController().setOffsetField(c2.getOffset());
             }
         } else {
             lastSelectedCell = cell;
@@ -130,6 +130,20 @@ public final class MatrixRootView extends JTextArea implements FocusListener {
         comp.setCaretPosition(edPos);
     }
 
+    /**
+     * Shows the value of another cell, used when the spreadsheet reuses this
+     * view for a different cell.
+     *
+     * @param cell The cell to display the value of.
+     */
+    public void setCell(final Cell cell) {
+        parentCell = cell;
+        allEditors.clear();
+        allEditors.addAll(DataValueEditorFactory.buildMatrix(this, cell));
+        rebuildText();
+        setCaretPosition(0);
+    }
+
     /**
      * Recalculates and sets the text to display.
      */
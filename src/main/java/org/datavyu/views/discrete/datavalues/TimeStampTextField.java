@@ -44,6 +44,11 @@ public final class TimeStampTextField extends JTextField
      */
     private TimeStampDataValueEditor myEditor;
 
+    /**
+     * Which timestamp of the cell is displayed.
+     */
+    private final TimeStampSource source;
+
     /**
      * The logger for this class.
      */
@@ -59,6 +64,7 @@ public final class TimeStampTextField extends JTextField
         super();
 
         parentCell = cell;
+        source = tsType;
         myEditor = new TimeStampDataValueEditor(this, cell, tsType);
 
         setValue();
@@ -79,6 +85,19 @@ public final class TimeStampTextField extends JTextField
         rebuildText();
     }
 
+    /**
+     * Shows the timestamp of another cell, used when the spreadsheet reuses
+     * this field for a different cell.
+     *
+     * @param cell The cell to display the timestamp of.
+     */
+    public void setCell(final Cell cell) {
+        parentCell = cell;
+        myEditor = new TimeStampDataValueEditor(this, cell, source);
+        setCaretPosition(0);
+        setValue();
+    }
+
     /**
      * Recalculates and sets the text to display.
      */
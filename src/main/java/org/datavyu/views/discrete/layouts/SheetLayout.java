@@ -17,11 +17,27 @@ package org.datavyu.views.discrete.layouts;
 import org.datavyu.views.discrete.SpreadsheetCell;
 
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import java.awt.*;
+import java.util.Arrays;
 
 /**
  * SheetLayout - abstract class for spreadsheet layouts.
+ *
+ * Spreadsheet columns only show the cells near the view with a
+ * SpreadsheetCell, so layouts follow the viewport and lay the spreadsheet out
+ * again when it is scrolled past them.
  */
-public abstract class SheetLayout extends ScrollPaneLayout {
+public abstract class SheetLayout extends ScrollPaneLayout implements ChangeListener {
+
+    // The viewport this layout is following.
+    private JViewport watched;
+
+    // The part of the view that has cells shown near it, from one view
+    // height above the view to one below.
+    private int shownTop;
+    private int shownBottom;
 
     /**
      * SheetLayout constructor.
@@ -30,4 +46,81 @@ public abstract class SheetLayout extends ScrollPaneLayout {
     }
 
     public abstract void reorientView(SpreadsheetCell cell);
+
+    /**
+     * Starts following the viewport of the scroll pane being laid out, and
+     * notes the part of the view that cells are being shown near.
+     *
+     * @param pane The scroll pane being laid out.
+     * @return The part of the spreadsheet that is in view.
+     */
+    protected Rectangle watchView(final JScrollPane pane) {
+        if (watched != pane.getViewport()) {
+            if (watched != null) {
+                watched.removeChangeListener(this);
+            }
+            watched = pane.getViewport();
+            watched.addChangeListener(this);
+        }
+
+        Rectangle view = watched.getViewRect();
+        if (view.height == 0) {
+            view.height = pane.getHeight();
+        }
+        shownTop = view.y - view.height;
+        shownBottom = view.y + 2 * view.height;
+
+        return view;
+    }
+
+    /**
+     * Finds the cells that are shown with a SpreadsheetCell, the ones within
+     * one view height of the view.
+     *
+     * @param tops    The top of each cell of a column.
+     * @param bottoms The bottom of each cell of the column.
+     * @param view    The part of the column that is in view.
+     * @return The indices of the cells near the view, in order.
+     */
+    public static int[] getNearCells(final int[] tops,
+                                     final int[] bottoms,
+                                     final Rectangle view) {
+        int top = view.y - view.height;
+        int bottom = view.y + 2 * view.height;
+
+        int[] near = new int[tops.length];
+        int count = 0;
+        for (int i = 0; i < tops.length; i++) {
+            if (bottoms[i] > top && tops[i] < bottom) {
+                near[count++] = i;
+            }
+        }
+
+        return Arrays.copyOf(near, count);
+    }
+
+    /**
+     * Lays the spreadsheet out again when it has been scrolled past the cells
+     * that are shown.
+     *
+     * @param e The change to the viewport.
+     */
+    @Override
+    public void stateChanged(final ChangeEvent e) {
+        Container pane = watched.getParent();
+
+        // Stop following the viewport once the spreadsheet uses another
+        // layout.
+        if (pane == null || pane.getLayout() != this) {
+            watched.removeChangeListener(this);
+            watched = null;
+            return;
+        }
+
+        Rectangle view = watched.getViewRect();
+        if (view.y < shownTop || (view.y + view.height) > shownBottom) {
+            pane.invalidate();
+            pane.validate();
+        }
+    }
 }
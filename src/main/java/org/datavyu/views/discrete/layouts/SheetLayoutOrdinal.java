@@ -15,6 +15,7 @@
 package org.datavyu.views.discrete.layouts;
 
 import org.datavyu.Datavyu;
+import org.datavyu.views.discrete.ColumnDataPanel;
 import org.datavyu.views.discrete.SpreadsheetCell;
 import org.datavyu.views.discrete.SpreadsheetColumn;
 import org.datavyu.views.discrete.SpreadsheetView;
@@ -78,56 +79,25 @@ public class SheetLayoutOrdinal extends SheetLayout {
         SpreadsheetView mainView = (SpreadsheetView) pane.getViewport()
                 .getView();
 
+        Rectangle view = watchView(pane);
+
         List<ColInfo> columnHeight = new ArrayList<ColInfo>();
 
         int maxHeight = 0;
-        int selectedHeight = -1;
         int colID = 0;
-        SpreadsheetCell selectedCell = null;
         for (SpreadsheetColumn col : mainView.getColumns()) {
 
             // Only layout 'visible' columns.
             if (col.isVisible()) {
-                int ord = 1;
-                int currentHeight = 0;
-                SpreadsheetCell prevCell = null;
-
-                for (SpreadsheetCell cell : col.getCellsTemporally()) {
-                    if (cell == null) {
-                        // We may have a race condition where a cell got deleted but
-                        // we don't know about it yet
-                        continue;
-                    }
-                    Dimension d = cell.getPreferredSize();
-                    if (cell.getCell().isSelected()) {
-                        selectedHeight = currentHeight;
-                        selectedCell = cell;
-                    }
-
-                    cell.setBounds(0,
-                            currentHeight,
-                            (col.getWidth() - marginSize),
-                            (int) d.getHeight());
-                    cell.setOrdinal(ord);
-                    cell.repaint();
-                    ord++;
-                    currentHeight += d.getHeight();
-
-                    // Determine if this cell overlaps with the previous cell.
-                    if (prevCell != null) {
-                        if (prevCell.getOffsetTicks() > cell.getOnsetTicks()) {
-                            prevCell.setOverlapBorder(true);
-                        } else {
-                            prevCell.setOverlapBorder(false);
-                        }
-                    }
-
-                    prevCell = cell;
-                }
+                ColumnDataPanel dataPanel = col.getDataPanel();
+                Rectangle panelView = new Rectangle(view);
+                panelView.translate(0, -dataPanel.getY());
+                int currentHeight = dataPanel.layoutOrdinal(panelView,
+                        col.getWidth() - marginSize);
 
                 // Put the new cell button at the end of the column.
-                Dimension d = col.getDataPanel().getNewCellButton().getPreferredSize();
-                col.getDataPanel().getNewCellButton().setBounds(0,
+                Dimension d = dataPanel.getNewCellButton().getPreferredSize();
+                dataPanel.getNewCellButton().setBounds(0,
                         currentHeight,
                         parent.getWidth(),
                         (int) d.getHeight());
@@ -151,11 +121,6 @@ public class SheetLayoutOrdinal extends SheetLayout {
                     col.getWidth(),
                     (maxHeight - colHeight));
         }
-
-        if (selectedCell != null) {
-
-
-        }
     }
 
     public void reorientView(SpreadsheetCell cell) {
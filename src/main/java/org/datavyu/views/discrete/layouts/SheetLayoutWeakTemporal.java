@@ -14,13 +14,16 @@
  */
 package org.datavyu.views.discrete.layouts;
 
+import org.datavyu.models.db.Cell;
+import org.datavyu.views.discrete.ColumnDataPanel;
 import org.datavyu.views.discrete.SpreadsheetCell;
 import org.datavyu.views.discrete.SpreadsheetColumn;
 import org.datavyu.views.discrete.SpreadsheetView;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -28,39 +31,18 @@ import java.util.List;
  * original MacSHAPA.
  */
 public class SheetLayoutWeakTemporal extends SheetLayout {
-    // The of the right hand margin.
+    // The size the of the gap to use between cells that do not abut.
+    private static final int GAP_SIZE = 10;
 
+    // The of the right hand margin.
     int marginSize;
-    // The total number of cells that we have laid.
-    int laidCells;
     // The maximum height of the layout in pixels.
     int maxHeight;
-    // The temporal ratio/scale we are using to display cells.
-    double ratio;
-    // Hash of placements by onset
-    HashMap<Long, List<SpreadsheetCell>> onsetToLoc;
-    // Hash of placements by offset
-    HashMap<Long, List<SpreadsheetCell>> offsetToLoc;
     private JScrollPane pane;
 
-
-    /**
-     * Information on each element in the row we are currently processing.
-     */
-    private class CellInfo {
-
-        public CellInfo(SpreadsheetCell nCell, long onset, long offset) {
-            cell = nCell;
-            onset = cell.getOnsetTicks();
-            offset = cell.getOffsetTicks();
-        }
-
-        // The cell that this row information is about.
-        public SpreadsheetCell cell;
-        public long onset;
-        // The column that the above cell belongs too.
-        public long offset;
-    }
+    // The time points of the last layout, kept so that they only need
+    // placing again from the first one a change of height moves.
+    private Timeline timeline;
 
     /**
      * SheetLayoutOrdinal constructor.
@@ -69,7 +51,6 @@ public class SheetLayoutWeakTemporal extends SheetLayout {
      */
     public SheetLayoutWeakTemporal(final int margin) {
         marginSize = margin;
-        laidCells = 0;
     }
 
     @Override
@@ -77,280 +58,61 @@ public class SheetLayoutWeakTemporal extends SheetLayout {
         super.layoutContainer(parent);
         pane = (JScrollPane) parent;
 
-
-        long overallTime = System.currentTimeMillis();
-
-        onsetToLoc = new HashMap();
-        offsetToLoc = new HashMap();
-
         // This layout must be applied to a Spreadsheet panel.
         SpreadsheetView mainView = (SpreadsheetView) pane.getViewport()
                 .getView();
+        Rectangle view = watchView(pane);
 
-        // See if we need to redraw this spreadsheet
-//        if(!Datavyu.getProjectController().getDB().isChanged() && !Datavyu.getView().getRedraw()) {
-//            return;
-//        }
-//        Datavyu.getProjectController().getDB().markAsUnchanged();
-//        Datavyu.getView().setRedraw(false);
-
-        laidCells = 0;
-//        maxHeight = 0;
-        maxHeight = parent.getHeight();
-
-        // Determine the ratio/scale to use with temporal alignment, we pick the
-        // the largest column size in pixels and temporal length in ticks to
-        // use as an aggressive ratio/scale to fit as many cells on the screen
-        // as possible.
-        long ratioHeight = 0;   // The height required to fit all the visible cells on the spreadsheet without any spacing.
-        long ratioTicks = 0;    // The maximum offset used in the entire visible spreadsheet.
-        int totalCells = 0;     // The total number of visible cells we are laying out on the spreadsheet.
-        ratio = 1.0;            // The ratio / scale that we are using to position the cells temporally.
-
-
-        List<SpreadsheetColumn> visible_columns = getVisibleColumns(mainView);
-
-        for (SpreadsheetColumn c : visible_columns) {
-            // Take this opportunity to initalise the working data we need for each of the columns.
-            c.setWorkingHeight(0);
-            c.setWorkingOrd(0);
-            c.setWorkingOnsetPadding(0);
-            c.setWorkingOffsetPadding(0);
-
-            // Determine the total height in pixels of the cells in this column.
-            List<SpreadsheetCell> colCells = c.getCellsTemporally();
-            int colHeight = 0;
-            for (SpreadsheetCell cell : colCells) {
-                if (cell != null) {
-                    colHeight += cell.getPreferredSize().height;
-                }
-            }
-
-            // Determine the maximum column height in pixels.
-            ratioHeight = Math.max(ratioHeight, colHeight);
-
-            // Determine the temporal length of the column in ticks.
-            if (colCells.size() > 0) {
-                SpreadsheetCell lastCell = colCells.get((colCells.size() - 1));
-
-                // If the offset is zero or smaller, we need to consider the
-                // onset of the cell instead for determining the maximum offset
-                // required to display the entire spreadsheet.
-                if (lastCell != null && lastCell.getOffsetTicks() <= 0) {
-                    ratioTicks = Math.max(ratioTicks, lastCell.getOnsetTicks());
-                } else if (lastCell != null) {
-                    ratioTicks = Math.max(ratioTicks, lastCell.getOffsetTicks());
-                }
-            }
-            totalCells = totalCells + colCells.size();
-        }
-        // Determine the final temporal ratio/scale we are going to use for the spreadsheet.
-        if (ratioTicks > 0) {
-            ratio = ratioHeight / (double) ratioTicks;
-        }
-
-        // Untill we have laid all the cells, we position each of them
-        // temporarily. We do this row by row with the cells sorted temporarily,
-        // untill we have no cells left to lay.
-        int pad = 0;    // The cumulative padding we need to apply to cell positioning - this is the total
-        // amount of extra vertical space we have had to pad out, to make entire cells visible.
-
-        // This array is guaranteed initialized to 0 by the java lang spec
-        // Stores the current cell position for each col
-        int[] position_index = new int[visible_columns.size()];
-        ArrayList<Integer> column_bottoms = new ArrayList<Integer>();
-        ArrayList<Long> current_offsets = new ArrayList<Long>();
-        SpreadsheetCell[] rowCells = new SpreadsheetCell[visible_columns.size()];
-        SpreadsheetCell[] prevRowCells = new SpreadsheetCell[visible_columns.size()];
-        SpreadsheetCell prevLaidCell = null;
-        SpreadsheetColumn prevLaidCol = null;
-        int prevColIndex = -1;
-
-        int prev_t = 0;
-        int prev_b = 0;
-
-        // Cell cache so we only have to get from the DB once.
-        // Greatly speeds up the algorithm.
-        // Redrawing would be even faster if this was only done on DB update
+        List<SpreadsheetColumn> visibleColumns = getVisibleColumns(mainView);
+        Cell[][] columns = new Cell[visibleColumns.size()][];
         int width = 0;
-        HashMap<Integer, List<SpreadsheetCell>> cellCache = new HashMap<Integer, List<SpreadsheetCell>>();
-        for (int i = 0; i < visible_columns.size(); i++) {
-            cellCache.put(i, visible_columns.get(i).getCellsTemporally());
-            width = visible_columns.get(i).getWidth();
+        for (int c = 0; c < columns.length; c++) {
+            SpreadsheetColumn col = visibleColumns.get(c);
+            col.setWorkingHeight(0);
+            col.setWorkingOrd(0);
+            col.setWorkingOnsetPadding(0);
+            col.setWorkingOffsetPadding(0);
+
+            columns[c] = col.getDataPanel().getOrderedCells();
+            width = col.getWidth();
         }
         width--;
 
-//        long starttime = System.currentTimeMillis();
-
-        // The size the of the gap to use between cells and as overlap on
-        // overlapping cells in different columns
-        int gapSize = 10;
-        int minCellHeight = 45;
-
-
-        int numCells = 0;
-        Set<Long> times = new TreeSet<Long>();
-        HashMap<Long, List<SpreadsheetCell>> cellsByOnset = new HashMap<Long, List<SpreadsheetCell>>();
-        HashMap<Long, List<SpreadsheetCell>> cellsByOffset = new HashMap<Long, List<SpreadsheetCell>>();
-
-        SpreadsheetCell selectedCell = null;
-
-        for (int key : cellCache.keySet()) {
-            for (SpreadsheetCell cell : cellCache.get(key)) {
-                long onset = cell.getOnsetTicks();
-                long offset = cell.getOffsetTicks();
-                numCells += 1;
-                if (!cellsByOnset.containsKey(onset)) {
-                    cellsByOnset.put(onset, new LinkedList<SpreadsheetCell>());
-                }
-                cellsByOnset.get(onset).add(cell);
-
-                // Adjust the offsets of point and negative cells so we can
-                // place them easier
-                if (offset <= onset) {
-                    offset = onset + 1;
-                }
-
-                if (!cellsByOffset.containsKey(offset)) {
-                    cellsByOffset.put(offset, new LinkedList<SpreadsheetCell>());
-                }
-                cellsByOffset.get(offset).add(cell);
-
-                times.add(onset);
-                times.add(offset);
-
-                cell.setOverlapBorder(false);
-                if (cell.getCell().isSelected()) {
-                    selectedCell = cell;
-                }
-            }
-        }
-
-        Long[] timeArray = times.toArray(new Long[]{});
-
-        // Now go through all the times and try to map them to a position
-        int maxPosition = 0;
-        HashMap<Long, Integer> timeByLoc = new HashMap<Long, Integer>();
-        for (int i = 0; i < times.size(); i++) {
-            Long time = timeArray[i];
-            List<SpreadsheetCell> cellsWithOnset = cellsByOnset.get(time);
-            List<SpreadsheetCell> cellsWithOffset = cellsByOffset.get(time);
-
-            // Get the minimum height we can go down from these cells
-            int minHeight = 0;
-            if (cellsWithOnset != null) {
-                for (SpreadsheetCell cell : cellsWithOnset) {
-                    if (minHeight < cell.getPreferredSize().height) {
-                        minHeight = cell.getPreferredSize().height;
-                    }
-                }
-            }
-
-//            if(cellsWithOffset != null) {
-//                for(SpreadsheetCell cell : cellsWithOffset) {
-//                    if(minHeight < cell.getPreferredSize().height) {
-//                        minHeight = cell.getPreferredSize().height;
-//                    }
-//                }
-//            }
-
-            timeByLoc.put(time, maxPosition);
-            maxPosition += minHeight;
-
-        }
-
-        for (int key : cellCache.keySet()) {
-            for (int i = 0; i < cellCache.get(key).size() - 1; i++) {
-                SpreadsheetCell cell = cellCache.get(key).get(i);
-                SpreadsheetCell nextCell = cellCache.get(key).get(i + 1);
-                long onset = cell.getOnsetTicks();
-                long offset = cell.getOffsetTicks();
-                long nextOnset = nextCell.getOnsetTicks();
-                long nextOffset = nextCell.getOffsetTicks();
-
-                // Non-continuous cells
-                if (nextOnset - offset > 1) {
-                    timeByLoc.put(nextOnset, timeByLoc.get(nextOnset) + gapSize);
-
-                    for (int j = 0; j < timeArray.length; j++) {
-                        if (timeArray[j] > nextOnset) {
-                            timeByLoc.put(timeArray[j], timeByLoc.get(timeArray[j]) + gapSize);
-                        }
-                    }
-                }
-
-                if (onset == nextOnset) {
-                    for (int j = 0; j < timeArray.length; j++) {
-                        if (timeArray[j] > nextOnset) {
-                            timeByLoc.put(timeArray[j], timeByLoc.get(timeArray[j]) + cell.getPreferredSize().height);
-                        }
-                    }
-                }
-
-            }
+        if (timeline == null || !timeline.matches(columns)) {
+            timeline = new Timeline(columns);
         }
 
-        // Set all of the cell positions now that we have figured them out
-        for (Long time : times) {
-            List<SpreadsheetCell> cellsWithOnset = cellsByOnset.get(time);
-            List<SpreadsheetCell> cellsWithOffset = cellsByOffset.get(time);
-
-
-            if (cellsWithOnset != null) {
-                for (SpreadsheetCell cell : cellsWithOnset) {
-//                    if(!cell.isBeingProcessed()) {
-                    cell.setBounds(0, timeByLoc.get(time), width, cell.getPreferredSize().height);
-//                    }
-                }
-            }
-
-            if (cellsWithOffset != null) {
-                for (SpreadsheetCell cell : cellsWithOffset) {
-//                    if(!cell.isBeingProcessed()) {
-                    cell.setBounds(0, cell.getY(), width, (timeByLoc.get(time) - cell.getY()));
-//                    }
+        // Cells shown for the first time may measure differently to the
+        // estimate they were placed with, so place them again if needed.
+        for (int pass = 0; pass < 2; pass++) {
+            int[][] heights = new int[columns.length][];
+            for (int c = 0; c < columns.length; c++) {
+                ColumnDataPanel dataPanel = visibleColumns.get(c).getDataPanel();
+                heights[c] = new int[columns[c].length];
+                for (int i = 0; i < columns[c].length; i++) {
+                    heights[c][i] = dataPanel.getCellHeight(columns[c][i]);
                 }
             }
-
-            if (maxHeight < timeByLoc.get(time)) {
-                maxHeight = timeByLoc.get(time);
-            }
-        }
-//        System.out.println(maxHeight);
-
-        // Set the working heights for all of the columns
-        List<SpreadsheetColumn> visibleColumns = getVisibleColumns(mainView);
-        for (int key : cellCache.keySet()) {
-            SpreadsheetColumn col = visibleColumns.get(key);
-//            System.out.println(key);
-//            System.out.println(cellCache.get(key).size());
-            if (cellCache.get(key).size() > 0) {
-                SpreadsheetCell cell = cellCache.get(key).get(cellCache.get(key).size() - 1);
-                col.setWorkingHeight(cell.getY() + cell.getHeight());
+            timeline.place(heights);
+            maxHeight = Math.max(parent.getHeight(), timeline.getHeight());
+
+            boolean changed = false;
+            for (int c = 0; c < columns.length; c++) {
+                SpreadsheetColumn col = visibleColumns.get(c);
+                int n = columns[c].length;
+                int[] tops = new int[n];
+                int[] bottoms = new int[n];
+                boolean[] overlaps = new boolean[n];
+                col.setWorkingHeight(timeline.layColumn(c, tops, bottoms, overlaps));
+
+                Rectangle panelView = new Rectangle(view);
+                panelView.translate(0, -col.getDataPanel().getY());
+                changed |= col.getDataPanel().showCells(columns[c], tops,
+                        bottoms, overlaps, panelView, width);
             }
-        }
 
-        // Now go through each of the columns and shorten cells that overlap
-        // with the one ahead of them to guarantee all cells can be seen
-
-        for (int key : cellCache.keySet()) {
-            for (int i = 0; i < cellCache.get(key).size() - 1; i++) {
-                SpreadsheetCell curCell = cellCache.get(key).get(i);
-                SpreadsheetCell nextCell = cellCache.get(key).get(i + 1);
-                SpreadsheetColumn col = visibleColumns.get(key);
-
-                if (curCell.getOffsetTicks() > nextCell.getOnsetTicks()) {
-                    curCell.setBounds(0, curCell.getY(), width, nextCell.getY() - curCell.getY());
-                    curCell.setOverlapBorder(true);
-                }
-
-                if (curCell.getOnsetTicks() == nextCell.getOnsetTicks()) {
-                    curCell.setBounds(0, curCell.getY(), width, curCell.getPreferredSize().height);
-                    nextCell.setBounds(0, curCell.getY() + curCell.getHeight(), width, nextCell.getPreferredSize().height);
-                    if (col.getWorkingHeight() < nextCell.getY() + nextCell.getHeight()) {
-                        col.setWorkingHeight(nextCell.getY() + nextCell.getHeight());
-                    }
-                }
+            if (!changed) {
+                break;
             }
         }
 
@@ -416,4 +178,217 @@ public class SheetLayoutWeakTemporal extends SheetLayout {
 
         return viscolumns;
     }
+
+    /**
+     * The positions of the onsets and offsets of the cells in the visible
+     * columns. The distinct times are sorted once, and each is placed below
+     * the one before it by the height of the tallest cell starting there.
+     * Gaps between cells that do not abut and cells stacked on the same
+     * onset push down every later time, which is kept as a shift on the
+     * first time affected, so that all the positions come from a single
+     * sweep down the times.
+     */
+    static final class Timeline {
+
+        // The cells of each column in temporal order.
+        private final Cell[][] cells;
+
+        // The onset and offset of each cell when the timeline was built.
+        private final long[][] onsets;
+        private final long[][] offsets;
+
+        // The index of the time of the onset and offset of each cell.
+        private final int[][] onsetAt;
+        private final int[][] offsetAt;
+
+        // The distinct times, in order.
+        private final long[] times;
+
+        // The gap added by each time, from cells that do not abut.
+        private final int[] gaps;
+
+        // The amount each time is placed below the one before it.
+        private int[] shifts;
+
+        // The position of each time.
+        private final int[] positions;
+
+        // The height each cell was placed with.
+        private int[][] heights;
+
+        Timeline(final Cell[][] columns) {
+            cells = columns;
+            onsets = new long[columns.length][];
+            offsets = new long[columns.length][];
+            onsetAt = new int[columns.length][];
+            offsetAt = new int[columns.length][];
+
+            int count = 0;
+            for (Cell[] column : columns) {
+                count += column.length;
+            }
+
+            long[] all = new long[2 * count];
+            int next = 0;
+            for (int c = 0; c < columns.length; c++) {
+                int n = columns[c].length;
+                onsets[c] = new long[n];
+                offsets[c] = new long[n];
+                for (int i = 0; i < n; i++) {
+                    onsets[c][i] = columns[c][i].getOnset();
+                    offsets[c][i] = columns[c][i].getOffset();
+                    all[next++] = onsets[c][i];
+                    all[next++] = endOf(c, i);
+                }
+            }
+
+            Arrays.sort(all);
+            int distinct = 0;
+            for (int i = 0; i < all.length; i++) {
+                if (i == 0 || all[i] != all[i - 1]) {
+                    all[distinct++] = all[i];
+                }
+            }
+            times = Arrays.copyOf(all, distinct);
+            gaps = new int[distinct + 1];
+            positions = new int[distinct];
+
+            for (int c = 0; c < columns.length; c++) {
+                int n = columns[c].length;
+                onsetAt[c] = new int[n];
+                offsetAt[c] = new int[n];
+                for (int i = 0; i < n; i++) {
+                    onsetAt[c][i] = Arrays.binarySearch(times, onsets[c][i]);
+                    offsetAt[c][i] = Arrays.binarySearch(times, endOf(c, i));
+
+                    if (i > 0 && (onsets[c][i] - offsets[c][i - 1]) > 1) {
+                        gaps[onsetAt[c][i]] += GAP_SIZE;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return The time a cell ends at, point cells are given a length
+         * of one so that they can be placed like the others.
+         */
+        private long endOf(final int c, final int i) {
+            return offsets[c][i] > onsets[c][i] ? offsets[c][i] : onsets[c][i] + 1;
+        }
+
+        /**
+         * @param columns The cells of each visible column in temporal order.
+         * @return True if the columns hold the same cells at the same times
+         * as when this timeline was built.
+         */
+        boolean matches(final Cell[][] columns) {
+            if (columns.length != cells.length) {
+                return false;
+            }
+
+            for (int c = 0; c < columns.length; c++) {
+                // Columns hand out the same array until their cells move.
+                if (columns[c] == cells[c]) {
+                    continue;
+                }
+                if (columns[c].length != cells[c].length) {
+                    return false;
+                }
+                for (int i = 0; i < columns[c].length; i++) {
+                    Cell cell = columns[c][i];
+                    if (cell != cells[c][i] || cell.getOnset() != onsets[c][i]
+                            || cell.getOffset() != offsets[c][i]) {
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Places the times for the given cell heights. Only the times from
+         * the first one whose shift has changed since the last placing are
+         * moved.
+         *
+         * @param cellHeights The height of each cell of each column.
+         */
+        void place(final int[][] cellHeights) {
+            heights = cellHeights;
+
+            // The tallest cell starting at a time pushes down the next time.
+            int[] next = gaps.clone();
+            int[] tallest = new int[times.length];
+            for (int c = 0; c < cells.length; c++) {
+                for (int i = 0; i < cells[c].length; i++) {
+                    int t = onsetAt[c][i];
+                    tallest[t] = Math.max(tallest[t], heights[c][i]);
+
+                    // Cells sharing an onset are stacked, pushing down every
+                    // later time.
+                    if ((i + 1) < cells[c].length && onsets[c][i] == onsets[c][i + 1]) {
+                        next[t + 1] += heights[c][i];
+                    }
+                }
+            }
+            for (int t = 0; (t + 1) < next.length; t++) {
+                next[t + 1] += tallest[t];
+            }
+
+            int from = 0;
+            if (shifts != null) {
+                while (from < times.length && next[from] == shifts[from]) {
+                    from++;
+                }
+            }
+            shifts = next;
+
+            for (int t = from; t < times.length; t++) {
+                positions[t] = (t == 0 ? 0 : positions[t - 1]) + shifts[t];
+            }
+        }
+
+        /**
+         * @return The position of the last time.
+         */
+        int getHeight() {
+            return positions.length == 0 ? 0 : positions[positions.length - 1];
+        }
+
+        /**
+         * Lays out the cells of a column from the placed times. Cells that
+         * overlap the next one are cut short so that all of them can be
+         * seen, and cells sharing an onset are stacked.
+         *
+         * @param c        The index of the column.
+         * @param tops     Filled with the top of each cell.
+         * @param bottoms  Filled with the bottom of each cell.
+         * @param overlaps Filled with whether each cell overlaps the next.
+         * @return The bottom of the column.
+         */
+        int layColumn(final int c, final int[] tops, final int[] bottoms, final boolean[] overlaps) {
+            int n = cells[c].length;
+            for (int i = 0; i < n; i++) {
+                tops[i] = positions[onsetAt[c][i]];
+                bottoms[i] = positions[offsetAt[c][i]];
+            }
+
+            int bottom = n > 0 ? bottoms[n - 1] : 0;
+            for (int i = 0; (i + 1) < n; i++) {
+                if (offsets[c][i] > onsets[c][i + 1]) {
+                    bottoms[i] = tops[i + 1];
+                    overlaps[i] = true;
+                }
+
+                if (onsets[c][i] == onsets[c][i + 1]) {
+                    bottoms[i] = tops[i] + heights[c][i];
+                    tops[i + 1] = bottoms[i];
+                    bottoms[i + 1] = tops[i + 1] + heights[c][i + 1];
+                    bottom = Math.max(bottom, bottoms[i + 1]);
+                }
+            }
+
+            return bottom;
+        }
+    }
 }
@@ -1,10 +1,17 @@
 
 #-------------------------------------------------------------------
-# Datavyu API v 1.07
+# Datavyu API v 1.08
 
 # Please read the function headers for information on how to use them.
 
 # CHANGE LOG
+# 1.08 10/18/26 - getVariable and setVariable move whole columns to and from Java
+#                 in a few calls, and createMutuallyExclusive and smoothColumn run
+#                 in Java. Ordinals now follow the temporal order of the cells.
+#                 Added mergeColumns.
+#                 checkReliability pairs cells through a hash join rather than
+#                 comparing every pair of cells. Added unionColumns,
+#                 intersectColumns, overlappingCells and nearestCells.
 # 1.07 3/20/14 - Fixed a situation where argument names in mutex could overlap, causing a failure
 #                 during argument rewrite
 # 1.06 2/4/14 - Updated to work with new DB, added function for deleting cells
@@ -92,8 +99,47 @@ import 'org.datavyu.models.project.Project'
 import 'org.datavyu.controllers.SaveC'
 import 'org.datavyu.controllers.OpenC'
 import 'org.datavyu.controllers.project.ProjectController'
+import 'org.datavyu.controllers.script.ScriptAPI'
+import 'org.datavyu.controllers.script.TemporalJoin'
 
 $debug = false
+
+#-------------------------------------------------------------------
+# Method name: datavyuAPI
+# Function: Returns the Java helpers working on the database in $db.
+# Returns:
+# => A ScriptAPI for $db.
+# Usage:
+#       c = datavyuAPI().cellsWhere("trial", "unit", "2")
+#       while c.next
+#          puts c.getOrdinal
+#       end
+#-------------------------------------------------------------------
+def datavyuAPI()
+   if $api.nil? or $api.getDatastore != $db
+      $api = ScriptAPI.new($db)
+   end
+   return $api
+end
+
+#-------------------------------------------------------------------
+# NOTE: This function is not for general use.
+#
+# Method name: timeToMillis
+# Function: Converts a time given to a cell, in milliseconds or as an
+#           HH:MM:SS:mmm timestamp, to milliseconds.
+#-------------------------------------------------------------------
+def timeToMillis(t)
+   if t.class == "".class and t.include?(":")
+      h, m, s, ms = t.split(":").map { |f| f.to_i }
+      return ((h * 60 + m) * 60 + s) * 1000 + ms
+   end
+   if t.kind_of?(Integer)
+      return t
+   end
+   return t.to_f.round
+end
+
 def print_debug(*s)
     if $debug == true
         p s
@@ -115,29 +161,42 @@ class RCell
    # Arguments:
    # => argvals (required): Values of the arguments being created
    # => arglist (required): Names of the arguments being created
+   # => accessors (optional): The module from RCell.accessors(arglist), shared
+   #    by all the cells of a variable.
    #-------------------------------------------------------------------
 
-   def set_args(argvals, arglist)
+   def set_args(argvals, arglist, accessors=nil)
       @arglist = arglist
       @argvals = argvals
-      i = 0
       if argvals == ""
-         @argvals = Array.new
-         arglist.each do |arg|
-            @argvals << nil
-         end
+         @argvals = Array.new(arglist.length) { "" }
       end
-      arglist.each do |arg|
-
+      for i in 0...arglist.length
          if @argvals[i].nil?
             @argvals[i] = ""
          end
-         #Tricky magic part where we are defining var names on the fly.  Escaped quotes turn everything to strings.
-         #Handle this later by allowing numbers to be numbers but keeping strings.
+      end
 
-         instance_eval "def #{arg}; return argvals[#{i}]; end"
-         i += 1
+      # Defines the methods named after the arguments.
+      if accessors.nil?
+         accessors = RCell.accessors(arglist)
       end
+      extend(accessors)
+   end
+
+   #-------------------------------------------------------------------
+   # NOTE: This function is not for general use.
+   #
+   # Method name: accessors
+   # Function: Creates a module with a method named after each argument that
+   #           returns its value, so cells do not each have to define them.
+   #-------------------------------------------------------------------
+   def RCell.accessors(arglist)
+      mod = Module.new
+      arglist.each_with_index do |arg, i|
+         mod.send(:define_method, arg) { argvals[i] }
+      end
+      return mod
    end
 
    def change_code_name(i, new_name)
@@ -294,14 +353,15 @@ class RVariable
    # Method name: set_cells
    # Function: Creates the cell object in the Variable object.
    # Arguments:
-   # => newcells (required): Array of cells coming from the database via getVariable
+   # => data (required): The ColumnData of the variable from the database via
+   #    getVariable, nil for a new variable.
    # => arglist (required): Array of the names of the arguments from the database
    #-------------------------------------------------------------------
    def convert_argname(arg)
     return arg.gsub(/(\W)+/,"").downcase
    end
 
-   def set_cells(newcells, arglist)
+   def set_cells(data, arglist)
      print_debug "Setting cells"
       @cells = Array.new
       @arglist = Array.new
@@ -313,25 +373,22 @@ class RVariable
          end
          @arglist << arg.gsub(/(\W)+/,"").downcase
       end
-      if !newcells.nil?
-         ord = 0
-         newcells.each do |cell|
-            ord += 1
+      if !data.nil?
+         # Take the whole column at once, rather than a cell at a time.
+         db_cells = data.getCells.to_a
+         onsets = data.getOnsets.to_a
+         offsets = data.getOffsets.to_a
+         values = data.getValues.to_a
+         n = @arglist.length
+         accessors = RCell.accessors(@arglist)
+         for i in 0...db_cells.length
             c = RCell.new
-            c.onset = cell.getOnset
-            c.offset = cell.getOffset
-            c.db_cell = cell
+            c.onset = onsets[i]
+            c.offset = offsets[i]
+            c.db_cell = db_cells[i]
             c.parent = @name
-            vals = Array.new
-            if cell.getVariable.getRootNode.type == Argument::Type::MATRIX
-                for val in cell.getValue().getArguments
-                    vals << val.toString
-                end
-            else
-                vals << cell.getValue().toString
-            end
-            c.set_args(vals,@arglist)
-            c.ordinal = ord
+            c.set_args(values[i * n, n], @arglist, accessors)
+            c.ordinal = i + 1
             @cells << c
          end
       end
@@ -459,31 +516,16 @@ def getVariable(name)
     printNoColumnFoundWarning(name.to_s)
    end
 
-   # Convert each cell into an array and store in an array of arrays
-   cells = var.getCells()
-   arg_names = Array.new
-
-   # Now get the arguments for each of the cells
-
-   # For matrix vars only
-   type = var.getRootNode.type
-   if type == Argument::Type::MATRIX
-       # Matrix var
-       arg_names = Array.new
-       for arg in var.getRootNode.childArguments
-           arg_names << arg.name
-       end
-   else
-       # Nominal or text
-       arg_names = ["var"]
-   end
+   # Read all the cells, in temporal order, and the names of the arguments
+   # ("var" for nominal or text variables)
+   data = datavyuAPI().read(name)
+   arg_names = data.getArgumentNames.to_a
 
    v = RVariable.new
    v.name = name
    v.old_args = arg_names
-   v.type = type
-   v.set_cells(cells, arg_names)
-   v.sort_cells
+   v.type = var.getRootNode.type
+   v.set_cells(data, arg_names)
    v.dirty = false
    v.db_var = var
 
@@ -607,49 +649,45 @@ def setVariable(*args)
 
    end
 
-   # Create new cells and fill them in for each cell in the variable
+   # Gather the cells of the variable and write them back in one batch, so
+   # the spreadsheet is refreshed once, not per cell. Cells without a cell in
+   # this variable in the database get a new one.
+   db_cells = Array.new
+   onsets = Array.new
+   offsets = Array.new
+   values = Array.new
    for cell in var.cells
-      # Copy the information from the ruby variable to the new cell
-
-      if cell.db_cell == nil or cell.parent != name
-          cell.db_cell = var.db_var.createCell()
-      end
-
-      value = cell.db_cell.getValue()
-
-      if cell.onset != cell.db_cell.getOnset
-          cell.db_cell.setOnset(cell.onset)
-      end
-
-      if cell.offset != cell.db_cell.getOffset
-          cell.db_cell.setOffset(cell.offset)
+      if cell.parent != name
+         db_cells << nil
+      else
+         db_cells << cell.db_cell
       end
-
-      # Matrix cell
-      if cell.db_cell.getVariable.getRootNode.type == Argument::Type::MATRIX
-          values = cell.db_cell.getValue().getArguments()
-          for arg in var.old_args
-              # Find the arg in the db's arglist that we are looking for
-              for i in 0...values.size
-                  dbarg = values[i]
-                  dbarg_name = dbarg.getArgument.name
-                  if dbarg_name == arg and not ["", nil].include?(cell.get_arg(var.convert_argname(arg)))
-                      dbarg.set(cell.get_arg(var.convert_argname(arg)))
-                      break
-                  end
-              end
-          end
-
-      # Non-matrix cell
+      onsets << timeToMillis(cell.onset)
+      offsets << timeToMillis(cell.offset)
+
+      # Blank values leave the values in the database as they are.
+      if var.db_var.getRootNode.type == Argument::Type::MATRIX
+         for arg in var.old_args
+            v = cell.get_arg(var.convert_argname(arg))
+            values << (v.nil? ? "" : v.to_s)
+         end
       else
-          value = cell.db_cell.getValue()
-          value.set(cell.get_arg("var"))
+         v = cell.get_arg("var")
+         values << (v.nil? ? "" : v.to_s)
       end
-
-      # Save the changes back to the DB
-
    end
 
+   if var.db_var.getRootNode.type == Argument::Type::MATRIX
+      arg_names = var.old_args
+   else
+      arg_names = ["var"]
+   end
+   db_cells = datavyuAPI().update(var.db_var, arg_names.to_java(:string),
+                                  db_cells.to_java(Cell), onsets.to_java(:long),
+                                  offsets.to_java(:long), values.to_java(:string)).to_a
+   var.cells.each_with_index do |cell, i|
+      cell.db_cell = db_cells[i]
+   end
 
    #arg_names = var.old_args
    #cells = Array.new
@@ -1062,6 +1100,23 @@ def create_mutually_exclusive(name, var1name, var2name, var1_argprefix=nil, var2
     createMutuallyExclusive(name, var1name, var2name, var1_argprefix, var2_argprefix)
 end
 def createMutuallyExclusive(name, var1name, var2name, var1_argprefix=nil, var2_argprefix=nil)
+    # Columns in the database are mixed in Java, in a single sweep over their
+    # cells. Columns changed in Ruby but not written back are mixed below.
+    # Either way the new column is only written to the database by
+    # setVariable.
+    if var1name.class == "".class and var2name.class == "".class
+        data = datavyuAPI().mutex(name, var1name, var2name, var1_argprefix, var2_argprefix)
+        arg_names = data.getArgumentNames.to_a
+
+        mutex = RVariable.new
+        mutex.name = name
+        mutex.dirty = true
+        mutex.old_args = arg_names
+        mutex.set_cells(data, arg_names)
+        puts "Created a column with ", mutex.cells.length, " cells."
+        return mutex
+    end
+
     if var1name.class == "".class
         var1 = getVariable(var1name)
         else
@@ -1193,63 +1248,35 @@ def createMutuallyExclusive(name, var1name, var2name, var1_argprefix=nil, var2_a
     # p time_changes
 
 
-    mutex_cell = nil
-    mutex_cell_parent = nil
-
-    # TODO: make these handle empty cols
-    v1cell = var1.cells[0]
-    prev_v1cell = nil
-    prev_v2cell = nil
-    v2cell = var2.cells[0]
-    v1idx = 0
-    v2idx = 0
-
-    #
-    for i in 0..time_changes.length-2
-      t0 = time_changes[i]
-      t1 = time_changes[i+1]
-
-      # Find the cells that are active during these times
-      for j in v1idx..var1.cells.length-1
-        c = var1.cells[j]
-        v1cell = nil
-        # p "---", "T1", t0, t1, c.onset, c.offset, "---"
-        if c.onset <= t0 and c.offset >= t1 or c.onset == t0 and c.offset >= t1
-          v1cell = c
-          v1idx = j
-          # p t0, t1, "Found V1"
-          break
-        # elsif c.onset > t1
-        #   break
-        else
-          v1cell = nil
-        end
-      end
-
-      for j in v2idx..var2.cells.length-1
-        c = var2.cells[j]
-        v2cell = nil
-        # p "---", "T2", t0, t1, c.onset, c.offset, "---"
-        if c.onset <= t0 and c.offset >= t1 or c.onset == t0 and c.offset >= t1
-          v2cell = c
-          v2idx = j
-          # p t0, t1, "Found V2"
-          break
-        # elsif c.onset > t1
-        #   break
-        else
-          v2cell = nil
-        end
-      end
-
-      if v1cell != nil or v2cell != nil 
+    # Find the cells of each column covering each stretch between two
+    # consecutive time changes, in one sweep over each column.
+    times = time_changes.map { |t| timeToMillis(t) }
+    starts = times[0, times.length - 1]
+    ends = times[1, times.length - 1]
+    if times.empty?
+      starts = Array.new
+      ends = Array.new
+    end
+    starts = starts.to_java(:long)
+    ends = ends.to_java(:long)
+    cover1 = TemporalJoin.covering(var1.cells.map { |c| timeToMillis(c.onset) }.to_java(:long),
+                                   var1.cells.map { |c| timeToMillis(c.offset) }.to_java(:long),
+                                   starts, ends).to_a
+    cover2 = TemporalJoin.covering(var2.cells.map { |c| timeToMillis(c.onset) }.to_java(:long),
+                                   var2.cells.map { |c| timeToMillis(c.offset) }.to_java(:long),
+                                   starts, ends).to_a
+
+    for i in 0...cover1.length
+      v1cell = cover1[i] < 0 ? nil : var1.cells[cover1[i]]
+      v2cell = cover2[i] < 0 ? nil : var2.cells[cover2[i]]
+
+      if v1cell != nil or v2cell != nil
         mutex_cell = mutex.create_cell
 
-        mutex_cell.change_arg("onset", t0)
-        mutex_cell.change_arg("offset", t1)
+        mutex_cell.change_arg("onset", time_changes[i])
+        mutex_cell.change_arg("offset", time_changes[i+1])
         fillMutexCell(v1cell, v2cell, mutex_cell, mutex, var1_argprefix, var2_argprefix)
       end
-
     end
 
 
@@ -1776,8 +1803,8 @@ def checkReliability(main_col, rel_col, match_arg, time_tolerance, *dump_file)
 
    # Define interal function for printing errors
    def print_err(m_cell, r_cell, arg, dump_file, main_col, rel_col)
-      main_val = eval "m_cell.#{arg}"
-      rel_val = eval "r_cell.#{arg}"
+      main_val = m_cell.send(arg)
+      rel_val = r_cell.send(arg)
       err_str = "ERROR in " + main_col.name + " at Ordinal " + m_cell.ordinal.to_s + ", rel ordinal " + r_cell.ordinal.to_s + " in argument " + arg + ": " + main_val.to_s + ", " + rel_val.to_s + "\n"
       if dump_file != nil
          dump_file.write(err_str)
@@ -1793,30 +1820,32 @@ def checkReliability(main_col, rel_col, match_arg, time_tolerance, *dump_file)
    errors["onset"] = 0
    errors["offset"] = 0
 
-   # Now check the cells
-   for mc in main_col.cells
-      main_bind = eval "mc.#{match_arg}"
-      for rc in rel_col.cells
-         rel_bind = eval "rc.#{match_arg}"
-         if main_bind == rel_bind
-            # Then check these cells match, check them for errors
-           if (mc.onset - rc.onset).abs >= time_tolerance
-              print_err(mc, rc, "onset", dump_file, main_col, rel_col)
-              errors["onset"] = errors["onset"] + 1
-           end
-           if (mc.offset - rc.offset).abs >= time_tolerance
-              print_err(mc, rc, "offset", dump_file, main_col, rel_col)
-              errors["offset"] = errors["offset"] + 1
-           end
+   # Pair the cells with the same value of match_arg in one pass over each
+   # column, then check each pair
+   main_binds = main_col.cells.map { |c| c.send(match_arg).to_s }
+   rel_binds = rel_col.cells.map { |c| c.send(match_arg).to_s }
+   pairs = TemporalJoin.sameValue(main_binds.to_java(:string), rel_binds.to_java(:string))
+   main_idx = pairs.getLeft.to_a
+   rel_idx = pairs.getRight.to_a
+   for p in 0...main_idx.length
+      mc = main_col.cells[main_idx[p]]
+      rc = rel_col.cells[rel_idx[p]]
+
+      if (mc.onset - rc.onset).abs >= time_tolerance
+         print_err(mc, rc, "onset", dump_file, main_col, rel_col)
+         errors["onset"] = errors["onset"] + 1
+      end
+      if (mc.offset - rc.offset).abs >= time_tolerance
+         print_err(mc, rc, "offset", dump_file, main_col, rel_col)
+         errors["offset"] = errors["offset"] + 1
+      end
 
-            for arg in main_col.arglist
-                 main_val = eval "mc.#{arg}"
-                 rel_val = eval "rc.#{arg}"
-                 if main_val != rel_val
-                    print_err(mc, rc, arg, dump_file, main_col, rel_col)
-                    errors[arg] = errors[arg] + 1
-                 end
-            end
+      for arg in main_col.arglist
+         main_val = mc.send(arg)
+         rel_val = rc.send(arg)
+         if main_val != rel_val
+            print_err(mc, rc, arg, dump_file, main_col, rel_col)
+            errors[arg] = errors[arg] + 1
          end
       end
    end
@@ -1833,6 +1862,43 @@ def checkReliability(main_col, rel_col, match_arg, time_tolerance, *dump_file)
    return errors, rel_col.cells.length.to_f
 end
 
+# Returns true if every value held by the database variable db_var for the
+# arguments in arg_code is one of the valid codes. Argument names are
+# matched as RVariable names them.
+def codesAreValid(db_var, arg_code)
+   args = Hash.new
+   root = db_var.getRootNode
+   if root.type == Argument::Type::MATRIX
+      for a in root.childArguments
+         name = a.name
+         if ["0","1","2","3","4","5","6","7","8","9"].include?(name[0].chr)
+            name = "_" + name
+         end
+         args[name.gsub(/(\W)+/,"").downcase] = a
+      end
+   else
+      args["var"] = root
+   end
+
+   for arg, code in arg_code
+      a = args[arg]
+      if a.nil?
+         return false
+      end
+      for val in a.getDistinctValues
+         if not code.include?(val)
+            return false
+         end
+      end
+      # Empty values read as the argument name in angle brackets.
+      if a.getValueCount("") > 0 and not code.include?("<" + a.name + ">")
+         return false
+      end
+   end
+
+   return true
+end
+
 #-------------------------------------------------------------------
 # Method name: check_valid_codes
 # Function: Do a quick, in Datavyu, check of valid codes.
@@ -1851,9 +1917,11 @@ end
 def check_valid_codes(var, dump_file, *arg_code_pairs)
     checkValidCodes(var, dump_file, *arg_code_pairs)
 end
+
 def checkValidCodes(var, dump_file, *arg_code_pairs)
+   db_var = nil
    if var.class == "".class
-      var = getVariable(var)
+      db_var = $db.getVariable(var)
    end
 
    if dump_file != ""
@@ -1880,6 +1948,17 @@ def checkValidCodes(var, dump_file, *arg_code_pairs)
       end
    end
 
+   # The values held by each argument are known without looking at the
+   # cells, only scan them when there are errors to report.
+   if db_var != nil and codesAreValid(db_var, arg_code)
+      print_debug "No errors found."
+      return
+   end
+
+   if var.class == "".class
+      var = getVariable(var)
+   end
+
    errors = false
    for cell in var.cells
       for arg, code in arg_code
@@ -1938,16 +2017,104 @@ def printCell(cell, file)
 end
 
 def smoothColumn(colname, tol=33)
-    col = getVariable(colname)
-    for i in 0..col.cells.length-2
-        curcell = col.cells[i]
-        nextcell = col.cells[i+1]
+    datavyuAPI().smooth(colname, tol)
+end
 
-        if nextcell.onset - curcell.offset < tol
-            nextcell.change_arg("onset", curcell.offset)
-        end
+#-------------------------------------------------------------------
+# Method name: mergeColumns
+# Function: Creates a new column holding a copy of every cell of a number of
+#           other columns. The new column has the codes of all of them, codes
+#           with the same name being merged. Any column with the same name is
+#           replaced.
+# Arguments:
+# => name (required): The name of the new column.
+# => *colnames (required): The names of the columns to merge.
+# Returns:
+# => The new Ruby representation of the column.
+# Usage:
+#       looks = mergeColumns("looks", "looks_left", "looks_right")
+#-------------------------------------------------------------------
+def mergeColumns(name, *colnames)
+    if colnames[0].class == Array
+        colnames = colnames[0]
+    end
+    datavyuAPI().merge(name, colnames.to_java(:string))
+    return getVariable(name)
+end
+
+#-------------------------------------------------------------------
+# Method name: unionColumns / intersectColumns
+# Function: Creates a new column with a cell for each stretch of time covered
+#           by a cell of either (union) or both (intersection) of two columns.
+#           Any column with the same name is replaced.
+# Arguments:
+# => name (required): The name of the new column.
+# => colname1, colname2 (required): The names of the two columns.
+# Returns:
+# => The new Ruby representation of the column.
+# Usage:
+#       both = intersectColumns("both_looking", "looking_left", "looking_right")
+#-------------------------------------------------------------------
+def unionColumns(name, colname1, colname2)
+    datavyuAPI().union(name, colname1, colname2)
+    return getVariable(name)
+end
+
+def intersectColumns(name, colname1, colname2)
+    datavyuAPI().intersection(name, colname1, colname2)
+    return getVariable(name)
+end
+
+#-------------------------------------------------------------------
+# Method name: overlappingCells
+# Function: Pairs the cells of two columns that overlap in time.
+# Arguments:
+# => col1, col2 (required): The two columns, from getVariable.
+# => tol (optional): The slack allowed, in milliseconds, for cells that do not
+#    quite overlap. Defaults to 0.
+# Returns:
+# => An array of [cell1, cell2] pairs, ordered by the cells of col1.
+# Usage:
+#       for pair in overlappingCells(getVariable("trial"), getVariable("look"))
+#          puts pair[0].ordinal.to_s + " " + pair[1].ordinal.to_s
+#       end
+#-------------------------------------------------------------------
+def overlappingCells(col1, col2, tol=0)
+    pairs = TemporalJoin.overlapping(col1.cells.map { |c| timeToMillis(c.onset) }.to_java(:long),
+                                     col1.cells.map { |c| timeToMillis(c.offset) }.to_java(:long),
+                                     col2.cells.map { |c| timeToMillis(c.onset) }.to_java(:long),
+                                     col2.cells.map { |c| timeToMillis(c.offset) }.to_java(:long),
+                                     tol)
+    return toCellPairs(col1, col2, pairs)
+end
+
+#-------------------------------------------------------------------
+# Method name: nearestCells
+# Function: Pairs each cell of a column with the cell of another column whose
+#           onset is nearest its own, if within a tolerance.
+# Arguments:
+# => col1, col2 (required): The two columns, from getVariable.
+# => tol (required): The largest difference in onset allowed, in milliseconds.
+# Returns:
+# => An array of [cell1, cell2] pairs, ordered by the cells of col1.
+# Usage:
+#       pairs = nearestCells(getVariable("trial"), getVariable("rel.trial"), 500)
+#-------------------------------------------------------------------
+def nearestCells(col1, col2, tol)
+    pairs = TemporalJoin.nearest(col1.cells.map { |c| timeToMillis(c.onset) }.to_java(:long),
+                                 col2.cells.map { |c| timeToMillis(c.onset) }.to_java(:long),
+                                 tol)
+    return toCellPairs(col1, col2, pairs)
+end
+
+def toCellPairs(col1, col2, pairs)
+    left = pairs.getLeft.to_a
+    right = pairs.getRight.to_a
+    result = Array.new
+    for i in 0...left.length
+        result << [col1.cells[left[i]], col2.cells[right[i]]]
     end
-    setVariable(colname, col)
+    return result
 end
 
 def print_codes(cell, file, args)
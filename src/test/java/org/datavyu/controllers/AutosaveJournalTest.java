@@ -0,0 +1,201 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.models.db.Argument;
+import org.datavyu.models.db.Cell;
+import org.datavyu.models.db.Datastore;
+import org.datavyu.models.db.DatastoreFactory;
+import org.datavyu.models.db.MatrixValue;
+import org.datavyu.models.db.Variable;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for journaling the changes made to a datastore between autosave
+ * checkpoints.
+ */
+public class AutosaveJournalTest {
+
+    private File checkpoint;
+
+    private Datastore ds;
+
+    @BeforeClass
+    public void spinUp() {
+        com.usermetrix.jclient.Configuration config = new com.usermetrix.jclient.Configuration(2);
+        UserMetrix.initalise(config);
+        UserMetrix.setCanSendLogs(false);
+    }
+
+    @AfterClass
+    public void spinDown() {
+        UserMetrix.shutdown();
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        ds = DatastoreFactory.newDatastore();
+
+        Variable alpha = ds.createVariable("alpha", Argument.Type.TEXT);
+        Cell c = alpha.createCell();
+        c.setOnset(1000);
+        c.setOffset(2000);
+        c.getValue().set("first");
+        c = alpha.createCell();
+        c.setOnset(3000);
+        c.getValue().set("second");
+
+        Variable beta = ds.createVariable("beta", Argument.Type.NOMINAL);
+        beta.createCell().getValue().set("gone");
+
+        Variable gamma = ds.createVariable("gamma", Argument.Type.MATRIX);
+        gamma.addArgument(Argument.Type.NOMINAL);
+        c = gamma.createCell();
+        c.setOnset(500);
+        ((MatrixValue) c.getValue()).getArguments().get(0).set("x");
+        ((MatrixValue) c.getValue()).getArguments().get(1).set("y");
+
+        ds.createVariable("delta", Argument.Type.TEXT).createCell().getValue().set("renamed");
+
+        // Order the variables as the spreadsheet does.
+        int index = 0;
+        for (String name : Arrays.asList("alpha", "beta", "gamma", "delta")) {
+            ds.getVariable(name).setOrderIndex(index);
+            index++;
+        }
+
+        checkpoint = File.createTempFile("journal", ".csv");
+        checkpoint.deleteOnExit();
+        new SaveDatabaseFileC().saveAsCSV(checkpoint.getPath(), ds);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        AutosaveJournal.getJournalFile(checkpoint).delete();
+        checkpoint.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        AutosaveJournal journal = new AutosaveJournal(checkpoint, ds);
+
+        // Edit, add, remove and rename variables.
+        Variable alpha = ds.getVariable("alpha");
+        alpha.getCellsTemporally().get(1).getValue().set("edited");
+        Cell c = alpha.createCell();
+        c.setOnset(5000);
+        c.setOffset(6000);
+        c.getValue().set("added");
+        ds.removeVariable(ds.getVariable("beta"));
+        ds.getVariable("delta").setName("epsilon");
+        Variable zeta = ds.createVariable("zeta", Argument.Type.NOMINAL);
+        zeta.setOrderIndex(4);
+        zeta.createCell().getValue().set("new");
+        journal.append();
+
+        // Then just reorder them.
+        Variable gamma = ds.getVariable("gamma");
+        int index = gamma.getOrderIndex();
+        gamma.setOrderIndex(alpha.getOrderIndex());
+        alpha.setOrderIndex(index);
+        journal.append();
+        journal.awaitWrites();
+
+        // A record cut short by a crash is ignored.
+        File journalFile = AutosaveJournal.getJournalFile(checkpoint);
+        FileOutputStream fos = new FileOutputStream(journalFile, true);
+        fos.write("put 1000\n#4\nalpha (TEXT,true,)\n00:00:0".getBytes("UTF-8"));
+        fos.close();
+
+        Datastore restored = new OpenDatabaseFileC().openAsCSV(checkpoint);
+        AutosaveJournal.replay(journalFile, restored);
+
+        assertNull(restored.getVariable("beta"));
+        assertNull(restored.getVariable("delta"));
+        assertEquals(namesOf(restored), Arrays.asList("gamma", "alpha", "epsilon", "zeta"));
+        assertEquals(namesOf(restored), namesOf(ds));
+        for (Variable expected : ds.getAllVariables()) {
+            Variable var = restored.getVariable(expected.getName());
+            assertEquals(var.getRootNode().type, expected.getRootNode().type);
+
+            List<Cell> expectedCells = expected.getCellsTemporally();
+            List<Cell> cells = var.getCellsTemporally();
+            assertEquals(cells.size(), expectedCells.size());
+            for (int i = 0; i < cells.size(); i++) {
+                assertEquals(cells.get(i).getOnset(), expectedCells.get(i).getOnset());
+                assertEquals(cells.get(i).getOffset(), expectedCells.get(i).getOffset());
+                assertEquals(cells.get(i).getValueAsString(), expectedCells.get(i).getValueAsString());
+            }
+        }
+    }
+
+    @Test
+    public void testUnchangedAppendWritesNothing() throws Exception {
+        AutosaveJournal journal = new AutosaveJournal(checkpoint, ds);
+        journal.append();
+        journal.awaitWrites();
+
+        assertEquals(AutosaveJournal.getJournalFile(checkpoint).length(), 0);
+    }
+
+    @Test
+    public void testNeedsCheckpoint() throws Exception {
+        AutosaveJournal journal = new AutosaveJournal(checkpoint, ds);
+        assertFalse(journal.needsCheckpoint());
+
+        // Enough appends call for a new checkpoint, however small they are.
+        for (int i = 0; i < 19; i++) {
+            ds.getVariable("alpha").getCellsTemporally().get(0).getValue().set("edit " + i);
+            journal.append();
+        }
+        journal.awaitWrites();
+        assertFalse(journal.needsCheckpoint());
+
+        // Appends with nothing to write do not count.
+        for (int i = 0; i < 5; i++) {
+            journal.append();
+        }
+        assertFalse(journal.needsCheckpoint());
+
+        ds.getVariable("alpha").getCellsTemporally().get(0).getValue().set("edit 19");
+        journal.append();
+        assertTrue(journal.needsCheckpoint());
+    }
+
+    private static List<String> namesOf(final Datastore datastore) {
+        List<String> names = new ArrayList<String>();
+        for (Variable var : datastore.getAllVariables()) {
+            names.add(var.getName());
+        }
+
+        return names;
+    }
+}
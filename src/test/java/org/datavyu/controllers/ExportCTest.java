@@ -0,0 +1,352 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.controllers.export.ArrowExporter;
+import org.datavyu.controllers.export.DelimitedExporter;
+import org.datavyu.controllers.export.TidyTable;
+import org.datavyu.models.db.*;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for exporting Datavyu databases.
+ */
+public class ExportCTest {
+
+    @BeforeClass
+    public void spinUp() {
+        com.usermetrix.jclient.Configuration config = new com.usermetrix.jclient.Configuration(2);
+        UserMetrix.initalise(config);
+        UserMetrix.setCanSendLogs(false);
+    }
+
+    @AfterClass
+    public void spinDown() {
+        UserMetrix.shutdown();
+    }
+
+    private static List<String> exportByFrame(final Datastore ds, final float framerate)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ExportDatabaseFileC().exportByFrame(out, ds, framerate);
+
+        List<String> rows = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new StringReader(out.toString()));
+        for (String row = reader.readLine(); row != null; row = reader.readLine()) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Test
+    public void testExportByFrame() throws UserWarningException, IOException {
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable var = ds.createVariable("a", Argument.Type.MATRIX);
+        var.addArgument(Argument.Type.NOMINAL);
+        Cell c = var.createCell();
+        c.setOnset(0);
+        c.setOffset(100);
+        c.getMatrixValue(0).set("x,y");
+        c = var.createCell();
+        c.setOnset(50);
+        c.setOffset(150);
+        c.getMatrixValue(1).set("z");
+
+        var = ds.createVariable("b", Argument.Type.TEXT);
+        c = var.createCell();
+        c.setOnset(120);
+        c.setOffset(200);
+        c.getValue().set("hi");
+
+        List<String> rows = exportByFrame(ds, 25f);
+        assertEquals(rows.size(), 7);
+        assertEquals(rows.get(0), "framenum,time,a.ordinal,a.onset,a.offset,"
+                + "a.code01,a.code02,b.ordinal,b.onset,b.offset,b.value");
+        assertEquals(rows.get(1), "1,0,1,0,100,\"x,y\",,,,,");
+        assertEquals(rows.get(2), "2,40,1,0,100,\"x,y\",,,,,");
+        // Overlapping cells export the one that started last.
+        assertEquals(rows.get(3), "3,80,2,50,150,,z,,,,");
+        assertEquals(rows.get(4), "4,120,2,50,150,,z,1,120,200,hi");
+        assertEquals(rows.get(5), "5,160,,,,,,1,120,200,hi");
+        assertEquals(rows.get(6), "6,200,,,,,,1,120,200,hi");
+    }
+
+    @Test
+    public void testExportByFrameRate() throws UserWarningException, IOException {
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable var = ds.createVariable("a", Argument.Type.TEXT);
+        Cell c = var.createCell();
+        c.setOnset(1000);
+        c.setOffset(3601000);
+
+        // An hour at 29.97fps, frame times must not drift.
+        List<String> rows = exportByFrame(ds, 29.97f);
+        assertEquals(rows.size(), 107894);
+        assertEquals(rows.get(1), "1,1000,1,1000,3601000,");
+        assertEquals(rows.get(107893), "107893,3601000,1,1000,3601000,");
+    }
+
+    @Test
+    public void testExportTidy() throws UserWarningException, IOException {
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable var = ds.createVariable("a", Argument.Type.MATRIX);
+        var.addArgument(Argument.Type.NOMINAL);
+        Cell c = var.createCell();
+        c.setOnset(10);
+        c.setOffset(20);
+        c.getMatrixValue(1).set("x\ty");
+
+        var = ds.createVariable("b", Argument.Type.TEXT);
+        c = var.createCell();
+        c.getValue().set("hi");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DelimitedExporter.TSV.export(new TidyTable(ds), out);
+        String[] rows = out.toString().split("\r?\n");
+
+        assertEquals(rows.length, 4);
+        assertEquals(rows[0], "variable\tordinal\tonset\toffset\targument\tvalue");
+        assertEquals(rows[1], "a\t1\t10\t20\tcode01\t");
+        assertEquals(rows[2], "a\t1\t10\t20\tcode02\t\"x\ty\"");
+        assertEquals(rows[3], "b\t1\t0\t0\tvalue\thi");
+    }
+
+    @Test
+    public void testExportArrow() throws UserWarningException, IOException {
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable var = ds.createVariable("a", Argument.Type.TEXT);
+        Cell c = var.createCell();
+        c.getValue().set("hi");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ArrowExporter.INSTANCE.export(new TidyTable(ds), out);
+        byte[] file = out.toByteArray();
+
+        // Magic at both ends, preceded at the end by the length of the footer.
+        assertEquals(new String(file, 0, 6, "US-ASCII"), "ARROW1");
+        assertEquals(new String(file, file.length - 6, 6, "US-ASCII"), "ARROW1");
+        int footer = (file[file.length - 10] & 0xFF)
+                | (file[file.length - 9] & 0xFF) << 8
+                | (file[file.length - 8] & 0xFF) << 16
+                | (file[file.length - 7] & 0xFF) << 24;
+        assertTrue(footer > 0 && footer < file.length - 16);
+
+        // The schema message follows the magic, aligned to 8 bytes.
+        assertEquals(file[8], (byte) 0xFF);
+        assertEquals(file[11], (byte) 0xFF);
+    }
+
+    @Test
+    public void testExportArrowContent() throws UserWarningException, IOException {
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable var = ds.createVariable("a", Argument.Type.TEXT);
+        Cell c = var.createCell();
+        c.setOnset(1000);
+        c.setOffset(2000);
+        c.getValue().set("hi");
+        c = var.createCell();
+        c.setOnset(3000);
+        c.setOffset(4000);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ArrowExporter.INSTANCE.export(new TidyTable(ds), out);
+        ByteBuffer file = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+        // The footer sits before its length and the closing magic.
+        int end = file.capacity() - 10;
+        FlatTable footer = FlatTable.root(file, end - file.getInt(end));
+
+        // Schema: the name and type of every column, all nullable.
+        String[] names = {"variable", "ordinal", "onset", "offset", "argument", "value"};
+        boolean[] integer = {false, true, true, true, false, false};
+        List<FlatTable> fields = footer.getTable(1).getTables(1);
+        assertEquals(fields.size(), names.length);
+        for (int f = 0; f < names.length; f++) {
+            FlatTable field = fields.get(f);
+            assertEquals(field.getString(0), names[f]);
+            assertEquals(field.getByte(1), 1);
+            if (integer[f]) {
+                // Int, 64 bit signed.
+                assertEquals(field.getByte(2), 2);
+                assertEquals(field.getTable(3).getInt(0), 64);
+                assertEquals(field.getTable(3).getByte(1), 1);
+            } else {
+                // Utf8
+                assertEquals(field.getByte(2), 5);
+            }
+        }
+
+        // The single record batch, located by the first block of the footer.
+        int blocks = footer.getVector(3);
+        assertEquals(file.getInt(blocks - 4), 1);
+        int message = (int) file.getLong(blocks);
+        int body = message + file.getInt(blocks + 8);
+        FlatTable batch = FlatTable.root(file, message + 8).getTable(2);
+        assertEquals(batch.getLong(0), 2);
+
+        // Each column has a validity buffer, followed by its values for
+        // INTEGER columns and by its offsets and data for TEXT columns.
+        int buffers = batch.getVector(2);
+        int nodes = batch.getVector(1);
+        assertEquals(file.getLong(nodes + 5 * 16 + 8), 1);
+
+        int onsetValues = (int) file.getLong(buffers + 6 * 16);
+        assertEquals(file.getLong(body + onsetValues + 8), 3000);
+
+        assertEquals(textValue(file, body, buffers, 0, 0), "a");
+        assertEquals(textValue(file, body, buffers, 12, 0), "hi");
+        assertTrue(isValid(file, body, buffers, 12, 0));
+        assertFalse(isValid(file, body, buffers, 12, 1));
+    }
+
+    /**
+     * @param file    The Arrow file.
+     * @param body    The position of the body of the record batch.
+     * @param buffers The position of the buffers of the record batch.
+     * @param column  The index of the validity buffer of the column.
+     * @param row     The row.
+     * @return True if the value of the column in the row is not null.
+     */
+    private static boolean isValid(final ByteBuffer file, final int body,
+                                   final int buffers, final int column,
+                                   final int row) {
+        int validity = body + (int) file.getLong(buffers + column * 16);
+        return (file.get(validity + row / 8) & (1 << (row % 8))) != 0;
+    }
+
+    /**
+     * @param file    The Arrow file.
+     * @param body    The position of the body of the record batch.
+     * @param buffers The position of the buffers of the record batch.
+     * @param column  The index of the validity buffer of a TEXT column.
+     * @param row     The row.
+     * @return The value of the column in the row.
+     * @throws IOException If UTF-8 is not supported.
+     */
+    private static String textValue(final ByteBuffer file, final int body,
+                                    final int buffers, final int column,
+                                    final int row) throws IOException {
+        int offsets = body + (int) file.getLong(buffers + (column + 1) * 16);
+        int data = body + (int) file.getLong(buffers + (column + 2) * 16);
+        int start = file.getInt(offsets + row * 4);
+        int length = file.getInt(offsets + row * 4 + 4) - start;
+
+        return new String(file.array(), data + start, length, "UTF-8");
+    }
+
+    /**
+     * A table of a flatbuffer, as written for the Arrow metadata.
+     */
+    private static final class FlatTable {
+
+        private final ByteBuffer buffer;
+
+        private final int position;
+
+        private FlatTable(final ByteBuffer buffer, final int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        /**
+         * @param buffer The buffer holding a flatbuffer.
+         * @param start  The start of the flatbuffer.
+         * @return The root table of the flatbuffer.
+         */
+        static FlatTable root(final ByteBuffer buffer, final int start) {
+            return new FlatTable(buffer, start + buffer.getInt(start));
+        }
+
+        // The position of a field, 0 if it is absent.
+        private int field(final int index) {
+            int vtable = position - buffer.getInt(position);
+            if (4 + 2 * index >= buffer.getShort(vtable)) {
+                return 0;
+            }
+            int offset = buffer.getShort(vtable + 4 + 2 * index);
+            return offset == 0 ? 0 : position + offset;
+        }
+
+        // The position referenced by an offset field.
+        private int ref(final int index) {
+            int p = field(index);
+            return p + buffer.getInt(p);
+        }
+
+        byte getByte(final int index) {
+            int p = field(index);
+            return p == 0 ? 0 : buffer.get(p);
+        }
+
+        int getInt(final int index) {
+            int p = field(index);
+            return p == 0 ? 0 : buffer.getInt(p);
+        }
+
+        long getLong(final int index) {
+            int p = field(index);
+            return p == 0 ? 0 : buffer.getLong(p);
+        }
+
+        FlatTable getTable(final int index) {
+            return new FlatTable(buffer, ref(index));
+        }
+
+        /**
+         * @param index The field of a vector.
+         * @return The position of the first element of the vector, preceded
+         * by its length.
+         */
+        int getVector(final int index) {
+            return ref(index) + 4;
+        }
+
+        List<FlatTable> getTables(final int index) {
+            int vector = getVector(index);
+            List<FlatTable> tables = new ArrayList<FlatTable>();
+            for (int i = 0; i < buffer.getInt(vector - 4); i++) {
+                int p = vector + 4 * i;
+                tables.add(new FlatTable(buffer, p + buffer.getInt(p)));
+            }
+            return tables;
+        }
+
+        /**
+         * @param index The field of a string.
+         * @return The string.
+         * @throws IOException If UTF-8 is not supported.
+         */
+        String getString(final int index) throws IOException {
+            int p = ref(index);
+            return new String(buffer.array(), p + 4, buffer.getInt(p), "UTF-8");
+        }
+    }
+}
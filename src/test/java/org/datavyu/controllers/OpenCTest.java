@@ -23,8 +23,12 @@ import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.InputStream;
 import java.util.List;
+import java.util.zip.ZipFile;
 
 import static junit.framework.Assert.assertEquals;
 
@@ -139,4 +143,71 @@ public class OpenCTest {
         List<Cell> cells = vars.get(0).getCells();
         assertEquals(cells.size(), 1);
     }
+
+    @Test
+    public void testLoadEscapedCSV() throws Exception {
+        String csv = "#4\n"
+                + "m (MATRIX,true,)-a|NOMINAL,b|NOMINAL\n"
+                + "00:00:01:000,00:00:02:500,(x,<b>)\n"
+                + "01:02:03:004,01:02:03:005,(multi\\\nline,y)\n"
+                + "t (TEXT,false,)\n"
+                + "00:00:00:001,00:00:00:002,hello\\, world\r\n"
+                + "00:00:00:003,00:00:00:004,two\\\nlines\n";
+
+        OpenDatabaseFileC opendb = new OpenDatabaseFileC();
+        Datastore ds = opendb.openAsCSV(new ByteArrayInputStream(csv.getBytes("UTF-8")));
+        List<Variable> vars = ds.getAllVariables();
+        assertEquals(vars.size(), 2);
+
+        List<Cell> cells = vars.get(0).getCellsTemporally();
+        assertEquals(cells.size(), 2);
+        assertEquals(cells.get(0).getOnset(), 1000);
+        assertEquals(cells.get(0).getOffset(), 2500);
+        assertEquals(cells.get(0).getValueAsString(), "(x,<b>)");
+        assertEquals(cells.get(1).getOnsetString(), "01:02:03:004");
+        assertEquals(cells.get(1).getValueAsString(), "(multi\nline,y)");
+
+        assertEquals(vars.get(1).isHidden(), true);
+        cells = vars.get(1).getCellsTemporally();
+        assertEquals(cells.size(), 2);
+        assertEquals(cells.get(0).getValueAsString(), "hello, world");
+        assertEquals(cells.get(1).getValueAsString(), "two\nlines");
+    }
+
+    @Test
+    public void testParallelDecodeMatchesSerial() throws Exception {
+        ZipFile zf = new ZipFile(new File(TEST_FOLDER + "IO/simple3.opf"));
+        InputStream in = zf.getInputStream(zf.getEntry("db"));
+        ByteArrayOutputStream db = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        for (int read = in.read(chunk); read != -1; read = in.read(chunk)) {
+            db.write(chunk, 0, read);
+        }
+        zf.close();
+
+        Datastore serial = new OpenDatabaseFileC()
+                .openAsCSV(new ByteArrayInputStream(db.toByteArray()), 1);
+        Datastore parallel = new OpenDatabaseFileC()
+                .openAsCSV(new ByteArrayInputStream(db.toByteArray()), 4);
+
+        List<Variable> expected = serial.getAllVariables();
+        List<Variable> vars = parallel.getAllVariables();
+        assertEquals(expected.size(), 4);
+        assertEquals(vars.size(), expected.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(vars.get(i).getName(), expected.get(i).getName());
+            assertEquals(vars.get(i).getRootNode().type, expected.get(i).getRootNode().type);
+            assertEquals(vars.get(i).isHidden(), expected.get(i).isHidden());
+
+            List<Cell> expectedCells = expected.get(i).getCellsTemporally();
+            List<Cell> cells = vars.get(i).getCellsTemporally();
+            assertEquals(cells.size(), expectedCells.size());
+            for (int j = 0; j < expectedCells.size(); j++) {
+                assertEquals(cells.get(j).getOnset(), expectedCells.get(j).getOnset());
+                assertEquals(cells.get(j).getOffset(), expectedCells.get(j).getOffset());
+                assertEquals(cells.get(j).getValueAsString(), expectedCells.get(j).getValueAsString());
+            }
+        }
+    }
 }
@@ -0,0 +1,140 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.models.db.*;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for moving databases into and out of R.
+ */
+public class RDataBridgeTest {
+
+    @BeforeClass
+    public void spinUp() {
+        com.usermetrix.jclient.Configuration config = new com.usermetrix.jclient.Configuration(2);
+        UserMetrix.initalise(config);
+        UserMetrix.setCanSendLogs(false);
+    }
+
+    @AfterClass
+    public void spinDown() {
+        UserMetrix.shutdown();
+    }
+
+    /**
+     * @param code The R code loading the database.
+     * @return The file holding the first variable loaded.
+     */
+    private static File loadedFile(final String code) {
+        int start = code.indexOf("read.csv(\"") + "read.csv(\"".length();
+        return new File(code.substring(start, code.indexOf('"', start)));
+    }
+
+    private static void write(final File file, final String content) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        out.write(content);
+        out.close();
+    }
+
+    @Test
+    public void testExportDatastore() throws UserWarningException, IOException {
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable var = ds.createVariable("Trial", Argument.Type.TEXT);
+        Cell c = var.createCell();
+        c.setOnset(2000);
+        c.setOffset(3000);
+        c.getValue().set("b, with a comma");
+        c = var.createCell();
+        c.setOnset(1000);
+
+        RDataBridge bridge = new RDataBridge(ds);
+        try {
+            String code = bridge.exportDatastore();
+            assertTrue(code.contains("db[[\"trial\"]] <- read.csv("));
+
+            BufferedReader in = new BufferedReader(new FileReader(loadedFile(code)));
+            assertEquals(in.readLine(), "ordinal,onset,offset,arg");
+            assertEquals(in.readLine(), "1,1000,0,");
+            assertEquals(in.readLine(), "2,2000,3000,\"b, with a comma\"");
+            in.close();
+        } finally {
+            bridge.delete();
+        }
+    }
+
+    @Test
+    public void testImportResults() throws UserWarningException, IOException {
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable var = ds.createVariable("trial", Argument.Type.MATRIX);
+        var.addArgument(Argument.Type.NOMINAL);
+        for (int i = 0; i < 3; i++) {
+            Cell c = var.createCell();
+            c.setOnset(i * 1000);
+            c.getMatrixValue(0).set("c" + i);
+        }
+        Cell first = var.getCellsTemporally().get(0);
+
+        RDataBridge bridge = new RDataBridge(ds);
+        try {
+            File dir = loadedFile(bridge.exportDatastore()).getParentFile();
+
+            // As written by write.csv: the script dropped the second cell,
+            // added a cell and an argument, and created a new data frame.
+            write(new File(dir, "results.txt"), "trial\nnew\n");
+            write(new File(dir, "result1.csv"),
+                    "\"ordinal\",\"onset\",\"offset\",\"code01\",\"code02\",\"extra\"\n"
+                    + "1,0,500,\"a \"\"quoted\"\" value\",\"x\",1.5\n"
+                    + "3,2000,2500,\"c2\",\"\",\n"
+                    + ",1e+05,2e+05,\"d\",\"\",\n");
+            write(new File(dir, "result2.csv"),
+                    "\"onset\",\"offset\",\"arg\"\n"
+                    + "10,20,\"hello\"\n");
+
+            bridge.importResults();
+        } finally {
+            bridge.delete();
+        }
+
+        List<Cell> cells = var.getCellsTemporally();
+        assertEquals(cells.size(), 3);
+        assertTrue(cells.get(0) == first);
+        assertEquals(var.getRootNode().childArguments.size(), 3);
+        assertEquals(var.getRootNode().childArguments.get(2).name, "extra");
+        assertEquals(cells.get(0).getOffset(), 500);
+        assertEquals(cells.get(0).getValueAsString(), "(a \"quoted\" value,x,1.5)");
+        assertEquals(cells.get(1).getOnset(), 2000);
+        assertEquals(cells.get(1).getMatrixValue(0).toString(), "c2");
+        assertTrue(cells.get(1).getMatrixValue(2).isEmpty());
+        assertEquals(cells.get(2).getOnset(), 100000);
+        assertEquals(cells.get(2).getOffset(), 200000);
+
+        Variable created = ds.getVariable("new");
+        assertNotNull(created);
+        assertEquals(created.getRootNode().type, Argument.Type.TEXT);
+        assertEquals(created.getCells().get(0).getValue().toString(), "hello");
+        assertEquals(created.getCells().get(0).getOffset(), 20);
+    }
+}
@@ -24,7 +24,12 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.zip.ZipFile;
 
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 
 /**
@@ -68,6 +73,32 @@ public class SaveCTest {
         assertTrue(UIUtils.areFilesSameLineComp(outFile, demoFile));
     }
 
+    @Test
+    public void testSaveSnapshot() throws UserWarningException, IOException {
+        File outFile = new File("target/test1snapshot.csv");
+        if (outFile.exists()) {
+            outFile.delete();
+        }
+        File demoFile = new File(TEST_FOLDER + "IO/simple1.csv");
+
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable var = ds.createVariable("TestColumn", Argument.Type.TEXT);
+        Cell c = var.createCell();
+        c.setOnset("00:01:00:000");
+        c.setOffset("00:02:00:000");
+        c.getValue().set("This is a test cell.");
+
+        SaveJob job = new SaveC().prepareDatabase(outFile, ds);
+        assertTrue(job.getSnapshot().isCurrent(ds));
+
+        // Edits made after the save was prepared are not part of it.
+        c.getValue().set("Edited while saving.");
+        assertFalse(job.getSnapshot().isCurrent(ds));
+
+        assertTrue(job.write(null));
+        assertTrue(UIUtils.areFilesSameLineComp(outFile, demoFile));
+    }
+
     @Test
     public void testLoadOPF() throws UserWarningException, IOException {
         File outFile = new File("target/test2.opf");
@@ -124,4 +155,62 @@ public class SaveCTest {
         savec.saveProject(outFile, p, ds);
         assertTrue(UIUtils.areFilesSameByteComp(outFile, demoFile));
     }
+
+    @Test
+    public void testSaveBinaryOPF() throws UserWarningException, IOException {
+        File outFile = new File("target/test4.opf");
+        if (outFile.exists()) {
+            outFile.delete();
+        }
+
+        Project p = new Project();
+        p.setProjectName("binary");
+
+        Datastore ds = DatastoreFactory.newDatastore();
+        Variable var = ds.createVariable("testColumn", Argument.Type.TEXT);
+        Cell c = var.createCell();
+        c.setOnset("00:01:00:000");
+        c.setOffset("00:02:00:000");
+        c.getValue().set("cellA, with a comma");
+        var.createCell();
+
+        var = ds.createVariable("testColumn2", Argument.Type.MATRIX);
+        var.addArgument(Argument.Type.NOMINAL);
+        c = var.createCell();
+        c.setOnset("00:00:00:500");
+        c.setOffset("00:00:00:100");
+        ((MatrixValue) c.getValue()).getArguments().get(1).set("b");
+        var.setHidden(true);
+
+        SaveC savec = new SaveC(true);
+        savec.saveProject(outFile, p, ds, false);
+
+        ZipFile zf = new ZipFile(outFile);
+        assertNotNull(zf.getEntry("db"));
+        assertNotNull(zf.getEntry("db.bin"));
+        zf.close();
+
+        OpenC openc = new OpenC();
+        openc.openProject(outFile);
+        List<Variable> vars = openc.getDatastore().getAllVariables();
+        assertEquals(vars.size(), 2);
+
+        assertEquals(vars.get(0).getName(), "testColumn");
+        List<Cell> cells = vars.get(0).getCellsTemporally();
+        assertEquals(cells.size(), 2);
+        assertTrue(cells.get(0).getValue().isEmpty());
+        assertEquals(cells.get(1).getOnsetString(), "00:01:00:000");
+        assertEquals(cells.get(1).getOffsetString(), "00:02:00:000");
+        assertEquals(cells.get(1).getValueAsString(), "cellA, with a comma");
+
+        assertEquals(vars.get(1).getName(), "testColumn2");
+        assertEquals(vars.get(1).isHidden(), true);
+        assertEquals(vars.get(1).getRootNode().childArguments.size(), 2);
+        cells = vars.get(1).getCellsTemporally();
+        assertEquals(cells.size(), 1);
+        assertEquals(cells.get(0).getOnset(), 500);
+        assertEquals(cells.get(0).getOffset(), 100);
+        assertTrue(((MatrixValue) cells.get(0).getValue()).getArguments().get(0).isEmpty());
+        assertEquals(((MatrixValue) cells.get(0).getValue()).getArguments().get(1).toString(), "b");
+    }
 }
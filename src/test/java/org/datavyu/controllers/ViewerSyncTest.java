@@ -0,0 +1,270 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers;
+
+import org.datavyu.models.db.Datastore;
+import org.datavyu.models.id.Identifier;
+import org.datavyu.plugins.CustomActions;
+import org.datavyu.plugins.DataViewer;
+import org.datavyu.plugins.ViewerStateListener;
+import org.datavyu.util.ClockTimer;
+import org.datavyu.views.DataController;
+import org.datavyu.views.component.TrackPainter;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.swing.JDialog;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for sending the commands of the data controller to its viewers.
+ */
+public class ViewerSyncTest {
+
+    // How long to wait for a lane to carry out its commands.
+    private static final long TIMEOUT = 5000L;
+
+    private ClockTimer clock;
+
+    private ViewerSync sync;
+
+    @BeforeMethod
+    public void setUp() {
+        clock = new ClockTimer();
+        sync = new ViewerSync(clock);
+    }
+
+    @Test
+    public void testLaneOrdering() throws Exception {
+        StubViewer viewer = new StubViewer();
+        StubViewer other = new StubViewer();
+
+        // Hold the lane of the viewer up in its first seek.
+        sync.seekTo(viewer, 1);
+        viewer.awaitCommands(1);
+        sync.play(viewer);
+        sync.setPlaybackSpeed(viewer, 2F);
+        sync.stop(viewer);
+        sync.seekTo(viewer, 2);
+
+        // The lane of another viewer is not held up.
+        sync.seekTo(other, 5);
+        assertEquals(other.awaitCommands(1), Arrays.asList("seek 5"));
+
+        viewer.release();
+        assertEquals(viewer.awaitCommands(5),
+                Arrays.asList("seek 1", "play", "speed 2.0", "stop", "seek 2"));
+    }
+
+    @Test
+    public void testLatestSeekWins() throws Exception {
+        StubViewer viewer = new StubViewer();
+
+        sync.seekTo(viewer, 1);
+        viewer.awaitCommands(1);
+        sync.seekTo(viewer, 10);
+        sync.play(viewer);
+        sync.seekTo(viewer, 20);
+        sync.seekTo(viewer, 30);
+
+        // The seeks still waiting give way to the latest.
+        viewer.release();
+        viewer.awaitCommands(3);
+        sync.seekTo(viewer, 40);
+        assertEquals(viewer.awaitCommands(4),
+                Arrays.asList("seek 1", "play", "seek 30", "seek 40"));
+    }
+
+    @Test
+    public void testNoSyncWhileStopped() throws Exception {
+        StubViewer viewer = new StubViewer();
+        viewer.release();
+
+        // The clock is stopped within the data of the viewer, which must be
+        // left alone rather than started.
+        assertTrue(clock.isStopped());
+        sync.sync(viewer);
+        sync.seekTo(viewer, 7);
+        assertEquals(viewer.awaitCommands(1), Arrays.asList("seek 7"));
+    }
+
+    /**
+     * A viewer recording the commands it is given, whose first seek blocks
+     * until it is released.
+     */
+    private static final class StubViewer implements DataViewer {
+
+        private final List<String> commands = new ArrayList<String>();
+
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private volatile boolean playing = false;
+
+        void release() {
+            released.countDown();
+        }
+
+        synchronized List<String> awaitCommands(final int count)
+                throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (commands.size() < count && System.currentTimeMillis() < deadline) {
+                wait(TIMEOUT);
+            }
+
+            return new ArrayList<String>(commands);
+        }
+
+        private synchronized void record(final String command) {
+            commands.add(command);
+            notifyAll();
+        }
+
+        @Override
+        public void seekTo(final long position) {
+            record("seek " + position);
+            try {
+                released.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void play() {
+            playing = true;
+            record("play");
+        }
+
+        @Override
+        public void stop() {
+            playing = false;
+            record("stop");
+        }
+
+        @Override
+        public void setPlaybackSpeed(final float rate) {
+            record("speed " + rate);
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return playing;
+        }
+
+        @Override
+        public long getCurrentTime() {
+            return 0;
+        }
+
+        @Override
+        public long getDuration() {
+            return 60000;
+        }
+
+        @Override
+        public long getOffset() {
+            return 0;
+        }
+
+        @Override
+        public float getFrameRate() {
+            return 30F;
+        }
+
+        @Override
+        public float getDetectedFrameRate() {
+            return 30F;
+        }
+
+        @Override
+        public void setIdentifier(final Identifier id) {
+        }
+
+        @Override
+        public Identifier getIdentifier() {
+            return null;
+        }
+
+        @Override
+        public void setOffset(final long offset) {
+        }
+
+        @Override
+        public JDialog getParentJDialog() {
+            return null;
+        }
+
+        @Override
+        public void setDataViewerVisible(final boolean isVisible) {
+        }
+
+        @Override
+        public void setDataFeed(final File dataFeed) {
+        }
+
+        @Override
+        public File getDataFeed() {
+            return null;
+        }
+
+        @Override
+        public void setParentController(final DataController dataController) {
+        }
+
+        @Override
+        public TrackPainter getTrackPainter() {
+            return null;
+        }
+
+        @Override
+        public void loadSettings(final InputStream is) {
+        }
+
+        @Override
+        public void storeSettings(final OutputStream os) {
+        }
+
+        @Override
+        public void addViewerStateListener(final ViewerStateListener vsl) {
+        }
+
+        @Override
+        public void removeViewerStateListener(final ViewerStateListener vsl) {
+        }
+
+        @Override
+        public CustomActions getCustomActions() {
+            return null;
+        }
+
+        @Override
+        public void setDatastore(final Datastore sDB) {
+        }
+
+        @Override
+        public void clearDataFeed() {
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.script;
+
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.models.db.*;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Tests for the Java side of the scripting API.
+ */
+public class ScriptAPITest {
+
+    private Datastore ds;
+
+    private ScriptAPI api;
+
+    @BeforeClass
+    public void spinUp() {
+        com.usermetrix.jclient.Configuration config = new com.usermetrix.jclient.Configuration(2);
+        UserMetrix.initalise(config);
+        UserMetrix.setCanSendLogs(false);
+    }
+
+    @AfterClass
+    public void spinDown() {
+        UserMetrix.shutdown();
+    }
+
+    @BeforeMethod
+    public void setUp() throws UserWarningException {
+        ds = DatastoreFactory.newDatastore();
+        api = new ScriptAPI(ds);
+
+        Variable a = ds.createVariable("a", Argument.Type.TEXT);
+        addCell(a, 2000, 3000, "y");
+        addCell(a, 0, 1000, "x");
+
+        Variable b = ds.createVariable("b", Argument.Type.MATRIX);
+        addCell(b, 500, 2500, "p");
+    }
+
+    private static Cell addCell(final Variable var, final long onset, final long offset, final String value) {
+        Cell c = var.createCell();
+        c.setOnset(onset);
+        c.setOffset(offset);
+        ScriptAPI.setValue(c, 0, value);
+        return c;
+    }
+
+    private static void assertCell(final Cell cell, final long onset, final long offset, final String... values) {
+        assertEquals(onset, cell.getOnset());
+        assertEquals(offset, cell.getOffset());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], ScriptAPI.getValue(cell, i));
+        }
+    }
+
+    @Test
+    public void testCursors() throws UserWarningException {
+        CellCursor c = api.cellsWhere("a", "var", "y");
+        assertEquals(1, c.size());
+        assertTrue(c.next());
+        assertEquals(2, c.getOrdinal());
+        assertEquals("y", c.get("var"));
+        c.set("var", "z");
+        c.setOnset(1500);
+        assertFalse(c.next());
+
+        c = api.cellsOverlapping("a", 1200, 1600);
+        assertTrue(c.next());
+        assertEquals("z", c.get("var"));
+        assertFalse(c.next());
+
+        c = api.cells("b");
+        assertTrue(c.next());
+        c.remove();
+        assertFalse(c.next());
+        assertEquals(0, ds.getVariable("b").getCells().size());
+    }
+
+    @Test
+    public void testReadUpdate() throws UserWarningException {
+        ColumnData data = api.read("b");
+        assertEquals("code01", data.getArgumentNames()[0]);
+        assertEquals(500, data.getOnsets()[0]);
+        assertEquals("p", data.getValues()[0]);
+
+        Variable b = ds.getVariable("b");
+        Cell[] cells = api.update(b, new String[] { "code01" },
+                new Cell[] { data.getCells()[0], null },
+                new long[] { 600, 3000 }, new long[] { 700, 4000 },
+                new String[] { "", "q" });
+        assertTrue(cells[0] == data.getCells()[0]);
+        assertEquals(2, b.getCells().size());
+        assertCell(cells[0], 600, 700, "p");
+        assertCell(cells[1], 3000, 4000, "q");
+    }
+
+    @Test
+    public void testMutex() throws UserWarningException {
+        Variable existing = ds.createVariable("ab", Argument.Type.TEXT);
+        Cell kept = addCell(existing, 0, 100, "kept");
+
+        ColumnData mutex = api.mutex("ab", "a", "b", null, null);
+        assertEquals(4, mutex.getArgumentNames().length);
+        assertEquals("a_ordinal", mutex.getArgumentNames()[0]);
+        assertEquals("b_code01", mutex.getArgumentNames()[3]);
+
+        assertEquals(5, mutex.getCells().length);
+        assertMutexRow(mutex, 0, 0, 500, "1", "x", "", "");
+        assertMutexRow(mutex, 1, 500, 1000, "1", "x", "1", "p");
+        assertMutexRow(mutex, 2, 1000, 2000, "", "", "1", "p");
+        assertMutexRow(mutex, 3, 2000, 2500, "2", "y", "1", "p");
+        assertMutexRow(mutex, 4, 2500, 3000, "2", "y", "", "");
+
+        // Nothing is written until the script writes the column back.
+        assertTrue(ds.getVariable("ab") == existing);
+        assertEquals(1, existing.getCells().size());
+        assertCell(kept, 0, 100, "kept");
+        assertEquals(3, ds.getAllVariables().size());
+    }
+
+    private static void assertMutexRow(final ColumnData data, final int row,
+                                       final long onset, final long offset,
+                                       final String... values) {
+        assertNull(data.getCells()[row]);
+        assertEquals(onset, data.getOnsets()[row]);
+        assertEquals(offset, data.getOffsets()[row]);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], data.getValues()[row * values.length + i]);
+        }
+    }
+
+    @Test
+    public void testMergeAndSmooth() throws UserWarningException {
+        Variable merged = api.merge("ab", "a", "b");
+        assertEquals(2, merged.getRootNode().childArguments.size());
+
+        List<Cell> cells = merged.getCellsTemporally();
+        assertEquals(3, cells.size());
+        assertCell(cells.get(1), 500, 2500, null, "p");
+
+        assertEquals(1, api.smooth("a", 1500));
+        assertCell(ds.getVariable("a").getCellsTemporally().get(1), 1000, 3000, "y");
+    }
+
+    @Test
+    public void testUnionIntersection() throws UserWarningException {
+        List<Cell> cells = api.union("ab", "a", "b").getCellsTemporally();
+        assertEquals(1, cells.size());
+        assertCell(cells.get(0), 0, 3000);
+
+        cells = api.intersection("ab", "a", "b").getCellsTemporally();
+        assertEquals(2, cells.size());
+        assertCell(cells.get(0), 500, 1000);
+        assertCell(cells.get(1), 2000, 2500);
+        assertEquals(1, ds.getVariable("ab").getRootNode().childArguments.size());
+    }
+}
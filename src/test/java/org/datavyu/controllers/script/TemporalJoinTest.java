@@ -0,0 +1,92 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.controllers.script;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for joining columns by time and by value.
+ */
+public class TemporalJoinTest {
+
+    private static void assertMatches(final TemporalJoin.Matches m, final int... pairs) {
+        assertEquals(pairs.length / 2, m.size());
+        for (int i = 0; i < m.size(); i++) {
+            assertEquals(pairs[i * 2], m.getLeft()[i]);
+            assertEquals(pairs[i * 2 + 1], m.getRight()[i]);
+        }
+    }
+
+    @Test
+    public void testSameValue() {
+        TemporalJoin.Matches m = TemporalJoin.sameValue(
+                new String[] { "b", "a", null, "c" },
+                new String[] { "a", "b", "a", null });
+        assertMatches(m, 0, 1, 1, 0, 1, 2);
+    }
+
+    @Test
+    public void testOverlapping() {
+        // Cells out of temporal order, one that only touches and one that
+        // misses by 50ms.
+        long[] onsets1 = { 2000, 0 };
+        long[] offsets1 = { 3000, 1000 };
+        long[] onsets2 = { 1050, 500, 1000 };
+        long[] offsets2 = { 1900, 600, 1000 };
+
+        assertMatches(TemporalJoin.overlapping(onsets1, offsets1, onsets2, offsets2, 0),
+                1, 1, 1, 2);
+        assertMatches(TemporalJoin.overlapping(onsets1, offsets1, onsets2, offsets2, 100),
+                0, 0, 1, 0, 1, 1, 1, 2);
+    }
+
+    @Test
+    public void testNearest() {
+        assertMatches(TemporalJoin.nearest(new long[] { 100, 5000, 1490 },
+                new long[] { 1000, 0, 2000 }, 600),
+                0, 1, 2, 0);
+    }
+
+    @Test
+    public void testCovering() {
+        long[] onsets = { 0, 0, 1500 };
+        long[] offsets = { 1000, 2000, 2500 };
+        int[] cover = TemporalJoin.covering(onsets, offsets,
+                new long[] { 0, 1000, 1500, 2000, 2500 },
+                new long[] { 1000, 1500, 2000, 2500, 3000 });
+        assertTrue(Arrays.equals(new int[] { 0, 1, 1, 2, -1 }, cover));
+    }
+
+    @Test
+    public void testUnionIntersection() {
+        long[] onsets1 = { 0, 3000, 500 };
+        long[] offsets1 = { 1000, 4000, 1500 };
+        long[] onsets2 = { 1500, 3500 };
+        long[] offsets2 = { 2000, 3600 };
+
+        TemporalJoin.Intervals union = TemporalJoin.union(onsets1, offsets1, onsets2, offsets2);
+        assertTrue(Arrays.equals(new long[] { 0, 3000 }, union.getStarts()));
+        assertTrue(Arrays.equals(new long[] { 2000, 4000 }, union.getEnds()));
+
+        TemporalJoin.Intervals both = TemporalJoin.intersection(onsets1, offsets1, onsets2, offsets2);
+        assertTrue(Arrays.equals(new long[] { 1500, 3500 }, both.getStarts()));
+        assertTrue(Arrays.equals(new long[] { 1500, 3600 }, both.getEnds()));
+    }
+}
@@ -136,4 +136,16 @@ public class CellTest {
 //        assertEquals(model.getOnset(), 17999999);
         assertEquals(model.getOnsetString(), "04:59:59:999");
     }
+
+    @Test
+    public void testRemoveCell() {
+        Cell other = var.createCell();
+        assertFalse(model.equals(other));
+        assertTrue(model.equals(model));
+
+        // Listeners of a removed cell are released along with it.
+        var.removeCell(model);
+        model.setHighlighted(false);
+        verify(modelListener, times(0)).highlightingChange(false);
+    }
 }
@@ -0,0 +1,172 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.models.db;
+
+import com.usermetrix.jclient.UserMetrix;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Tests for recording, undoing and redoing the changes made to a datastore.
+ */
+public class ChangeLogTest {
+
+    private Datastore model;
+
+    private Variable text;
+
+    private Variable matrix;
+
+    @BeforeClass
+    public void spinUp() {
+        com.usermetrix.jclient.Configuration config = new com.usermetrix.jclient.Configuration(2);
+        UserMetrix.initalise(config);
+        UserMetrix.setCanSendLogs(false);
+    }
+
+    @AfterClass
+    public void spinDown() {
+        UserMetrix.shutdown();
+    }
+
+    @BeforeMethod
+    public void setUp() throws UserWarningException {
+        model = DatastoreFactory.newDatastore();
+
+        text = model.createVariable("text", Argument.Type.TEXT);
+        Cell c = text.createCell();
+        c.setOnset(0);
+        c.setOffset(1000);
+        c.getValue().set("a");
+        c = text.createCell();
+        c.setOnset(2000);
+        c.setOffset(3000);
+        c.getValue().set("b");
+
+        matrix = model.createVariable("matrix", Argument.Type.MATRIX);
+        matrix.addArgument(Argument.Type.NOMINAL);
+        c = matrix.createCell();
+        c.setOnset(500);
+        ((MatrixValue) c.getValue()).getArguments().get(0).set("x");
+        ((MatrixValue) c.getValue()).getArguments().get(1).set("y");
+    }
+
+    private static String valueOf(final Variable var, final int cell) {
+        return var.getCellsTemporally().get(cell).getValue().toString();
+    }
+
+    @Test
+    public void testCells() {
+        ChangeLog log = model.recordChanges();
+        assertTrue(log.isEmpty());
+
+        List<Cell> cells = text.getCellsTemporally();
+        cells.get(0).setOnset(100);
+        cells.get(0).getValue().set("c");
+        text.removeCell(cells.get(1));
+        Cell added = text.createCell();
+        added.setOnset(5000);
+        added.getValue().set("d");
+        log.stop();
+        assertFalse(log.isEmpty());
+
+        // Changes made after recording stopped are not part of the log.
+        text.createCell();
+        text.removeCell(text.getCellsTemporally().get(0));
+
+        log.undo();
+        assertEquals(2, text.getCells().size());
+        assertEquals(0, text.getCellsTemporally().get(0).getOnset());
+        assertEquals("a", valueOf(text, 0));
+        assertEquals(2000, text.getCellsTemporally().get(1).getOnset());
+        assertEquals("b", valueOf(text, 1));
+
+        log.redo();
+        assertEquals(2, text.getCells().size());
+        assertEquals(100, text.getCellsTemporally().get(0).getOnset());
+        assertEquals("c", valueOf(text, 0));
+        assertTrue(text.getCellsTemporally().get(1) == added);
+        assertEquals("d", valueOf(text, 1));
+    }
+
+    @Test
+    public void testArguments() throws UserWarningException {
+        ChangeLog log = model.recordChanges();
+        matrix.removeArgument("code01");
+        matrix.addArgument(Argument.Type.TEXT);
+        ((MatrixValue) matrix.getCells().get(0).getValue()).getArguments().get(1).set("z");
+        matrix.setName("renamed");
+        log.stop();
+
+        log.undo();
+        assertTrue(model.getVariable("matrix") == matrix);
+        assertNull(model.getVariable("renamed"));
+        assertEquals("code01", matrix.getRootNode().childArguments.get(0).name);
+        assertEquals(2, matrix.getRootNode().childArguments.size());
+        assertEquals("(x,y)", valueOf(matrix, 0));
+
+        log.redo();
+        assertTrue(model.getVariable("renamed") == matrix);
+        assertEquals("(y,z)", valueOf(matrix, 0));
+    }
+
+    @Test
+    public void testMarksChanged() throws UserWarningException {
+        ChangeLog log = model.recordChanges();
+        text.getCellsTemporally().get(0).getValue().set("c");
+        matrix.removeArgument("code01");
+        log.stop();
+
+        model.markAsUnchanged();
+        long textVersion = text.getVersion();
+        long matrixVersion = matrix.getVersion();
+        log.undo();
+        assertTrue(model.isChanged());
+        assertTrue(text.getVersion() != textVersion);
+        assertTrue(matrix.getVersion() != matrixVersion);
+
+        model.markAsUnchanged();
+        textVersion = text.getVersion();
+        matrixVersion = matrix.getVersion();
+        log.redo();
+        assertTrue(model.isChanged());
+        assertTrue(text.getVersion() != textVersion);
+        assertTrue(matrix.getVersion() != matrixVersion);
+    }
+
+    @Test
+    public void testVariables() throws UserWarningException {
+        ChangeLog log = model.recordChanges();
+        model.removeVariable(text);
+        Variable created = model.createVariable("text", Argument.Type.NOMINAL);
+        created.createCell().getValue().set("n");
+        log.stop();
+
+        log.undo();
+        assertTrue(model.getVariable("text") == text);
+        assertEquals(2, text.getCells().size());
+        assertEquals(2, model.getAllVariables().size());
+
+        log.redo();
+        assertTrue(model.getVariable("text") == created);
+        assertEquals("n", valueOf(created, 0));
+    }
+}
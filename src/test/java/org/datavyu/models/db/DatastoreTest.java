@@ -17,7 +17,9 @@ package org.datavyu.models.db;
 import org.testng.annotations.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import static junit.framework.Assert.*;
 import static org.mockito.Mockito.*;
@@ -141,4 +143,126 @@ public class DatastoreTest {
         model.markAsUnchanged();
         assertFalse(model.isChanged());
     }
+
+    @Test
+    public void bulkUpdate() throws UserWarningException {
+        Variable var = model.createVariable("foo", Argument.Type.TEXT);
+        VariableListener varListener = mock(VariableListener.class);
+        var.addListener(varListener);
+        model.markAsUnchanged();
+
+        model.beginBulkUpdate();
+        assertTrue(model.isBulkUpdating());
+        Cell c1 = var.createCell();
+        Cell c2 = var.createCell();
+        c1.setOnset(1000);
+        c2.getValue().set("bar");
+        assertFalse(model.isChanged());
+        model.endBulkUpdate();
+
+        assertFalse(model.isBulkUpdating());
+        assertTrue(model.isChanged());
+        assertEquals(var.getCells().size(), 2);
+        verify(varListener, times(0)).cellInserted(c1);
+        verify(varListener, times(0)).cellInserted(c2);
+        verify(varListener, times(1)).cellsReplaced();
+        verify(varListener, times(0)).cellsChanged(anyCollection());
+        var.removeListener(varListener);
+    }
+
+    @Test
+    public void bulkChanges() throws UserWarningException {
+        Variable var = model.createVariable("foo", Argument.Type.TEXT);
+        Cell c1 = var.createCell();
+        Cell c2 = var.createCell();
+        var.createCell();
+        VariableListener varListener = mock(VariableListener.class);
+        var.addListener(varListener);
+
+        model.beginBulkUpdate();
+        c1.setOnset(1000);
+        c1.setOffset(2000);
+        c1.getValue().set("bar");
+        c2.setSelected(false);
+        model.endBulkUpdate();
+
+        verify(varListener, times(0)).cellsReplaced();
+        verify(varListener, times(1)).cellsChanged(Arrays.asList(c1, c2));
+        var.removeListener(varListener);
+    }
+
+    @Test
+    public void bulkChangesThroughNotifier() throws UserWarningException {
+        Variable var = model.createVariable("foo", Argument.Type.TEXT);
+        Cell c1 = var.createCell();
+        VariableListener varListener = mock(VariableListener.class);
+        var.addListener(varListener);
+        final List<Runnable> notifications = new ArrayList<Runnable>();
+
+        model.beginBulkUpdate();
+        c1.setOnset(1000);
+        model.endBulkUpdate(new Executor() {
+            @Override
+            public void execute(final Runnable notification) {
+                notifications.add(notification);
+            }
+        });
+
+        // The update has ended, but its listeners hear of it via the notifier.
+        assertFalse(model.isBulkUpdating());
+        assertEquals(notifications.size(), 1);
+        verify(varListener, times(0)).cellsChanged(anyCollection());
+
+        notifications.get(0).run();
+        verify(varListener, times(1)).cellsChanged(Arrays.asList(c1));
+        var.removeListener(varListener);
+    }
+
+    @Test
+    public void selectionModel() throws UserWarningException {
+        Variable var = model.createVariable("foo", Argument.Type.TEXT);
+        Variable other = model.createVariable("bar", Argument.Type.TEXT);
+        Cell c1 = var.createCell();
+        c1.setOnset(3000);
+        Cell c2 = var.createCell();
+        c2.setOnset(1000);
+        Cell c3 = var.createCell();
+        c3.setOnset(2000);
+        Cell c4 = other.createCell();
+
+        SelectionModel selection = model.getSelectionModel();
+        SelectionListener selListener = mock(SelectionListener.class);
+        selection.addListener(selListener);
+
+        // New cells start out selected.
+        assertEquals(model.getSelectedCells().size(), 4);
+        model.clearCellSelection();
+        assertTrue(model.getSelectedCells().isEmpty());
+        assertFalse(c1.isHighlighted());
+        verify(selListener, times(1)).selectionChanged();
+
+        // Clearing an empty selection changes nothing.
+        model.clearCellSelection();
+        verify(selListener, times(1)).selectionChanged();
+
+        c4.setSelected(true);
+        selection.selectRange(var, c1, c3);
+        assertFalse(c2.isSelected());
+        assertTrue(c3.isSelected());
+        assertTrue(c1.isSelected());
+        assertTrue(c4.isSelected());
+        verify(selListener, times(2)).selectionChanged();
+
+        selection.selectAll(var);
+        assertEquals(model.getSelectedCells().size(), 4);
+        verify(selListener, times(3)).selectionChanged();
+
+        // Removing a cell keeps the selection of the others.
+        c2.setSelected(false);
+        var.removeCell(c1);
+        assertFalse(c2.isSelected());
+        assertTrue(c3.isSelected());
+
+        selection.removeListener(selListener);
+    }
 }
@@ -18,6 +18,8 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
+
 import static junit.framework.Assert.*;
 
 /**
@@ -154,5 +156,23 @@ public class MatrixValueTest {
         assertTrue(cell.getMatrixValue(0).isEmpty());
     }
 
+    @Test
+    public void testDistinctValues() {
+        Argument arg = var.getRootNode().childArguments.get(0);
+        Cell cell2 = var.createCell();
+        assertEquals(arg.getValueCount(""), 2);
+
+        cell.setMatrixValue(0, "foo");
+        cell2.setMatrixValue(0, "foo");
+        assertEquals(arg.getValueCount("foo"), 2);
+        assertEquals(arg.getDistinctValues(), Arrays.asList("foo"));
+
+        cell2.setMatrixValue(0, "bar");
+        assertEquals(arg.getValueCount("foo"), 1);
+        assertEquals(arg.getDistinctValues(), Arrays.asList("bar", "foo"));
 
+        var.removeCell(cell);
+        assertEquals(arg.getValueCount("foo"), 0);
+        assertEquals(arg.getDistinctValues(), Arrays.asList("bar"));
+    }
 }
@@ -20,6 +20,7 @@ import org.testng.annotations.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static junit.framework.Assert.*;
 import static org.mockito.Mockito.*;
@@ -159,6 +160,27 @@ public class VariableTest {
         verify(modelListener, times(0)).visibilityChanged(true);
     }
 
+    @Test
+    public void testAddRemovedCell() {
+        Cell c1 = model.createCell();
+        c1.setOnset(1000);
+        c1.getValue().set("first");
+        Cell c2 = model.createCell();
+        c2.setOnset(2000);
+        c2.getValue().set("second");
+
+        model.removeCell(c1);
+        assertEquals(c1.getOnset(), 1000);
+        assertEquals(c1.getValueAsString(), "first");
+        assertEquals(c2.getOnset(), 2000);
+        assertEquals(c2.getValueAsString(), "second");
+
+        model.addCell(c1);
+        assertTrue(model.contains(c1));
+        assertEquals(model.getCellTemporally(0), c1);
+        assertEquals(model.getCellTemporally(0).getValueAsString(), "first");
+    }
+
     @Test
     public void testTemporalOrder() {
         List<Cell> cells = new ArrayList<Cell>();
@@ -178,6 +200,132 @@ public class VariableTest {
         assertEquals(model.getCellTemporally(0), c2);
     }
 
+    @Test
+    public void testTemporalIndex() {
+        Cell c1 = model.createCell();
+        Cell c2 = model.createCell();
+        Cell c3 = model.createCell();
+
+        c1.setOnset(1000);
+        c1.setOffset(2000);
+        c2.setOnset(0);
+        c2.setOffset(5000);
+        c3.setOnset(3000);
+        c3.setOffset(4000);
+
+        assertEquals(model.getCellTemporalIndex(c2), 0);
+        assertEquals(model.getCellTemporalIndex(c1), 1);
+        assertEquals(model.getCellTemporalIndex(c3), 2);
+
+        List<Cell> expected = new ArrayList<Cell>();
+        expected.add(c2);
+        expected.add(c1);
+        assertEquals(model.getCellsAt(1500), expected);
+
+        expected.clear();
+        expected.add(c2);
+        expected.add(c3);
+        assertEquals(model.getCellsOverlapping(2500, 3000), expected);
+        assertEquals(model.getCellsAt(6000).size(), 0);
+
+        // Moving a cell should update the index.
+        c3.setOnset(500);
+        assertEquals(model.getCellTemporalIndex(c3), 1);
+        assertEquals(model.getCellsAt(1500).size(), 3);
+
+        model.removeCell(c2);
+        assertEquals(model.getCellTemporalIndex(c2), -1);
+        assertEquals(model.getCellsAt(4500).size(), 0);
+    }
+
+    @Test
+    public void testTemporalIndexRemovals() {
+        // Cells sharing onsets and offsets, so removal has to pick the right
+        // one among equal keys.
+        List<Cell> expected = new ArrayList<Cell>();
+        for (int i = 0; i < 12; i++) {
+            Cell c = model.createCell();
+            c.setOnset((i / 3) * 1000);
+            c.setOffset((i / 3) * 1000 + 500);
+            expected.add(c);
+        }
+        assertEquals(model.getCellTemporalIndex(expected.get(11)), 11);
+
+        // A run of removals from the valid index.
+        long version = model.getTemporalVersion();
+        Cell first = expected.remove(0);
+        Cell middle = expected.remove(4);
+        Cell last = expected.remove(expected.size() - 1);
+        model.removeCell(middle);
+        model.removeCell(first);
+        model.removeCell(last);
+        assertTrue(model.getTemporalVersion() != version);
+
+        List<Cell> window = new ArrayList<Cell>();
+        window.add(expected.get(4));
+        window.add(expected.get(5));
+        window.add(expected.get(6));
+        assertEquals(model.getCellsOverlapping(2000, 2000), window);
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(model.getCellTemporalIndex(expected.get(i)), i);
+        }
+        assertEquals(model.getCellTemporalIndex(first), -1);
+        assertEquals(model.getCellTemporalIndex(middle), -1);
+        assertEquals(model.getCellTemporalIndex(last), -1);
+        assertEquals(model.getCellsTemporally(), expected);
+        assertEquals(model.getCells().size(), expected.size());
+
+        // Removing a cell from a stale index.
+        Cell moved = expected.remove(0);
+        moved.setOnset(5000);
+        model.removeCell(moved);
+        assertEquals(model.getCellTemporalIndex(moved), -1);
+        assertEquals(model.getCellsTemporally(), expected);
+    }
+
+    @Test
+    public void testOverlappingWithLongCells() {
+        // Mostly short cells, with a few long ones spanning many others.
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            Cell c = model.createCell();
+            long onset = random.nextInt(100000);
+            c.setOnset(onset);
+            c.setOffset(onset + (i % 50 == 0 ? 50000 : random.nextInt(500)));
+        }
+        model.removeCell(model.getCellTemporally(100));
+
+        for (int i = 0; i < 200; i++) {
+            long start = random.nextInt(110000) - 5000;
+            long end = start + random.nextInt(3000);
+
+            List<Cell> expected = new ArrayList<Cell>();
+            for (Cell c : model.getCellsTemporally()) {
+                if (c.getOnset() <= end && c.getOffset() >= start) {
+                    expected.add(c);
+                }
+            }
+            assertEquals(model.getCellsOverlapping(start, end), expected);
+        }
+    }
+
+    @Test
+    public void testTemporalVersion() {
+        Cell c1 = model.createCell();
+        long version = model.getTemporalVersion();
+
+        c1.getValue().set("value");
+        assertEquals(model.getTemporalVersion(), version);
+
+        c1.setOnset(1000);
+        assertTrue(model.getTemporalVersion() != version);
+
+        version = model.getTemporalVersion();
+        model.removeCell(c1);
+        assertTrue(model.getTemporalVersion() != version);
+    }
+
     @Test(expectedExceptions = UserWarningException.class)
     public void uniqueVariableNames() throws UserWarningException {
         ds.createVariable("test", Argument.Type.TEXT);
@@ -0,0 +1,219 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.undoableedits;
+
+import com.usermetrix.jclient.UserMetrix;
+import org.datavyu.Datavyu;
+import org.datavyu.controllers.project.ProjectController;
+import org.datavyu.models.db.Argument;
+import org.datavyu.models.db.Cell;
+import org.datavyu.models.db.Datastore;
+import org.datavyu.models.db.DatastoreFactory;
+import org.datavyu.models.db.MatrixValue;
+import org.datavyu.models.db.UserWarningException;
+import org.datavyu.models.db.Variable;
+import org.datavyu.models.project.Project;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.swing.undo.CannotUndoException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests for keeping the undo history within its memory budget.
+ */
+public class SpreadsheetUndoManagerTest {
+
+    private Datastore ds;
+
+    private SpreadsheetUndoManager manager;
+
+    @BeforeClass
+    public void spinUp() {
+        com.usermetrix.jclient.Configuration config = new com.usermetrix.jclient.Configuration(2);
+        UserMetrix.initalise(config);
+        UserMetrix.setCanSendLogs(false);
+    }
+
+    @AfterClass
+    public void spinDown() {
+        UserMetrix.shutdown();
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        ds = newDatastore();
+        manager = null;
+    }
+
+    /**
+     * @return A datastore holding a variable with many cells and one with a
+     * single cell, which the edits under test are made to.
+     * @throws UserWarningException If unable to create the variables.
+     */
+    private static Datastore newDatastore() throws UserWarningException {
+        Datastore model = DatastoreFactory.newDatastore();
+
+        Variable big = model.createVariable("big", Argument.Type.MATRIX);
+        for (int i = 0; i < 100; i++) {
+            Cell c = big.createCell();
+            c.setOnset(i * 1000);
+            c.setOffset(i * 1000 + 500);
+            ((MatrixValue) c.getValue()).getArguments().get(0).set("cell" + i + "withenoughtexttobeworthspilling");
+        }
+
+        Cell c = model.createVariable("small", Argument.Type.MATRIX).createCell();
+        ((MatrixValue) c.getValue()).getArguments().get(0).set("x");
+
+        Datavyu.setProjectController(new ProjectController(new Project(), model));
+        return model;
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (manager != null) {
+            manager.discardAllEdits();
+        }
+    }
+
+    @Test
+    public void testSpillsOldEdits() throws Exception {
+        // The cells restored by undoing the removal from memory.
+        SpreadsheetUndoManager unlimited = new SpreadsheetUndoManager(Long.MAX_VALUE);
+        List<String> times = timesOf(ds.getVariable("big"));
+        unlimited.addEdit(removeVariable("big"));
+        unlimited.undo();
+        List<String> expected = cellsOf(ds.getVariable("big"));
+        assertEquals(timesOf(ds.getVariable("big")), times);
+        unlimited.discardAllEdits();
+
+        ds = newDatastore();
+        RemoveVariableEdit oldEdit = removeVariable("big");
+        long full = oldEdit.getRetainedSize();
+        assertTrue(full > 2 * SpreadsheetEdit.EDIT_SIZE);
+
+        // The budget holds the old edit alone, but not alongside a new one.
+        manager = new SpreadsheetUndoManager(full);
+        manager.addEdit(oldEdit);
+        assertEquals(oldEdit.getRetainedSize(), full);
+
+        RemoveVariableEdit newEdit = removeVariable("small");
+        manager.addEdit(newEdit);
+
+        // The content of the old edit moves to disk, the newest stays put.
+        assertEquals(manager.getEdits().length, 2);
+        assertEquals(oldEdit.getRetainedSize(), SpreadsheetEdit.EDIT_SIZE);
+        assertTrue(newEdit.getRetainedSize() > SpreadsheetEdit.EDIT_SIZE);
+        assertTrue(manager.getRetainedSize() <= manager.getMemoryBudget());
+
+        // Undoing the spilled edit restores the exact same cells.
+        manager.undo();
+        manager.undo();
+        assertEquals(ds.getVariable("small").getCells().size(), 1);
+        assertEquals(cellsOf(ds.getVariable("big")), expected);
+    }
+
+    @Test
+    public void testDropsOldEdits() throws Exception {
+        manager = new SpreadsheetUndoManager(0);
+
+        // The newest edit is kept whole, however small the budget.
+        RemoveVariableEdit oldEdit = removeVariable("big");
+        long full = oldEdit.getRetainedSize();
+        manager.addEdit(oldEdit);
+        assertSame(manager.getEdits()[0], oldEdit);
+        assertEquals(oldEdit.getRetainedSize(), full);
+
+        // Spilling the old edit is not enough, so it is dropped.
+        RemoveVariableEdit newEdit = removeVariable("small");
+        manager.addEdit(newEdit);
+        assertEquals(manager.getEdits().length, 1);
+        assertSame(manager.getEdits()[0], newEdit);
+        assertTrue(newEdit.getRetainedSize() > SpreadsheetEdit.EDIT_SIZE);
+
+        manager.undo();
+        assertEquals(ds.getVariable("small").getCells().size(), 1);
+        assertFalse(manager.canUndo());
+        assertNull(ds.getVariable("big"));
+    }
+
+    @Test
+    public void testFailedReadBackLeavesModel() throws Exception {
+        RemoveVariableEdit edit = removeVariable("big");
+        UndoSpillFile file = new UndoSpillFile();
+        try {
+            assertTrue(edit.spill(file));
+            file.truncate();
+
+            // The cells cannot be read back, so nothing is restored and the
+            // edit can still be undone.
+            try {
+                edit.undo();
+                fail("Expected the undo to fail");
+            } catch (CannotUndoException e) {
+                // Expected.
+            }
+            assertNull(ds.getVariable("big"));
+            assertTrue(edit.canUndo());
+            assertEquals(edit.getRetainedSize(), SpreadsheetEdit.EDIT_SIZE);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Removes a variable from the datastore, as deleting its column does.
+     *
+     * @param name The name of the variable to remove.
+     * @return The edit undoing the removal.
+     */
+    private RemoveVariableEdit removeVariable(final String name) {
+        Variable var = ds.getVariable(name);
+        RemoveVariableEdit edit = new RemoveVariableEdit(Arrays.asList(var));
+        ds.removeVariable(var);
+
+        return edit;
+    }
+
+    private static List<String> timesOf(final Variable var) {
+        List<String> times = new ArrayList<String>();
+        for (Cell c : var.getCellsTemporally()) {
+            times.add(c.getOnset() + "," + c.getOffset());
+        }
+
+        return times;
+    }
+
+    private static List<String> cellsOf(final Variable var) {
+        List<String> cells = new ArrayList<String>();
+        for (Cell c : var.getCellsTemporally()) {
+            cells.add(c.getOnset() + "," + c.getOffset() + "," + c.getValueAsString());
+        }
+
+        return cells;
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.util;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for the master clock.
+ */
+public class ClockTimerTest {
+
+    @Test
+    public void testMonotonicTime() throws Exception {
+        ClockTimer clock = new ClockTimer(1000);
+        clock.start();
+
+        long start = System.nanoTime();
+        long last = clock.getTime();
+        assertTrue(last >= 1000);
+        while (System.nanoTime() - start < 200000000L) {
+            long time = clock.getTime();
+            assertTrue(time >= last);
+            last = time;
+        }
+
+        // The clock runs at the pace of System.nanoTime().
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        assertTrue(last - 1000 <= elapsed + 1);
+        assertTrue(last - 1000 >= 150);
+    }
+
+    @Test
+    public void testStepWhileStopped() throws Exception {
+        ClockTimer clock = new ClockTimer(1000);
+        final List<Long> steps = new ArrayList<Long>();
+        clock.registerListener(new Steps(steps));
+
+        assertTrue(clock.isStopped());
+        clock.stepTime(500);
+        assertEquals(clock.getTime(), 1500);
+        clock.stepTime(-2000);
+        assertEquals(clock.getTime(), 0);
+        clock.setTime(250);
+        assertEquals(clock.getTime(), 250);
+
+        // Listeners are told of each step before it returns.
+        assertEquals(steps, Arrays.asList(1500L, 0L, 250L));
+
+        // A stopped clock stays put.
+        Thread.sleep(100);
+        assertEquals(clock.getTime(), 250);
+        assertTrue(clock.isStopped());
+    }
+
+    @Test
+    public void testRateChangeContinuity() throws Exception {
+        ClockTimer clock = new ClockTimer();
+        clock.start();
+        Thread.sleep(50);
+
+        // Changing the rate carries on from the current time.
+        long before = clock.getTime();
+        clock.setRate(4F);
+        long after = clock.getTime();
+        assertTrue(after >= before);
+        assertTrue(after - before < 20);
+
+        long start = System.nanoTime();
+        Thread.sleep(100);
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        long advanced = clock.getTime() - after;
+        assertTrue(advanced >= 4 * 100 - 4);
+        assertTrue(advanced <= 4 * (elapsed + 20));
+
+        // Stopping the clock holds it at the time it stopped.
+        clock.stop();
+        long stopped = clock.getTime();
+        Thread.sleep(50);
+        assertEquals(clock.getTime(), stopped);
+    }
+
+    /**
+     * Records the times the clock is stepped to.
+     */
+    private static final class Steps implements ClockTimer.ClockListener {
+
+        private final List<Long> steps;
+
+        Steps(final List<Long> steps) {
+            this.steps = steps;
+        }
+
+        @Override
+        public void clockTick(final long time) {
+        }
+
+        @Override
+        public void clockStart(final long time) {
+        }
+
+        @Override
+        public void clockStop(final long time) {
+        }
+
+        @Override
+        public void clockRate(final float rate) {
+        }
+
+        @Override
+        public void clockStep(final long time) {
+            steps.add(time);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.datavyu.views.discrete.layouts;
+
+import org.datavyu.models.db.Argument;
+import org.datavyu.models.db.Cell;
+import org.datavyu.models.db.Datastore;
+import org.datavyu.models.db.DatastoreFactory;
+import org.datavyu.models.db.UserWarningException;
+import org.datavyu.models.db.Variable;
+import org.testng.annotations.Test;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for the weak temporal layout, and the cells it shows near the view.
+ */
+public class SheetLayoutWeakTemporalTest {
+
+    /**
+     * The positions of the cells of each column after a layout.
+     */
+    private static final class Placement {
+        int[][] tops;
+        int[][] bottoms;
+        boolean[][] overlaps;
+        int[] columnHeights;
+        int height;
+
+        Placement(final Cell[][] columns) {
+            tops = new int[columns.length][];
+            bottoms = new int[columns.length][];
+            overlaps = new boolean[columns.length][];
+            columnHeights = new int[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                tops[c] = new int[columns[c].length];
+                bottoms[c] = new int[columns[c].length];
+                overlaps[c] = new boolean[columns[c].length];
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesPreviousLayout() throws UserWarningException {
+        Datastore ds = DatastoreFactory.newDatastore();
+
+        // Abutting, overlapping, stacked and point cells, and a cell left
+        // with the default offset.
+        Variable a = ds.createVariable("a", Argument.Type.TEXT);
+        addCell(a, 0, 1000);
+        addCell(a, 1000, 2000);
+        addCell(a, 2500, 4000);
+        addCell(a, 3000, 3500);
+        addCell(a, 5000, 6000);
+        addCell(a, 5000, 5500);
+        addCell(a, 7000, 7000);
+        addCell(a, 8000, 0);
+        addCell(a, 8000, 9000);
+        addCell(a, 9001, 9500);
+
+        // Long cells spanning several cells of the other column.
+        Variable b = ds.createVariable("b", Argument.Type.TEXT);
+        addCell(b, 500, 2500);
+        addCell(b, 2600, 2601);
+        addCell(b, 3000, 8000);
+        addCell(b, 3000, 3000);
+        addCell(b, 9000, 12000);
+
+        Cell[][] columns = new Cell[][]{
+                a.getCellsTemporally().toArray(new Cell[0]),
+                b.getCellsTemporally().toArray(new Cell[0])
+        };
+        int[][] heights = new int[columns.length][];
+        for (int c = 0; c < columns.length; c++) {
+            heights[c] = new int[columns[c].length];
+            for (int i = 0; i < columns[c].length; i++) {
+                heights[c][i] = 30 + 7 * ((i + c) % 4);
+            }
+        }
+
+        SheetLayoutWeakTemporal.Timeline timeline = new SheetLayoutWeakTemporal.Timeline(columns);
+        assertPlacedAlike(previousLayout(columns, heights), layout(timeline, columns, heights));
+
+        // A cell measuring differently only moves the cells below it.
+        heights[0][4] += 25;
+        heights[1][2] -= 10;
+        assertPlacedAlike(previousLayout(columns, heights), layout(timeline, columns, heights));
+    }
+
+    @Test
+    public void testOnlyNearCellsShown() throws UserWarningException {
+        Datastore ds = DatastoreFactory.newDatastore();
+
+        Variable a = ds.createVariable("a", Argument.Type.TEXT);
+        for (int i = 0; i < 200; i++) {
+            addCell(a, i * 1000, i * 1000 + 800);
+        }
+
+        // A long cell reaching into the view from far above it.
+        Variable b = ds.createVariable("b", Argument.Type.TEXT);
+        addCell(b, 0, 500);
+        addCell(b, 3000, 150000);
+        addCell(b, 190000, 191000);
+
+        Cell[][] columns = new Cell[][]{
+                a.getCellsTemporally().toArray(new Cell[0]),
+                b.getCellsTemporally().toArray(new Cell[0])
+        };
+        int[][] heights = new int[columns.length][];
+        for (int c = 0; c < columns.length; c++) {
+            heights[c] = new int[columns[c].length];
+            Arrays.fill(heights[c], 40);
+        }
+
+        Placement placed = layout(new SheetLayoutWeakTemporal.Timeline(columns), columns, heights);
+        Rectangle view = new Rectangle(0, placed.tops[0][100], 200, 400);
+        int shownTop = view.y - view.height;
+        int shownBottom = view.y + 2 * view.height;
+
+        for (int c = 0; c < columns.length; c++) {
+            int[] tops = placed.tops[c];
+            int[] bottoms = placed.bottoms[c];
+            int[] near = SheetLayout.getNearCells(tops, bottoms, view);
+
+            // Every cell in view is shown, and nothing beyond a view height
+            // of it.
+            int shown = 0;
+            for (int i = 0; i < tops.length; i++) {
+                boolean inView = bottoms[i] > view.y && tops[i] < (view.y + view.height);
+                boolean isNear = Arrays.binarySearch(near, i) >= 0;
+                if (inView) {
+                    assertTrue(isNear);
+                }
+                if (isNear) {
+                    assertTrue(bottoms[i] > shownTop && tops[i] < shownBottom);
+                    shown++;
+                }
+            }
+            assertEquals(near.length, shown);
+        }
+
+        int[] nearA = SheetLayout.getNearCells(placed.tops[0], placed.bottoms[0], view);
+        assertTrue(nearA.length > 0 && nearA.length < columns[0].length / 4);
+        int[] nearB = SheetLayout.getNearCells(placed.tops[1], placed.bottoms[1], view);
+        assertEquals(nearB.length, 1);
+        assertEquals(columns[1][nearB[0]].getOnset(), 3000);
+    }
+
+    private static void addCell(final Variable var, final long onset, final long offset) {
+        Cell cell = var.createCell();
+        cell.setOnset(onset);
+        cell.setOffset(offset);
+    }
+
+    private static Placement layout(final SheetLayoutWeakTemporal.Timeline timeline,
+                                    final Cell[][] columns,
+                                    final int[][] heights) {
+        Placement result = new Placement(columns);
+        timeline.place(heights);
+        result.height = timeline.getHeight();
+        for (int c = 0; c < columns.length; c++) {
+            result.columnHeights[c] = timeline.layColumn(c, result.tops[c],
+                    result.bottoms[c], result.overlaps[c]);
+        }
+
+        return result;
+    }
+
+    /**
+     * The layout as it was worked out before the timeline, with the cell
+     * bounds kept in arrays rather than set on each SpreadsheetCell.
+     */
+    private static Placement previousLayout(final Cell[][] columns, final int[][] heights) {
+        Placement result = new Placement(columns);
+        int gapSize = 10;
+
+        TreeSet<Long> times = new TreeSet<Long>();
+        Map<Long, List<int[]>> cellsByOnset = new HashMap<Long, List<int[]>>();
+        Map<Long, List<int[]>> cellsByOffset = new HashMap<Long, List<int[]>>();
+        for (int c = 0; c < columns.length; c++) {
+            for (int i = 0; i < columns[c].length; i++) {
+                long onset = columns[c][i].getOnset();
+                long offset = columns[c][i].getOffset();
+                if (!cellsByOnset.containsKey(onset)) {
+                    cellsByOnset.put(onset, new ArrayList<int[]>());
+                }
+                cellsByOnset.get(onset).add(new int[]{c, i});
+
+                if (offset <= onset) {
+                    offset = onset + 1;
+                }
+                if (!cellsByOffset.containsKey(offset)) {
+                    cellsByOffset.put(offset, new ArrayList<int[]>());
+                }
+                cellsByOffset.get(offset).add(new int[]{c, i});
+
+                times.add(onset);
+                times.add(offset);
+            }
+        }
+        Long[] timeArray = times.toArray(new Long[0]);
+
+        int maxPosition = 0;
+        Map<Long, Integer> timeByLoc = new HashMap<Long, Integer>();
+        for (Long time : timeArray) {
+            int minHeight = 0;
+            if (cellsByOnset.get(time) != null) {
+                for (int[] cell : cellsByOnset.get(time)) {
+                    minHeight = Math.max(minHeight, heights[cell[0]][cell[1]]);
+                }
+            }
+            timeByLoc.put(time, maxPosition);
+            maxPosition += minHeight;
+        }
+
+        for (int c = 0; c < columns.length; c++) {
+            for (int i = 0; i < columns[c].length - 1; i++) {
+                long onset = columns[c][i].getOnset();
+                long offset = columns[c][i].getOffset();
+                long nextOnset = columns[c][i + 1].getOnset();
+
+                if (nextOnset - offset > 1) {
+                    timeByLoc.put(nextOnset, timeByLoc.get(nextOnset) + gapSize);
+                    for (Long time : timeArray) {
+                        if (time > nextOnset) {
+                            timeByLoc.put(time, timeByLoc.get(time) + gapSize);
+                        }
+                    }
+                }
+
+                if (onset == nextOnset) {
+                    for (Long time : timeArray) {
+                        if (time > nextOnset) {
+                            timeByLoc.put(time, timeByLoc.get(time) + heights[c][i]);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (Long time : timeArray) {
+            if (cellsByOnset.get(time) != null) {
+                for (int[] cell : cellsByOnset.get(time)) {
+                    result.tops[cell[0]][cell[1]] = timeByLoc.get(time);
+                }
+            }
+            if (cellsByOffset.get(time) != null) {
+                for (int[] cell : cellsByOffset.get(time)) {
+                    result.bottoms[cell[0]][cell[1]] = timeByLoc.get(time);
+                }
+            }
+            result.height = Math.max(result.height, timeByLoc.get(time));
+        }
+
+        for (int c = 0; c < columns.length; c++) {
+            int n = columns[c].length;
+            int[] tops = result.tops[c];
+            int[] bottoms = result.bottoms[c];
+            if (n > 0) {
+                result.columnHeights[c] = bottoms[n - 1];
+            }
+
+            for (int i = 0; i < n - 1; i++) {
+                if (columns[c][i].getOffset() > columns[c][i + 1].getOnset()) {
+                    bottoms[i] = tops[i + 1];
+                    result.overlaps[c][i] = true;
+                }
+
+                if (columns[c][i].getOnset() == columns[c][i + 1].getOnset()) {
+                    bottoms[i] = tops[i] + heights[c][i];
+                    tops[i + 1] = bottoms[i];
+                    bottoms[i + 1] = tops[i + 1] + heights[c][i + 1];
+                    result.columnHeights[c] = Math.max(result.columnHeights[c], bottoms[i + 1]);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static void assertPlacedAlike(final Placement expected, final Placement actual) {
+        assertEquals(expected.height, actual.height);
+        for (int c = 0; c < expected.tops.length; c++) {
+            assertEquals(expected.columnHeights[c], actual.columnHeights[c]);
+            for (int i = 0; i < expected.tops[c].length; i++) {
+                assertEquals(expected.tops[c][i], actual.tops[c][i]);
+                assertEquals(expected.bottoms[c][i], actual.bottoms[c][i]);
+                assertEquals(expected.overlaps[c][i], actual.overlaps[c][i]);
+            }
+        }
+    }
+}